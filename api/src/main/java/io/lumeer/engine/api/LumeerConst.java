@@ -39,6 +39,13 @@ public final class LumeerConst {
    public static final String DB_PASSWORD_PROPERTY = "db_passwd";
    public static final String DB_USE_SSL = "db_ssl";
 
+   public static final String DB_POOL_MAX_SIZE_PROPERTY = "db_pool_max_size";
+   public static final String DB_POOL_MIN_SIZE_PROPERTY = "db_pool_min_size";
+   public static final String DB_POOL_WAIT_QUEUE_MULTIPLIER_PROPERTY = "db_pool_wait_queue_multiplier";
+   public static final String DB_POOL_MAX_WAIT_TIME_PROPERTY = "db_pool_max_wait_time";
+   public static final String DB_POOL_MAX_IDLE_TIME_PROPERTY = "db_pool_max_idle_time";
+   public static final String DB_CONNECT_TIMEOUT_PROPERTY = "db_connect_timeout";
+
    public static final String SYSTEM_DB_HOST_PROPERTY = "sys_db_host";
    public static final String SYSTEM_DB_PORT_PROPERTY = "sys_db_port";
    public static final String SYSTEM_DB_NAME_PROPERTY = "sys_db_name";
@@ -49,6 +56,31 @@ public final class LumeerConst {
    public static final String USER_LOCALE_PROPERTY = "locale";
 
    public static final String DEFAULT_LIMIT_PROPERTY = "result_limit";
+   public static final String SEARCH_BATCH_SIZE_PROPERTY = "search_batch_size";
+   public static final String QUERY_PARALLELISM_PROPERTY = "query_parallelism";
+   public static final String QUERY_TIMEOUT_PROPERTY = "query_timeout";
+   public static final String SLOW_QUERY_THRESHOLD_PROPERTY = "slow_query_threshold"; // in milliseconds
+
+   public static final String INDEX_ADVISOR_MODE_PROPERTY = "index_advisor_mode"; // off, suggest or auto
+   public static final String INDEX_ADVISOR_BUDGET_PROPERTY = "index_advisor_budget"; // indexes per collection
+   public static final String INDEX_ADVISOR_MIN_USES_PROPERTY = "index_advisor_min_uses";
+   public static final String INDEX_ADVISOR_UNUSED_PERIOD_PROPERTY = "index_advisor_unused_period"; // in days
+
+   public static final String VERSION_HISTORY_MODE_PROPERTY = "version_history_mode";
+   public static final String VERSION_SNAPSHOT_INTERVAL_PROPERTY = "version_snapshot_interval";
+   public static final String VERSION_MAX_COUNT_PROPERTY = "version_max_count";
+   public static final String VERSION_MAX_AGE_PROPERTY = "version_max_age"; // in days
+
+   public static final String TASK_PARALLELISM_PROPERTY = "task_parallelism";
+   public static final String BATCH_PARALLELISM_PROPERTY = "batch_parallelism";
+
+   public static final String PUSH_NOTIFICATION_WINDOW_PROPERTY = "push_notification_window"; // in milliseconds
+   public static final String PUSH_NOTIFICATION_THRESHOLD_PROPERTY = "push_notification_threshold";
+   public static final String PUSH_BUS_PROPERTY = "push_bus"; // local or jms
+   public static final String PUSH_BUS_CONNECTION_FACTORY_PROPERTY = "push_bus_connection_factory";
+   public static final String PUSH_BUS_TOPIC_PROPERTY = "push_bus_topic";
+   public static final String PUSH_BUS_USER_PROPERTY = "push_bus_user";
+   public static final String PUSH_BUS_PASSWORD_PROPERTY = "push_bus_password";
 
    private LumeerConst() {
       // we do not want any instances to be created
@@ -106,6 +138,7 @@ public final class LumeerConst {
       public static final String VIEW_TYPE_KEY = "type";
       public static final String VIEW_TYPE_DEFAULT_VALUE = "default";
       public static final String VIEW_CONFIGURATION_KEY = "configuration";
+      public static final String VIEW_CONFIGURATION_QUERY_KEY = "query";
 
       public static final String VIEW_USER_RIGHTS_KEY = Document.USER_RIGHTS;
       //public static final String VIEW_GROUP_RIGHTS_KEY = "group-rights";
@@ -174,9 +207,44 @@ public final class LumeerConst {
       public static final String COLLECTION_CUSTOM_META_TYPE_VALUE = "custom";
    }
 
+   public static class Version {
+      public static final String HISTORY_MODE_FULL = "full";
+      public static final String HISTORY_MODE_DELTA = "delta";
+
+      public static final String HISTORY_PREFIX = "_history-";
+      public static final String HISTORY_DELTA_KEY = HISTORY_PREFIX + "delta"; // present only in delta entries of shadow collection
+      public static final String HISTORY_SET_KEY = HISTORY_PREFIX + "set";
+      public static final String HISTORY_UNSET_KEY = HISTORY_PREFIX + "unset";
+      public static final String HISTORY_DATE_KEY = HISTORY_PREFIX + "date";
+      public static final List<String> HISTORY_KEYS = Arrays.asList(HISTORY_DELTA_KEY, HISTORY_SET_KEY, HISTORY_UNSET_KEY, HISTORY_DATE_KEY);
+   }
+
+   public static class Task {
+      public static final String COLLECTION_NAME = "_tasks";
+
+      public static final String TYPE_KEY = "type";
+      public static final String STATE_KEY = "state";
+      public static final String OWNER_KEY = "owner";
+      public static final String OWNER_ROLES_KEY = "owner-roles"; // roles of the owner when the task was submitted
+      public static final String BATCH_KEY = "batch";
+      public static final String PROCESSED_KEY = "processed";
+      public static final String TOTAL_KEY = "total";
+      public static final String CHECKPOINT_KEY = "checkpoint"; // id of the last processed document
+      public static final String ERROR_KEY = "error";
+      public static final String NODE_KEY = "node"; // id of the node running the task
+      public static final String LEASE_KEY = "lease"; // time in milliseconds until which the node owns the task
+      public static final String CANCEL_KEY = "cancel"; // true when the task was asked to stop
+      public static final String CREATE_DATE_KEY = "create-date";
+      public static final String UPDATE_DATE_KEY = "update-date";
+
+      public static final String TYPE_MERGE = "merge";
+      public static final String TYPE_SPLIT = "split";
+   }
+
    public static class Security {
       public static final String RULE = "rule";
       public static final String USER_ID = "user_email";
+      public static final String GROUP_ID = "group_name";
 
       public static final int READ = 4;
       public static final int WRITE = 2;
@@ -19,12 +19,14 @@
  */
 package io.lumeer.engine.api.batch;
 
+import java.io.Serializable;
+
 /**
  * Represents batch database operation.
  *
  * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
  */
-public interface Batch {
+public interface Batch extends Serializable {
 
    String getCollectionName();
 
@@ -0,0 +1,43 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) since 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.api.batch;
+
+/**
+ * Receives progress of a running batch and decides whether the batch goes on.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+@FunctionalInterface
+public interface BatchProgressListener {
+
+   /**
+    * Called after every processed chunk of documents.
+    *
+    * @param lastDocumentId
+    *       id of the last processed document, the batch can be resumed after it
+    * @param processedDocuments
+    *       number of documents processed so far
+    * @param totalDocuments
+    *       number of documents in the collection when the batch started
+    * @return false to stop the batch, true to continue
+    */
+   boolean onProgress(String lastDocumentId, long processedDocuments, long totalDocuments);
+
+}
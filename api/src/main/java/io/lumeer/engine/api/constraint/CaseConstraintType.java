@@ -40,7 +40,7 @@ public class CaseConstraintType implements ConstraintType {
    private static final String FIRST_UPPER_CASE = "firstUpper";
    private static final String FIRST_LOWER_CASE = "firstLower";
 
-   private Locale locale;
+   private Locale locale = Locale.getDefault();
 
    @Override
    public Set<String> getRegisteredPrefixes() {
@@ -51,27 +51,29 @@ public class CaseConstraintType implements ConstraintType {
    public Constraint parseConstraint(final String constraintConfiguration) throws InvalidConstraintException {
       final String[] config = constraintConfiguration.split(":", 2);
 
+      final Locale constraintLocale = locale;
+
       if (config.length == 2 && CONSTRAINT_PREFIX.equals(config[0])) {
          switch (config[1]) {
             case LOWER_CASE:
                return new FixingFunctionConstraint(
-                     value -> value != null && value.toLowerCase(locale).equals(value),
-                     value -> value.toLowerCase(locale),
+                     value -> value != null && value.toLowerCase(constraintLocale).equals(value),
+                     value -> value.toLowerCase(constraintLocale),
                      constraintConfiguration);
             case UPPER_CASE:
                return new FixingFunctionConstraint(
-                     value -> value != null && value.toUpperCase(locale).equals(value),
-                     value -> value.toUpperCase(locale),
+                     value -> value != null && value.toUpperCase(constraintLocale).equals(value),
+                     value -> value.toUpperCase(constraintLocale),
                      constraintConfiguration);
             case FIRST_LOWER_CASE:
                return new FixingFunctionConstraint(
-                     value -> value != null && (value.substring(0, 1).toLowerCase(locale) + value.substring(1)).equals(value),
-                     value -> value.substring(0, 1).toLowerCase(locale) + value.substring(1),
+                     value -> value != null && (value.substring(0, 1).toLowerCase(constraintLocale) + value.substring(1)).equals(value),
+                     value -> value.substring(0, 1).toLowerCase(constraintLocale) + value.substring(1),
                      constraintConfiguration);
             case FIRST_UPPER_CASE:
                return new FixingFunctionConstraint(
-                     value -> value != null && (value.substring(0, 1).toUpperCase(locale) + value.substring(1)).equals(value),
-                     value -> value.substring(0, 1).toUpperCase(locale) + value.substring(1),
+                     value -> value != null && (value.substring(0, 1).toUpperCase(constraintLocale) + value.substring(1)).equals(value),
+                     value -> value.substring(0, 1).toUpperCase(constraintLocale) + value.substring(1),
                      constraintConfiguration);
             default:
                throw new InvalidConstraintException("Unsupported parameter value for constraint 'case': " + config[1]);
@@ -21,6 +21,7 @@ package io.lumeer.engine.api.constraint;
 
 /**
  * A configured instance of a certain {@link ConstraintType} that verifies the concrete value.
+ * Constraints are immutable, they are bound to the locale they were parsed with and can be shared among threads.
  *
  * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
  */
@@ -32,6 +32,8 @@ import java.util.stream.Collectors;
 
 /**
  * Holds a list of constraints that can be obtained from a list of string configurations.
+ * Every manager has its own constraint types so that changing the locale of one manager does not affect the others.
+ * Once configured, the manager can be used to validate values from multiple threads.
  *
  * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
  */
@@ -40,12 +42,12 @@ public class ConstraintManager {
    /**
     * Locale that will be passed to all constraints.
     */
-   private Locale locale;
+   private Locale locale = Locale.getDefault();
 
    /**
     * Configured constraints.
     */
-   private List<Constraint> constraints;
+   private List<Constraint> constraints = new ArrayList<>();
 
    /**
     * Registry of constraint types.
@@ -53,11 +55,11 @@ public class ConstraintManager {
    private Map<String, ConstraintType> registry = new HashMap<>();
 
    /**
-    * List of all constraint type classes.
+    * List of all constraint types of this manager.
     */
-   private static final ConstraintType[] CONSTRAINT_CLASSES = {
+   private final List<ConstraintType> constraintTypes = Arrays.asList(
          new NumberConstraintType(), new CaseConstraintType(), new ListConstraintType(), new MatchesConstraintType(), new DateTimeConstraintType()
-   };
+   );
 
    /**
     * Initializes an empty constraint manager.
@@ -68,7 +70,7 @@ public class ConstraintManager {
    public ConstraintManager() throws InvalidConstraintException {
       final List<String> collisions = new ArrayList<>();
 
-      for (final ConstraintType type : CONSTRAINT_CLASSES) {
+      for (final ConstraintType type : constraintTypes) {
          type.getRegisteredPrefixes().forEach(prefix -> {
             if (registry.containsKey(prefix)) {
                collisions.add(prefix);
@@ -83,6 +85,19 @@ public class ConstraintManager {
       }
    }
 
+   /**
+    * Initializes an empty constraint manager using the given locale.
+    *
+    * @param locale
+    *       Locale of the constraints.
+    * @throws InvalidConstraintException
+    *       When there are multiple constraints asking to be registered with the same configuration prefix.
+    */
+   public ConstraintManager(final Locale locale) throws InvalidConstraintException {
+      this();
+      setLocale(locale);
+   }
+
    /**
     * Creates a new manager with the constraints whose configurations are provided.
     *
@@ -96,6 +111,21 @@ public class ConstraintManager {
       constraints = parseConstraints(constraintConfigurations);
    }
 
+   /**
+    * Creates a new manager with the constraints whose configurations are provided, parsed with the given locale.
+    *
+    * @param constraintConfigurations
+    *       Configurations of constraints.
+    * @param locale
+    *       Locale of the constraints.
+    * @throws InvalidConstraintException
+    *       When it was not possible to parse constraint configuration.
+    */
+   public ConstraintManager(final List<String> constraintConfigurations, final Locale locale) throws InvalidConstraintException {
+      this(locale);
+      constraints = parseConstraints(constraintConfigurations);
+   }
+
    /**
     * Registers another constraint.
     *
@@ -196,7 +226,7 @@ public class ConstraintManager {
                used.add(c);
 
                if (fixed != null) {
-                  return tryToFix(used, c.fix(value)); // try the next round
+                  return tryToFix(used, fixed); // try the next round
                } else {
                   return null;
                }
@@ -280,6 +310,15 @@ public class ConstraintManager {
     */
    public void setLocale(final Locale locale) {
       this.locale = locale;
-      Arrays.asList(CONSTRAINT_CLASSES).forEach(ct -> ct.setLocale(locale));
+      constraintTypes.forEach(ct -> ct.setLocale(locale));
+
+      // constraints are bound to the locale they were parsed with
+      if (!constraints.isEmpty()) {
+         try {
+            constraints = parseConstraints(getConstraintConfigurations());
+         } catch (InvalidConstraintException e) {
+            // the configurations were valid before, keep the original constraints
+         }
+      }
    }
 }
@@ -61,7 +61,8 @@ public interface ConstraintType {
    Set<String> getParameterSuggestions(final String prefix);
 
    /**
-    * Sets locale that needs to be respected by all constraints of this type.
+    * Sets locale that needs to be respected by all constraints of this type parsed from now on.
+    * Already parsed constraints keep the locale they were created with.
     *
     * @param locale
     *       Locale to set.
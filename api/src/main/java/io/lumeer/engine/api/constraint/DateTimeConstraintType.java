@@ -19,9 +19,11 @@
  */
 package io.lumeer.engine.api.constraint;
 
-import java.text.DateFormat;
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoField;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
@@ -31,6 +33,8 @@ import java.util.stream.Collectors;
 
 /**
  * Allows use of any date time format pattern as specified by {@link SimpleDateFormat}.
+ * Patterns are translated to immutable {@link DateTimeFormatter} bound to the locale the constraint was created with,
+ * so the constraints can be evaluated concurrently.
  *
  * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
  */
@@ -41,7 +45,7 @@ public class DateTimeConstraintType implements ConstraintType {
          "yyMMddHHmmssZ", "yyyy-MM-dd'T'HH:mm:ss.SSSZ", "yyyy-MM-dd'T'HH:mm:ss.SSSXXX", "YYYY-'W'ww-u"));
    final static private Set<String> REGISTERED = new HashSet<>(Arrays.asList("date", "dateTime", "time"));
 
-   private Locale locale;
+   private Locale locale = Locale.getDefault();
 
    @Override
    public Set<String> getRegisteredPrefixes() {
@@ -54,13 +58,15 @@ public class DateTimeConstraintType implements ConstraintType {
 
       if (config.length == 2) {
          try {
-            final DateFormat format = new SimpleDateFormat(config[1], locale);
+            final DateTimeFormatterBuilder builder = new DateTimeFormatterBuilder().parseCaseInsensitive();
+            appendPattern(builder, config[1]);
+            final DateTimeFormatter formatter = builder.toFormatter(locale);
 
             return new FunctionConstraint(value -> {
                try {
-                  format.parse(value.trim());
+                  formatter.parse(value.trim());
                   return true;
-               } catch (ParseException pe) {
+               } catch (DateTimeParseException pe) {
                   return false;
                }
             }, constraintConfiguration);
@@ -107,4 +113,73 @@ public class DateTimeConstraintType implements ConstraintType {
 
       return constraints;
    }
+
+   /**
+    * Translates {@link SimpleDateFormat} pattern to the equivalent {@link DateTimeFormatter} pattern and appends it to the builder.
+    * Quoted text is kept as is, the letters with different meaning or length limits are replaced. The day number of week
+    * has no locale independent letter, so it is appended as the ISO day of week field.
+    *
+    * @param builder
+    *       Builder to append the pattern to.
+    * @param pattern
+    *       Pattern in the {@link SimpleDateFormat} syntax.
+    */
+   private static void appendPattern(final DateTimeFormatterBuilder builder, final String pattern) {
+      final StringBuilder sb = new StringBuilder(pattern.length());
+      boolean quoted = false;
+      int i = 0;
+
+      while (i < pattern.length()) {
+         final char c = pattern.charAt(i);
+
+         if (c == '\'') {
+            quoted = !quoted;
+            sb.append(c);
+            i++;
+            continue;
+         }
+
+         if (quoted || !Character.isLetter(c)) {
+            sb.append(c);
+            i++;
+            continue;
+         }
+
+         int count = 1;
+         while (i + count < pattern.length() && pattern.charAt(i + count) == c) {
+            count++;
+         }
+         i += count;
+
+         switch (c) {
+            case 'a': // am/pm marker allows a single letter only
+               sb.append('a');
+               break;
+            case 'M':
+            case 'L':
+            case 'E': // five letters mean the narrow form, full text in SimpleDateFormat
+               appendLetters(sb, c, Math.min(count, 4));
+               break;
+            case 'u': // day number of week, 1 is Monday regardless of the locale
+               builder.appendPattern(sb.toString());
+               sb.setLength(0);
+               if (count == 1) {
+                  builder.appendValue(ChronoField.DAY_OF_WEEK);
+               } else {
+                  builder.appendValue(ChronoField.DAY_OF_WEEK, count);
+               }
+               break;
+            default:
+               appendLetters(sb, c, count);
+         }
+      }
+
+      builder.appendPattern(sb.toString());
+   }
+
+   private static void appendLetters(final StringBuilder sb, final char letter, final int count) {
+      for (int i = 0; i < count; i++) {
+         sb.append(letter);
+      }
+   }
 }
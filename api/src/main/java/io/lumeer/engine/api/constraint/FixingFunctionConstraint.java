@@ -20,27 +20,28 @@
 package io.lumeer.engine.api.constraint;
 
 import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
- * Constraint based on asses and fixing {@link Function}.
+ * Constraint based on asses {@link Predicate} and fixing {@link Function}.
  *
  * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
  */
 public class FixingFunctionConstraint extends FunctionConstraint {
 
-   private Function<String, String> fixFunction;
+   private final Function<String, String> fixFunction;
 
    /**
     * Gets a new instance of constraint that is defined by the provided function.
     *
     * @param assesFunction
-    *       Function that returns true for valid values and false otherwise.
+    *       Predicate that returns true for valid values and false otherwise.
     * @param fixFunction
     *       Function that can fix the value. Return null if and only if the value cannot be fixed.
     * @param configuration
     *       Original constraint configuration to be able to throw user friendly exceptions.
     */
-   protected FixingFunctionConstraint(final Function<String, Boolean> assesFunction, final Function<String, String> fixFunction, final String configuration) {
+   protected FixingFunctionConstraint(final Predicate<String> assesFunction, final Function<String, String> fixFunction, final String configuration) {
       super(assesFunction, configuration);
 
       this.fixFunction = fixFunction;
@@ -19,16 +19,17 @@
  */
 package io.lumeer.engine.api.constraint;
 
-import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
- * Constraint based on any {@link java.util.function.Function} provided in constructor.
+ * Constraint based on any {@link java.util.function.Predicate} provided in constructor.
+ * The predicate must not depend on any mutable state so that the constraint can be evaluated concurrently.
  *
  * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
  */
 public class FunctionConstraint implements Constraint {
 
-   private final Function<String, Boolean> assesFunction;
+   private final Predicate<String> assesFunction;
 
    private final String configuration;
 
@@ -36,18 +37,18 @@ public class FunctionConstraint implements Constraint {
     * Gets a new instance of constraint that is defined by the provided function.
     *
     * @param assesFunction
-    *       Function that returns true for valid values and false otherwise.
+    *       Predicate that returns true for valid values and false otherwise.
     * @param configuration
     *       Original constraint configuration to be able to throw user friendly exceptions.
     */
-   protected FunctionConstraint(final Function<String, Boolean> assesFunction, final String configuration) {
+   protected FunctionConstraint(final Predicate<String> assesFunction, final String configuration) {
       this.assesFunction = assesFunction;
       this.configuration = configuration;
    }
 
    @Override
    public ConstraintResult isValid(final String value) {
-      return assesFunction.apply(value) ? ConstraintResult.VALID : ConstraintResult.INVALID;
+      return assesFunction.test(value) ? ConstraintResult.VALID : ConstraintResult.INVALID;
    }
 
    @Override
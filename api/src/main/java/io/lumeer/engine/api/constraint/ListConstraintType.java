@@ -45,22 +45,24 @@ public class ListConstraintType implements ConstraintType {
    public Constraint parseConstraint(final String constraintConfiguration) throws InvalidConstraintException {
       final String[] config = constraintConfiguration.split(":", 2);
 
+      final Locale constraintLocale = locale;
+
       if (config.length == 2) {
          final Set<String> options = new HashSet<>();
          final Set<String> optionsLowerCase = new HashSet<>();
 
          Arrays.asList(config[1].split(",")).stream().map(String::trim).forEach(o -> {
             options.add(o);
-            optionsLowerCase.add(o.toLowerCase(locale));
+            optionsLowerCase.add(o.toLowerCase(constraintLocale));
          });
 
          switch (config[0]) {
             case ONE_OF_TYPE:
                return new FixingFunctionConstraint(value -> options.contains(value), value -> {
                   // find the option with correct case
-                  if (optionsLowerCase.contains(value.toLowerCase(locale))) {
+                  if (optionsLowerCase.contains(value.toLowerCase(constraintLocale))) {
                      for (final String opt : options) {
-                        if (opt.toLowerCase(locale).equals(value.toLowerCase(locale))) {
+                        if (opt.toLowerCase(constraintLocale).equals(value.toLowerCase(constraintLocale))) {
                            return opt;
                         }
                      }
@@ -74,7 +76,7 @@ public class ListConstraintType implements ConstraintType {
                      value -> {
                         // filter all tags and find their matches with correct case
                         final Set<String> tags = Arrays.asList(value.split(",")).stream().map(String::trim).collect(Collectors.toSet());
-                        final Set<String> tagsLowerCase = tags.stream().map(s -> s.toLowerCase(locale)).collect(Collectors.toSet());
+                        final Set<String> tagsLowerCase = tags.stream().map(s -> s.toLowerCase(constraintLocale)).collect(Collectors.toSet());
                         final Set<String> result = new HashSet<>();
 
                         if (optionsLowerCase.containsAll(tagsLowerCase)) {
@@ -82,7 +84,7 @@ public class ListConstraintType implements ConstraintType {
                               boolean found = false;
 
                               for (final String opt : options) {
-                                 if (opt.toLowerCase(locale).equals(tag.toLowerCase(locale))) {
+                                 if (opt.toLowerCase(constraintLocale).equals(tag.toLowerCase(constraintLocale))) {
                                     found = true;
                                     result.add(opt);
                                     break;
@@ -0,0 +1,196 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.api.constraint;
+
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Immutable and thread-safe parser of numbers written according to the given locale.
+ * Spaces and grouping separators in the integer part are ignored, the whole value must form a number.
+ * Parsing does not allocate any objects unless the number has more significant digits than fit in a long.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+final class LocaleNumberParser {
+
+   private static final double[] POWERS_OF_TEN = {
+         1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+         1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+   };
+
+   private static final int MAX_LONG_DIGITS = 18;
+
+   private final char decimalSeparator;
+   private final char groupingSeparator;
+   private final char minusSign;
+   private final char zeroDigit;
+
+   /**
+    * Creates a parser respecting number symbols of the given locale.
+    *
+    * @param locale
+    *       Locale of the parsed values.
+    */
+   LocaleNumberParser(final Locale locale) {
+      final DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
+
+      this.decimalSeparator = symbols.getDecimalSeparator();
+      this.groupingSeparator = symbols.getGroupingSeparator();
+      this.minusSign = symbols.getMinusSign();
+      this.zeroDigit = symbols.getZeroDigit();
+   }
+
+   /**
+    * Checks whether the value is a number.
+    *
+    * @param value
+    *       The value to check.
+    * @return True if and only if the value is a number.
+    */
+   boolean isNumber(final String value) {
+      return !Double.isNaN(parse(value, false));
+   }
+
+   /**
+    * Checks whether the value is an integer number.
+    *
+    * @param value
+    *       The value to check.
+    * @return True if and only if the value is an integer number.
+    */
+   boolean isInteger(final String value) {
+      return !Double.isNaN(parse(value, true));
+   }
+
+   /**
+    * Parses the value.
+    *
+    * @param value
+    *       The value to parse.
+    * @return The parsed number or {@link Double#NaN} when the value is not a number.
+    */
+   double parse(final String value) {
+      return parse(value, false);
+   }
+
+   private double parse(final String value, final boolean integerOnly) {
+      if (value == null) {
+         return Double.NaN;
+      }
+
+      final int length = value.length();
+      boolean negative = false;
+      boolean signAllowed = true;
+      boolean fraction = false;
+      boolean overflow = false;
+      int digits = 0;
+      int significantDigits = 0;
+      int fractionDigits = 0;
+      long mantissa = 0;
+
+      for (int i = 0; i < length; i++) {
+         final char c = value.charAt(i);
+         final int digit = toDigit(c);
+
+         if (digit >= 0) {
+            digits++;
+            signAllowed = false;
+
+            if (mantissa != 0 || digit != 0) {
+               significantDigits++;
+            }
+
+            if (significantDigits > MAX_LONG_DIGITS) {
+               overflow = true;
+            } else {
+               mantissa = mantissa * 10 + digit;
+               if (fraction) {
+                  fractionDigits++;
+               }
+            }
+         } else if (isSpace(c)) {
+            // spaces are allowed anywhere, e.g. as thousands separators
+         } else if (signAllowed && (c == '-' || c == minusSign || c == '+')) {
+            negative = c != '+';
+            signAllowed = false;
+         } else if (!fraction && c == decimalSeparator && !integerOnly) {
+            fraction = true;
+            signAllowed = false;
+         } else if (!fraction && c == groupingSeparator && digits > 0) {
+            // grouping separators are allowed only in the integer part
+         } else {
+            return Double.NaN;
+         }
+      }
+
+      if (digits == 0) {
+         return Double.NaN;
+      }
+
+      if (overflow || fractionDigits >= POWERS_OF_TEN.length) {
+         return parseSlow(value, negative);
+      }
+
+      final double result = fractionDigits == 0 ? mantissa : mantissa / POWERS_OF_TEN[fractionDigits];
+
+      return negative ? -result : result;
+   }
+
+   // handles numbers that do not fit into a long mantissa, the value was already validated
+   private double parseSlow(final String value, final boolean negative) {
+      final StringBuilder sb = new StringBuilder(value.length() + 1);
+      boolean fraction = false;
+
+      if (negative) {
+         sb.append('-');
+      }
+
+      for (int i = 0; i < value.length(); i++) {
+         final char c = value.charAt(i);
+         final int digit = toDigit(c);
+
+         if (digit >= 0) {
+            sb.append((char) ('0' + digit));
+         } else if (!fraction && c == decimalSeparator) {
+            fraction = true;
+            sb.append('.');
+         }
+      }
+
+      return Double.parseDouble(sb.toString());
+   }
+
+   private int toDigit(final char c) {
+      if (c >= '0' && c <= '9') {
+         return c - '0';
+      }
+
+      if (c >= zeroDigit && c <= zeroDigit + 9) {
+         return c - zeroDigit;
+      }
+
+      return -1;
+   }
+
+   private static boolean isSpace(final char c) {
+      return c == ' ' || c == '\u00a0' || c == '\u202f';
+   }
+}
@@ -19,8 +19,6 @@
  */
 package io.lumeer.engine.api.constraint;
 
-import java.text.NumberFormat;
-import java.text.ParseException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -30,10 +28,10 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.LongAdder;
-import java.util.function.Function;
 
 /**
- * Various constraints on numbers.
+ * Various constraints on numbers. Values are parsed by an immutable parser bound to the locale
+ * the constraint was created with, so the constraints can be evaluated concurrently.
  *
  * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
  */
@@ -48,14 +46,9 @@ public class NumberConstraintType implements ConstraintType {
    private static final String EQUALS = "equals";
 
    /**
-    * Number format respecting given locale.
+    * Number parser respecting given locale.
     */
-   private NumberFormat numberFormat = NumberFormat.getNumberInstance();
-   private NumberFormat integerNumberFormat = NumberFormat.getNumberInstance();
-
-   public NumberConstraintType() {
-      integerNumberFormat.setParseIntegerOnly(true);
-   }
+   private LocaleNumberParser numberParser = new LocaleNumberParser(Locale.getDefault());
 
    @Override
    public Set<String> getRegisteredPrefixes() {
@@ -68,71 +61,28 @@ public class NumberConstraintType implements ConstraintType {
    @Override
    public Constraint parseConstraint(final String constraintConfiguration) throws InvalidConstraintException {
       final String[] config = constraintConfiguration.split(":", 2);
+      final LocaleNumberParser parser = numberParser;
 
       switch (config[0]) {
          case IS_NUMBER:
-            return new FunctionConstraint((value -> {
-               try {
-                  numberFormat.parse(value.replaceAll(" ", ""));
-                  return true;
-               } catch (ParseException pe) {
-                  return false;
-               }
-            }), constraintConfiguration);
+            return new FunctionConstraint(parser::isNumber, constraintConfiguration);
          case IS_INTEGER:
-            return new FunctionConstraint((value -> {
-               try {
-                  integerNumberFormat.parse(value.replaceAll(" ", "")).intValue();
-                  return true;
-               } catch (ParseException pe) {
-                  return false;
-               }
-            }), constraintConfiguration);
+            return new FunctionConstraint(parser::isInteger, constraintConfiguration);
          case LESS_THAN:
             final double ltParam = checkParameter(config, constraintConfiguration);
-            return new FunctionConstraint((value -> {
-               try {
-                  return numberFormat.parse(value.replaceAll(" ", "")).doubleValue() < ltParam;
-               } catch (ParseException pe) {
-                  return false;
-               }
-            }), constraintConfiguration);
+            return new FunctionConstraint(value -> parser.parse(value) < ltParam, constraintConfiguration);
          case GREATER_THAN:
             final double gtParam = checkParameter(config, constraintConfiguration);
-            return new FunctionConstraint((value -> {
-               try {
-                  return numberFormat.parse(value.replaceAll(" ", "")).doubleValue() > gtParam;
-               } catch (ParseException pe) {
-                  return false;
-               }
-            }), constraintConfiguration);
+            return new FunctionConstraint(value -> parser.parse(value) > gtParam, constraintConfiguration);
          case GREATER_OR_EQUALS:
             final double gteParam = checkParameter(config, constraintConfiguration);
-            return new FunctionConstraint((value -> {
-               try {
-                  return numberFormat.parse(value.replaceAll(" ", "")).doubleValue() >= gteParam;
-               } catch (ParseException pe) {
-                  return false;
-               }
-            }), constraintConfiguration);
+            return new FunctionConstraint(value -> parser.parse(value) >= gteParam, constraintConfiguration);
          case LESS_OR_EQUALS:
             final double lteParam = checkParameter(config, constraintConfiguration);
-            return new FunctionConstraint((value -> {
-               try {
-                  return numberFormat.parse(value.replaceAll(" ", "")).doubleValue() <= lteParam;
-               } catch (ParseException pe) {
-                  return false;
-               }
-            }), constraintConfiguration);
+            return new FunctionConstraint(value -> parser.parse(value) <= lteParam, constraintConfiguration);
          case EQUALS:
             final double eqParam = checkParameter(config, constraintConfiguration);
-            return new FunctionConstraint((value -> {
-               try {
-                  return numberFormat.parse(value.replaceAll(" ", "")).doubleValue() == eqParam;
-               } catch (ParseException pe) {
-                  return false;
-               }
-            }), constraintConfiguration);
+            return new FunctionConstraint(value -> parser.parse(value) == eqParam, constraintConfiguration);
          default:
             throw new InvalidConstraintException("Unable to parse constraint configuration: " + constraintConfiguration);
       }
@@ -159,7 +109,7 @@ public class NumberConstraintType implements ConstraintType {
 
    @Override
    public void setLocale(final Locale locale) {
-      numberFormat = NumberFormat.getInstance(locale);
+      numberParser = new LocaleNumberParser(locale);
    }
 
    @Override
@@ -171,21 +121,19 @@ public class NumberConstraintType implements ConstraintType {
       stats.put("min", Double.MAX_VALUE);
       stats.put("max", -Double.MAX_VALUE);
 
+      final LocaleNumberParser parser = numberParser;
+
       values.forEach(s -> {
-         try {
-            double d = numberFormat.parse(s.replaceAll(" ", "")).doubleValue();
+         final double d = parser.parse(s);
+
+         if (!Double.isNaN(d)) {
             numbers.increment();
             stats.put("min", Math.min(d, stats.get("min")));
             stats.put("max", Math.min(d, stats.get("max")));
-         } catch (ParseException pe) {
-            // nps
          }
 
-         try {
-            integerNumberFormat.parse(s.replaceAll(" ", "")).intValue();
+         if (parser.isInteger(s)) {
             integers.increment();
-         } catch (ParseException pe) {
-            // nps
          }
       });
 
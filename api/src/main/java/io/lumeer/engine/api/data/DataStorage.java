@@ -27,6 +27,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Stream;
 
 /**
  * Represents a data storage.
@@ -108,6 +109,17 @@ public interface DataStorage extends Serializable {
     */
    String createDocument(final String collectionName, final DataDocument document);
 
+   /**
+    * Creates and inserts new documents to specified collection in a single batch.
+    *
+    * @param collectionName
+    *       the name of the collection where the documents will be created
+    * @param documents
+    *       the DataDocument objects representing documents to be created
+    * @return the ids of the newly created documents in the order of the given documents
+    */
+   List<String> createDocuments(final String collectionName, final List<DataDocument> documents);
+
    /**
     * Creates and inserts an old document to specified collection.
     *
@@ -124,6 +136,18 @@ public interface DataStorage extends Serializable {
     */
    void createOldDocument(final String collectionName, final DataDocument document, String documentId, int version) throws UnsuccessfulOperationException;
 
+   /**
+    * Creates and inserts old documents to specified collection in a single batch. Every document must contain its id and version.
+    * Documents which are already stored in the same version are skipped and reported to the caller.
+    *
+    * @param collectionName
+    *       the name of the collection where the documents will be created
+    * @param documents
+    *       the DataDocument objects representing documents to be created
+    * @return ids of the documents which were not created because they are already stored in the same version
+    */
+   Set<String> createOldDocuments(final String collectionName, final List<DataDocument> documents);
+
    /**
     * Reads the specified document in given collection by its id
     *
@@ -173,6 +197,63 @@ public interface DataStorage extends Serializable {
     */
    void updateDocument(final String collectionName, final DataDocument updatedDocument, final String documentId);
 
+   /**
+    * Modifies existing documents in given collection in a single batch. Every updated document must contain the id of the document to modify.
+    * If updated documents contain non-existing columns, they will be added into database.
+    *
+    * @param collectionName
+    *       the name of the collection where the existing documents are located
+    * @param updatedDocuments
+    *       the DataDocument objects representing documents with changes to update
+    */
+   void updateDocuments(final String collectionName, final List<DataDocument> updatedDocuments);
+
+   /**
+    * Atomically modifies an existing document in given collection by its id only when it still has the expected version.
+    * The version of the document is incremented by one in the same operation. Documents without version are considered to be in version 0.
+    *
+    * @param collectionName
+    *       the name of the collection where the existing document is located
+    * @param updatedDocument
+    *       the DataDocument object representing a document with changes to update
+    * @param documentId
+    *       the id of the existing document in given collection
+    * @param version
+    *       the expected current version of the document
+    * @return the document as it was before the update, null when there is no such document in the expected version
+    */
+   DataDocument updateDocumentIfVersion(final String collectionName, final DataDocument updatedDocument, final String documentId, final int version);
+
+   /**
+    * Atomically replaces an existing document in given collection by its id only when it still has the expected version.
+    * The replacing document gets the version incremented by one. Documents without version are considered to be in version 0.
+    *
+    * @param collectionName
+    *       the name of the collection where the existing document is located
+    * @param replaceDocument
+    *       the DataDocument object representing a document
+    * @param documentId
+    *       the id of the existing document in given collection
+    * @param version
+    *       the expected current version of the document
+    * @return the document as it was before the replacement, null when there is no such document in the expected version
+    */
+   DataDocument replaceDocumentIfVersion(final String collectionName, final DataDocument replaceDocument, final String documentId, final int version);
+
+   /**
+    * Atomically modifies existing documents in given collection in a single batch. Every document is modified only when it still has the expected version
+    * and its version is incremented by one in the same operation. Every updated document must contain the id and the expected version of the document to modify.
+    *
+    * @param collectionName
+    *       the name of the collection where the existing documents are located
+    * @param updatedDocuments
+    *       the DataDocument objects representing documents with changes to update
+    * @param removedAttributes
+    *       the names of attributes to remove from every modified document
+    * @return the number of modified documents
+    */
+   int updateDocumentsIfVersion(final String collectionName, final List<DataDocument> updatedDocuments, final List<String> removedAttributes);
+
    /**
     * Replace an existing document in given collection by its id.
     *
@@ -345,6 +426,47 @@ public interface DataStorage extends Serializable {
     */
    List<DataDocument> search(final String collectionName, final String filter, final String sort, final int skip, final int limit);
 
+   /**
+    * Searches the specified collection the same way as {@link #search(String, String, String, int, int)} but returns only the specified attributes
+    * of the found documents.
+    *
+    * @param collectionName
+    *       the name of the collection where the run will be performed
+    * @param filter
+    *       the query predicate. If unspecified, then all documents in the collection will match the predicate.
+    * @param sort
+    *       the sort specification for the ordering of the results. If unspecified, then a sort is equivalent to setting no sort.
+    * @param attributes
+    *       the names of the attributes to return. If unspecified, then all attributes are returned.
+    * @param skip
+    *       the number of documents to skip. A skip of 0 is equivalent to setting no skip.
+    * @param limit
+    *       the maximum number of documents to return. A limit of 0 is equivalent to setting no limit.
+    * @return the list of the found documents
+    */
+   List<DataDocument> search(final String collectionName, final String filter, final String sort, final List<String> attributes, final int skip, final int limit);
+
+   /**
+    * Searches the specified collection the same way as {@link #search(String, String, String, int, int)} but reads the documents
+    * lazily from a database cursor. The cursor is opened by the terminal operation and it is released when the stream is closed,
+    * so the stream must be used in a try-with-resources block.
+    *
+    * @param collectionName
+    *       the name of the collection where the run will be performed
+    * @param filter
+    *       the query predicate. If unspecified, then all documents in the collection will match the predicate.
+    * @param sort
+    *       the sort specification for the ordering of the results. If unspecified, then a sort is equivalent to setting no sort.
+    * @param skip
+    *       the number of documents to skip. A skip of 0 is equivalent to setting no skip.
+    * @param limit
+    *       the maximum number of documents to return. A limit of 0 is equivalent to setting no limit.
+    * @param batchSize
+    *       the number of documents fetched from the database in a single round trip. A batch size of 0 uses the database default.
+    * @return the stream of the found documents
+    */
+   Stream<DataDocument> searchStream(final String collectionName, final String filter, final String sort, final int skip, final int limit, final int batchSize);
+
    /**
     * Counts the number of document in the collection optionally meeting the filter criteria.
     *
@@ -363,6 +485,30 @@ public interface DataStorage extends Serializable {
     */
    List<DataDocument> query(final Query query);
 
+   /**
+    * Executes the provided query the same way as {@link #query(Query)} but reads its results lazily from database cursors.
+    * The stream must be closed to release the cursors.
+    *
+    * @param query
+    *       Query to execute.
+    * @param batchSize
+    *       Number of documents fetched from the database in a single round trip, 0 uses the database default.
+    * @return Stream of the query results.
+    */
+   Stream<DataDocument> queryStream(final Query query, final int batchSize);
+
+   /**
+    * Explains how the database executes the provided query on every collection of the query. The query is executed
+    * to gather its statistics, its output collection is not written.
+    *
+    * @param query
+    *       Query to explain.
+    * @return For every collection, a document with the collection name, query shape, names of the used indexes,
+    * numbers of examined and returned documents, execution time, the database plan and statistics of previous executions
+    * of queries with the same shape.
+    */
+   List<DataDocument> explain(final Query query);
+
    /**
     * Executes series of database operations.
     *
@@ -423,6 +569,18 @@ public interface DataStorage extends Serializable {
     */
    void createIndex(final String collectionName, final DataDocument indexAttributes);
 
+   /**
+    * Creates a named index on the given collection. The index is built in the background so that the collection stays available.
+    *
+    * @param collectionName
+    *       Name of the collection.
+    * @param indexAttributes
+    *       Attributes of the index with their sort directions.
+    * @param indexName
+    *       Name of the index.
+    */
+   void createIndex(final String collectionName, final DataDocument indexAttributes, final String indexName);
+
    /**
     * Lists all indexes on the given collection.
     *
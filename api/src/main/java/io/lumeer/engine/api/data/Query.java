@@ -48,6 +48,8 @@ public class Query implements Serializable {
 
    private String output = null;
 
+   private Integer timeout = null;
+
    public Query() {
    }
 
@@ -198,6 +200,19 @@ public class Query implements Serializable {
       this.output = output;
    }
 
+   /**
+    * Gets the maximum time the query may run in the database.
+    *
+    * @return Time limit in milliseconds, null means no limit.
+    */
+   public Integer getTimeout() {
+      return timeout;
+   }
+
+   public void setTimeout(final Integer timeout) {
+      this.timeout = timeout;
+   }
+
    @Override
    public boolean equals(final Object o) {
       if (this == o) {
@@ -230,7 +245,10 @@ public class Query implements Serializable {
       if (skip != null ? !skip.equals(query.skip) : query.skip != null) {
          return false;
       }
-      return output != null ? output.equals(query.output) : query.output == null;
+      if (output != null ? !output.equals(query.output) : query.output != null) {
+         return false;
+      }
+      return timeout != null ? timeout.equals(query.timeout) : query.timeout == null;
    }
 
    @Override
@@ -243,6 +261,7 @@ public class Query implements Serializable {
       result = 31 * result + (limit != null ? limit.hashCode() : 0);
       result = 31 * result + (skip != null ? skip.hashCode() : 0);
       result = 31 * result + (output != null ? output.hashCode() : 0);
+      result = 31 * result + (timeout != null ? timeout.hashCode() : 0);
       return result;
    }
 
@@ -257,6 +276,7 @@ public class Query implements Serializable {
             + ", limit=" + limit
             + ", skip=" + skip
             + ", output=" + output
+            + ", timeout=" + timeout
             + '}';
    }
 }
@@ -0,0 +1,233 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.api.data;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Normalized form of a {@link Query} that does not depend on the concrete values the query filters by.
+ * Queries differing only in the compared values, skip and limit have the same shape and the database
+ * can execute them with the same plan, so the shape serves as a key of plan caches and query statistics.
+ *
+ * Values are replaced by parameter slots written as <code>?</code>, the replaced values are kept in the order
+ * of their slots. Sorting and projection specifications and field references (strings starting with <code>$</code>)
+ * influence the plan and therefore stay part of the shape. Value lists of <code>$in</code>, <code>$nin</code> and
+ * <code>$all</code> operators form a single slot regardless of their length.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public final class QueryShape implements Serializable {
+
+   private static final long serialVersionUID = 6053470372713384162L;
+
+   private static final String SLOT = "?";
+
+   private static final Set<String> LIST_OPERATORS = new HashSet<>(Arrays.asList("$in", "$nin", "$all"));
+
+   private final String key;
+
+   private final List<Object> parameters;
+
+   private QueryShape(final String key, final List<Object> parameters) {
+      this.key = key;
+      this.parameters = Collections.unmodifiableList(parameters);
+   }
+
+   /**
+    * Computes the shape of the query. Collections and timeout of the query are not part of the shape.
+    *
+    * @param query
+    *       Query to compute the shape of.
+    * @return The query shape.
+    */
+   public static QueryShape of(final Query query) {
+      final StringBuilder key = new StringBuilder();
+      final List<Object> parameters = new ArrayList<>();
+
+      appendStage(key, parameters, "$match", query.getFilters(), false);
+      appendStage(key, parameters, "$group", query.getGrouping(), false);
+      appendStage(key, parameters, "$project", query.getProjections(), true);
+      appendStage(key, parameters, "$sort", query.getSorting(), true);
+
+      if (query.getSkip() != null && query.getSkip() > 0) {
+         appendStage(key, parameters, "$skip", query.getSkip(), false);
+      }
+
+      if (query.getLimit() != null && query.getLimit() > 0) {
+         appendStage(key, parameters, "$limit", query.getLimit(), false);
+      }
+
+      if (query.getOutput() != null && !query.getOutput().isEmpty()) {
+         appendStage(key, parameters, "$out", query.getOutput(), false);
+      }
+
+      return new QueryShape("[" + key + "]", parameters);
+   }
+
+   /**
+    * Gets the normalized query with values replaced by parameter slots.
+    *
+    * @return The shape key.
+    */
+   public String getKey() {
+      return key;
+   }
+
+   /**
+    * Gets the values replaced by parameter slots, in the order of the slots.
+    *
+    * @return The query parameters.
+    */
+   public List<Object> getParameters() {
+      return parameters;
+   }
+
+   /**
+    * Checks whether the operator takes a list of values that forms a single parameter slot.
+    *
+    * @param operator
+    *       Name of the operator.
+    * @return True if and only if the operator is <code>$in</code>, <code>$nin</code> or <code>$all</code>.
+    */
+   public static boolean isListOperator(final Object operator) {
+      return LIST_OPERATORS.contains(operator);
+   }
+
+   // appends a pipeline stage, empty documents are skipped the same way the storage skips them
+   private static void appendStage(final StringBuilder key, final List<Object> parameters, final String stage, final Object value, final boolean literal) {
+      if (value == null || (value instanceof Map && ((Map<?, ?>) value).isEmpty())) {
+         return;
+      }
+
+      if (key.length() > 0) {
+         key.append(',');
+      }
+
+      key.append("{\"").append(stage).append("\":");
+      appendValue(key, parameters, value, literal);
+      key.append('}');
+   }
+
+   private static void appendValue(final StringBuilder key, final List<Object> parameters, final Object value, final boolean literal) {
+      if (value instanceof Map) {
+         key.append('{');
+
+         boolean first = true;
+         for (final Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+            if (!first) {
+               key.append(',');
+            }
+            first = false;
+
+            appendString(key, String.valueOf(entry.getKey()));
+            key.append(':');
+            if (LIST_OPERATORS.contains(entry.getKey()) && entry.getValue() instanceof List && !literal) {
+               key.append('[').append(SLOT).append(']');
+               parameters.add(entry.getValue());
+            } else {
+               appendValue(key, parameters, entry.getValue(), literal);
+            }
+         }
+
+         key.append('}');
+      } else if (value instanceof List) {
+         key.append('[');
+
+         boolean first = true;
+         for (final Object item : (List<?>) value) {
+            if (!first) {
+               key.append(',');
+            }
+            first = false;
+
+            appendValue(key, parameters, item, literal);
+         }
+
+         key.append(']');
+      } else if (value instanceof String && (literal || ((String) value).startsWith("$"))) {
+         appendString(key, (String) value);
+      } else if (literal) {
+         appendLiteral(key, value);
+      } else {
+         key.append(SLOT);
+         parameters.add(value);
+      }
+   }
+
+   // appends a literal that is not a string, values of types other than integer and boolean are tagged with their type
+   // outside of the JSON syntax, so that e.g. an integer and a long with the same value do not share a shape
+   private static void appendLiteral(final StringBuilder key, final Object value) {
+      if (value == null || value instanceof Integer || value instanceof Boolean) {
+         key.append(value);
+      } else {
+         key.append(value.getClass().getSimpleName()).append('(');
+         appendString(key, value.toString());
+         key.append(')');
+      }
+   }
+
+   // appends a JSON string, user defined attribute names and values must not be able to change the structure of the key
+   private static void appendString(final StringBuilder key, final String value) {
+      key.append('"');
+
+      for (int i = 0; i < value.length(); i++) {
+         final char c = value.charAt(i);
+
+         if (c == '"' || c == '\\') {
+            key.append('\\').append(c);
+         } else if (c < 0x20) {
+            key.append(String.format("\\u%04x", (int) c));
+         } else {
+            key.append(c);
+         }
+      }
+
+      key.append('"');
+   }
+
+   @Override
+   public boolean equals(final Object o) {
+      if (this == o) {
+         return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+         return false;
+      }
+
+      return key.equals(((QueryShape) o).key);
+   }
+
+   @Override
+   public int hashCode() {
+      return key.hashCode();
+   }
+
+   @Override
+   public String toString() {
+      return key;
+   }
+}
@@ -0,0 +1,114 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.api.data;
+
+import java.io.Serializable;
+
+/**
+ * Sizing and timeouts of the connection pool shared by all data storage instances.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class StoragePoolSettings implements Serializable {
+
+   private static final long serialVersionUID = 3310466427843405563L;
+
+   public static final int DEFAULT_MAX_POOL_SIZE = 100;
+   public static final int DEFAULT_MIN_POOL_SIZE = 0;
+   public static final int DEFAULT_WAIT_QUEUE_MULTIPLIER = 5;
+   public static final int DEFAULT_MAX_WAIT_TIME = 120000;
+   public static final int DEFAULT_MAX_IDLE_TIME = 60000;
+   public static final int DEFAULT_CONNECT_TIMEOUT = 30000;
+
+   private final int maxPoolSize;
+   private final int minPoolSize;
+   private final int waitQueueMultiplier;
+   private final int maxWaitTime;
+   private final int maxIdleTime;
+   private final int connectTimeout;
+
+   /**
+    * Defines pool settings with default values.
+    */
+   public StoragePoolSettings() {
+      this(DEFAULT_MAX_POOL_SIZE, DEFAULT_MIN_POOL_SIZE, DEFAULT_WAIT_QUEUE_MULTIPLIER, DEFAULT_MAX_WAIT_TIME, DEFAULT_MAX_IDLE_TIME, DEFAULT_CONNECT_TIMEOUT);
+   }
+
+   /**
+    * Defines new pool settings.
+    *
+    * @param maxPoolSize
+    *       Maximum number of connections per host.
+    * @param minPoolSize
+    *       Minimum number of connections kept open per host.
+    * @param waitQueueMultiplier
+    *       Multiplier of the pool size giving the number of threads allowed to wait for a connection.
+    * @param maxWaitTime
+    *       Maximum time in milliseconds a thread waits for a free connection.
+    * @param maxIdleTime
+    *       Time in milliseconds after which an idle connection is closed, 0 for no limit.
+    * @param connectTimeout
+    *       Connection timeout in milliseconds.
+    */
+   public StoragePoolSettings(final int maxPoolSize, final int minPoolSize, final int waitQueueMultiplier, final int maxWaitTime, final int maxIdleTime, final int connectTimeout) {
+      this.maxPoolSize = maxPoolSize;
+      this.minPoolSize = minPoolSize;
+      this.waitQueueMultiplier = waitQueueMultiplier;
+      this.maxWaitTime = maxWaitTime;
+      this.maxIdleTime = maxIdleTime;
+      this.connectTimeout = connectTimeout;
+   }
+
+   public int getMaxPoolSize() {
+      return maxPoolSize;
+   }
+
+   public int getMinPoolSize() {
+      return minPoolSize;
+   }
+
+   public int getWaitQueueMultiplier() {
+      return waitQueueMultiplier;
+   }
+
+   public int getMaxWaitTime() {
+      return maxWaitTime;
+   }
+
+   public int getMaxIdleTime() {
+      return maxIdleTime;
+   }
+
+   public int getConnectTimeout() {
+      return connectTimeout;
+   }
+
+   @Override
+   public String toString() {
+      return "StoragePoolSettings{"
+            + "maxPoolSize=" + maxPoolSize
+            + ", minPoolSize=" + minPoolSize
+            + ", waitQueueMultiplier=" + waitQueueMultiplier
+            + ", maxWaitTime=" + maxWaitTime
+            + ", maxIdleTime=" + maxIdleTime
+            + ", connectTimeout=" + connectTimeout
+            + '}';
+   }
+}
@@ -0,0 +1,39 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.api.task;
+
+/**
+ * States of a background task. A task is queued first, then it runs until it completes, fails or is cancelled.
+ * A running task interrupted by a server restart is queued again and continues from its last checkpoint.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public enum TaskState {
+   QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED;
+
+   /**
+    * Checks whether the task in this state is over and will not change anymore.
+    *
+    * @return True if and only if the task is completed, failed or cancelled.
+    */
+   public boolean isFinished() {
+      return this == COMPLETED || this == FAILED || this == CANCELLED;
+   }
+}
@@ -0,0 +1,197 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.api.constraint;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class ConstraintManagerTest {
+
+   private static final int THREADS = 8;
+   private static final int ITERATIONS = 200_000;
+
+   @Test
+   public void testNumberConstraints() throws Exception {
+      final ConstraintManager manager = new ConstraintManager(Arrays.asList("isNumber", "greaterThan:3", "lessThan:8"), Locale.US);
+
+      Assert.assertEquals(manager.isValid("4"), Constraint.ConstraintResult.VALID);
+      Assert.assertEquals(manager.isValid(" 7.5 "), Constraint.ConstraintResult.VALID);
+      Assert.assertEquals(manager.isValid("2"), Constraint.ConstraintResult.INVALID);
+      Assert.assertEquals(manager.isValid("123456789012345678901234"), Constraint.ConstraintResult.INVALID);
+      Assert.assertEquals(manager.isValid("5a"), Constraint.ConstraintResult.INVALID);
+      Assert.assertEquals(manager.isValid("-"), Constraint.ConstraintResult.INVALID);
+      Assert.assertEquals(manager.isValid(""), Constraint.ConstraintResult.INVALID);
+
+      final ConstraintManager integers = new ConstraintManager(Arrays.asList("isInteger", "greaterOrEquals:-1000", "lessOrEquals:1000000"), Locale.US);
+
+      Assert.assertEquals(integers.isValid("1,000"), Constraint.ConstraintResult.VALID);
+      Assert.assertEquals(integers.isValid("1 000 000"), Constraint.ConstraintResult.VALID);
+      Assert.assertEquals(integers.isValid("-1000"), Constraint.ConstraintResult.VALID);
+      Assert.assertEquals(integers.isValid("1000001"), Constraint.ConstraintResult.INVALID);
+      Assert.assertEquals(integers.isValid("3.5"), Constraint.ConstraintResult.INVALID);
+
+      final ConstraintManager equals = new ConstraintManager(Arrays.asList("equals:0.1"), Locale.US);
+
+      Assert.assertEquals(equals.isValid("0.1"), Constraint.ConstraintResult.VALID);
+      Assert.assertEquals(equals.isValid("0.100"), Constraint.ConstraintResult.VALID);
+      Assert.assertEquals(equals.isValid("0.10000000000000000000001"), Constraint.ConstraintResult.VALID);
+      Assert.assertEquals(equals.isValid("0.2"), Constraint.ConstraintResult.INVALID);
+   }
+
+   @Test
+   public void testLocaleIsBoundToManager() throws Exception {
+      final List<String> configurations = Arrays.asList("greaterThan:3", "lessThan:4");
+      final ConstraintManager us = new ConstraintManager(configurations, Locale.US);
+      final ConstraintManager german = new ConstraintManager(configurations, Locale.GERMANY);
+
+      Assert.assertEquals(us.isValid("3.5"), Constraint.ConstraintResult.VALID);
+      Assert.assertEquals(us.isValid("3,5"), Constraint.ConstraintResult.INVALID);
+      Assert.assertEquals(german.isValid("3,5"), Constraint.ConstraintResult.VALID);
+      Assert.assertEquals(german.isValid("3.5"), Constraint.ConstraintResult.INVALID);
+
+      us.setLocale(Locale.GERMANY);
+
+      Assert.assertEquals(us.getLocale(), Locale.GERMANY);
+      Assert.assertEquals(us.isValid("3,5"), Constraint.ConstraintResult.VALID);
+      Assert.assertEquals(german.isValid("3.5"), Constraint.ConstraintResult.INVALID);
+   }
+
+   @Test
+   public void testDateTimeConstraints() throws Exception {
+      final ConstraintManager time = new ConstraintManager(Arrays.asList("time:HH:mm:ss"), Locale.US);
+
+      Assert.assertEquals(time.isValid("14:34:00"), Constraint.ConstraintResult.VALID);
+      Assert.assertEquals(time.isValid("14:34"), Constraint.ConstraintResult.INVALID);
+      Assert.assertEquals(time.isValid("25:34:00"), Constraint.ConstraintResult.INVALID);
+
+      final ConstraintManager date = new ConstraintManager(Arrays.asList("date:EEE, MMM d, ''yy"), Locale.US);
+
+      Assert.assertEquals(date.isValid("Wed, Jul 4, '01"), Constraint.ConstraintResult.VALID);
+      Assert.assertEquals(date.isValid("Wed, Jul 4 '01"), Constraint.ConstraintResult.INVALID);
+
+      final ConstraintManager amPm = new ConstraintManager(Arrays.asList("date:yyyy.MMMMM.dd hh:mm aaa"), Locale.US);
+
+      Assert.assertEquals(amPm.isValid("2001.July.04 12:08 PM"), Constraint.ConstraintResult.VALID);
+   }
+
+   @Test
+   public void testCaseConstraints() throws Exception {
+      final ConstraintManager manager = new ConstraintManager(Arrays.asList("case:upper"), Locale.US);
+
+      Assert.assertEquals(manager.isValid("LUMEER"), Constraint.ConstraintResult.VALID);
+      Assert.assertEquals(manager.isValid("Lumeer"), Constraint.ConstraintResult.FIXABLE);
+      Assert.assertEquals(manager.fix("Lumeer"), "LUMEER");
+   }
+
+   @Test
+   public void testConcurrentValidation() throws Exception {
+      final ConstraintManager manager = new ConstraintManager(Arrays.asList("isNumber", "greaterThan:3", "lessThan:1000", "date:yyyy/MM/dd", "case:lower"), Locale.US);
+      final ConstraintManager numbers = new ConstraintManager(Arrays.asList("isNumber", "greaterOrEquals:0"), Locale.US);
+      final ConstraintManager dates = new ConstraintManager(Arrays.asList("date:yyyy/MM/dd HH:mm:ss"), Locale.US);
+      final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+      try {
+         final List<Future<Integer>> results = new ArrayList<>();
+
+         for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            final ConstraintManager otherLocale = new ConstraintManager(Arrays.asList("isNumber"), Locale.GERMANY);
+
+            results.add(executor.submit((Callable<Integer>) () -> {
+               int errors = 0;
+
+               for (int i = 0; i < ITERATIONS / THREADS; i++) {
+                  final String number = (thread * ITERATIONS + i) + "." + (i % 100);
+
+                  if (numbers.isValid(number) != Constraint.ConstraintResult.VALID) {
+                     errors++;
+                  }
+                  if (numbers.isValid("-1" + number) != Constraint.ConstraintResult.INVALID) {
+                     errors++;
+                  }
+                  if (dates.isValid("2017/0" + (1 + i % 9) + "/1" + (i % 10) + " 1" + (i % 10) + ":00:00") != Constraint.ConstraintResult.VALID) {
+                     errors++;
+                  }
+                  if (manager.isValid("12") != Constraint.ConstraintResult.INVALID) {
+                     errors++;
+                  }
+                  if (otherLocale.isValid("1.234,5") != Constraint.ConstraintResult.VALID) {
+                     errors++;
+                  }
+               }
+
+               return errors;
+            }));
+         }
+
+         for (final Future<Integer> result : results) {
+            Assert.assertEquals(result.get(), Integer.valueOf(0));
+         }
+      } finally {
+         executor.shutdownNow();
+      }
+   }
+
+   @Test
+   public void testDayNumberOfWeekIgnoresLocale() throws Exception {
+      final List<String> configurations = Arrays.asList("date:yyyy/MM/dd u");
+      final ConstraintManager us = new ConstraintManager(configurations, Locale.US);
+      final ConstraintManager german = new ConstraintManager(configurations, Locale.GERMANY);
+
+      // 2017/01/02 was Monday, day number 1 in SimpleDateFormat regardless of the first day of week in the locale
+      Assert.assertEquals(us.isValid("2017/01/02 1"), Constraint.ConstraintResult.VALID);
+      Assert.assertEquals(german.isValid("2017/01/02 1"), Constraint.ConstraintResult.VALID);
+      Assert.assertEquals(us.isValid("2017/01/01 7"), Constraint.ConstraintResult.VALID);
+      Assert.assertEquals(german.isValid("2017/01/01 7"), Constraint.ConstraintResult.VALID);
+      Assert.assertEquals(us.isValid("2017/01/02 2"), Constraint.ConstraintResult.INVALID);
+      Assert.assertEquals(german.isValid("2017/01/02 2"), Constraint.ConstraintResult.INVALID);
+      Assert.assertEquals(us.isValid("2017/01/02 8"), Constraint.ConstraintResult.INVALID);
+
+      final ConstraintManager isoWeek = new ConstraintManager(Arrays.asList("date:yyyy-MM-dd'T'uu"), Locale.US);
+
+      Assert.assertEquals(isoWeek.isValid("2017-01-06T05"), Constraint.ConstraintResult.VALID);
+      Assert.assertEquals(isoWeek.isValid("2017-01-06T5"), Constraint.ConstraintResult.INVALID);
+   }
+
+   @Test
+   public void testValidationOfManyValues() throws Exception {
+      final ConstraintManager numbers = new ConstraintManager(Arrays.asList("isNumber", "greaterThan:-1", "lessThan:1000000"), Locale.US);
+      final ConstraintManager dates = new ConstraintManager(Arrays.asList("date:yyyy/MM/dd HH:mm:ss"), Locale.US);
+
+      for (int i = 0; i < 1000; i++) {
+         Assert.assertEquals(numbers.isValid(String.format(Locale.US, "%,.2f", i * 997.13)), Constraint.ConstraintResult.VALID);
+         Assert.assertEquals(numbers.isValid(String.format(Locale.US, "%,.2f", 1000000 + i * 997.13)), Constraint.ConstraintResult.INVALID);
+         Assert.assertEquals(dates.isValid(String.format("2017/%02d/%02d %02d:%02d:00", 1 + i % 12, 1 + i % 28, i % 24, i % 60)), Constraint.ConstraintResult.VALID);
+         Assert.assertEquals(dates.isValid(String.format("2017/%02d/%02d %02d:%02d:00", 13 + i % 12, 1 + i % 28, i % 24, i % 60)), Constraint.ConstraintResult.INVALID);
+      }
+   }
+}
@@ -0,0 +1,86 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.api.data;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class QueryShapeTest {
+
+   @Test
+   public void testValuesAreParameters() throws Exception {
+      final Query first = new Query(Collections.singleton("c1"), new DataDocument("a", 1).append("b", new DataDocument("$gt", "x")), null, new DataDocument("a", -1), 10, 5);
+      final Query second = new Query(Collections.singleton("c2"), new DataDocument("a", 2).append("b", new DataDocument("$gt", "y")), null, new DataDocument("a", -1), 20, 0);
+
+      final QueryShape shape = QueryShape.of(first);
+
+      Assert.assertEquals(shape.getKey(), "[{\"$match\":{\"a\":?,\"b\":{\"$gt\":?}}},{\"$sort\":{\"a\":-1}},{\"$skip\":?},{\"$limit\":?}]");
+      Assert.assertEquals(shape.getParameters(), Arrays.asList(1, "x", 5, 10));
+      Assert.assertNotEquals(QueryShape.of(second), shape);
+
+      second.setSkip(1);
+      Assert.assertEquals(QueryShape.of(second), shape);
+      Assert.assertEquals(QueryShape.of(second).getParameters(), Arrays.asList(2, "y", 1, 20));
+   }
+
+   @Test
+   public void testPlanRelevantPartsStay() throws Exception {
+      final Query ascending = new Query(new DataDocument("a", 1), null, new DataDocument("a", 1));
+      final Query descending = new Query(new DataDocument("a", 1), null, new DataDocument("a", -1));
+
+      Assert.assertNotEquals(QueryShape.of(ascending), QueryShape.of(descending));
+
+      final Query in = new Query(new DataDocument("a", new DataDocument("$in", Arrays.asList(1, 2, 3))));
+      final Query longerIn = new Query(new DataDocument("a", new DataDocument("$in", Arrays.asList(1, 2, 3, 4, 5))));
+
+      Assert.assertEquals(QueryShape.of(in), QueryShape.of(longerIn));
+      Assert.assertEquals(QueryShape.of(longerIn).getParameters(), Collections.singletonList(Arrays.asList(1, 2, 3, 4, 5)));
+
+      final Query grouping = new Query();
+      grouping.setGrouping(new DataDocument("_id", "$a").append("count", new DataDocument("$sum", 1)));
+      grouping.setProjections(new DataDocument("count", 1));
+
+      Assert.assertEquals(QueryShape.of(grouping).getKey(), "[{\"$group\":{\"_id\":\"$a\",\"count\":{\"$sum\":?}}},{\"$project\":{\"count\":1}}]");
+      Assert.assertEquals(QueryShape.of(new Query()).getKey(), "[]");
+   }
+
+   @Test
+   public void testNamesAndLiteralsDoNotCollide() throws Exception {
+      final Query injected = new Query(new DataDocument("a\":?,\"b", 1));
+      final Query two = new Query(new DataDocument("a", 1).append("b", 2));
+
+      Assert.assertNotEquals(QueryShape.of(injected), QueryShape.of(two));
+      Assert.assertEquals(QueryShape.of(injected).getKey(), "[{\"$match\":{\"a\\\":?,\\\"b\":?}}]");
+
+      final Query integerSorting = new Query(new DataDocument(), new DataDocument(), new DataDocument("a", 1));
+      final Query longSorting = new Query(new DataDocument(), new DataDocument(), new DataDocument("a", 1L));
+      final Query stringSorting = new Query(new DataDocument(), new DataDocument(), new DataDocument("a", "1"));
+
+      Assert.assertNotEquals(QueryShape.of(integerSorting), QueryShape.of(longSorting));
+      Assert.assertNotEquals(QueryShape.of(integerSorting), QueryShape.of(stringSorting));
+      Assert.assertNotEquals(QueryShape.of(longSorting), QueryShape.of(stringSorting));
+   }
+}
@@ -0,0 +1,217 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.mongodb;
+
+import io.lumeer.engine.api.LumeerConst;
+import io.lumeer.engine.api.data.DataDocument;
+
+import org.bson.BsonBinarySubType;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+import org.bson.BsonWriter;
+import org.bson.codecs.BsonTypeClassMap;
+import org.bson.codecs.Codec;
+import org.bson.codecs.CollectibleCodec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Encodes {@link DataDocument} to BSON and decodes BSON straight into {@link DataDocument} without an intermediate
+ * {@link org.bson.Document}. Nested documents are decoded as {@link DataDocument}, arrays as lists and the document id
+ * is converted from {@link ObjectId} to its string representation, the same way as {@link MongoUtils#replaceId(org.bson.Document)} does.
+ *
+ * @author <a href="mailto:kubedo8@gmail.com">Jakub Rodák</a>
+ */
+public class DataDocumentCodec implements CollectibleCodec<DataDocument> {
+
+   private static final BsonTypeClassMap BSON_TYPE_CLASS_MAP = new BsonTypeClassMap();
+
+   private final CodecRegistry registry;
+
+   public DataDocumentCodec(final CodecRegistry registry) {
+      this.registry = registry;
+   }
+
+   @Override
+   public DataDocument decode(final BsonReader reader, final DecoderContext decoderContext) {
+      return readDocument(reader, decoderContext, true);
+   }
+
+   @Override
+   public void encode(final BsonWriter writer, final DataDocument document, final EncoderContext encoderContext) {
+      writer.writeStartDocument();
+
+      if (encoderContext.isEncodingCollectibleDocument() && document.containsKey(LumeerConst.Document.ID)) {
+         writer.writeName(LumeerConst.Document.ID);
+         writeValue(writer, document.get(LumeerConst.Document.ID), encoderContext);
+      }
+
+      for (final Map.Entry<String, Object> entry : document.entrySet()) {
+         if (encoderContext.isEncodingCollectibleDocument() && LumeerConst.Document.ID.equals(entry.getKey())) {
+            continue;
+         }
+         writer.writeName(entry.getKey());
+         writeValue(writer, entry.getValue(), encoderContext);
+      }
+
+      writer.writeEndDocument();
+   }
+
+   @Override
+   public Class<DataDocument> getEncoderClass() {
+      return DataDocument.class;
+   }
+
+   @Override
+   public DataDocument generateIdIfAbsentFromDocument(final DataDocument document) {
+      if (!documentHasId(document)) {
+         document.put(LumeerConst.Document.ID, new ObjectId());
+      }
+
+      return document;
+   }
+
+   @Override
+   public boolean documentHasId(final DataDocument document) {
+      return document.containsKey(LumeerConst.Document.ID);
+   }
+
+   @Override
+   public BsonValue getDocumentId(final DataDocument document) {
+      if (!documentHasId(document)) {
+         throw new IllegalStateException("The document does not contain an " + LumeerConst.Document.ID);
+      }
+
+      final BsonDocument idHolder = new BsonDocument();
+      final BsonWriter writer = new BsonDocumentWriter(idHolder);
+      writer.writeStartDocument();
+      writer.writeName(LumeerConst.Document.ID);
+      writeValue(writer, document.get(LumeerConst.Document.ID), EncoderContext.builder().build());
+      writer.writeEndDocument();
+
+      return idHolder.get(LumeerConst.Document.ID);
+   }
+
+   // reads the whole document, ids are converted only in the top level document and in the compound id of a shadow document
+   private DataDocument readDocument(final BsonReader reader, final DecoderContext decoderContext, final boolean convertId) {
+      final DataDocument document = new DataDocument();
+
+      reader.readStartDocument();
+      while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+         final String name = reader.readName();
+
+         if (convertId && LumeerConst.Document.ID.equals(name)) {
+            document.put(name, readId(reader, decoderContext));
+         } else {
+            document.put(name, readValue(reader, decoderContext));
+         }
+      }
+      reader.readEndDocument();
+
+      return document;
+   }
+
+   // reads the document id, object ids are converted to strings
+   private Object readId(final BsonReader reader, final DecoderContext decoderContext) {
+      switch (reader.getCurrentBsonType()) {
+         case OBJECT_ID:
+            return reader.readObjectId().toHexString();
+         case DOCUMENT:
+            return readDocument(reader, decoderContext, true);
+         default:
+            return readValue(reader, decoderContext);
+      }
+   }
+
+   private Object readValue(final BsonReader reader, final DecoderContext decoderContext) {
+      final BsonType bsonType = reader.getCurrentBsonType();
+
+      switch (bsonType) {
+         case NULL:
+            reader.readNull();
+            return null;
+         case DOCUMENT:
+            return readDocument(reader, decoderContext, false);
+         case ARRAY:
+            return readList(reader, decoderContext);
+         case BINARY:
+            final byte subType = reader.peekBinarySubType();
+            if (subType == BsonBinarySubType.UUID_STANDARD.getValue() || subType == BsonBinarySubType.UUID_LEGACY.getValue()) {
+               return registry.get(UUID.class).decode(reader, decoderContext);
+            }
+            break;
+         default:
+            break;
+      }
+
+      return registry.get(BSON_TYPE_CLASS_MAP.get(bsonType)).decode(reader, decoderContext);
+   }
+
+   private List<Object> readList(final BsonReader reader, final DecoderContext decoderContext) {
+      final List<Object> list = new ArrayList<>();
+
+      reader.readStartArray();
+      while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+         list.add(readValue(reader, decoderContext));
+      }
+      reader.readEndArray();
+
+      return list;
+   }
+
+   @SuppressWarnings("unchecked")
+   private void writeValue(final BsonWriter writer, final Object value, final EncoderContext encoderContext) {
+      if (value == null) {
+         writer.writeNull();
+      } else if (value instanceof DataDocument) {
+         encode(writer, (DataDocument) value, encoderContext.getChildContext());
+      } else if (value instanceof Map) {
+         writeMap(writer, (Map<String, Object>) value, encoderContext.getChildContext());
+      } else if (value instanceof Iterable) {
+         writer.writeStartArray();
+         for (final Object item : (Iterable<Object>) value) {
+            writeValue(writer, item, encoderContext.getChildContext());
+         }
+         writer.writeEndArray();
+      } else {
+         final Codec codec = registry.get(value.getClass());
+         encoderContext.encodeWithChildContext(codec, writer, value);
+      }
+   }
+
+   private void writeMap(final BsonWriter writer, final Map<String, Object> map, final EncoderContext encoderContext) {
+      writer.writeStartDocument();
+      for (final Map.Entry<String, Object> entry : map.entrySet()) {
+         writer.writeName(entry.getKey());
+         writeValue(writer, entry.getValue(), encoderContext);
+      }
+      writer.writeEndDocument();
+   }
+}
@@ -0,0 +1,44 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.mongodb;
+
+import io.lumeer.engine.api.data.DataDocument;
+
+import org.bson.codecs.Codec;
+import org.bson.codecs.configuration.CodecProvider;
+import org.bson.codecs.configuration.CodecRegistry;
+
+/**
+ * Provides {@link DataDocumentCodec} to the driver so that collections can read and write {@link DataDocument} directly.
+ *
+ * @author <a href="mailto:kubedo8@gmail.com">Jakub Rodák</a>
+ */
+public class DataDocumentCodecProvider implements CodecProvider {
+
+   @Override
+   @SuppressWarnings("unchecked")
+   public <T> Codec<T> get(final Class<T> clazz, final CodecRegistry registry) {
+      if (clazz == DataDocument.class) {
+         return (Codec<T>) new DataDocumentCodec(registry);
+      }
+
+      return null;
+   }
+}
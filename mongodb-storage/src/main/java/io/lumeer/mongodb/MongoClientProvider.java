@@ -0,0 +1,329 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.mongodb;
+
+import io.lumeer.engine.api.data.DataDocument;
+import io.lumeer.engine.api.data.StorageConnection;
+import io.lumeer.engine.api.data.StoragePoolSettings;
+
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.MongoCredential;
+import com.mongodb.ServerAddress;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.inject.Instance;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+/**
+ * Keeps one pooled {@link MongoClient} per distinct connection (hosts, credentials, database and SSL flag)
+ * for the whole application. Data storage instances borrow clients from here instead of opening their own
+ * connection pool for every user session. Clients are keyed by a hash of the password, so the keys do not reveal
+ * the passwords.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+@ApplicationScoped
+public class MongoClientProvider {
+
+   private static final Logger log = Logger.getLogger(MongoClientProvider.class.getName());
+
+   /**
+    * Default driver codecs extended with {@link DataDocumentCodec}, so that documents are read and written without conversions.
+    */
+   public static final CodecRegistry CODEC_REGISTRY = CodecRegistries.fromRegistries(
+         CodecRegistries.fromProviders(new DataDocumentCodecProvider()),
+         MongoClient.getDefaultCodecRegistry());
+
+   @Inject
+   @Named("dataStoragePoolSettings")
+   private Instance<StoragePoolSettings> poolSettingsInstance;
+
+   private StoragePoolSettings poolSettings;
+
+   private final Map<String, PooledClient> clients = new ConcurrentHashMap<>();
+
+   /**
+    * The same pooled clients by their Mongo clients.
+    */
+   private final Map<MongoClient, PooledClient> clientsByClient = new ConcurrentHashMap<>();
+
+   private final AtomicLong commandsStarted = new AtomicLong();
+   private final AtomicLong commandsSucceeded = new AtomicLong();
+   private final AtomicLong commandsFailed = new AtomicLong();
+   private final AtomicLong commandsInProgress = new AtomicLong();
+   private final AtomicLong commandsTotalTime = new AtomicLong();
+   private final AtomicLong clientsCreated = new AtomicLong();
+
+   private final CommandListener metricsListener = new CommandListener() {
+      @Override
+      public void commandStarted(final CommandStartedEvent event) {
+         commandsStarted.incrementAndGet();
+         commandsInProgress.incrementAndGet();
+      }
+
+      @Override
+      public void commandSucceeded(final CommandSucceededEvent event) {
+         commandsSucceeded.incrementAndGet();
+         commandsInProgress.decrementAndGet();
+         commandsTotalTime.addAndGet(event.getElapsedTime(TimeUnit.MICROSECONDS));
+      }
+
+      @Override
+      public void commandFailed(final CommandFailedEvent event) {
+         commandsFailed.incrementAndGet();
+         commandsInProgress.decrementAndGet();
+         commandsTotalTime.addAndGet(event.getElapsedTime(TimeUnit.MICROSECONDS));
+      }
+   };
+
+   /**
+    * Creates a provider with pool settings taken from the CDI container, or default settings when there are none.
+    */
+   public MongoClientProvider() {
+   }
+
+   /**
+    * Creates a provider with the given pool settings, to be used outside of the CDI container.
+    *
+    * @param poolSettings
+    *       Connection pool settings.
+    */
+   public MongoClientProvider(final StoragePoolSettings poolSettings) {
+      this.poolSettings = poolSettings;
+   }
+
+   @PostConstruct
+   public void init() {
+      if (poolSettings == null && poolSettingsInstance != null && !poolSettingsInstance.isUnsatisfied()) {
+         poolSettings = poolSettingsInstance.get();
+      }
+   }
+
+   /**
+    * Borrows a client for the given connection. The client is created on the first request and shared afterwards.
+    * Every call must be paired with {@link #release(MongoClient)}.
+    *
+    * @param connections
+    *       Server addresses and credentials.
+    * @param database
+    *       Database the credentials are bound to.
+    * @param useSsl
+    *       Whether to use SSL.
+    * @return Shared Mongo client.
+    */
+   public MongoClient acquire(final List<StorageConnection> connections, final String database, final Boolean useSsl) {
+      final PooledClient pooledClient = clients.computeIfAbsent(getClientKey(connections, database, useSsl), key -> {
+         final PooledClient created = new PooledClient(createClient(connections, database, useSsl), database);
+         clientsByClient.put(created.client, created);
+         return created;
+      });
+      pooledClient.leases.incrementAndGet();
+
+      return pooledClient.client;
+   }
+
+   /**
+    * Returns a borrowed client. The client and its connection pool stay open for other users.
+    *
+    * @param client
+    *       Client obtained from {@link #acquire(List, String, Boolean)}.
+    */
+   public void release(final MongoClient client) {
+      final PooledClient pooledClient = clientsByClient.get(client);
+      if (pooledClient != null) {
+         pooledClient.leases.decrementAndGet();
+      }
+   }
+
+   /**
+    * Gets the registry of collections in the database the client was acquired for.
+    *
+    * @param client
+    *       Client obtained from {@link #acquire(List, String, Boolean)}.
+    * @return Collection registry shared by all users of the client.
+    */
+   public MongoCollectionRegistry getCollectionRegistry(final MongoClient client) {
+      final PooledClient pooledClient = clientsByClient.get(client);
+      return pooledClient != null ? pooledClient.collectionRegistry : null;
+   }
+
+   /**
+    * Gets the statistics of queries executed in the database the client was acquired for.
+    *
+    * @param client
+    *       Client obtained from {@link #acquire(List, String, Boolean)}.
+    * @return Query statistics shared by all users of the client.
+    */
+   public MongoQueryStatistics getQueryStatistics(final MongoClient client) {
+      final PooledClient pooledClient = clientsByClient.get(client);
+      return pooledClient != null ? pooledClient.queryStatistics : null;
+   }
+
+   /**
+    * Gets the cache of aggregation pipelines compiled for the database the client was acquired for.
+    *
+    * @param client
+    *       Client obtained from {@link #acquire(List, String, Boolean)}.
+    * @return Query cache shared by all users of the client.
+    */
+   public MongoQueryCache getQueryCache(final MongoClient client) {
+      final PooledClient pooledClient = clientsByClient.get(client);
+      return pooledClient != null ? pooledClient.queryCache : null;
+   }
+
+   /**
+    * Closes all pooled clients.
+    */
+   @PreDestroy
+   public void close() {
+      log.info("Closing MongoDB clients, pool metrics: " + getMetrics());
+
+      clients.values().forEach(pooledClient -> pooledClient.client.close());
+      clients.clear();
+      clientsByClient.clear();
+   }
+
+   /**
+    * Gets current pool and command metrics.
+    *
+    * @return Document with the number of clients, their leases, pool settings and command statistics (times in microseconds).
+    */
+   public DataDocument getMetrics() {
+      final long finished = commandsSucceeded.get() + commandsFailed.get();
+
+      return new DataDocument("clients", clients.size())
+            .append("clientsCreated", clientsCreated.get())
+            .append("leases", clients.values().stream().mapToInt(pooledClient -> pooledClient.leases.get()).sum())
+            .append("maxPoolSize", getPoolSettings().getMaxPoolSize())
+            .append("maxWaitQueueSize", getPoolSettings().getMaxPoolSize() * getPoolSettings().getWaitQueueMultiplier())
+            .append("commandsStarted", commandsStarted.get())
+            .append("commandsSucceeded", commandsSucceeded.get())
+            .append("commandsFailed", commandsFailed.get())
+            .append("commandsInProgress", commandsInProgress.get())
+            .append("commandsAverageTime", finished > 0 ? commandsTotalTime.get() / finished : 0L);
+   }
+
+   private StoragePoolSettings getPoolSettings() {
+      if (poolSettings == null) {
+         poolSettings = new StoragePoolSettings();
+      }
+
+      return poolSettings;
+   }
+
+   private MongoClient createClient(final List<StorageConnection> connections, final String database, final Boolean useSsl) {
+      final List<ServerAddress> addresses = new ArrayList<>();
+      final List<MongoCredential> credentials = new ArrayList<>();
+
+      connections.forEach(c -> {
+         addresses.add(new ServerAddress(c.getHost(), c.getPort()));
+         if (c.getUserName() != null && !c.getUserName().isEmpty()) {
+            credentials.add(MongoCredential.createScramSha1Credential(c.getUserName(), database, c.getPassword()));
+         }
+      });
+
+      final StoragePoolSettings settings = getPoolSettings();
+      final MongoClientOptions.Builder optionsBuilder = (new MongoClientOptions.Builder())
+            .connectTimeout(settings.getConnectTimeout())
+            .connectionsPerHost(settings.getMaxPoolSize())
+            .minConnectionsPerHost(settings.getMinPoolSize())
+            .threadsAllowedToBlockForConnectionMultiplier(settings.getWaitQueueMultiplier())
+            .maxWaitTime(settings.getMaxWaitTime())
+            .maxConnectionIdleTime(settings.getMaxIdleTime())
+            .codecRegistry(CODEC_REGISTRY)
+            .addCommandListener(metricsListener);
+
+      if (useSsl) {
+         optionsBuilder.sslEnabled(true).socketFactory(NaiveTrustManager.getSocketFactory()).sslInvalidHostNameAllowed(true);
+      }
+
+      clientsCreated.incrementAndGet();
+      log.info("Creating MongoDB client for " + addresses + " with " + settings);
+
+      return new MongoClient(addresses, credentials, optionsBuilder.build());
+   }
+
+   private static String getClientKey(final List<StorageConnection> connections, final String database, final Boolean useSsl) {
+      return connections.stream()
+                        .map(c -> c.getHost() + ":" + c.getPort() + ":" + c.getUserName() + ":" + hashPassword(c.getPassword()))
+                        .collect(Collectors.joining(",", database + "@" + useSsl + "[", "]"));
+   }
+
+   // distinguishes clients with different passwords without keeping the password in the key
+   private static String hashPassword(final char[] password) {
+      if (password == null) {
+         return "";
+      }
+
+      try {
+         final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+         digest.update(StandardCharsets.UTF_8.encode(CharBuffer.wrap(password)));
+
+         final StringBuilder hash = new StringBuilder();
+         for (final byte b : digest.digest()) {
+            hash.append(String.format("%02x", b));
+         }
+
+         return hash.toString();
+      } catch (NoSuchAlgorithmException e) {
+         throw new IllegalStateException("SHA-256 is not available.", e);
+      }
+   }
+
+   /**
+    * Shared client together with the number of data storages currently using it, the registry of collections in its database,
+    * statistics of queries executed there and their compiled pipelines.
+    */
+   private static class PooledClient {
+      private final MongoClient client;
+      private final MongoCollectionRegistry collectionRegistry;
+      private final MongoQueryStatistics queryStatistics = new MongoQueryStatistics();
+      private final MongoQueryCache queryCache = new MongoQueryCache();
+      private final AtomicInteger leases = new AtomicInteger();
+
+      private PooledClient(final MongoClient client, final String database) {
+         this.client = client;
+         this.collectionRegistry = new MongoCollectionRegistry(client.getDatabase(database));
+      }
+   }
+}
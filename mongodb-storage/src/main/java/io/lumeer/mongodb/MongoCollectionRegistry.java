@@ -0,0 +1,126 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.mongodb;
+
+import com.mongodb.client.MongoDatabase;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Application-wide set of collection names in a single database shared by all storages connected to it.
+ * Collections created and dropped through the storage are registered immediately. Collections created and dropped
+ * by the other nodes are picked up when the names are listed again, which happens at most once per {@link #RELOAD_INTERVAL}
+ * or on the next lookup after {@link #invalidate()}.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class MongoCollectionRegistry {
+
+   private static final long RELOAD_INTERVAL = 5000L;
+
+   private final MongoDatabase database;
+
+   private final Set<String> collections = ConcurrentHashMap.newKeySet();
+
+   private volatile long lastLoaded = 0L;
+
+   public MongoCollectionRegistry(final MongoDatabase database) {
+      this.database = database;
+   }
+
+   /**
+    * Gets names of all collections in the database.
+    *
+    * @return Snapshot of the collection names.
+    */
+   public List<String> getCollections() {
+      reloadIfExpired();
+
+      return new ArrayList<>(collections);
+   }
+
+   /**
+    * Checks whether the collection exists. Both known and unknown names trigger a reload from the database when the last
+    * reload is older than {@link #RELOAD_INTERVAL} or {@link #invalidate()} was called.
+    *
+    * @param collectionName
+    *       Name of the collection.
+    * @return True if and only if the collection exists.
+    */
+   public boolean contains(final String collectionName) {
+      reloadIfExpired();
+
+      return collections.contains(collectionName);
+   }
+
+   /**
+    * Registers a newly created collection.
+    *
+    * @param collectionName
+    *       Name of the collection.
+    */
+   public synchronized void add(final String collectionName) {
+      collections.add(collectionName);
+   }
+
+   /**
+    * Unregisters a dropped collection.
+    *
+    * @param collectionName
+    *       Name of the collection.
+    */
+   public synchronized void remove(final String collectionName) {
+      collections.remove(collectionName);
+   }
+
+   /**
+    * Forces reload of collection names on the next lookup.
+    */
+   public void invalidate() {
+      lastLoaded = 0L;
+   }
+
+   private void reloadIfExpired() {
+      if (isExpired()) {
+         reload();
+      }
+   }
+
+   private boolean isExpired() {
+      return lastLoaded + RELOAD_INTERVAL < System.currentTimeMillis();
+   }
+
+   private synchronized void reload() {
+      // another thread may have reloaded the names while this one was waiting
+      if (!isExpired()) {
+         return;
+      }
+
+      final Set<String> loaded = database.listCollectionNames().into(new HashSet<>());
+
+      collections.retainAll(loaded);
+      collections.addAll(loaded);
+      lastLoaded = System.currentTimeMillis();
+   }
+}
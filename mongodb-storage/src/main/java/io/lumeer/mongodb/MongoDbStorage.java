@@ -23,26 +23,36 @@ import io.lumeer.engine.api.LumeerConst;
 import io.lumeer.engine.api.data.DataDocument;
 import io.lumeer.engine.api.data.DataStorage;
 import io.lumeer.engine.api.data.Query;
+import io.lumeer.engine.api.data.QueryShape;
 import io.lumeer.engine.api.data.StorageConnection;
+import io.lumeer.engine.api.event.CreateCollection;
+import io.lumeer.engine.api.event.DropCollection;
 import io.lumeer.engine.api.exception.UnsuccessfulOperationException;
 
 import com.mongodb.BasicDBObject;
 import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
 import com.mongodb.MongoClient;
-import com.mongodb.MongoClientOptions;
-import com.mongodb.MongoCredential;
 import com.mongodb.MongoWriteException;
-import com.mongodb.ServerAddress;
 import com.mongodb.client.AggregateIterable;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndReplaceOptions;
 import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.InsertManyOptions;
 import com.mongodb.client.model.Projections;
 import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOneModel;
 import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
 import org.bson.BsonDocument;
+import org.bson.BsonDocumentWrapper;
+import org.bson.BsonValue;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
@@ -55,10 +65,21 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.enterprise.context.SessionScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.Reception;
 import javax.inject.Inject;
 import javax.inject.Named;
 
@@ -72,11 +93,13 @@ public class MongoDbStorage implements DataStorage {
 
    private static final String CURSOR_KEY = "cursor";
    private static final String FIRST_BATCH_KEY = "firstBatch";
+   private static final Set<String> READ_COMMANDS = new HashSet<>(Arrays.asList("find", "count", "distinct", "aggregate", "listIndexes", "listCollections", "collStats", "dbStats", "explain", "ping"));
 
    private MongoDatabase database;
    private MongoClient mongoClient = null;
-   private List<String> collectionCache = null;
-   private long cacheLastUpdated = 0L;
+   private MongoCollectionRegistry collectionRegistry = null;
+   private MongoQueryStatistics queryStatistics = null;
+   private MongoQueryCache queryCache = null;
 
    @Inject
    @Named("dataStorageConnection")
@@ -93,6 +116,24 @@ public class MongoDbStorage implements DataStorage {
    @Inject
    private Logger log;
 
+   @Inject
+   private MongoClientProvider mongoClientProvider;
+
+   private boolean ownsClientProvider = false;
+
+   public MongoDbStorage() {
+   }
+
+   /**
+    * Creates a storage borrowing connections from the given provider. Used when the storage is not managed by CDI.
+    *
+    * @param mongoClientProvider
+    *       Shared client provider.
+    */
+   public MongoDbStorage(final MongoClientProvider mongoClientProvider) {
+      this.mongoClientProvider = mongoClientProvider;
+   }
+
    @PostConstruct
    public void connect() {
       if (mongoClient == null) {
@@ -102,62 +143,73 @@ public class MongoDbStorage implements DataStorage {
 
    @Override
    public void connect(final List<StorageConnection> connections, final String database, final Boolean useSsl) {
-      final List<ServerAddress> addresses = new ArrayList<>();
-      final List<MongoCredential> credentials = new ArrayList<>();
-
-      connections.forEach(c -> {
-         addresses.add(new ServerAddress(c.getHost(), c.getPort()));
-         if (c.getUserName() != null && !c.getUserName().isEmpty()) {
-            credentials.add(MongoCredential.createScramSha1Credential(c.getUserName(), database, c.getPassword()));
-         }
-      });
-
-      final MongoClientOptions.Builder optionsBuilder = (new MongoClientOptions.Builder()).connectTimeout(30000);
+      if (mongoClientProvider == null) {
+         mongoClientProvider = new MongoClientProvider();
+         ownsClientProvider = true;
+      }
 
-      if (useSsl) {
-         optionsBuilder.sslEnabled(true).socketFactory(NaiveTrustManager.getSocketFactory()).sslInvalidHostNameAllowed(true);
+      if (mongoClient != null) {
+         mongoClientProvider.release(mongoClient);
       }
 
-      this.mongoClient = new MongoClient(addresses, credentials, optionsBuilder.build());
+      this.mongoClient = mongoClientProvider.acquire(connections, database, useSsl);
       this.database = mongoClient.getDatabase(database);
+      this.collectionRegistry = mongoClientProvider.getCollectionRegistry(mongoClient);
+      this.queryStatistics = mongoClientProvider.getQueryStatistics(mongoClient);
+      this.queryCache = mongoClientProvider.getQueryCache(mongoClient);
    }
 
+   /**
+    * Returns the borrowed client to the shared pool. The pool itself stays open unless this storage
+    * created its own provider outside of the CDI container.
+    */
    @PreDestroy
    @Override
    public void disconnect() {
       if (mongoClient != null) {
-         mongoClient.close();
+         mongoClientProvider.release(mongoClient);
+         mongoClient = null;
+      }
+
+      if (ownsClientProvider) {
+         mongoClientProvider.close();
       }
    }
 
    @Override
    public List<String> getAllCollections() {
-      if (collectionCache == null || cacheLastUpdated + 5000 < System.currentTimeMillis()) {
-         collectionCache = database.listCollectionNames().into(new ArrayList<>());
-         cacheLastUpdated = System.currentTimeMillis();
-      }
-      return collectionCache;
+      return collectionRegistry.getCollections();
    }
 
    @Override
    public void createCollection(final String collectionName) {
-      if (collectionCache != null) {
-         collectionCache.add(collectionName);
-      }
       database.createCollection(collectionName);
+      collectionRegistry.add(collectionName);
    }
 
    @Override
    public void dropCollection(final String collectionName) {
-      if (collectionCache != null) {
-         collectionCache.remove(collectionName);
-      }
       database.getCollection(collectionName).drop();
+      collectionRegistry.remove(collectionName);
+      queryStatistics.invalidate(collectionName);
    }
 
    @Override
    public boolean hasCollection(final String collectionName) {
-      return getAllCollections().contains(collectionName);
+      return collectionRegistry.contains(collectionName);
+   }
+
+   public void onCreateCollection(@Observes(notifyObserver = Reception.IF_EXISTS) final CreateCollection event) {
+      if (collectionRegistry != null) {
+         collectionRegistry.add(event.getInternalName());
+      }
+   }
+
+   public void onDropCollection(@Observes(notifyObserver = Reception.IF_EXISTS) final DropCollection event) {
+      if (collectionRegistry != null) {
+         collectionRegistry.remove(event.getInternalName());
+         queryStatistics.invalidate(event.getInternalName());
+      }
    }
 
    @Override
@@ -167,9 +219,23 @@ public class MongoDbStorage implements DataStorage {
 
    @Override
    public String createDocument(final String collectionName, final DataDocument dataDocument) {
-      Document doc = new Document(dataDocument);
-      database.getCollection(collectionName).insertOne(doc);
-      return doc.containsKey(LumeerConst.Document.ID) ? doc.getObjectId(LumeerConst.Document.ID).toString() : null;
+      DataDocument doc = new DataDocument(dataDocument);
+      database.getCollection(collectionName, DataDocument.class).insertOne(doc);
+      collectionRegistry.add(collectionName);
+      return doc.containsKey(LumeerConst.Document.ID) ? doc.get(LumeerConst.Document.ID).toString() : null;
+   }
+
+   @Override
+   public List<String> createDocuments(final String collectionName, final List<DataDocument> dataDocuments) {
+      if (dataDocuments.isEmpty()) {
+         return Collections.emptyList();
+      }
+
+      final List<DataDocument> documents = dataDocuments.stream().map(DataDocument::new).collect(Collectors.toList());
+      database.getCollection(collectionName, DataDocument.class).insertMany(documents);
+      collectionRegistry.add(collectionName);
+
+      return documents.stream().map(doc -> doc.containsKey(LumeerConst.Document.ID) ? doc.get(LumeerConst.Document.ID).toString() : null).collect(Collectors.toList());
    }
 
    @Override
@@ -178,6 +244,7 @@ public class MongoDbStorage implements DataStorage {
       doc.put(LumeerConst.Document.ID, new BasicDBObject(LumeerConst.Document.ID, new ObjectId(documentId)).append(LumeerConst.METADATA_VERSION_KEY, version));
       try {
          database.getCollection(collectionName).insertOne(doc);
+         collectionRegistry.add(collectionName);
       } catch (MongoWriteException e) {
          if (e.getError().getCategory().equals(ErrorCategory.DUPLICATE_KEY)) {
             throw new UnsuccessfulOperationException(e.getMessage(), e.getCause());
@@ -188,54 +255,55 @@ public class MongoDbStorage implements DataStorage {
    }
 
    @Override
-   public DataDocument readDocumentIncludeAttrs(final String collectionName, final String documentId, final List<String> attributes) {
-      BasicDBObject filter = new BasicDBObject(LumeerConst.Document.ID, new ObjectId(documentId));
-      Bson projection = Projections.include(attributes);
-      Document document = database.getCollection(collectionName).find(filter).projection(projection).first();
-
-      if (document == null) {
-         return null;
+   public Set<String> createOldDocuments(final String collectionName, final List<DataDocument> dataDocuments) {
+      if (dataDocuments.isEmpty()) {
+         return Collections.emptySet();
       }
 
-      // converts id to string
-      MongoUtils.replaceId(document);
-      DataDocument readed = new DataDocument(document);
-      MongoUtils.convertNestedAndListDocuments(readed);
+      final List<Document> documents = dataDocuments.stream().map(dataDocument -> {
+         Document doc = new Document(dataDocument);
+         doc.put(LumeerConst.Document.ID, new BasicDBObject(LumeerConst.Document.ID, new ObjectId(dataDocument.getId())).append(
+               LumeerConst.METADATA_VERSION_KEY, dataDocument.getInteger(LumeerConst.METADATA_VERSION_KEY, 0)));
+         return doc;
+      }).collect(Collectors.toList());
+
+      final Set<String> present = new HashSet<>();
+      try {
+         database.getCollection(collectionName).insertMany(documents, new InsertManyOptions().ordered(false));
+      } catch (MongoBulkWriteException e) {
+         if (e.getWriteErrors().stream().anyMatch(error -> ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY)) {
+            throw e;
+         }
+         e.getWriteErrors().forEach(error -> present.add(dataDocuments.get(error.getIndex()).getId()));
+      }
+      collectionRegistry.add(collectionName);
 
-      return readed;
+      return present;
    }
 
    @Override
-   public DataDocument readDocument(final String collectionName, final String documentId) {
+   public DataDocument readDocumentIncludeAttrs(final String collectionName, final String documentId, final List<String> attributes) {
       BasicDBObject filter = new BasicDBObject(LumeerConst.Document.ID, new ObjectId(documentId));
-      Document document = database.getCollection(collectionName).find(filter).first();
+      Bson projection = Projections.include(attributes);
 
-      if (document == null) {
-         return null;
-      }
+      // id is converted to string by the codec
+      return database.getCollection(collectionName, DataDocument.class).find(filter).projection(projection).first();
+   }
 
-      // converts id to string
-      MongoUtils.replaceId(document);
-      DataDocument readed = new DataDocument(document);
-      MongoUtils.convertNestedAndListDocuments(readed);
+   @Override
+   public DataDocument readDocument(final String collectionName, final String documentId) {
+      BasicDBObject filter = new BasicDBObject(LumeerConst.Document.ID, new ObjectId(documentId));
 
-      return readed;
+      // id is converted to string by the codec
+      return database.getCollection(collectionName, DataDocument.class).find(filter).first();
    }
 
    @Override
    public DataDocument readOldDocument(final String collectionName, final String documentId, final int version) {
       BasicDBObject filter = new BasicDBObject(LumeerConst.Document.ID, new BasicDBObject(LumeerConst.Document.ID, new ObjectId(documentId)).append(
             LumeerConst.METADATA_VERSION_KEY, version));
-      Document document = database.getCollection(collectionName).find(filter).first();
 
-      if (document == null) {
-         return null;
-      }
-      MongoUtils.replaceId(document);
-      DataDocument readed = new DataDocument(document);
-      MongoUtils.convertNestedAndListDocuments(readed);
-
-      return readed;
+      return database.getCollection(collectionName, DataDocument.class).find(filter).first();
    }
 
    @Override
@@ -245,10 +313,84 @@ public class MongoDbStorage implements DataStorage {
          toUpdate.remove(LumeerConst.Document.ID);
       }
       BasicDBObject filter = new BasicDBObject(LumeerConst.Document.ID, new ObjectId(documentId));
-      BasicDBObject updateBson = new BasicDBObject("$set", new BasicDBObject(toUpdate));
+      Document updateBson = new Document("$set", toUpdate);
       database.getCollection(collectionName).updateOne(filter, updateBson);
    }
 
+   @Override
+   public void updateDocuments(final String collectionName, final List<DataDocument> updatedDocuments) {
+      if (updatedDocuments.isEmpty()) {
+         return;
+      }
+
+      final List<WriteModel<Document>> updates = updatedDocuments.stream().map(updatedDocument -> {
+         DataDocument toUpdate = new DataDocument(updatedDocument);
+         toUpdate.remove(LumeerConst.Document.ID);
+         BasicDBObject filter = new BasicDBObject(LumeerConst.Document.ID, new ObjectId(updatedDocument.getId()));
+         Document updateBson = new Document("$set", toUpdate);
+         return new UpdateOneModel<Document>(filter, updateBson);
+      }).collect(Collectors.toList());
+
+      database.getCollection(collectionName).bulkWrite(updates, new BulkWriteOptions().ordered(false));
+   }
+
+   @Override
+   public DataDocument updateDocumentIfVersion(final String collectionName, final DataDocument updatedDocument, final String documentId, final int version) {
+      DataDocument toUpdate = new DataDocument(updatedDocument);
+      toUpdate.remove(LumeerConst.Document.ID);
+      toUpdate.put(LumeerConst.METADATA_VERSION_KEY, version + 1);
+      Document updateBson = new Document("$set", toUpdate);
+
+      // id is converted to string by the codec
+      return database.getCollection(collectionName, DataDocument.class).findOneAndUpdate(versionFilter(documentId, version), updateBson,
+            new FindOneAndUpdateOptions().returnDocument(ReturnDocument.BEFORE));
+   }
+
+   @Override
+   public DataDocument replaceDocumentIfVersion(final String collectionName, final DataDocument replaceDocument, final String documentId, final int version) {
+      DataDocument toReplace = new DataDocument(replaceDocument);
+      toReplace.remove(LumeerConst.Document.ID);
+      toReplace.put(LumeerConst.METADATA_VERSION_KEY, version + 1);
+
+      return database.getCollection(collectionName, DataDocument.class).findOneAndReplace(versionFilter(documentId, version), toReplace,
+            new FindOneAndReplaceOptions().returnDocument(ReturnDocument.BEFORE));
+   }
+
+   // matches the document with the given id in the given version, documents without version are in version 0
+   private static Bson versionFilter(final String documentId, final int version) {
+      final Bson idFilter = Filters.eq(LumeerConst.Document.ID, new ObjectId(documentId));
+
+      if (version == 0) {
+         return Filters.and(idFilter, Filters.or(Filters.eq(LumeerConst.METADATA_VERSION_KEY, 0), Filters.exists(LumeerConst.METADATA_VERSION_KEY, false)));
+      }
+
+      return Filters.and(idFilter, Filters.eq(LumeerConst.METADATA_VERSION_KEY, version));
+   }
+
+   @Override
+   public int updateDocumentsIfVersion(final String collectionName, final List<DataDocument> updatedDocuments, final List<String> removedAttributes) {
+      if (updatedDocuments.isEmpty()) {
+         return 0;
+      }
+
+      final Document unset = new Document();
+      removedAttributes.forEach(attribute -> unset.append(attribute, ""));
+
+      final List<WriteModel<Document>> updates = updatedDocuments.stream().map(updatedDocument -> {
+         int version = updatedDocument.getInteger(LumeerConst.METADATA_VERSION_KEY, 0);
+         DataDocument toUpdate = new DataDocument(updatedDocument);
+         toUpdate.remove(LumeerConst.Document.ID);
+         toUpdate.put(LumeerConst.METADATA_VERSION_KEY, version + 1);
+         Document updateBson = new Document("$set", toUpdate);
+         if (!unset.isEmpty()) {
+            updateBson.append("$unset", unset);
+         }
+         return new UpdateOneModel<Document>(versionFilter(updatedDocument.getId(), version), updateBson);
+      }).collect(Collectors.toList());
+
+      return database.getCollection(collectionName).bulkWrite(updates, new BulkWriteOptions().ordered(false)).getMatchedCount();
+   }
+
    @Override
    public void replaceDocument(final String collectionName, final DataDocument replaceDocument, final String documentId) {
       DataDocument toReplace = new DataDocument(replaceDocument);
@@ -256,8 +398,7 @@ public class MongoDbStorage implements DataStorage {
          toReplace.remove(LumeerConst.Document.ID);
       }
       BasicDBObject filter = new BasicDBObject(LumeerConst.Document.ID, new ObjectId(documentId));
-      Document replaceDoc = new Document(toReplace);
-      database.getCollection(collectionName).replaceOne(filter, replaceDoc);
+      database.getCollection(collectionName, DataDocument.class).replaceOne(filter, toReplace);
    }
 
    @Override
@@ -371,13 +512,19 @@ public class MongoDbStorage implements DataStorage {
 
    @Override
    public List<DataDocument> run(final DataDocument command) {
-      return run(MongoUtils.dataDocumentToDocument(command));
+      return run(toBson(command));
+   }
+
+   // wraps the document so that the driver encodes it directly without converting it to a Document first
+   private Bson toBson(final DataDocument document) {
+      return new BsonDocumentWrapper<>(document, database.getCodecRegistry().get(DataDocument.class));
    }
 
    private List<DataDocument> run(final Bson command) {
       final List<DataDocument> result = new ArrayList<>();
 
       Document cursor = (Document) database.runCommand(command).get(CURSOR_KEY);
+      registerCollectionChanges(command);
 
       if (cursor != null) {
          ((ArrayList<Document>) cursor.get(FIRST_BATCH_KEY)).forEach(d -> {
@@ -391,12 +538,84 @@ public class MongoDbStorage implements DataStorage {
       return result;
    }
 
+   /**
+    * Keeps the collection registry up to date with collections created, renamed or dropped by a raw command.
+    *
+    * @param command
+    *       Command that has been run.
+    */
+   private void registerCollectionChanges(final Bson command) {
+      final BsonDocument commandDocument = command.toBsonDocument(BsonDocument.class, MongoClient.getDefaultCodecRegistry());
+      if (commandDocument.isEmpty()) {
+         return;
+      }
+
+      final String commandName = commandDocument.keySet().iterator().next();
+      final BsonValue target = commandDocument.get(commandName);
+
+      if (!target.isString()) {
+         if (!READ_COMMANDS.contains(commandName)) {
+            collectionRegistry.invalidate();
+         }
+         return;
+      }
+
+      final String collectionName = target.asString().getValue();
+
+      switch (commandName) {
+         case "create":
+         case "insert":
+         case "update":
+         case "findAndModify":
+         case "findandmodify":
+         case "createIndexes":
+            collectionRegistry.add(collectionName);
+            break;
+         case "drop":
+            collectionRegistry.remove(collectionName);
+            break;
+         case "renameCollection":
+            collectionRegistry.remove(stripDatabaseName(collectionName));
+            if (commandDocument.containsKey("to") && commandDocument.get("to").isString()) {
+               collectionRegistry.add(stripDatabaseName(commandDocument.getString("to").getValue()));
+            }
+            break;
+         default:
+            if (!READ_COMMANDS.contains(commandName)) {
+               collectionRegistry.invalidate();
+            }
+      }
+   }
+
+   private String stripDatabaseName(final String namespace) {
+      final String databasePrefix = database.getName() + ".";
+      return namespace.startsWith(databasePrefix) ? namespace.substring(databasePrefix.length()) : namespace;
+   }
+
    @Override
    public List<DataDocument> search(final String collectionName, final String filter, final String sort, final int skip, final int limit) {
-      final List<DataDocument> result = new ArrayList<>();
+      return find(collectionName, filter, sort, skip, limit).into(new ArrayList<>());
+   }
 
-      MongoCollection<Document> collection = database.getCollection(collectionName);
-      FindIterable<Document> documents = filter != null ? collection.find(BsonDocument.parse(filter)) : collection.find();
+   @Override
+   public List<DataDocument> search(final String collectionName, final String filter, final String sort, final List<String> attributes, final int skip, final int limit) {
+      FindIterable<DataDocument> documents = find(collectionName, filter, sort, skip, limit);
+      if (attributes != null) {
+         documents = documents.projection(Projections.include(attributes));
+      }
+
+      return documents.into(new ArrayList<>());
+   }
+
+   @Override
+   public Stream<DataDocument> searchStream(final String collectionName, final String filter, final String sort, final int skip, final int limit, final int batchSize) {
+      return cursorStream(() -> find(collectionName, filter, sort, skip, limit).batchSize(batchSize).iterator(), Function.identity());
+   }
+
+   // prepares find operation without executing it
+   private FindIterable<DataDocument> find(final String collectionName, final String filter, final String sort, final int skip, final int limit) {
+      MongoCollection<DataDocument> collection = database.getCollection(collectionName, DataDocument.class);
+      FindIterable<DataDocument> documents = filter != null ? collection.find(BsonDocument.parse(filter)) : collection.find();
       if (sort != null && !sort.isEmpty()) {
          documents = documents.sort(BsonDocument.parse(sort));
       }
@@ -407,14 +626,36 @@ public class MongoDbStorage implements DataStorage {
          documents = documents.limit(limit);
       }
 
-      documents.into(new ArrayList<>()).forEach(d -> {
-         MongoUtils.replaceId(d);
-         DataDocument raw = new DataDocument(d);
-         MongoUtils.convertNestedAndListDocuments(raw);
-         result.add(raw);
+      return documents;
+   }
+
+   // creates a lazy stream over the cursor, the cursor is opened by the terminal operation and closed together with the stream
+   private static <T> Stream<DataDocument> cursorStream(final Supplier<MongoCursor<T>> cursorSupplier, final Function<T, DataDocument> converter) {
+      final AtomicReference<MongoCursor<T>> cursor = new AtomicReference<>();
+
+      return StreamSupport.stream(() -> {
+         final MongoCursor<T> opened = cursorSupplier.get();
+         cursor.set(opened);
+         return Spliterators.spliteratorUnknownSize(opened, Spliterator.ORDERED | Spliterator.NONNULL);
+      }, Spliterator.ORDERED | Spliterator.NONNULL, false).map(converter).onClose(() -> {
+         final MongoCursor<T> opened = cursor.getAndSet(null);
+         if (opened != null) {
+            opened.close();
+         }
       });
+   }
 
-      return result;
+   // converts a document produced by aggregation, grouped documents have the group key in their id
+   private static DataDocument convertAggregatedDocument(final Document document) {
+      if (document.get(LumeerConst.Document.ID) instanceof Document) {
+         document.replace(LumeerConst.Document.ID, ((Document) document.get(LumeerConst.Document.ID)).toJson());
+      } else if (document.get(LumeerConst.Document.ID) instanceof ObjectId) {
+         document.replace(LumeerConst.Document.ID, document.getObjectId(LumeerConst.Document.ID).toString());
+      }
+      DataDocument raw = new DataDocument(document);
+      MongoUtils.convertNestedAndListDocuments(raw);
+
+      return raw;
    }
 
    @Override
@@ -427,6 +668,136 @@ public class MongoDbStorage implements DataStorage {
    @Override
    public List<DataDocument> query(final Query query) {
       List<DataDocument> result = new LinkedList<>();
+      final QueryShape shape = QueryShape.of(query);
+      List<Bson> stages = queryCache.getPipeline(shape, () -> queryStages(query)).stream().map(this::toBson).collect(Collectors.toList());
+
+      if (!stages.isEmpty()) {
+         query.getCollections().forEach(collection -> {
+            final long start = System.nanoTime();
+            aggregate(collection, stages, query.getTimeout()).into(new LinkedList<>()).forEach(d -> result.add(convertAggregatedDocument(d)));
+            queryStatistics.getStatistics(collection, shape).record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+         });
+      }
+
+      if (query.getOutput() != null && !query.getOutput().isEmpty()) {
+         collectionRegistry.add(query.getOutput());
+      }
+
+      return result;
+   }
+
+   @Override
+   public Stream<DataDocument> queryStream(final Query query, final int batchSize) {
+      final QueryShape shape = QueryShape.of(query);
+      final List<Bson> stages = queryCache.getPipeline(shape, () -> queryStages(query)).stream().map(this::toBson).collect(Collectors.toList());
+
+      // the recorded time includes the time the consumer spent processing the documents
+      Stream<DataDocument> result = query.getCollections().stream().flatMap(collection -> {
+         final long start = System.nanoTime();
+
+         return cursorStream(() -> aggregate(collection, stages, query.getTimeout()).batchSize(batchSize).iterator(), MongoDbStorage::convertAggregatedDocument)
+               .onClose(() -> queryStatistics.getStatistics(collection, shape).record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+      });
+
+      if (query.getOutput() != null && !query.getOutput().isEmpty()) {
+         result = result.onClose(() -> collectionRegistry.add(query.getOutput()));
+      }
+
+      return result;
+   }
+
+   @Override
+   public List<DataDocument> explain(final Query query) {
+      final List<DataDocument> result = new ArrayList<>();
+      final QueryShape shape = QueryShape.of(query);
+
+      for (final String collection : query.getCollections()) {
+         final Document explained = database.runCommand(new Document("explain", findCommand(collection, query)).append("verbosity", "executionStats"));
+         final Document queryPlanner = (Document) explained.get("queryPlanner");
+         final Document executionStats = (Document) explained.get("executionStats");
+         final Document winningPlan = (Document) queryPlanner.get("winningPlan");
+         final List<String> indexes = new ArrayList<>();
+         collectIndexes(winningPlan, indexes);
+
+         final DataDocument plan = new DataDocument(winningPlan);
+         MongoUtils.convertNestedAndListDocuments(plan);
+
+         result.add(new DataDocument("collection", collection)
+               .append("shape", shape.getKey())
+               .append("indexes", indexes)
+               .append("collectionScan", hasStage(winningPlan, "COLLSCAN"))
+               .append("docsExamined", executionStats.get("totalDocsExamined"))
+               .append("keysExamined", executionStats.get("totalKeysExamined"))
+               .append("returned", executionStats.get("nReturned"))
+               .append("executionTime", executionStats.get("executionTimeMillis"))
+               .append("plan", plan)
+               .append("statistics", queryStatistics.getStatistics(collection, shape).getStatistics()));
+      }
+
+      return result;
+   }
+
+   // translates the part of the query the database evaluates on the collection cursor to an equivalent find command,
+   // sorting, skip and limit are applied by the cursor only when they are not preceded by grouping or projections
+   private static Document findCommand(final String collectionName, final Query query) {
+      final Document find = new Document("find", collectionName).append("filter", query.getFilters());
+
+      if (query.getGrouping().isEmpty() && query.getProjections().isEmpty()) {
+         if (!query.getSorting().isEmpty()) {
+            find.append("sort", query.getSorting());
+         }
+         if (query.getSkip() != null && query.getSkip() > 0) {
+            find.append("skip", query.getSkip());
+         }
+         if (query.getLimit() != null && query.getLimit() > 0) {
+            find.append("limit", query.getLimit());
+         }
+      }
+
+      if (query.getTimeout() != null && query.getTimeout() > 0) {
+         find.append("maxTimeMS", query.getTimeout());
+      }
+
+      return find;
+   }
+
+   // collects names of indexes scanned by the plan stage and its input stages
+   private static void collectIndexes(final Document stage, final List<String> indexes) {
+      if ("IXSCAN".equals(stage.getString("stage"))) {
+         indexes.add(stage.getString("indexName"));
+      }
+
+      if (stage.get("inputStage") instanceof Document) {
+         collectIndexes((Document) stage.get("inputStage"), indexes);
+      }
+
+      if (stage.get("inputStages") instanceof List) {
+         ((List<?>) stage.get("inputStages")).forEach(input -> collectIndexes((Document) input, indexes));
+      }
+   }
+
+   // checks whether the plan stage or any of its input stages is of the given type
+   private static boolean hasStage(final Document stage, final String type) {
+      if (type.equals(stage.getString("stage"))) {
+         return true;
+      }
+
+      if (stage.get("inputStage") instanceof Document && hasStage((Document) stage.get("inputStage"), type)) {
+         return true;
+      }
+
+      return stage.get("inputStages") instanceof List && ((List<?>) stage.get("inputStages")).stream().anyMatch(input -> hasStage((Document) input, type));
+   }
+
+   // runs the aggregation pipeline on the collection, the database aborts it when it runs longer than the timeout
+   private AggregateIterable<Document> aggregate(final String collectionName, final List<Bson> stages, final Integer timeout) {
+      final AggregateIterable<Document> documents = database.getCollection(collectionName).aggregate(stages);
+
+      return timeout != null && timeout > 0 ? documents.maxTime(timeout, TimeUnit.MILLISECONDS) : documents;
+   }
+
+   // translates the query to aggregation pipeline stages
+   private List<DataDocument> queryStages(final Query query) {
       List<DataDocument> stages = new LinkedList<>();
 
       if (query.getFilters().size() > 0) {
@@ -471,11 +842,7 @@ public class MongoDbStorage implements DataStorage {
          stages.add(output);
       }
 
-      query.getCollections().forEach(collection -> {
-         result.addAll(aggregate(collection, stages.toArray(new DataDocument[stages.size()])));
-      });
-
-      return result;
+      return stages;
    }
 
    @Override
@@ -485,22 +852,13 @@ public class MongoDbStorage implements DataStorage {
       }
 
       final List<DataDocument> result = new LinkedList<>();
-      final List<Document> documents = new LinkedList<>();
+      final List<Bson> documents = new LinkedList<>();
       for (final DataDocument d : stages) {
-         documents.add(MongoUtils.dataDocumentToDocument(d));
+         documents.add(toBson(d));
       }
 
       AggregateIterable<Document> resultDocuments = database.getCollection(collectionName).aggregate(documents);
-      resultDocuments.into(new LinkedList<>()).forEach(d -> {
-         if (d.get(LumeerConst.Document.ID) instanceof Document) {
-            d.replace(LumeerConst.Document.ID, ((Document) d.get(LumeerConst.Document.ID)).toJson());
-         } else {
-            d.replace(LumeerConst.Document.ID, d.getObjectId(LumeerConst.Document.ID).toString());
-         }
-         DataDocument raw = new DataDocument(d);
-         MongoUtils.convertNestedAndListDocuments(raw);
-         result.add(raw);
-      });
+      resultDocuments.into(new LinkedList<>()).forEach(d -> result.add(convertAggregatedDocument(d)));
 
       return result;
    }
@@ -541,12 +899,20 @@ public class MongoDbStorage implements DataStorage {
          newSeq.put(indexAttribute, index);
          newSeq.put("seq", 0);
          database.getCollection(collectionName).insertOne(newSeq);
+         collectionRegistry.add(collectionName);
       }
    }
 
    @Override
    public void createIndex(final String collectionName, final DataDocument indexAttributes) {
-      database.getCollection(collectionName).createIndex(MongoUtils.dataDocumentToDocument(indexAttributes));
+      database.getCollection(collectionName).createIndex(toBson(indexAttributes));
+      collectionRegistry.add(collectionName);
+   }
+
+   @Override
+   public void createIndex(final String collectionName, final DataDocument indexAttributes, final String indexName) {
+      database.getCollection(collectionName).createIndex(toBson(indexAttributes), new IndexOptions().name(indexName).background(true));
+      collectionRegistry.add(collectionName);
    }
 
    @Override
@@ -565,6 +931,6 @@ public class MongoDbStorage implements DataStorage {
 
    @Override
    public void invalidateCaches() {
-      collectionCache = null;
+      collectionRegistry.invalidate();
    }
 }
\ No newline at end of file
@@ -0,0 +1,163 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.mongodb;
+
+import io.lumeer.engine.api.data.DataDocument;
+import io.lumeer.engine.api.data.QueryShape;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Application-wide cache of aggregation pipelines compiled for {@link QueryShape}s in a single database. A pipeline is
+ * compiled once per shape with the values replaced by parameter slots, every query of the same shape then only binds its
+ * values to the slots. The slots follow the rules of {@link QueryShape}, so they are bound in the order of its parameters.
+ * At most {@link #MAX_SHAPES} pipelines are kept, the least recently used ones are evicted.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class MongoQueryCache {
+
+   private static final int MAX_SHAPES = 1000;
+
+   private static final Object SLOT = new Object();
+
+   private final Map<String, CompiledPipeline> pipelines = Collections.synchronizedMap(new LinkedHashMap<String, CompiledPipeline>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<String, CompiledPipeline> eldest) {
+         return size() > MAX_SHAPES;
+      }
+   });
+
+   /**
+    * Gets the aggregation pipeline of a query with the values of the query bound to the pipeline compiled for its shape.
+    *
+    * @param shape
+    *       Shape of the query.
+    * @param stages
+    *       Translates the query to pipeline stages, called only when the shape was not compiled yet.
+    * @return Pipeline stages of the query.
+    */
+   public List<DataDocument> getPipeline(final QueryShape shape, final Supplier<List<DataDocument>> stages) {
+      CompiledPipeline pipeline = pipelines.get(shape.getKey());
+
+      if (pipeline == null) {
+         pipeline = new CompiledPipeline(stages.get());
+
+         // a pipeline not matching the shape parameters is never reused
+         if (pipeline.slots != shape.getParameters().size()) {
+            return stages.get();
+         }
+         pipelines.put(shape.getKey(), pipeline);
+      } else if (pipeline.slots != shape.getParameters().size()) {
+         return stages.get();
+      }
+
+      final Iterator<Object> parameters = shape.getParameters().iterator();
+      final List<DataDocument> bound = new ArrayList<>(pipeline.stages.size());
+      pipeline.stages.forEach(stage -> bound.add((DataDocument) bind(stage, parameters)));
+
+      if (parameters.hasNext()) {
+         throw new IllegalStateException("Query parameters do not match the pipeline compiled for shape " + shape.getKey());
+      }
+
+      return bound;
+   }
+
+   // copies the compiled value with its slots replaced by the parameters
+   private static Object bind(final Object value, final Iterator<Object> parameters) {
+      if (value == SLOT) {
+         return parameters.next();
+      }
+
+      if (value instanceof Map) {
+         final DataDocument document = new DataDocument();
+         ((Map<?, ?>) value).forEach((key, item) -> document.put(String.valueOf(key), bind(item, parameters)));
+         return document;
+      }
+
+      if (value instanceof List) {
+         final List<Object> list = new ArrayList<>(((List<?>) value).size());
+         ((List<?>) value).forEach(item -> list.add(bind(item, parameters)));
+         return list;
+      }
+
+      return value;
+   }
+
+   /**
+    * Pipeline stages with values replaced by parameter slots.
+    */
+   private static class CompiledPipeline {
+
+      private final List<DataDocument> stages = new ArrayList<>();
+
+      private int slots = 0;
+
+      private CompiledPipeline(final List<DataDocument> stages) {
+         stages.forEach(stage -> {
+            final DataDocument compiled = new DataDocument();
+
+            // projections and sorting specify the plan, they have no values
+            stage.forEach((name, value) -> compiled.put(name, compile(value, "$project".equals(name) || "$sort".equals(name))));
+            this.stages.add(compiled);
+         });
+      }
+
+      // replaces values by slots the same way the query shape does
+      private Object compile(final Object value, final boolean literal) {
+         if (value instanceof Map) {
+            final DataDocument document = new DataDocument();
+
+            ((Map<?, ?>) value).forEach((key, item) -> {
+               if (!literal && QueryShape.isListOperator(key) && item instanceof List) {
+                  document.put(String.valueOf(key), slot());
+               } else {
+                  document.put(String.valueOf(key), compile(item, literal));
+               }
+            });
+
+            return document;
+         }
+
+         if (value instanceof List) {
+            final List<Object> list = new ArrayList<>(((List<?>) value).size());
+            ((List<?>) value).forEach(item -> list.add(compile(item, literal)));
+            return list;
+         }
+
+         if (literal || (value instanceof String && ((String) value).startsWith("$"))) {
+            return value;
+         }
+
+         return slot();
+      }
+
+      private Object slot() {
+         slots++;
+         return SLOT;
+      }
+   }
+}
@@ -0,0 +1,126 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.mongodb;
+
+import io.lumeer.engine.api.data.DataDocument;
+import io.lumeer.engine.api.data.QueryShape;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Application-wide statistics of queries executed in a single database, kept per collection and {@link QueryShape}
+ * so that all executions of a saved view are accounted together regardless of the values it filters by.
+ * At most {@link #MAX_SHAPES} shapes are kept, the least recently used ones are evicted.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class MongoQueryStatistics {
+
+   private static final int MAX_SHAPES = 1000;
+
+   private final Map<String, QueryStatistics> queries = Collections.synchronizedMap(new LinkedHashMap<String, QueryStatistics>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<String, QueryStatistics> eldest) {
+         return size() > MAX_SHAPES;
+      }
+   });
+
+   /**
+    * Gets the statistics of the query shape on the collection, creates them when there are none.
+    *
+    * @param collectionName
+    *       Name of the collection.
+    * @param shape
+    *       Shape of the query.
+    * @return The query statistics.
+    */
+   public QueryStatistics getStatistics(final String collectionName, final QueryShape shape) {
+      return queries.computeIfAbsent(collectionName + " " + shape.getKey(), key -> new QueryStatistics(collectionName, shape.getKey()));
+   }
+
+   /**
+    * Drops statistics of all queries on the collection.
+    *
+    * @param collectionName
+    *       Name of the collection.
+    */
+   public void invalidate(final String collectionName) {
+      synchronized (queries) {
+         queries.keySet().removeIf(key -> key.startsWith(collectionName + " "));
+      }
+   }
+
+   /**
+    * Execution statistics of a single query shape on a single collection.
+    */
+   public static class QueryStatistics {
+
+      private final String collectionName;
+
+      private final String shape;
+
+      private final AtomicLong executions = new AtomicLong();
+
+      private final AtomicLong totalTime = new AtomicLong();
+
+      private final AtomicLong maxTime = new AtomicLong();
+
+      private QueryStatistics(final String collectionName, final String shape) {
+         this.collectionName = collectionName;
+         this.shape = shape;
+      }
+
+      /**
+       * Records a single execution of the query.
+       *
+       * @param time
+       *       Execution time in milliseconds.
+       */
+      public void record(final long time) {
+         executions.incrementAndGet();
+         totalTime.addAndGet(time);
+         maxTime.accumulateAndGet(time, Math::max);
+      }
+
+      public String getCollectionName() {
+         return collectionName;
+      }
+
+      public String getShape() {
+         return shape;
+      }
+
+      /**
+       * Gets the statistics of the query.
+       *
+       * @return Document with the number of executions, their average and maximum time in milliseconds.
+       */
+      public DataDocument getStatistics() {
+         final long count = executions.get();
+
+         return new DataDocument("executions", count)
+               .append("averageTime", count > 0 ? totalTime.get() / count : 0L)
+               .append("maxTime", maxTime.get());
+      }
+   }
+}
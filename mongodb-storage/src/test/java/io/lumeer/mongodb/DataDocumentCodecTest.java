@@ -0,0 +1,185 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.mongodb;
+
+import io.lumeer.engine.api.LumeerConst;
+import io.lumeer.engine.api.data.DataDocument;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.ObjectId;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Compares {@link DataDocumentCodec} with the conversion through {@link Document} it replaces.
+ *
+ * @author <a href="mailto:kubedo8@gmail.com">Jakub Rodák</a>
+ */
+public class DataDocumentCodecTest {
+
+   private final Codec<Document> documentCodec = MongoClientProvider.CODEC_REGISTRY.get(Document.class);
+   private final Codec<DataDocument> dataDocumentCodec = MongoClientProvider.CODEC_REGISTRY.get(DataDocument.class);
+
+   @Test
+   public void testDecodeSameAsDocumentConversion() {
+      final byte[] bson = encode(documentCodec, createDocument(new ObjectId()));
+
+      Assert.assertEquals(decode(dataDocumentCodec, bson), decodeThroughDocument(bson));
+   }
+
+   @Test
+   public void testDecodeShadowDocumentId() {
+      final ObjectId id = new ObjectId();
+      final Document shadow = createDocument(new Document(LumeerConst.Document.ID, id).append(LumeerConst.METADATA_VERSION_KEY, 3));
+      final byte[] bson = encode(documentCodec, shadow);
+
+      final DataDocument decoded = decode(dataDocumentCodec, bson);
+
+      Assert.assertEquals(decoded, decodeThroughDocument(bson));
+      Assert.assertEquals(decoded.getDataDocument(LumeerConst.Document.ID).getString(LumeerConst.Document.ID), id.toHexString());
+   }
+
+   @Test
+   public void testEncode() {
+      final ObjectId id = new ObjectId();
+      final Document original = createDocument(id);
+      final DataDocument dataDocument = decode(dataDocumentCodec, encode(documentCodec, original));
+      dataDocument.put(LumeerConst.Document.ID, id);
+
+      Assert.assertEquals(decode(documentCodec, encode(dataDocumentCodec, dataDocument)), original);
+   }
+
+   @Test
+   public void testGenerateId() {
+      final DataDocument document = new DataDocument("a", 1);
+
+      Assert.assertFalse(((DataDocumentCodec) dataDocumentCodec).documentHasId(document));
+      ((DataDocumentCodec) dataDocumentCodec).generateIdIfAbsentFromDocument(document);
+      Assert.assertTrue(document.get(LumeerConst.Document.ID) instanceof ObjectId);
+      Assert.assertEquals(((DataDocumentCodec) dataDocumentCodec).getDocumentId(document).asObjectId().getValue(), document.get(LumeerConst.Document.ID));
+   }
+
+   @Test
+   public void testRoundTrip() {
+      final ObjectId id = new ObjectId();
+      final ObjectId reference = new ObjectId();
+      final UUID uuid = UUID.randomUUID();
+      final DataDocument original = new DataDocument(LumeerConst.Document.ID, id)
+            .append("title", "Lumeer")
+            .append("count", 42)
+            .append("total", 1234567890123L)
+            .append("ratio", 0.25)
+            .append("active", false)
+            .append("created", new Date(1490000000000L))
+            .append("missing", null)
+            .append("reference", reference)
+            .append("uuid", uuid)
+            .append("matrix", Arrays.asList(Arrays.asList(1, 2), Collections.emptyList()))
+            .append("address", new DataDocument("street", "Main").append("city", new DataDocument("name", "Brno").append(LumeerConst.Document.ID, reference)))
+            .append("items", Arrays.asList(new DataDocument("name", "item").append("tags", Arrays.asList("a", null)), "text"));
+
+      final DataDocument decoded = decode(dataDocumentCodec, encode(dataDocumentCodec, original));
+
+      // only the top level object id is converted to its string representation
+      final DataDocument expected = new DataDocument(original);
+      expected.put(LumeerConst.Document.ID, id.toHexString());
+      Assert.assertEquals(decoded, expected);
+      Assert.assertEquals(new ArrayList<>(decoded.keySet()), new ArrayList<>(original.keySet()));
+      Assert.assertEquals(decoded.getDataDocument("address").getDataDocument("city").get(LumeerConst.Document.ID), reference);
+      Assert.assertEquals(decoded.get("uuid"), uuid);
+      Assert.assertTrue(decoded.get("total") instanceof Long);
+      Assert.assertTrue(decoded.get("items") instanceof List);
+      Assert.assertTrue(((List<?>) decoded.get("items")).get(0) instanceof DataDocument);
+
+      // a decoded document is encoded back unchanged
+      Assert.assertEquals(decode(dataDocumentCodec, encode(dataDocumentCodec, decoded)), decoded);
+   }
+
+   @Test
+   public void testRoundTripThroughDocumentCodec() {
+      final Document original = createDocument(new ObjectId());
+      final DataDocument decoded = decode(dataDocumentCodec, encode(documentCodec, original));
+
+      Assert.assertEquals(decode(dataDocumentCodec, encode(dataDocumentCodec, decoded)), decoded);
+      Assert.assertEquals(decode(documentCodec, encode(dataDocumentCodec, decoded)).get("address"), original.get("address"));
+   }
+
+   @Test
+   public void testRoundTripEmptyDocument() {
+      Assert.assertEquals(decode(dataDocumentCodec, encode(dataDocumentCodec, new DataDocument())), new DataDocument());
+      Assert.assertEquals(decode(dataDocumentCodec, encode(dataDocumentCodec, new DataDocument("empty", new DataDocument()))), new DataDocument("empty", new DataDocument()));
+   }
+
+   private DataDocument decodeThroughDocument(final byte[] bson) {
+      final Document document = decode(documentCodec, bson);
+
+      MongoUtils.replaceId(document);
+      final DataDocument dataDocument = new DataDocument(document);
+      MongoUtils.convertNestedAndListDocuments(dataDocument);
+
+      return dataDocument;
+   }
+
+   private static <T> byte[] encode(final Codec<T> codec, final T document) {
+      final BasicOutputBuffer buffer = new BasicOutputBuffer();
+      codec.encode(new BsonBinaryWriter(buffer), document, EncoderContext.builder().build());
+
+      return buffer.toByteArray();
+   }
+
+   private static <T> T decode(final Codec<T> codec, final byte[] bson) {
+      return codec.decode(new BsonBinaryReader(ByteBuffer.wrap(bson)), DecoderContext.builder().build());
+   }
+
+   private static Document createDocument(final Object id) {
+      final List<Document> items = new ArrayList<>();
+      for (int i = 0; i < 5; i++) {
+         items.add(new Document("name", "item" + i).append("price", i * 10.5).append("tags", Arrays.asList("a", "b")));
+      }
+
+      return new Document(LumeerConst.Document.ID, id)
+            .append("title", "Lumeer")
+            .append("count", 42)
+            .append("total", 1234567890123L)
+            .append("ratio", 0.25)
+            .append("active", true)
+            .append("created", new Date(1490000000000L))
+            .append("missing", null)
+            .append("reference", new ObjectId())
+            .append("numbers", Arrays.asList(1, 2, 3))
+            .append("address", new Document("street", "Main").append("city", new Document("name", "Brno").append("zip", "60200")))
+            .append("items", items)
+            .append(LumeerConst.METADATA_VERSION_KEY, 1);
+   }
+}
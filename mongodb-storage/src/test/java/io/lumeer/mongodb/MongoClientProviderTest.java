@@ -0,0 +1,85 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.mongodb;
+
+import io.lumeer.engine.api.data.DataDocument;
+import io.lumeer.engine.api.data.StorageConnection;
+import io.lumeer.engine.api.data.StoragePoolSettings;
+
+import com.mongodb.MongoClient;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class MongoClientProviderTest {
+
+   private static final List<StorageConnection> CONNECTION = Collections.singletonList(new StorageConnection("localhost", 27017, "lumeer", "secret"));
+   private static final List<StorageConnection> OTHER_CONNECTION = Collections.singletonList(new StorageConnection("localhost", 27017, "other", "secret"));
+
+   private MongoClientProvider mongoClientProvider;
+
+   @BeforeMethod
+   public void setUp() {
+      mongoClientProvider = new MongoClientProvider(new StoragePoolSettings(10, 0, 2, 1000, 1000, 1000));
+   }
+
+   @AfterMethod
+   public void tearDown() {
+      mongoClientProvider.close();
+   }
+
+   @Test
+   public void testClientIsShared() {
+      final MongoClient client1 = mongoClientProvider.acquire(CONNECTION, "db", false);
+      final MongoClient client2 = mongoClientProvider.acquire(CONNECTION, "db", false);
+      final MongoClient client3 = mongoClientProvider.acquire(OTHER_CONNECTION, "db", false);
+      final MongoClient client4 = mongoClientProvider.acquire(CONNECTION, "otherDb", false);
+
+      Assert.assertSame(client1, client2);
+      Assert.assertNotSame(client1, client3);
+      Assert.assertNotSame(client1, client4);
+
+      final DataDocument metrics = mongoClientProvider.getMetrics();
+      Assert.assertEquals(metrics.getInteger("clients"), Integer.valueOf(3));
+      Assert.assertEquals(metrics.getInteger("leases"), Integer.valueOf(4));
+      Assert.assertEquals(metrics.getInteger("maxPoolSize"), Integer.valueOf(10));
+      Assert.assertEquals(metrics.getInteger("maxWaitQueueSize"), Integer.valueOf(20));
+   }
+
+   @Test
+   public void testReleaseKeepsClientOpen() {
+      final MongoClient client1 = mongoClientProvider.acquire(CONNECTION, "db", false);
+      mongoClientProvider.release(client1);
+
+      Assert.assertEquals(mongoClientProvider.getMetrics().getInteger("leases"), Integer.valueOf(0));
+      Assert.assertEquals(mongoClientProvider.getMetrics().getInteger("clients"), Integer.valueOf(1));
+
+      final MongoClient client2 = mongoClientProvider.acquire(CONNECTION, "db", false);
+      Assert.assertSame(client1, client2);
+      Assert.assertEquals(mongoClientProvider.getMetrics().getLong("clientsCreated"), Long.valueOf(1L));
+   }
+}
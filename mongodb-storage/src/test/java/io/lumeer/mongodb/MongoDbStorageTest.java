@@ -36,6 +36,8 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * @author <a href="mailto:kubedo8@gmail.com">Jakub Rodák</a>
@@ -66,11 +68,13 @@ public class MongoDbStorageTest {
    private final String COLLECTION_CREATE_AND_READ_DOCUMENT = "collectionCreateAndReadDocument";
    private final String COLLECTION_CREATE_AND_READ_OLD_DOCUMENT = "collectionCreateAndReadOldDocument";
    private final String COLLECTION_UPDATE_DOCUMENT = "collectionUpdateDocument";
+   private final String COLLECTION_CREATE_AND_UPDATE_DOCUMENTS = "collectionCreateAndUpdateDocuments";
    private final String COLLECTION_REPLACE_DOCUMENT = "collectionReplaceDocument";
    private final String COLLECTION_DROP_DOCUMENT = "collectionDropDocument";
    private final String COLLECTION_DROP_MANY = "collectionDropMany";
    private final String COLLECTION_DROP_ATTRIBUTE = "collectionRemoveAttribute";
    private final String COLLECTION_SEARCH = "collectionSearch";
+   private final String COLLECTION_SEARCH_STREAM = "collectionSearchStream";
    private final String COLLECTION_RUN = "collectionSearchRaw";
    private final String COLLECTION_RENAME_ATTRIBUTE = "collectionRenameAttribute";
    private final String COLLECTION_INC_ATTR_VALUE_BY = "collectionIncAttrValueBy";
@@ -79,6 +83,7 @@ public class MongoDbStorageTest {
    private final String COLLECTION_BASIC_ARRAY_MANIPULATION = "collectionBasicArrayManipulation";
    private final String COLLECTION_COMPLEX_ARRAY_MANIPULATION = "collectionComplexArrayManipulation";
    private final String COLLECTION_AGGREGATE = "collectionAggregate";
+   private final String COLLECTION_EXPLAIN = "collectionExplain";
 
    private MongoDbStorage mongoDbStorage;
 
@@ -97,10 +102,12 @@ public class MongoDbStorageTest {
       mongoDbStorage.dropCollection(COLLECTION_CREATE_AND_READ_DOCUMENT);
       mongoDbStorage.dropCollection(COLLECTION_CREATE_AND_READ_OLD_DOCUMENT);
       mongoDbStorage.dropCollection(COLLECTION_UPDATE_DOCUMENT);
+      mongoDbStorage.dropCollection(COLLECTION_CREATE_AND_UPDATE_DOCUMENTS);
       mongoDbStorage.dropCollection(COLLECTION_DROP_DOCUMENT);
       mongoDbStorage.dropCollection(COLLECTION_DROP_MANY);
       mongoDbStorage.dropCollection(COLLECTION_DROP_ATTRIBUTE);
       mongoDbStorage.dropCollection(COLLECTION_SEARCH);
+      mongoDbStorage.dropCollection(COLLECTION_SEARCH_STREAM);
       mongoDbStorage.dropCollection(COLLECTION_RUN);
       mongoDbStorage.dropCollection(COLLECTION_RENAME_ATTRIBUTE);
       mongoDbStorage.dropCollection(COLLECTION_REPLACE_DOCUMENT);
@@ -110,6 +117,7 @@ public class MongoDbStorageTest {
       mongoDbStorage.dropCollection(COLLECTION_BASIC_ARRAY_MANIPULATION);
       mongoDbStorage.dropCollection(COLLECTION_COMPLEX_ARRAY_MANIPULATION);
       mongoDbStorage.dropCollection(COLLECTION_AGGREGATE);
+      mongoDbStorage.dropCollection(COLLECTION_EXPLAIN);
    }
 
    @Test
@@ -204,6 +212,37 @@ public class MongoDbStorageTest {
       Assert.assertEquals(readedAfterInsDocument.getInteger(LumeerConst.METADATA_VERSION_KEY).intValue(), 1);
    }
 
+   @Test
+   public void testCreateAndUpdateDocuments() throws Exception {
+      mongoDbStorage.createCollection(COLLECTION_CREATE_AND_UPDATE_DOCUMENTS);
+
+      List<DataDocument> insertedDocuments = new ArrayList<>();
+      for (int i = 0; i < 10; i++) {
+         insertedDocuments.add(createDummyDocument());
+      }
+      List<String> documentIds = mongoDbStorage.createDocuments(COLLECTION_CREATE_AND_UPDATE_DOCUMENTS, insertedDocuments);
+      Assert.assertEquals(documentIds.size(), 10);
+      Assert.assertEquals(mongoDbStorage.documentCount(COLLECTION_CREATE_AND_UPDATE_DOCUMENTS), 10);
+      Assert.assertTrue(mongoDbStorage.createDocuments(COLLECTION_CREATE_AND_UPDATE_DOCUMENTS, Collections.emptyList()).isEmpty());
+
+      List<DataDocument> updatedDocuments = new ArrayList<>();
+      for (String documentId : documentIds) {
+         DataDocument readedDocument = mongoDbStorage.readDocument(COLLECTION_CREATE_AND_UPDATE_DOCUMENTS, documentId);
+         Assert.assertEquals(readedDocument.getString(DUMMY_KEY1), DUMMY_VALUE1);
+         changeDummyDocumentValues(readedDocument);
+         readedDocument.put(LumeerConst.METADATA_VERSION_KEY, 1);
+         updatedDocuments.add(readedDocument);
+      }
+      mongoDbStorage.updateDocuments(COLLECTION_CREATE_AND_UPDATE_DOCUMENTS, updatedDocuments);
+
+      for (String documentId : documentIds) {
+         DataDocument readedAfterUpdDocument = mongoDbStorage.readDocument(COLLECTION_CREATE_AND_UPDATE_DOCUMENTS, documentId);
+         Assert.assertEquals(readedAfterUpdDocument.getString(DUMMY_KEY1), DUMMY_CHANGED_VALUE1);
+         Assert.assertEquals(readedAfterUpdDocument.getString(DUMMY_KEY2), DUMMY_CHANGED_VALUE2);
+         Assert.assertEquals(readedAfterUpdDocument.getInteger(LumeerConst.METADATA_VERSION_KEY).intValue(), 1);
+      }
+   }
+
    @Test
    public void testReplaceDocument() throws Exception {
       mongoDbStorage.createCollection(COLLECTION_REPLACE_DOCUMENT);
@@ -291,6 +330,38 @@ public class MongoDbStorageTest {
       Assert.assertEquals(searchDocuments.size(), 10);
    }
 
+   @Test
+   public void testSearchStream() throws Exception {
+      mongoDbStorage.createCollection(COLLECTION_SEARCH_STREAM);
+
+      final List<DataDocument> insertedDocuments = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+         DataDocument insertedDocument = createDummyDocument();
+         insertedDocument.put("index", i);
+         insertedDocuments.add(insertedDocument);
+      }
+      mongoDbStorage.createDocuments(COLLECTION_SEARCH_STREAM, insertedDocuments);
+
+      // batch size smaller than the result needs several round trips to the database
+      try (Stream<DataDocument> documents = mongoDbStorage.searchStream(COLLECTION_SEARCH_STREAM, null, "{\"index\": 1}", 5, 0, 7)) {
+         final List<Integer> indexes = documents.map(d -> d.getInteger("index")).collect(Collectors.toList());
+
+         Assert.assertEquals(indexes.size(), 95);
+         Assert.assertEquals(indexes.get(0), Integer.valueOf(5));
+         Assert.assertEquals(indexes.get(94), Integer.valueOf(99));
+      }
+
+      // stream closed before the end releases the cursor
+      try (Stream<DataDocument> documents = mongoDbStorage.searchStream(COLLECTION_SEARCH_STREAM, "{\"index\": {$gte: 50}}", null, 0, 0, 10)) {
+         Assert.assertEquals(documents.limit(3).count(), 3);
+      }
+
+      final Query query = new Query(Collections.singleton(COLLECTION_SEARCH_STREAM), new DataDocument("index", new DataDocument("$lt", 30)));
+      try (Stream<DataDocument> documents = mongoDbStorage.queryStream(query, 4)) {
+         Assert.assertEquals(documents.filter(d -> d.getId() != null).count(), 30);
+      }
+   }
+
    @Test
    public void testRun() throws Exception {
       mongoDbStorage.createCollection(COLLECTION_RUN);
@@ -558,6 +629,35 @@ public class MongoDbStorageTest {
       Assert.assertEquals(result.get(0).get("param4"), 20);
    }
 
+   @Test
+   public void testExplain() throws Exception {
+      mongoDbStorage.createCollection(COLLECTION_EXPLAIN);
+
+      for (int i = 0; i < 20; i++) {
+         mongoDbStorage.createDocument(COLLECTION_EXPLAIN, getTestDocument(String.valueOf(i % 4), String.valueOf(i)));
+      }
+
+      final Query q = new Query(new DataDocument("param1", 1));
+      q.setCollections(Collections.singleton(COLLECTION_EXPLAIN));
+      mongoDbStorage.query(q);
+
+      DataDocument explained = mongoDbStorage.explain(q).get(0);
+      Assert.assertEquals(explained.get("collection"), COLLECTION_EXPLAIN);
+      Assert.assertEquals(explained.get("shape"), "[{\"$match\":{\"param1\":?}}]");
+      Assert.assertTrue((Boolean) explained.get("collectionScan"));
+      Assert.assertEquals(explained.get("docsExamined"), 20);
+      Assert.assertEquals(explained.get("returned"), 5);
+      Assert.assertEquals(((DataDocument) explained.get("statistics")).get("executions"), 1L);
+
+      mongoDbStorage.createIndex(COLLECTION_EXPLAIN, new DataDocument("param1", 1));
+      q.setFilters(new DataDocument("param1", 2));
+
+      explained = mongoDbStorage.explain(q).get(0);
+      Assert.assertFalse((Boolean) explained.get("collectionScan"));
+      Assert.assertEquals(explained.get("indexes"), Collections.singletonList("param1_1"));
+      Assert.assertEquals(explained.get("docsExamined"), 5);
+   }
+
    private DataDocument createDummyDocument() {
       DataDocument dataDocument = new DataDocument();
       dataDocument.put(DUMMY_KEY1, DUMMY_VALUE1);
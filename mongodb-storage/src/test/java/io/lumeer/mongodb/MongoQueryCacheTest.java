@@ -0,0 +1,116 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.mongodb;
+
+import io.lumeer.engine.api.data.DataDocument;
+import io.lumeer.engine.api.data.Query;
+import io.lumeer.engine.api.data.QueryShape;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class MongoQueryCacheTest {
+
+   @Test
+   public void testPipelineIsCompiledOncePerShape() {
+      final MongoQueryCache cache = new MongoQueryCache();
+      final AtomicInteger compiled = new AtomicInteger();
+
+      final Query first = new Query(Collections.singleton("c"), new DataDocument("a", 1).append("b", new DataDocument("$in", Arrays.asList("x", "y"))), new DataDocument(), new DataDocument("a", -1), 10, 5);
+      final Query second = new Query(Collections.singleton("c"), new DataDocument("a", 2).append("b", new DataDocument("$in", Arrays.asList("z"))), new DataDocument(), new DataDocument("a", -1), 20, 1);
+
+      Assert.assertEquals(cache.getPipeline(QueryShape.of(first), () -> {
+         compiled.incrementAndGet();
+         return stages(first);
+      }), stages(first));
+      Assert.assertEquals(cache.getPipeline(QueryShape.of(second), () -> {
+         compiled.incrementAndGet();
+         return stages(second);
+      }), stages(second));
+      Assert.assertEquals(compiled.get(), 1);
+   }
+
+   @Test
+   public void testFieldReferencesAndProjectionsStay() {
+      final MongoQueryCache cache = new MongoQueryCache();
+
+      final Query first = new Query();
+      first.setGrouping(new DataDocument("_id", "$a").append("count", new DataDocument("$sum", 1)));
+      first.setProjections(new DataDocument("count", 1));
+      final Query second = new Query();
+      second.setGrouping(new DataDocument("_id", "$a").append("count", new DataDocument("$sum", 2)));
+      second.setProjections(new DataDocument("count", 1));
+
+      cache.getPipeline(QueryShape.of(first), () -> stages(first));
+      Assert.assertEquals(cache.getPipeline(QueryShape.of(second), () -> stages(first)), stages(second));
+   }
+
+   @Test
+   public void testPipelineNotMatchingShapeIsNotCached() {
+      final MongoQueryCache cache = new MongoQueryCache();
+      final AtomicInteger compiled = new AtomicInteger();
+
+      final Query query = new Query(new DataDocument("a", 1));
+      final List<DataDocument> unexpected = Arrays.asList(new DataDocument("$match", new DataDocument("a", 1).append("b", 2)));
+
+      for (int i = 0; i < 2; i++) {
+         Assert.assertEquals(cache.getPipeline(QueryShape.of(query), () -> {
+            compiled.incrementAndGet();
+            return unexpected;
+         }), unexpected);
+      }
+      Assert.assertEquals(compiled.get(), 4);
+   }
+
+   // translates the query to stages in the order the storage does
+   private static List<DataDocument> stages(final Query query) {
+      final List<DataDocument> stages = new ArrayList<>();
+
+      if (!query.getFilters().isEmpty()) {
+         stages.add(new DataDocument("$match", query.getFilters()));
+      }
+      if (!query.getGrouping().isEmpty()) {
+         stages.add(new DataDocument("$group", query.getGrouping()));
+      }
+      if (!query.getProjections().isEmpty()) {
+         stages.add(new DataDocument("$project", query.getProjections()));
+      }
+      if (!query.getSorting().isEmpty()) {
+         stages.add(new DataDocument("$sort", query.getSorting()));
+      }
+      if (query.getSkip() != null && query.getSkip() > 0) {
+         stages.add(new DataDocument("$skip", query.getSkip()));
+      }
+      if (query.getLimit() != null && query.getLimit() > 0) {
+         stages.add(new DataDocument("$limit", query.getLimit()));
+      }
+
+      return stages;
+   }
+}
@@ -19,24 +19,66 @@
  */
 package io.lumeer.engine.controller;
 
+import io.lumeer.engine.api.LumeerConst;
 import io.lumeer.engine.api.batch.Batch;
+import io.lumeer.engine.api.batch.BatchProgressListener;
 import io.lumeer.engine.api.batch.MergeBatch;
 import io.lumeer.engine.api.batch.SplitBatch;
 import io.lumeer.engine.api.constraint.InvalidConstraintException;
 import io.lumeer.engine.api.data.DataDocument;
 import io.lumeer.engine.api.data.DataStorage;
+import io.lumeer.engine.api.event.UpdateDocument;
+import io.lumeer.engine.api.exception.CollectionNotFoundException;
 import io.lumeer.engine.api.exception.DbException;
+import io.lumeer.engine.api.exception.UnauthorizedAccessException;
+import io.lumeer.engine.api.exception.UnsuccessfulOperationException;
+import io.lumeer.engine.task.TaskContext;
+import io.lumeer.engine.task.TaskProcessorBean;
+import io.lumeer.engine.util.ErrorMessageBuilder;
+import io.lumeer.engine.util.Utils;
+import io.lumeer.mongodb.MongoUtils;
+
+import com.mongodb.client.model.Filters;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
 
 import java.io.Serializable;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import javax.enterprise.context.SessionScoped;
+import javax.enterprise.event.Event;
+import javax.enterprise.inject.spi.CDI;
 import javax.inject.Inject;
 
 /**
  * Runs various types of batches.
  *
+ * Documents are read in chunks ordered by their ids. Unless the parallelism is configured to one, the collection
+ * is split into ranges of ids and the chunks are processed concurrently on the worker executor of the task processor.
+ * Changes of every chunk are computed and validated first, then written with a single bulk update conditioned
+ * on document versions, the old versions are backed up at once and the counts of added and removed attributes
+ * are updated with a single command per chunk.
+ * Documents the user is not allowed to write, documents modified concurrently and documents the batch
+ * would not change are skipped. A batch can be resumed after the last document of any reported chunk, chunks
+ * processed concurrently when the batch is stopped are finished but not reported.
+ * When a document in a chunk is not valid, the previous chunks stay updated.
+ *
  * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
  */
 @SessionScoped
@@ -44,150 +86,476 @@ public class BatchFacade implements Serializable {
 
    private static final long serialVersionUID = -6509744496908392550L;
 
+   private static final Logger log = Logger.getLogger(BatchFacade.class.getName());
+
+   /**
+    * Number of documents read and written at once.
+    */
+   private static final int CHUNK_SIZE = 1000;
+
+   /**
+    * Number of chunks processed at once unless configured otherwise.
+    */
+   private static final int DEFAULT_PARALLELISM = 4;
+
+   private static final String ID_ASCENDING = "{\"" + LumeerConst.Document.ID + "\": 1}";
+
    @Inject
    private DataStorage dataStorage;
 
    @Inject
-   private DocumentFacade documentFacade;
+   private VersionFacade versionFacade;
+
+   @Inject
+   private SecurityFacade securityFacade;
+
+   @Inject
+   private CollectionMetadataFacade collectionMetadataFacade;
+
+   @Inject
+   private UserFacade userFacade;
+
+   @Inject
+   private ConfigurationFacade configurationFacade;
+
+   @Inject
+   private TaskProcessorBean taskProcessor;
+
+   @Inject
+   private BatchMetrics batchMetrics;
+
+   @Inject
+   private Event<UpdateDocument> updateDocumentEvent;
 
    public void executeBatch(final Batch batch) throws DbException, InvalidConstraintException {
-      // first check collection size
-      if (dataStorage.count(batch.getCollectionName(), null) > 10000) {
-         throw new UnsupportedOperationException("Cannot run a batch process on collections with more than 10000 documents.");
+      executeBatch(batch, null, null);
+   }
+
+   /**
+    * Runs the batch on documents in its collection.
+    *
+    * @param batch
+    *       the batch to run
+    * @param fromDocumentId
+    *       id of the last document processed by a previous run of the batch, null to process all documents
+    * @param listener
+    *       receives progress after every processed chunk of documents and can stop the batch, can be null
+    * @return number of modified documents
+    * @throws DbException
+    *       When there is an error working with the data storage or when the batch would change already processed
+    *       documents again if it was repeated.
+    * @throws InvalidConstraintException
+    *       When a new value does not satisfy constraints of its attribute.
+    */
+   public long executeBatch(final Batch batch, final String fromDocumentId, final BatchProgressListener listener) throws DbException, InvalidConstraintException {
+      final String collectionName = batch.getCollectionName();
+      if (!dataStorage.hasCollection(collectionName)) {
+         throw new CollectionNotFoundException(ErrorMessageBuilder.collectionNotFoundString(collectionName));
+      }
+      if (!collectionMetadataFacade.checkCollectionForWrite(collectionName, userFacade.getUserEmail())) {
+         throw new UnauthorizedAccessException();
       }
 
-      if (batch instanceof MergeBatch) {
-         internalExecuteBatch((MergeBatch) batch);
-      } else if (batch instanceof SplitBatch) {
-         internalExecuteBatch((SplitBatch) batch);
+      if (!(batch instanceof MergeBatch) && !(batch instanceof SplitBatch)) {
+         return 0;
+      }
+
+      // a resumed batch goes over some documents again, merging into a kept source attribute would merge it once more
+      if (batch instanceof MergeBatch && ((MergeBatch) batch).isKeepOriginal() && ((MergeBatch) batch).getAttributes().contains(((MergeBatch) batch).getResultAttribute())) {
+         throw new UnsuccessfulOperationException(ErrorMessageBuilder.mergeNotRepeatableString(((MergeBatch) batch).getResultAttribute()));
       }
+
+      final long total = dataStorage.count(collectionName, null);
+      final List<String> removedAttributes = getRemovedAttributes(batch);
+      final int parallelism = configurationFacade.getConfigurationInteger(LumeerConst.BATCH_PARALLELISM_PROPERTY).orElse(DEFAULT_PARALLELISM);
+
+      return parallelism > 1 ? executeInParallel(batch, fromDocumentId, listener, removedAttributes, total, parallelism)
+            : executeSequentially(batch, fromDocumentId, listener, removedAttributes, total);
    }
 
-   private void internalExecuteBatch(final MergeBatch batch) throws DbException, InvalidConstraintException {
-      List<DataDocument> documents = dataStorage.search(batch.getCollectionName(), null, null, -1, -1);
+   /**
+    * Processes a single range of documents ordered by their ids. Used by parallel workers, every worker
+    * has its own instance of the facade.
+    *
+    * @param batch
+    *       the batch to run
+    * @param fromDocumentId
+    *       the range starts after the document with this id, null for the beginning of the collection
+    * @param toDocumentId
+    *       id of the last document in the range, null for the end of the collection
+    * @param removedAttributes
+    *       attributes removed from every document by the batch
+    * @return result of the chunk
+    * @throws InvalidConstraintException
+    *       When a new value does not satisfy constraints of its attribute.
+    */
+   public ChunkResult executeRange(final Batch batch, final String fromDocumentId, final String toDocumentId, final List<String> removedAttributes) throws InvalidConstraintException {
+      final long start = System.nanoTime();
+      batchMetrics.chunkStarted();
+      final List<DataDocument> chunk = dataStorage.search(batch.getCollectionName(), rangeFilter(fromDocumentId, toDocumentId), ID_ASCENDING, 0, 0);
+
+      try {
+         final String lastDocumentId = chunk.isEmpty() ? (toDocumentId != null ? toDocumentId : fromDocumentId) : chunk.get(chunk.size() - 1).getId();
+         return new ChunkResult(chunk.size(), executeChunk(batch, chunk, removedAttributes), lastDocumentId, System.nanoTime() - start);
+      } finally {
+         batchMetrics.chunkFinished(chunk.size(), System.nanoTime() - start);
+      }
+   }
 
-      for (final DataDocument doc : documents) {
-         if (batch.getMergeType() == MergeBatch.MergeType.JOIN) {
-            final StringBuilder sb = new StringBuilder();
+   // reads documents in a single stream and processes them chunk by chunk
+   private long executeSequentially(final Batch batch, final String fromDocumentId, final BatchProgressListener listener, final List<String> removedAttributes, final long total) throws InvalidConstraintException {
+      long processed = 0;
+      long modified = 0;
 
-            batch.getAttributes().forEach(attr -> {
-               final Object value = doc.get(attr);
+      try (Stream<DataDocument> documents = dataStorage.searchStream(batch.getCollectionName(), rangeFilter(fromDocumentId, null), ID_ASCENDING, 0, 0, CHUNK_SIZE)) {
+         final Iterator<DataDocument> iterator = documents.iterator();
+         final List<DataDocument> chunk = new ArrayList<>(CHUNK_SIZE);
+         long start = System.nanoTime();
 
-               if (value != null) {
-                  if (sb.length() > 0) {
-                     sb.append(batch.getJoin());
-                  }
+         while (iterator.hasNext()) {
+            chunk.add(iterator.next());
 
-                  sb.append(value);
+            if (chunk.size() == CHUNK_SIZE || !iterator.hasNext()) {
+               batchMetrics.chunkStarted();
+               final ChunkResult result;
+               try {
+                  result = new ChunkResult(chunk.size(), executeChunk(batch, chunk, removedAttributes), chunk.get(chunk.size() - 1).getId(), System.nanoTime() - start);
+               } finally {
+                  batchMetrics.chunkFinished(chunk.size(), System.nanoTime() - start);
                }
-            });
-
-            doc.put(batch.getResultAttribute(), sb.toString());
-         } else if (batch.getMergeType() == MergeBatch.MergeType.SUM) {
-            double sum = 0d;
-            long longSum = 0l;
-            BigDecimal bigDecimal = new BigDecimal("0");
-            BigInteger bigInteger = new BigInteger("0");
-            boolean wasFloating = false;
-            boolean onlyBigDecimal = true;
-            boolean onlyBigInteger = true;
-
-            for (final String attr : batch.getAttributes()) {
-               final Object value = doc.get(attr);
-
-               if (value != null) {
-                  if (value instanceof Double) {
-                     sum = sum + (double) value;
-                     wasFloating = true;
-                     onlyBigDecimal = false;
-                  } else if (value instanceof Integer) {
-                     sum = sum + (int) value;
-                     longSum = longSum + (int) value;
-                     onlyBigDecimal = false;
-                  } else if (value instanceof Long) {
-                     sum = sum + (long) value;
-                     longSum = longSum + (long) value;
-                     onlyBigDecimal = false;
-                  } else if (value instanceof Float) {
-                     sum = sum + (float) value;
-                     wasFloating = true;
-                     onlyBigDecimal = false;
-                  } else if (value instanceof Byte) {
-                     sum = sum + (byte) value;
-                     longSum = longSum + (byte) value;
-                     onlyBigDecimal = false;
-                  } else if (value instanceof BigDecimal) {
-                     bigDecimal = bigDecimal.add((BigDecimal) value);
-                     sum = sum + ((BigDecimal) value).doubleValue();
-                     onlyBigInteger = false;
-                  } else if (value instanceof BigInteger) {
-                     bigDecimal = bigDecimal.add(new BigDecimal((BigInteger) value));
-                     bigInteger = bigInteger.add((BigInteger) value);
-                     sum = sum + ((BigInteger) value).longValue();
-                  }
+               chunk.clear();
+
+               modified += result.modified;
+               processed += result.documents;
+               if (!reportProgress(batch, listener, result, processed, total)) {
+                  break;
                }
+               start = System.nanoTime();
             }
+         }
+      }
+
+      return modified;
+   }
+
+   // splits the collection into ranges of ids and processes the ranges concurrently, at most the given number at once
+   private long executeInParallel(final Batch batch, final String fromDocumentId, final BatchProgressListener listener, final List<String> removedAttributes, final long total, final int parallelism)
+         throws DbException, InvalidConstraintException {
+      final String user = userFacade.getUserEmail();
+      final Set<String> roles = userFacade.getUserRoles();
+      final Deque<Future<ChunkResult>> running = new ArrayDeque<>();
+      String rangeStart = fromDocumentId;
+      boolean last = false;
+      boolean stopped = false;
+      long processed = 0;
+      long modified = 0;
 
-            // now see what types we had and try to be as restrictive as possible
-            if (onlyBigInteger) {
-               doc.put(batch.getResultAttribute(), bigInteger);
-            } else if (onlyBigDecimal) {
-               doc.put(batch.getResultAttribute(), bigDecimal);
-            } else if (!wasFloating) {
-               doc.put(batch.getResultAttribute(), longSum);
-            } else {
-               doc.put(batch.getResultAttribute(), sum);
+      try {
+         while (true) {
+            while (!last && running.size() < parallelism) {
+               final String from = rangeStart;
+               final String to = getRangeEnd(batch.getCollectionName(), from);
+               running.add(taskProcessor.getWorkerExecutorService().submit(() -> executeRangeAsync(user, roles, batch, from, to, removedAttributes)));
+               rangeStart = to;
+               last = to == null;
             }
-         } else {
-            final DataDocument subDoc = new DataDocument();
 
-            batch.getAttributes().forEach(attr -> {
-               final Object value = doc.get(attr);
+            if (running.isEmpty()) {
+               break;
+            }
 
-               if (value != null) {
-                  subDoc.put(attr, doc.get(attr));
-               }
-            });
+            // ranges are finished in the order they were submitted, so that the progress never skips an unfinished range
+            final ChunkResult result = running.poll().get();
+            modified += result.modified;
+            processed += result.documents;
+            if (!stopped && !reportProgress(batch, listener, result, processed, total)) {
+               // ranges already running are finished but not reported, so a resumed batch goes over them again harmlessly
+               running.removeIf(future -> future.cancel(false));
+               last = true;
+               stopped = true;
+            }
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new UnsuccessfulOperationException("Batch was interrupted.", e);
+      } catch (ExecutionException e) {
+         running.forEach(future -> future.cancel(false));
+         if (e.getCause() instanceof InvalidConstraintException) {
+            throw (InvalidConstraintException) e.getCause();
+         }
+         if (e.getCause() instanceof DbException) {
+            throw (DbException) e.getCause();
+         }
+         throw new UnsuccessfulOperationException(e.getCause().getMessage(), e.getCause());
+      }
 
-            doc.put(batch.getResultAttribute(), subDoc);
+      return modified;
+   }
+
+   // runs a single range on a worker thread with its own instances of the facades
+   private static ChunkResult executeRangeAsync(final String user, final Set<String> roles, final Batch batch, final String from, final String to, final List<String> removedAttributes)
+         throws InvalidConstraintException {
+      TaskContext.activate(user, roles);
+      try {
+         return CDI.current().select(BatchFacade.class).get().executeRange(batch, from, to, removedAttributes);
+      } finally {
+         TaskContext.deactivate();
+      }
+   }
+
+   // finds id of the last document of the range starting after the given document, null when the range reaches the end of the collection
+   private String getRangeEnd(final String collectionName, final String fromDocumentId) {
+      final List<DataDocument> end = dataStorage.search(collectionName, rangeFilter(fromDocumentId, null), ID_ASCENDING,
+            Collections.singletonList(LumeerConst.Document.ID), CHUNK_SIZE - 1, 1);
+
+      return end.isEmpty() ? null : end.get(0).getId();
+   }
+
+   // filter of documents with ids in the given range, null when the range is not limited
+   private static String rangeFilter(final String fromDocumentId, final String toDocumentId) {
+      final List<Bson> filters = new ArrayList<>();
+      if (fromDocumentId != null) {
+         filters.add(Filters.gt(LumeerConst.Document.ID, new ObjectId(fromDocumentId)));
+      }
+      if (toDocumentId != null) {
+         filters.add(Filters.lte(LumeerConst.Document.ID, new ObjectId(toDocumentId)));
+      }
+
+      return filters.isEmpty() ? null : MongoUtils.convertBsonToJson(filters.size() == 1 ? filters.get(0) : Filters.and(filters));
+   }
+
+   // logs the chunk and passes the progress to the listener, returns false when the batch should stop
+   private boolean reportProgress(final Batch batch, final BatchProgressListener listener, final ChunkResult result, final long processed, final long total) {
+      final long micros = TimeUnit.NANOSECONDS.toMicros(result.nanos);
+      log.fine(String.format("Batch on collection %s processed %d of %d documents, chunk of %d documents took %d us (%d documents/s).",
+            batch.getCollectionName(), processed, total, result.documents, micros, BatchMetrics.getDocumentsPerSecond(result.documents, micros)));
+
+      return listener == null || listener.onProgress(result.lastDocumentId, processed, total);
+   }
+
+   // computes, validates and writes changes of a single chunk of documents
+   private long executeChunk(final Batch batch, final List<DataDocument> chunk, final List<String> removedAttributes) throws InvalidConstraintException {
+      final String collectionName = batch.getCollectionName();
+      final String user = userFacade.getUserEmail();
+      final String updateDate = Utils.getCurrentTimeString();
+      final List<DataDocument> originals = new ArrayList<>(chunk.size());
+      final List<DataDocument> updates = new ArrayList<>(chunk.size());
+
+      for (final DataDocument document : chunk) {
+         if (!securityFacade.checkForWrite(document, user)) {
+            continue;
          }
 
-         if (!batch.isKeepOriginal()) {
-            batch.getAttributes().forEach(a -> {
-               try {
-                  documentFacade.dropAttribute(batch.getCollectionName(), doc.getId(), a);
-               } catch (DbException e) {
-                  // nps, we cannot do m ore
-               }
-               doc.remove(a); // TODO check - for future compatibility but has no effect now
-            });
+         final DataDocument changes = batch instanceof MergeBatch ? merge((MergeBatch) batch, document) : split((SplitBatch) batch, document);
+         final DataDocument update = new DataDocument(LumeerConst.Document.ID, document.getId());
+         boolean changed = false;
+         for (final Map.Entry<String, Object> change : changes.entrySet()) {
+            final Object value = convertValue(collectionName, change.getKey(), change.getValue());
+            if (!Objects.equals(value, document.get(change.getKey()))) {
+               update.put(change.getKey(), value);
+               changed = true;
+            }
+         }
+         if (!changed && removedAttributes.stream().noneMatch(document::containsKey)) {
+            continue; // nothing to change, this also makes a repeated run over an already processed document harmless
          }
+         update.put(LumeerConst.Document.UPDATE_DATE_KEY, updateDate);
+         update.put(LumeerConst.Document.UPDATED_BY_USER_KEY, user);
+
+         originals.add(document);
+         updates.add(update);
+      }
 
-         documentFacade.updateDocument(batch.getCollectionName(), doc);
+      if (updates.isEmpty()) {
+         return 0;
       }
+
+      versionFacade.newDocumentVersions(collectionName, originals, updates, removedAttributes);
+
+      final Map<String, Integer> addedAttributes = new HashMap<>();
+      final Map<String, Integer> droppedAttributes = new HashMap<>();
+      for (int i = 0; i < updates.size(); i++) {
+         final DataDocument original = originals.get(i);
+         updates.get(i).keySet().stream().filter(attribute -> isAttribute(attribute) && !original.containsKey(attribute))
+                .forEach(attribute -> addedAttributes.merge(attribute, 1, Integer::sum));
+         removedAttributes.stream().filter(original::containsKey).forEach(attribute -> droppedAttributes.merge(attribute, 1, Integer::sum));
+      }
+
+      collectionMetadataFacade.addOrIncrementAttributes(collectionName, addedAttributes);
+      collectionMetadataFacade.dropOrDecrementAttributes(collectionName, droppedAttributes);
+
+      for (int i = 0; i < updates.size(); i++) {
+         final DataDocument original = originals.get(i);
+         final DataDocument changes = new DataDocument(updates.get(i));
+         removedAttributes.stream().filter(original::containsKey).forEach(attribute -> changes.put(attribute, null));
+         updateDocumentEvent.fire(new UpdateDocument(collectionName, changes));
+      }
+
+      return updates.size();
    }
 
-   private void internalExecuteBatch(final SplitBatch batch) throws DbException, InvalidConstraintException {
-      List<DataDocument> documents = dataStorage.search(batch.getCollectionName(), null, null, -1, -1);
+   // attributes removed from every document by the batch
+   private List<String> getRemovedAttributes(final Batch batch) {
+      if (batch instanceof MergeBatch) {
+         final MergeBatch mergeBatch = (MergeBatch) batch;
+         if (!mergeBatch.isKeepOriginal()) {
+            return mergeBatch.getAttributes().stream().filter(attribute -> !attribute.equals(mergeBatch.getResultAttribute())).collect(Collectors.toList());
+         }
+      } else if (batch instanceof SplitBatch) {
+         final SplitBatch splitBatch = (SplitBatch) batch;
+         if (!splitBatch.isKeepOriginal() && !splitBatch.getSplitAttributes().contains(splitBatch.getAttribute())) {
+            return Collections.singletonList(splitBatch.getAttribute());
+         }
+      }
 
-      for (final DataDocument doc : documents) {
-         final Object value = doc.get(batch.getAttribute());
+      return Collections.emptyList();
+   }
 
-         if (value != null) {
-            final String original = value instanceof String ? (String) value : value.toString();
-            final String[] parts = original.split(batch.getDelimiter(), batch.getSplitAttributes().size());
+   // checks the constraints of a new value, nested documents are stored as they are
+   private Object convertValue(final String collectionName, final String attribute, final Object value) throws InvalidConstraintException {
+      if (value instanceof DataDocument) {
+         return value;
+      }
+
+      final Object converted = collectionMetadataFacade.checkAndConvertAttributeValue(collectionName, attribute, value.toString());
+      if (converted == null) {
+         throw new InvalidConstraintException(ErrorMessageBuilder.invalidConstraintKey(attribute));
+      }
+
+      return converted;
+   }
+
+   private boolean isAttribute(final String attribute) {
+      return !LumeerConst.Document.ID.equals(attribute) && !LumeerConst.Document.METADATA_KEYS.contains(attribute);
+   }
+
+   // computes the result attribute of the merge, nothing when the document has none of the merged attributes
+   private DataDocument merge(final MergeBatch batch, final DataDocument doc) {
+      if (batch.getAttributes().stream().noneMatch(doc::containsKey)) {
+         return new DataDocument();
+      }
 
-            for (int i = 0; i < parts.length; i++) {
-               doc.put(batch.getSplitAttributes().get(i), batch.isTrim() ? parts[i].trim() : parts[i]);
+      if (batch.getMergeType() == MergeBatch.MergeType.JOIN) {
+         final StringBuilder sb = new StringBuilder();
+
+         batch.getAttributes().forEach(attr -> {
+            final Object value = doc.get(attr);
+
+            if (value != null) {
+               if (sb.length() > 0) {
+                  sb.append(batch.getJoin());
+               }
+
+               sb.append(value);
             }
+         });
+
+         return new DataDocument(batch.getResultAttribute(), sb.toString());
+      } else if (batch.getMergeType() == MergeBatch.MergeType.SUM) {
+         double sum = 0d;
+         long longSum = 0l;
+         BigDecimal bigDecimal = new BigDecimal("0");
+         BigInteger bigInteger = new BigInteger("0");
+         boolean wasFloating = false;
+         boolean onlyBigDecimal = true;
+         boolean onlyBigInteger = true;
+
+         for (final String attr : batch.getAttributes()) {
+            final Object value = doc.get(attr);
+
+            if (value != null) {
+               if (value instanceof Double) {
+                  sum = sum + (double) value;
+                  wasFloating = true;
+                  onlyBigDecimal = false;
+               } else if (value instanceof Integer) {
+                  sum = sum + (int) value;
+                  longSum = longSum + (int) value;
+                  onlyBigDecimal = false;
+               } else if (value instanceof Long) {
+                  sum = sum + (long) value;
+                  longSum = longSum + (long) value;
+                  onlyBigDecimal = false;
+               } else if (value instanceof Float) {
+                  sum = sum + (float) value;
+                  wasFloating = true;
+                  onlyBigDecimal = false;
+               } else if (value instanceof Byte) {
+                  sum = sum + (byte) value;
+                  longSum = longSum + (byte) value;
+                  onlyBigDecimal = false;
+               } else if (value instanceof BigDecimal) {
+                  bigDecimal = bigDecimal.add((BigDecimal) value);
+                  sum = sum + ((BigDecimal) value).doubleValue();
+                  onlyBigInteger = false;
+               } else if (value instanceof BigInteger) {
+                  bigDecimal = bigDecimal.add(new BigDecimal((BigInteger) value));
+                  bigInteger = bigInteger.add((BigInteger) value);
+                  sum = sum + ((BigInteger) value).longValue();
+               }
+            }
+         }
+
+         // now see what types we had and try to be as restrictive as possible
+         if (onlyBigInteger) {
+            return new DataDocument(batch.getResultAttribute(), bigInteger);
+         } else if (onlyBigDecimal) {
+            return new DataDocument(batch.getResultAttribute(), bigDecimal);
+         } else if (!wasFloating) {
+            return new DataDocument(batch.getResultAttribute(), longSum);
+         } else {
+            return new DataDocument(batch.getResultAttribute(), sum);
+         }
+      }
+
+      final DataDocument subDoc = new DataDocument();
+
+      batch.getAttributes().forEach(attr -> {
+         final Object value = doc.get(attr);
+
+         if (value != null) {
+            subDoc.put(attr, value);
          }
+      });
+
+      return new DataDocument(batch.getResultAttribute(), subDoc);
+   }
+
+   // computes the parts of the split attribute
+   private DataDocument split(final SplitBatch batch, final DataDocument doc) {
+      final DataDocument parts = new DataDocument();
+      final Object value = doc.get(batch.getAttribute());
 
-         if (!batch.isKeepOriginal()) {
-            documentFacade.dropAttribute(batch.getCollectionName(), doc.getId(), batch.getAttribute());
-            doc.remove(batch.getAttribute()); // TODO check - for future compatibility
+      if (value != null) {
+         final String original = value instanceof String ? (String) value : value.toString();
+         final String[] split = original.split(batch.getDelimiter(), batch.getSplitAttributes().size());
+
+         for (int i = 0; i < split.length; i++) {
+            parts.put(batch.getSplitAttributes().get(i), batch.isTrim() ? split[i].trim() : split[i]);
          }
+      }
+
+      return parts;
+   }
+
+   /**
+    * Result of a single chunk of documents.
+    */
+   public static class ChunkResult {
+
+      private final long documents;
+
+      private final long modified;
+
+      private final String lastDocumentId;
+
+      private final long nanos;
 
-         documentFacade.updateDocument(batch.getCollectionName(), doc);
+      private ChunkResult(final long documents, final long modified, final String lastDocumentId, final long nanos) {
+         this.documents = documents;
+         this.modified = modified;
+         this.lastDocumentId = lastDocumentId;
+         this.nanos = nanos;
       }
    }
 
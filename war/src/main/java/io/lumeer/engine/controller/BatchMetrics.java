@@ -0,0 +1,103 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.controller;
+
+import io.lumeer.engine.api.data.DataDocument;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.enterprise.context.ApplicationScoped;
+
+/**
+ * Application-wide statistics of chunks of documents processed by batches.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+@ApplicationScoped
+public class BatchMetrics {
+
+   private final AtomicLong chunks = new AtomicLong();
+   private final AtomicLong documents = new AtomicLong();
+   private final AtomicLong totalTime = new AtomicLong();
+   private final AtomicLong maxTime = new AtomicLong();
+   private final AtomicLong chunksInProgress = new AtomicLong();
+
+   private volatile long lastDocuments = 0L;
+   private volatile long lastTime = 0L;
+
+   /**
+    * Marks the start of processing of a chunk.
+    */
+   public void chunkStarted() {
+      chunksInProgress.incrementAndGet();
+   }
+
+   /**
+    * Records a processed chunk.
+    *
+    * @param chunkDocuments
+    *       number of documents in the chunk
+    * @param nanos
+    *       time needed to read, transform and write the chunk in nanoseconds
+    */
+   public void chunkFinished(final long chunkDocuments, final long nanos) {
+      final long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+
+      chunksInProgress.decrementAndGet();
+      chunks.incrementAndGet();
+      documents.addAndGet(chunkDocuments);
+      totalTime.addAndGet(micros);
+      maxTime.accumulateAndGet(micros, Math::max);
+      lastDocuments = chunkDocuments;
+      lastTime = micros;
+   }
+
+   /**
+    * Computes throughput of a single chunk.
+    *
+    * @param chunkDocuments
+    *       number of documents in the chunk
+    * @param micros
+    *       time needed to process the chunk in microseconds
+    * @return number of documents processed per second
+    */
+   public static long getDocumentsPerSecond(final long chunkDocuments, final long micros) {
+      return micros > 0 ? chunkDocuments * 1_000_000L / micros : 0L;
+   }
+
+   /**
+    * Gets current chunk statistics.
+    *
+    * @return Document with the number of processed chunks and documents, chunk latencies (in microseconds)
+    *       and throughput of a single chunk worker (in documents per second).
+    */
+   public DataDocument getMetrics() {
+      final long finished = chunks.get();
+
+      return new DataDocument("chunks", finished)
+            .append("chunksInProgress", chunksInProgress.get())
+            .append("documents", documents.get())
+            .append("chunkAverageTime", finished > 0 ? totalTime.get() / finished : 0L)
+            .append("chunkMaxTime", maxTime.get())
+            .append("chunkLastTime", lastTime)
+            .append("documentsPerSecond", getDocumentsPerSecond(documents.get(), totalTime.get()))
+            .append("lastChunkDocumentsPerSecond", getDocumentsPerSecond(lastDocuments, lastTime));
+   }
+}
@@ -68,12 +68,18 @@ public class CollectionFacade implements Serializable {
    @Inject
    private CollectionMetadataFacade collectionMetadataFacade;
 
+   @Inject
+   private CollectionMetadataCache collectionMetadataCache;
+
    @Inject
    private LinkingFacade linkingFacade;
 
    @Inject
    private UserFacade userFacade;
 
+   @Inject
+   private SecurityFacade securityFacade;
+
    @Inject
    private Event<CreateCollection> createCollectionEvent;
 
@@ -142,6 +148,7 @@ public class CollectionFacade implements Serializable {
       }
 
       createCollectionEvent.fire(new CreateCollection(collectionOriginalName, internalCollectionName));
+      securityFacade.ensureRightsIndex(internalCollectionName);
 
       return internalCollectionName;
    }
@@ -232,6 +239,7 @@ public class CollectionFacade implements Serializable {
    public void updateCollectionMetadata(final String collectionName, final DataDocument element, String elementId) throws CollectionNotFoundException {
       if (dataStorage.hasCollection(collectionName)) {
          dataStorage.updateDocument(collectionMetadataFacade.collectionMetadataCollectionName(collectionName), element, elementId);
+         collectionMetadataCache.invalidate(collectionName);
       } else {
          throw new CollectionNotFoundException(ErrorMessageBuilder.collectionNotFoundString(collectionName));
       }
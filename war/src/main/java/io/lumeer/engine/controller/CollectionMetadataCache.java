@@ -0,0 +1,287 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.controller;
+
+import io.lumeer.engine.api.constraint.ConstraintManager;
+import io.lumeer.engine.api.data.DataDocument;
+import io.lumeer.engine.api.event.ChangeCollectionName;
+import io.lumeer.engine.api.event.CreateCollection;
+import io.lumeer.engine.api.event.DropCollection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+
+/**
+ * Application-wide cache of collection metadata (attribute types and constraints, access rights and names)
+ * and of constraint managers compiled from attribute constraints, so that document validation neither queries
+ * the metadata collection nor parses constraint configurations for every attribute value.
+ *
+ * Every collection has its own entry created with a new version number. Invalidation throws the whole entry away,
+ * so values loaded concurrently with an invalidation end up in an orphaned entry and are never served.
+ * At most {@link #MAX_COLLECTIONS} entries are kept, the least recently used ones are evicted.
+ *
+ * @author <a href="alica.kacengova@gmail.com">Alica Kačengová</a>
+ */
+@ApplicationScoped
+public class CollectionMetadataCache {
+
+   private static final int MAX_COLLECTIONS = 1000;
+
+   private final AtomicLong versionCounter = new AtomicLong();
+
+   private final Map<String, CollectionMetadata> collections = Collections.synchronizedMap(new LinkedHashMap<String, CollectionMetadata>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<String, CollectionMetadata> eldest) {
+         return size() > MAX_COLLECTIONS;
+      }
+   });
+
+   private final Map<String, String> internalNames = new ConcurrentHashMap<>();
+
+   /**
+    * Gets cached metadata of the collection, creates an empty entry when there is none.
+    *
+    * @param collectionName
+    *       internal collection name
+    * @return metadata entry of the collection
+    */
+   public CollectionMetadata getCollectionMetadata(final String collectionName) {
+      return collections.computeIfAbsent(collectionName, name -> new CollectionMetadata(versionCounter.incrementAndGet()));
+   }
+
+   /**
+    * Gets internal name of the collection with the given original name if it is known.
+    *
+    * @param originalCollectionName
+    *       original collection name
+    * @return internal collection name or null when it is not cached
+    */
+   public String getInternalCollectionName(final String originalCollectionName) {
+      return internalNames.get(originalCollectionName);
+   }
+
+   /**
+    * Remembers the mapping of original collection name to the internal one.
+    *
+    * @param originalCollectionName
+    *       original collection name
+    * @param internalCollectionName
+    *       internal collection name
+    */
+   public void setInternalCollectionName(final String originalCollectionName, final String internalCollectionName) {
+      internalNames.put(originalCollectionName, internalCollectionName);
+   }
+
+   /**
+    * Drops all cached metadata of the collection.
+    *
+    * @param collectionName
+    *       internal collection name
+    */
+   public void invalidate(final String collectionName) {
+      collections.remove(collectionName);
+      internalNames.values().removeIf(collectionName::equals);
+   }
+
+   /**
+    * Drops all cached metadata.
+    */
+   public void invalidateAll() {
+      collections.clear();
+      internalNames.clear();
+   }
+
+   public void onCreateCollection(@Observes final CreateCollection event) {
+      invalidate(event.getInternalName());
+   }
+
+   public void onDropCollection(@Observes final DropCollection event) {
+      invalidate(event.getInternalName());
+   }
+
+   public void onChangeCollectionName(@Observes final ChangeCollectionName event) {
+      invalidate(event.getInternalName());
+   }
+
+   /**
+    * Cached metadata of a single collection.
+    */
+   public static class CollectionMetadata {
+
+      private final long version;
+
+      private final Map<String, AttributeMetadata> attributes = new ConcurrentHashMap<>();
+
+      private final Map<String, CompiledConstraints> constraintManagers = new ConcurrentHashMap<>();
+
+      private volatile DataDocument accessRights;
+
+      private volatile boolean accessRightsLoaded = false;
+
+      private volatile String originalName;
+
+      private volatile boolean rightsIndexed = false;
+
+      private CollectionMetadata(final long version) {
+         this.version = version;
+      }
+
+      public long getVersion() {
+         return version;
+      }
+
+      /**
+       * Gets metadata of the attribute, loads them when they are not cached yet.
+       *
+       * @param attributeName
+       *       attribute name
+       * @param loader
+       *       reads attribute metadata from the database
+       * @return attribute metadata
+       */
+      public AttributeMetadata getAttribute(final String attributeName, final Function<String, AttributeMetadata> loader) {
+         AttributeMetadata attribute = attributes.get(attributeName);
+
+         if (attribute == null) {
+            attribute = loader.apply(attributeName);
+            attributes.putIfAbsent(attributeName, attribute);
+         }
+
+         return attribute;
+      }
+
+      /**
+       * Gets constraint manager compiled from the attribute constraints, compiles it when there is none for the given
+       * configurations and locale yet.
+       *
+       * @param attributeName
+       *       attribute name
+       * @param constraintConfigurations
+       *       constraint configurations of the attribute
+       * @param locale
+       *       locale the constraints are compiled with
+       * @param compiler
+       *       creates constraint manager from constraint configurations
+       * @return compiled constraint manager
+       */
+      public ConstraintManager getConstraintManager(final String attributeName, final List<String> constraintConfigurations, final Locale locale, final Function<List<String>, ConstraintManager> compiler) {
+         final String key = attributeName + "@" + locale;
+         CompiledConstraints compiled = constraintManagers.get(key);
+
+         if (compiled == null || !compiled.configurations.equals(constraintConfigurations)) {
+            compiled = new CompiledConstraints(constraintConfigurations, compiler.apply(constraintConfigurations));
+            constraintManagers.put(key, compiled);
+         }
+
+         return compiled.constraintManager;
+      }
+
+      /**
+       * Forgets the attribute if it was cached as non-existing.
+       *
+       * @param attributeName
+       *       attribute name
+       */
+      public void dropMissingAttribute(final String attributeName) {
+         attributes.remove(attributeName, AttributeMetadata.MISSING);
+      }
+
+      public boolean isAccessRightsLoaded() {
+         return accessRightsLoaded;
+      }
+
+      public DataDocument getAccessRights() {
+         return accessRights;
+      }
+
+      public void setAccessRights(final DataDocument accessRights) {
+         this.accessRights = accessRights;
+         this.accessRightsLoaded = true;
+      }
+
+      public String getOriginalName() {
+         return originalName;
+      }
+
+      public void setOriginalName(final String originalName) {
+         this.originalName = originalName;
+      }
+
+      public boolean isRightsIndexed() {
+         return rightsIndexed;
+      }
+
+      public void setRightsIndexed(final boolean rightsIndexed) {
+         this.rightsIndexed = rightsIndexed;
+      }
+   }
+
+   /**
+    * Constraint manager together with the configurations it was compiled from.
+    */
+   private static class CompiledConstraints {
+
+      private final List<String> configurations;
+
+      private final ConstraintManager constraintManager;
+
+      private CompiledConstraints(final List<String> configurations, final ConstraintManager constraintManager) {
+         this.configurations = new ArrayList<>(configurations);
+         this.constraintManager = constraintManager;
+      }
+   }
+
+   /**
+    * Cached type and constraint configurations of a single attribute.
+    */
+   public static class AttributeMetadata {
+
+      /**
+       * Attribute without metadata document.
+       */
+      public static final AttributeMetadata MISSING = new AttributeMetadata(null, null);
+
+      private final String type;
+
+      private final List<String> constraintConfigurations;
+
+      public AttributeMetadata(final String type, final List<String> constraintConfigurations) {
+         this.type = type;
+         this.constraintConfigurations = constraintConfigurations != null ? Collections.unmodifiableList(constraintConfigurations) : null;
+      }
+
+      public String getType() {
+         return type;
+      }
+
+      public List<String> getConstraintConfigurations() {
+         return constraintConfigurations;
+      }
+   }
+}
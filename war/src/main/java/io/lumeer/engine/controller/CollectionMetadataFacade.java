@@ -40,6 +40,7 @@ import java.io.Serializable;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -47,6 +48,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 import javax.annotation.PostConstruct;
 import javax.enterprise.context.SessionScoped;
 import javax.enterprise.event.Event;
@@ -76,6 +78,9 @@ public class CollectionMetadataFacade implements Serializable {
    @Inject
    private Event<ChangeCollectionName> changeCollectionNameEvent;
 
+   @Inject
+   private CollectionMetadataCache collectionMetadataCache;
+
    private ConstraintManager constraintManager;
 
    /**
@@ -84,8 +89,7 @@ public class CollectionMetadataFacade implements Serializable {
    @PostConstruct
    public void initConstraintManager() {
       try {
-         constraintManager = new ConstraintManager();
-         constraintManager.setLocale(Locale.forLanguageTag(configurationFacade.getConfigurationString(LumeerConst.USER_LOCALE_PROPERTY).orElse("en-US")));
+         constraintManager = new ConstraintManager(getUserLocale());
       } catch (InvalidConstraintException e) {
          throw new IllegalStateException("Illegal constraint prefix collision: ", e);
       }
@@ -176,6 +180,7 @@ public class CollectionMetadataFacade implements Serializable {
    public void createInitialMetadata(String internalCollectionName, String collectionOriginalName) throws CollectionNotFoundException {
       String metadataCollectionName = collectionMetadataCollectionName(internalCollectionName);
       checkIfMetadataCollectionExists(metadataCollectionName);
+      collectionMetadataCache.invalidate(internalCollectionName);
 
       // set name - we don't use setOriginalCollectionName, because that methods assumes document with name already exists
       Map<String, Object> metadataName = new HashMap<>();
@@ -307,6 +312,7 @@ public class CollectionMetadataFacade implements Serializable {
          metadata.put(LumeerConst.Collection.COLLECTION_ATTRIBUTE_NAME_KEY, newName);
          DataDocument metadataDocument = new DataDocument(metadata);
          dataStorage.updateDocument(metadataCollectionName, metadataDocument, documentId);
+         collectionMetadataCache.invalidate(collectionName);
          return true;
       }
 
@@ -356,6 +362,7 @@ public class CollectionMetadataFacade implements Serializable {
       metadata.put(LumeerConst.Collection.COLLECTION_ATTRIBUTE_TYPE_KEY, newType);
       DataDocument metadataDocument = new DataDocument(metadata);
       dataStorage.updateDocument(metadataCollectionName, metadataDocument, documentId);
+      collectionMetadataCache.invalidate(collectionName);
 
       return true;
    }
@@ -386,15 +393,8 @@ public class CollectionMetadataFacade implements Serializable {
          return LumeerConst.Collection.COLLECTION_ATTRIBUTE_TYPE_STRING;
       }
 
-      List<DataDocument> attributesInfo = dataStorage.run(queryCollectionAttributeInfo(collectionName, attributeName));
-
-      if (attributesInfo.isEmpty()) { // attribute does not exist, we return default (String)
-         return LumeerConst.Collection.COLLECTION_ATTRIBUTE_TYPE_STRING;
-      }
-
-      DataDocument attributeInfo = attributesInfo.get(0);
-      String type = attributeInfo.get(LumeerConst.Collection.COLLECTION_ATTRIBUTE_TYPE_KEY).toString();
-      if (type == null) { // if type is not found, we return string as default
+      String type = getAttributeMetadata(collectionName, attributeName).getType();
+      if (type == null) { // attribute or its type is not found, we return string as default
          return LumeerConst.Collection.COLLECTION_ATTRIBUTE_TYPE_STRING;
       }
 
@@ -429,6 +429,7 @@ public class CollectionMetadataFacade implements Serializable {
       DataDocument attributeDocument = attributeInfo.get(0);
       String documentId = attributeDocument.getId();
       dataStorage.dropDocument(metadataCollectionName, documentId);
+      collectionMetadataCache.invalidate(collectionName);
    }
 
    /**
@@ -448,6 +449,28 @@ public class CollectionMetadataFacade implements Serializable {
       }
 
       dataStorage.run(updateCollectionAttributeCountQuery(metadataCollectionName, attribute));
+      collectionMetadataCache.getCollectionMetadata(collectionName).dropMissingAttribute(attribute);
+   }
+
+   /**
+    * Adds attributes to metadata collection, if they already aren't there, and increments their counts by the given values
+    * with a single command. Nothing is done if metadata collection does not exist.
+    * This should be called only when adding/updating documents, so we do not check access rights here
+    *
+    * @param collectionName
+    *       internal collection name
+    * @param attributeCounts
+    *       map of attributes' names and numbers of documents the attributes were added to
+    */
+   public void addOrIncrementAttributes(String collectionName, Map<String, Integer> attributeCounts) {
+      String metadataCollectionName = collectionMetadataCollectionName(collectionName);
+      if (attributeCounts.isEmpty() || !dataStorage.hasCollection(metadataCollectionName)) { // metadata collection does not exist
+         return;
+      }
+
+      dataStorage.run(updateCollectionAttributesCountQuery(metadataCollectionName, attributeCounts));
+      CollectionMetadataCache.CollectionMetadata collectionMetadata = collectionMetadataCache.getCollectionMetadata(collectionName);
+      attributeCounts.keySet().forEach(collectionMetadata::dropMissingAttribute);
    }
 
    /**
@@ -477,12 +500,34 @@ public class CollectionMetadataFacade implements Serializable {
          // we check if this was the last document with the attribute
          if (attributeDocument.getInteger(LumeerConst.Collection.COLLECTION_ATTRIBUTE_COUNT_KEY) == 1) {
             dataStorage.dropDocument(metadataCollectionName, documentId);
+            collectionMetadataCache.invalidate(collectionName);
          } else {
             dataStorage.incrementAttributeValueBy(metadataCollectionName, documentId, LumeerConst.Collection.COLLECTION_ATTRIBUTE_COUNT_KEY, -1);
          }
       }
    }
 
+   /**
+    * Decrements counts of attributes by the given values with a single command and drops the attributes
+    * which are not present in any document afterwards. Nothing is done if metadata collection does not exist.
+    * This should be called only when updating documents, so we do not check access rights here
+    *
+    * @param collectionName
+    *       internal collection name
+    * @param attributeCounts
+    *       map of attributes' names and numbers of documents the attributes were removed from
+    */
+   public void dropOrDecrementAttributes(String collectionName, Map<String, Integer> attributeCounts) {
+      String metadataCollectionName = collectionMetadataCollectionName(collectionName);
+      if (attributeCounts.isEmpty() || !dataStorage.hasCollection(metadataCollectionName)) { // metadata collection does not exist
+         return;
+      }
+
+      dataStorage.run(decrementCollectionAttributesCountQuery(metadataCollectionName, attributeCounts));
+      dataStorage.run(dropUnusedCollectionAttributesQuery(metadataCollectionName, attributeCounts.keySet()));
+      collectionMetadataCache.invalidate(collectionName);
+   }
+
    /**
     * Returns count for specific attribute
     *
@@ -525,6 +570,11 @@ public class CollectionMetadataFacade implements Serializable {
     *       when metadata collection is not found
     */
    public String getOriginalCollectionName(String collectionName) throws CollectionMetadataDocumentNotFoundException, CollectionNotFoundException {
+      CollectionMetadataCache.CollectionMetadata cachedMetadata = collectionMetadataCache.getCollectionMetadata(collectionName);
+      if (cachedMetadata.getOriginalName() != null) {
+         return cachedMetadata.getOriginalName();
+      }
+
       String query = queryDocumentFromCollectionMetadata(collectionName, LumeerConst.Collection.COLLECTION_REAL_NAME_META_TYPE_VALUE);
       List<DataDocument> nameInfo = dataStorage.run(query);
 
@@ -539,6 +589,7 @@ public class CollectionMetadataFacade implements Serializable {
          throw new CollectionMetadataDocumentNotFoundException(ErrorMessageBuilder.collectionMetadataNotFoundString(collectionName, LumeerConst.Collection.COLLECTION_REAL_NAME_META_TYPE_VALUE));
       }
 
+      cachedMetadata.setOriginalName(name);
       return name;
    }
 
@@ -552,11 +603,17 @@ public class CollectionMetadataFacade implements Serializable {
     *       when collection with given user name is not found
     */
    public String getInternalCollectionName(String originalCollectionName) throws UserCollectionNotFoundException {
+      String cachedName = collectionMetadataCache.getInternalCollectionName(originalCollectionName);
+      if (cachedName != null && dataStorage.hasCollection(cachedName)) {
+         return cachedName;
+      }
+
       List<String> collections = dataStorage.getAllCollections();
       for (String c : collections) {
          if (isUserCollection(c)) {
             try {
                if (getOriginalCollectionName(c).equals(originalCollectionName)) {
+                  collectionMetadataCache.setInternalCollectionName(originalCollectionName, c);
                   return c;
                }
                // we do not care if some other collection does not have original name or some problem with metadata
@@ -605,6 +662,7 @@ public class CollectionMetadataFacade implements Serializable {
 
       DataDocument metadataDocument = new DataDocument(metadata);
       dataStorage.updateDocument(collectionMetadataCollectionName(collectionInternalName), metadataDocument, id);
+      collectionMetadataCache.invalidate(collectionInternalName);
 
       changeCollectionNameEvent.fire(new ChangeCollectionName(collectionOriginalName, collectionInternalName));
 
@@ -818,7 +876,7 @@ public class CollectionMetadataFacade implements Serializable {
     */
    public Object checkAndConvertAttributeValue(String collectionName, String attribute, String valueString) {
       List<String> constraintConfigurations = getAttributeConstraintsConfigurationsWithoutAccessRightsCheck(collectionName, attribute);
-      valueString = checkAttributeConstraints(valueString, constraintConfigurations);
+      valueString = checkAttributeConstraints(collectionName, attribute, valueString, constraintConfigurations);
       if (valueString == null) { // value does not satisfy constraints and could not be fixed
          return null;
       }
@@ -933,19 +991,20 @@ public class CollectionMetadataFacade implements Serializable {
       return checkAttributeTypeAndConvert(value, type);
    }
 
-   // checks whether value satisfies all constraints
-   private String checkAttributeConstraints(String valueString, List<String> constraintConfigurations) {
+   // checks whether value satisfies all constraints, constraints are compiled only once per attribute and configuration
+   private String checkAttributeConstraints(String collectionName, String attribute, String valueString, List<String> constraintConfigurations) {
       if (constraintConfigurations == null || constraintConfigurations.isEmpty()) { // there are no constraints
          return valueString;
       }
 
-      ConstraintManager constraintManager = null;
-      try {
-         constraintManager = new ConstraintManager(constraintConfigurations);
-         initConstraintManager(constraintManager);
-      } catch (InvalidConstraintException e) {
-         throw new IllegalStateException("Illegal constraint prefix collision: ", e);
-      }
+      Locale locale = this.constraintManager.getLocale();
+      ConstraintManager constraintManager = collectionMetadataCache.getCollectionMetadata(collectionName).getConstraintManager(attribute, constraintConfigurations, locale, configurations -> {
+         try {
+            return new ConstraintManager(configurations, locale);
+         } catch (InvalidConstraintException e) {
+            throw new IllegalStateException("Illegal constraint prefix collision: ", e);
+         }
+      });
 
       Constraint.ConstraintResult result = constraintManager.isValid(valueString);
 
@@ -991,15 +1050,23 @@ public class CollectionMetadataFacade implements Serializable {
          return null;
       }
 
-      String query = queryCollectionAttributeInfo(collectionName, attributeName);
-      List<DataDocument> attributesInfo = dataStorage.run(query);
-      if (attributesInfo.isEmpty()) { // metadata for the attribute was not found
-         return null;
-      }
+      return getAttributeMetadata(collectionName, attributeName).getConstraintConfigurations();
+   }
+
+   // returns cached type and constraints of the attribute, metadata collection must exist
+   private CollectionMetadataCache.AttributeMetadata getAttributeMetadata(String collectionName, String attributeName) {
+      return collectionMetadataCache.getCollectionMetadata(collectionName).getAttribute(attributeName, attribute -> {
+         List<DataDocument> attributesInfo = dataStorage.run(queryCollectionAttributeInfo(collectionName, attribute));
+         if (attributesInfo.isEmpty()) { // metadata for the attribute was not found
+            return CollectionMetadataCache.AttributeMetadata.MISSING;
+         }
 
-      DataDocument attributeInfo = attributesInfo.get(0);
+         DataDocument attributeInfo = attributesInfo.get(0);
+         Object type = attributeInfo.get(LumeerConst.Collection.COLLECTION_ATTRIBUTE_TYPE_KEY);
 
-      return attributeInfo.getArrayList(LumeerConst.Collection.COLLECTION_ATTRIBUTE_CONSTRAINTS_KEY, String.class);
+         return new CollectionMetadataCache.AttributeMetadata(type != null ? type.toString() : null,
+               attributeInfo.getArrayList(LumeerConst.Collection.COLLECTION_ATTRIBUTE_CONSTRAINTS_KEY, String.class));
+      });
    }
 
    /**
@@ -1026,8 +1093,7 @@ public class CollectionMetadataFacade implements Serializable {
 
       ConstraintManager constraintManager = null;
       try {
-         constraintManager = new ConstraintManager(existingConstraints);
-         initConstraintManager(constraintManager);
+         constraintManager = new ConstraintManager(existingConstraints, getUserLocale());
       } catch (InvalidConstraintException e) { // thrown when already existing constraints are in conflict
          throw new IllegalStateException("Illegal constraint prefix collision: ", e);
       }
@@ -1037,6 +1103,7 @@ public class CollectionMetadataFacade implements Serializable {
       // TODO: update whole array because of concurrent access?
       String attributeDocumentId = getAttributeDocumentId(collectionName, attributeName);
       dataStorage.addItemToArray(collectionMetadataCollectionName(collectionName), attributeDocumentId, LumeerConst.Collection.COLLECTION_ATTRIBUTE_CONSTRAINTS_KEY, constraintConfiguration);
+      collectionMetadataCache.invalidate(collectionName);
    }
 
    /**
@@ -1058,6 +1125,7 @@ public class CollectionMetadataFacade implements Serializable {
 
       String attributeDocumentId = getAttributeDocumentId(collectionName, attributeName);
       dataStorage.removeItemFromArray(collectionMetadataCollectionName(collectionName), attributeDocumentId, LumeerConst.Collection.COLLECTION_ATTRIBUTE_CONSTRAINTS_KEY, constraintConfiguration);
+      collectionMetadataCache.invalidate(collectionName);
    }
 
    /**
@@ -1107,12 +1175,13 @@ public class CollectionMetadataFacade implements Serializable {
     *       when current user is not allowed to change rights for the collection
     */
    public void addCollectionRead(String collectionName, String user) throws UnauthorizedAccessException {
-      DataDocument rights = getAccessRightsDocument(collectionName);
+      DataDocument rights = readAccessRightsDocument(collectionName);
       if (!securityFacade.checkForExecute(rights, user)) {
          throw new UnauthorizedAccessException();
       }
       securityFacade.setRightsRead(rights, user);
       dataStorage.updateDocument(collectionMetadataCollectionName(collectionName), rights, rights.getId());
+      collectionMetadataCache.invalidate(collectionName);
    }
 
    /**
@@ -1126,12 +1195,13 @@ public class CollectionMetadataFacade implements Serializable {
     *       when current user is not allowed to change rights for the collection
     */
    public void addCollectionWrite(String collectionName, String user) throws UnauthorizedAccessException {
-      DataDocument rights = getAccessRightsDocument(collectionName);
+      DataDocument rights = readAccessRightsDocument(collectionName);
       if (!securityFacade.checkForExecute(rights, user)) {
          throw new UnauthorizedAccessException();
       }
       securityFacade.setRightsWrite(rights, user);
       dataStorage.updateDocument(collectionMetadataCollectionName(collectionName), rights, rights.getId());
+      collectionMetadataCache.invalidate(collectionName);
    }
 
    /**
@@ -1145,12 +1215,13 @@ public class CollectionMetadataFacade implements Serializable {
     *       when current user is not allowed to change rights for the collection
     */
    public void addCollectionExecute(String collectionName, String user) throws UnauthorizedAccessException {
-      DataDocument rights = getAccessRightsDocument(collectionName);
+      DataDocument rights = readAccessRightsDocument(collectionName);
       if (!securityFacade.checkForExecute(rights, user)) {
          throw new UnauthorizedAccessException();
       }
       securityFacade.setRightsExecute(rights, user);
       dataStorage.updateDocument(collectionMetadataCollectionName(collectionName), rights, rights.getId());
+      collectionMetadataCache.invalidate(collectionName);
    }
 
    /**
@@ -1164,12 +1235,13 @@ public class CollectionMetadataFacade implements Serializable {
     *       when current user is not allowed to change rights for the collection
     */
    public void removeCollectionRead(String collectionName, String user) throws UnauthorizedAccessException {
-      DataDocument rights = getAccessRightsDocument(collectionName);
+      DataDocument rights = readAccessRightsDocument(collectionName);
       if (!securityFacade.checkForExecute(rights, user)) {
          throw new UnauthorizedAccessException();
       }
       securityFacade.removeRightsRead(rights, user);
       dataStorage.updateDocument(collectionMetadataCollectionName(collectionName), rights, rights.getId());
+      collectionMetadataCache.invalidate(collectionName);
    }
 
    /**
@@ -1183,12 +1255,13 @@ public class CollectionMetadataFacade implements Serializable {
     *       when current user is not allowed to change rights for the collection
     */
    public void removeCollectionWrite(String collectionName, String user) throws UnauthorizedAccessException {
-      DataDocument rights = getAccessRightsDocument(collectionName);
+      DataDocument rights = readAccessRightsDocument(collectionName);
       if (!securityFacade.checkForExecute(rights, user)) {
          throw new UnauthorizedAccessException();
       }
       securityFacade.removeRightsWrite(rights, user);
       dataStorage.updateDocument(collectionMetadataCollectionName(collectionName), rights, rights.getId());
+      collectionMetadataCache.invalidate(collectionName);
    }
 
    /**
@@ -1202,12 +1275,13 @@ public class CollectionMetadataFacade implements Serializable {
     *       when current user is not allowed to change rights for the collection
     */
    public void removeCollectionExecute(String collectionName, String user) throws UnauthorizedAccessException {
-      DataDocument rights = getAccessRightsDocument(collectionName);
+      DataDocument rights = readAccessRightsDocument(collectionName);
       if (!securityFacade.checkForExecute(rights, user)) {
          throw new UnauthorizedAccessException();
       }
       securityFacade.removeRightsExecute(rights, user);
       dataStorage.updateDocument(collectionMetadataCollectionName(collectionName), rights, rights.getId());
+      collectionMetadataCache.invalidate(collectionName);
    }
 
    /**
@@ -1222,12 +1296,26 @@ public class CollectionMetadataFacade implements Serializable {
       return securityFacade.getDaoList(getAccessRightsDocument(collectionName));
    }
 
-   // returns whole access rights document - to be used only internally
+   // returns whole cached access rights document - to be used only internally and not to be modified
    private DataDocument getAccessRightsDocument(String collectionName) {
       if (!dataStorage.hasCollection(collectionMetadataCollectionName(collectionName))) { // metadata collection does not exist
          return null;
       }
 
+      CollectionMetadataCache.CollectionMetadata cachedMetadata = collectionMetadataCache.getCollectionMetadata(collectionName);
+      if (!cachedMetadata.isAccessRightsLoaded()) {
+         cachedMetadata.setAccessRights(readAccessRightsDocument(collectionName));
+      }
+
+      return cachedMetadata.getAccessRights();
+   }
+
+   // reads access rights document from the database, the document can be modified and stored back
+   private DataDocument readAccessRightsDocument(String collectionName) {
+      if (!dataStorage.hasCollection(collectionMetadataCollectionName(collectionName))) { // metadata collection does not exist
+         return null;
+      }
+
       String query = queryDocumentFromCollectionMetadata(collectionName, LumeerConst.Collection.COLLECTION_RIGHTS_META_TYPE_VALUE);
       List<DataDocument> rightsInfo = dataStorage.run(query);
 
@@ -1280,6 +1368,56 @@ public class CollectionMetadataFacade implements Serializable {
       return sb.toString();
    }
 
+   private DataDocument updateCollectionAttributesCountQuery(final String metadataCollectionName, final Map<String, Integer> attributeCounts) {
+      List<DataDocument> updates = attributeCounts.entrySet().stream().map(entry ->
+            new DataDocument("q",
+                  new DataDocument(LumeerConst.Collection.META_TYPE_KEY, LumeerConst.Collection.COLLECTION_ATTRIBUTES_META_TYPE_VALUE)
+                        .append(LumeerConst.Collection.COLLECTION_ATTRIBUTE_NAME_KEY, entry.getKey()))
+                  .append("u",
+                        new DataDocument("$setOnInsert",
+                              new DataDocument(LumeerConst.Collection.META_TYPE_KEY, LumeerConst.Collection.COLLECTION_ATTRIBUTES_META_TYPE_VALUE)
+                                    .append(LumeerConst.Collection.COLLECTION_ATTRIBUTE_NAME_KEY, entry.getKey())
+                                    .append(LumeerConst.Collection.COLLECTION_ATTRIBUTE_TYPE_KEY, LumeerConst.Collection.COLLECTION_ATTRIBUTE_TYPE_STRING)
+                                    .append(LumeerConst.Collection.COLLECTION_ATTRIBUTE_CONSTRAINTS_KEY, new ArrayList<String>())
+                        )
+                              .append("$inc",
+                                    new DataDocument(LumeerConst.Collection.COLLECTION_ATTRIBUTE_COUNT_KEY, entry.getValue())))
+                  .append("upsert", true)
+      ).collect(Collectors.toList());
+
+      return new DataDocument()
+            .append("update", metadataCollectionName)
+            .append("updates", updates)
+            .append("ordered", false);
+   }
+
+   private DataDocument decrementCollectionAttributesCountQuery(final String metadataCollectionName, final Map<String, Integer> attributeCounts) {
+      List<DataDocument> updates = attributeCounts.entrySet().stream().map(entry ->
+            new DataDocument("q",
+                  new DataDocument(LumeerConst.Collection.META_TYPE_KEY, LumeerConst.Collection.COLLECTION_ATTRIBUTES_META_TYPE_VALUE)
+                        .append(LumeerConst.Collection.COLLECTION_ATTRIBUTE_NAME_KEY, entry.getKey()))
+                  .append("u",
+                        new DataDocument("$inc",
+                              new DataDocument(LumeerConst.Collection.COLLECTION_ATTRIBUTE_COUNT_KEY, -entry.getValue())))
+      ).collect(Collectors.toList());
+
+      return new DataDocument()
+            .append("update", metadataCollectionName)
+            .append("updates", updates)
+            .append("ordered", false);
+   }
+
+   private DataDocument dropUnusedCollectionAttributesQuery(final String metadataCollectionName, final Collection<String> attributeNames) {
+      return new DataDocument()
+            .append("delete", metadataCollectionName)
+            .append("deletes", Collections.singletonList(
+                  new DataDocument("q",
+                        new DataDocument(LumeerConst.Collection.META_TYPE_KEY, LumeerConst.Collection.COLLECTION_ATTRIBUTES_META_TYPE_VALUE)
+                              .append(LumeerConst.Collection.COLLECTION_ATTRIBUTE_NAME_KEY, new DataDocument("$in", new ArrayList<>(attributeNames)))
+                              .append(LumeerConst.Collection.COLLECTION_ATTRIBUTE_COUNT_KEY, new DataDocument("$lte", 0)))
+                        .append("limit", 0)));
+   }
+
    private DataDocument updateCollectionAttributeCountQuery(final String metadataCollectionName, final String attributeName) {
       return new DataDocument()
             .append("findAndModify", metadataCollectionName)
@@ -1301,7 +1439,7 @@ public class CollectionMetadataFacade implements Serializable {
 
    // checks whether collection with given user name already exists
    private boolean checkIfUserCollectionExists(String originalCollectionName) {
-      dataStorage.invalidateCaches(); // cache can be 5 seconds old, so we firstly invalidate it
+      dataStorage.invalidateCaches(); // collections created on the other nodes may not be known yet
       List<String> collections = dataStorage.getAllCollections();
       for (String c : collections) {
          if (isUserCollection(c)) {
@@ -1326,9 +1464,9 @@ public class CollectionMetadataFacade implements Serializable {
       }
    }
 
-   // initializes constraint manager
-   private void initConstraintManager(ConstraintManager constraintManager) {
-      constraintManager.setLocale(Locale.forLanguageTag(configurationFacade.getConfigurationString(LumeerConst.USER_LOCALE_PROPERTY).orElse("en-US")));
+   // gets locale the constraints are parsed with
+   private Locale getUserLocale() {
+      return Locale.forLanguageTag(configurationFacade.getConfigurationString(LumeerConst.USER_LOCALE_PROPERTY).orElse("en-US"));
    }
 
    // returns current user email
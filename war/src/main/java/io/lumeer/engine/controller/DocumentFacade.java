@@ -24,23 +24,32 @@ import io.lumeer.engine.api.constraint.InvalidConstraintException;
 import io.lumeer.engine.api.data.DataDocument;
 import io.lumeer.engine.api.data.DataStorage;
 import io.lumeer.engine.api.event.DropDocument;
+import io.lumeer.engine.api.event.UpdateDocument;
 import io.lumeer.engine.api.exception.CollectionNotFoundException;
 import io.lumeer.engine.api.exception.DbException;
 import io.lumeer.engine.api.exception.DocumentNotFoundException;
 import io.lumeer.engine.api.exception.InvalidDocumentKeyException;
 import io.lumeer.engine.api.exception.UnauthorizedAccessException;
 import io.lumeer.engine.api.exception.UnsuccessfulOperationException;
+import io.lumeer.engine.api.exception.VersionUpdateConflictException;
 import io.lumeer.engine.util.ErrorMessageBuilder;
 import io.lumeer.engine.util.Utils;
 import io.lumeer.mongodb.MongoUtils;
 
+import com.mongodb.client.model.Filters;
+import org.bson.types.ObjectId;
+
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import javax.enterprise.context.SessionScoped;
 import javax.enterprise.event.Event;
@@ -52,6 +61,11 @@ import javax.inject.Inject;
 @SessionScoped
 public class DocumentFacade implements Serializable {
 
+   /**
+    * Maximal number of documents written to the data storage at once by bulk operations.
+    */
+   private static final int BULK_BATCH_SIZE = 1000;
+
    @Inject
    private DataStorage dataStorage;
 
@@ -73,6 +87,9 @@ public class DocumentFacade implements Serializable {
    @Inject
    private Event<DropDocument> dropDocumentEvent;
 
+   @Inject
+   private Event<UpdateDocument> updateDocumentEvent;
+
    @Inject
    private UserFacade userFacade;
 
@@ -91,14 +108,7 @@ public class DocumentFacade implements Serializable {
     */
    public String createDocument(final String collectionName, final DataDocument document) throws DbException, InvalidConstraintException {
       checkCollectionForWriteBenevolent(collectionName);
-      DataDocument doc = checkDocumentKeysValidity(document);
-      // check constraints
-      checkConstraintsAndConvert(collectionName, doc);
-      // add metadata attributes
-      doc.put(LumeerConst.Document.CREATE_DATE_KEY, Utils.getCurrentTimeString());
-      doc.put(LumeerConst.Document.CREATE_BY_USER_KEY, userFacade.getUserEmail());
-      doc.put(LumeerConst.METADATA_VERSION_KEY, 0);
-      doc.put(LumeerConst.Document.USER_RIGHTS, Collections.singletonList(new DataDocument(LumeerConst.Security.USER_ID, userFacade.getUserEmail()).append(LumeerConst.Security.RULE, LumeerConst.Security.WRITE + LumeerConst.Security.EXECUTE + LumeerConst.Security.READ)));
+      DataDocument doc = prepareNewDocument(collectionName, document);
 
       String documentId = dataStorage.createDocument(collectionName, doc);
       if (documentId == null) {
@@ -111,6 +121,48 @@ public class DocumentFacade implements Serializable {
       return documentId;
    }
 
+   /**
+    * Creates and inserts new documents to specified collection and create collection if not exists.
+    * All documents are validated first, then they are inserted in batches and the collection metadata
+    * are updated once per batch.
+    *
+    * @param collectionName
+    *       the name of the collection where the documents will be created
+    * @param documents
+    *       the DataDocument objects representing documents to be created
+    * @return the ids of the newly created documents in the order of the given documents
+    * @throws DbException
+    *       When there is an error working with the database.
+    * @throws InvalidConstraintException
+    *       if one of documents' value doesn't satisfy constraint or type
+    */
+   public List<String> createDocuments(final String collectionName, final List<DataDocument> documents) throws DbException, InvalidConstraintException {
+      checkCollectionForWriteBenevolent(collectionName);
+
+      List<DataDocument> docs = new ArrayList<>(documents.size());
+      for (DataDocument document : documents) {
+         docs.add(prepareNewDocument(collectionName, document));
+      }
+
+      List<String> documentIds = new ArrayList<>(docs.size());
+      for (int from = 0; from < docs.size(); from += BULK_BATCH_SIZE) {
+         List<DataDocument> batch = docs.subList(from, Math.min(from + BULK_BATCH_SIZE, docs.size()));
+
+         List<String> batchIds = dataStorage.createDocuments(collectionName, batch);
+         if (batchIds.size() != batch.size() || batchIds.contains(null)) {
+            throw new UnsuccessfulOperationException(ErrorMessageBuilder.createDocumentUnsuccesfulString());
+         }
+         documentIds.addAll(batchIds);
+
+         // we add all documents' attributes to collection metadata at once
+         Map<String, Integer> attributeCounts = new HashMap<>();
+         batch.forEach(doc -> countAttributes(attributeCounts, doc.keySet()));
+         collectionMetadataFacade.addOrIncrementAttributes(collectionName, attributeCounts);
+      }
+
+      return documentIds;
+   }
+
    /**
     * Reads the specified document in given collection by its id.
     *
@@ -164,7 +216,8 @@ public class DocumentFacade implements Serializable {
       checkConstraintsAndConvert(collectionName, updatedDocument);
       upd.put(LumeerConst.Document.UPDATE_DATE_KEY, Utils.getCurrentTimeString());
       upd.put(LumeerConst.Document.UPDATED_BY_USER_KEY, userFacade.getUserEmail());
-      versionFacade.newDocumentVersion(collectionName, upd);
+      versionFacade.newDocumentVersion(collectionName, existingDocument, upd);
+      updateDocumentEvent.fire(new UpdateDocument(collectionName, upd));
 
       // we add new attributes of updated document to collection metadata
       upd.keySet().stream().filter(attribute -> !existingDocument.containsKey(attribute) && !LumeerConst.Document.METADATA_KEYS.contains(attribute)).forEach(attribute -> {
@@ -172,6 +225,67 @@ public class DocumentFacade implements Serializable {
       });
    }
 
+   /**
+    * Modifies existing documents in given collection by their ids. Documents are processed in batches,
+    * every batch is read with a single query and validated, then written at once on condition that no document
+    * was modified in the meantime, the old versions are backed up at once and the collection metadata are updated once per batch.
+    * When a document in a batch is not valid, the previous batches stay updated. When some documents were modified concurrently,
+    * the other documents of the batch stay updated.
+    *
+    * @param collectionName
+    *       the name of the collection where the existing documents are located
+    * @param updatedDocuments
+    *       the DataDocument objects representing documents with changes to update
+    * @throws DbException
+    *       When there is an error working with the data storage.
+    * @throws VersionUpdateConflictException
+    *       if some of the documents were modified by somebody else in the meantime
+    * @throws InvalidConstraintException
+    *       if one of documents' value doesn't satisfy constraint or type
+    */
+   public void updateDocuments(final String collectionName, final List<DataDocument> updatedDocuments) throws DbException, InvalidConstraintException {
+      checkCollectionForWriteBenevolent(collectionName);
+
+      for (int from = 0; from < updatedDocuments.size(); from += BULK_BATCH_SIZE) {
+         List<DataDocument> batch = updatedDocuments.subList(from, Math.min(from + BULK_BATCH_SIZE, updatedDocuments.size()));
+         Map<String, DataDocument> existingDocuments = readDocuments(collectionName, batch.stream().map(DataDocument::getId).collect(Collectors.toList()));
+         List<DataDocument> originals = new ArrayList<>(batch.size());
+         List<DataDocument> updates = new ArrayList<>(batch.size());
+
+         for (DataDocument updatedDocument : batch) {
+            DataDocument existingDocument = existingDocuments.get(updatedDocument.getId());
+            if (existingDocument == null) {
+               throw new DocumentNotFoundException(ErrorMessageBuilder.documentNotFoundString());
+            }
+            if (!securityFacade.checkForWrite(existingDocument, userFacade.getUserEmail())) {
+               throw new UnauthorizedAccessException();
+            }
+            DataDocument upd = cleanInvalidAttributes(updatedDocument);
+            checkConstraintsAndConvert(collectionName, upd);
+            upd.put(LumeerConst.Document.UPDATE_DATE_KEY, Utils.getCurrentTimeString());
+            upd.put(LumeerConst.Document.UPDATED_BY_USER_KEY, userFacade.getUserEmail());
+
+            originals.add(existingDocument);
+            updates.add(upd);
+         }
+
+         versionFacade.newDocumentVersions(collectionName, originals, updates, Collections.emptyList());
+         updates.forEach(upd -> updateDocumentEvent.fire(new UpdateDocument(collectionName, upd)));
+
+         // we add new attributes of updated documents to collection metadata at once
+         Map<String, Integer> attributeCounts = new HashMap<>();
+         for (int i = 0; i < updates.size(); i++) {
+            DataDocument existingDocument = originals.get(i);
+            countAttributes(attributeCounts, updates.get(i).keySet().stream().filter(attribute -> !existingDocument.containsKey(attribute)).collect(Collectors.toList()));
+         }
+         collectionMetadataFacade.addOrIncrementAttributes(collectionName, attributeCounts);
+
+         if (updates.size() < batch.size()) {
+            throw new VersionUpdateConflictException(ErrorMessageBuilder.updateDocumentUnsuccesfulString());
+         }
+      }
+   }
+
    /**
     * Replace an existing document in given collection by its id and create collection if not exists
     *
@@ -202,9 +316,8 @@ public class DocumentFacade implements Serializable {
       });
       repl.put(LumeerConst.Document.UPDATE_DATE_KEY, Utils.getCurrentTimeString());
       repl.put(LumeerConst.Document.UPDATED_BY_USER_KEY, userFacade.getUserEmail());
-      versionFacade.backUp(collectionName, documentId);
-      dataStorage.replaceDocument(collectionName, repl, documentId);
-      dataStorage.incrementAttributeValueBy(collectionName, documentId, LumeerConst.METADATA_VERSION_KEY, 1);
+      versionFacade.replaceDocumentVersion(collectionName, existingDocument, repl);
+      updateDocumentEvent.fire(new UpdateDocument(collectionName, getChanges(existingDocument, repl)));
 
       // add new attributes of updated document to collection metadata
       repl.keySet().stream().filter(attribute -> !existingDocument.containsKey(attribute) && !LumeerConst.Document.METADATA_KEYS.contains(attribute)).forEach(attribute -> {
@@ -277,6 +390,7 @@ public class DocumentFacade implements Serializable {
       checkConstraintsAndConvert(collectionName, revertDocument);
 
       versionFacade.revertDocumentVersion(collectionName, existingDocument, revertVersion);
+      updateDocumentEvent.fire(new UpdateDocument(collectionName, getChanges(existingDocument, revertDocument)));
 
       // add new attributes of updated document to collection metadata
       revertDocument.keySet().stream().filter(attribute -> !existingDocument.containsKey(attribute) && !LumeerConst.Document.METADATA_KEYS.contains(attribute)).forEach(attribute -> {
@@ -312,6 +426,7 @@ public class DocumentFacade implements Serializable {
       dataStorage.dropAttribute(collectionName, documentId, attributeName);
       dataStorage.incrementAttributeValueBy(collectionName, documentId, LumeerConst.METADATA_VERSION_KEY, 1);
       collectionMetadataFacade.dropOrDecrementAttribute(collectionName, attributeName);
+      updateDocumentEvent.fire(new UpdateDocument(collectionName, new DataDocument(LumeerConst.Document.ID, documentId).append(attributeName, null)));
    }
 
    /**
@@ -378,6 +493,46 @@ public class DocumentFacade implements Serializable {
       }
    }
 
+   // validates the document and adds metadata of a newly created document
+   private DataDocument prepareNewDocument(final String collectionName, final DataDocument document) throws InvalidDocumentKeyException, InvalidConstraintException {
+      DataDocument doc = checkDocumentKeysValidity(document);
+      // check constraints
+      checkConstraintsAndConvert(collectionName, doc);
+      // add metadata attributes
+      doc.put(LumeerConst.Document.CREATE_DATE_KEY, Utils.getCurrentTimeString());
+      doc.put(LumeerConst.Document.CREATE_BY_USER_KEY, userFacade.getUserEmail());
+      doc.put(LumeerConst.METADATA_VERSION_KEY, 0);
+      doc.put(LumeerConst.Document.USER_RIGHTS, Collections.singletonList(new DataDocument(LumeerConst.Security.USER_ID, userFacade.getUserEmail()).append(LumeerConst.Security.RULE, LumeerConst.Security.WRITE + LumeerConst.Security.EXECUTE + LumeerConst.Security.READ)));
+      return doc;
+   }
+
+   // adds non-metadata attributes to the counts of documents with the attribute
+   private void countAttributes(final Map<String, Integer> attributeCounts, final Collection<String> attributes) {
+      attributes.stream().filter(attribute -> !LumeerConst.Document.METADATA_KEYS.contains(attribute)).forEach(attribute -> attributeCounts.merge(attribute, 1, Integer::sum));
+   }
+
+   // reads the documents with a single query and indexes them by their ids
+   private Map<String, DataDocument> readDocuments(final String collectionName, final List<String> documentIds) {
+      final List<ObjectId> ids = documentIds.stream().map(ObjectId::new).collect(Collectors.toList());
+
+      return dataStorage.search(collectionName, MongoUtils.convertBsonToJson(Filters.in(LumeerConst.Document.ID, ids)), null, 0, 0)
+                        .stream().collect(Collectors.toMap(DataDocument::getId, Function.identity()));
+   }
+
+   // creates a document with the changed attributes of the existing document, removed attributes are set to null
+   private static DataDocument getChanges(final DataDocument existingDocument, final DataDocument newDocument) {
+      final DataDocument changes = new DataDocument(LumeerConst.Document.ID, existingDocument.getId());
+      newDocument.forEach((attribute, value) -> {
+         if (!LumeerConst.Document.ID.equals(attribute) && !LumeerConst.Document.METADATA_KEYS.contains(attribute) && !Objects.equals(value, existingDocument.get(attribute))) {
+            changes.put(attribute, value);
+         }
+      });
+      existingDocument.keySet().stream().filter(attribute -> !newDocument.containsKey(attribute) && !LumeerConst.Document.METADATA_KEYS.contains(attribute))
+                      .forEach(attribute -> changes.put(attribute, null));
+
+      return changes;
+   }
+
    private DataDocument checkDocumentKeysValidity(DataDocument dataDocument) throws InvalidDocumentKeyException {
       DataDocument ndd = new DataDocument();
       for (Map.Entry<String, Object> entry : dataDocument.entrySet()) {
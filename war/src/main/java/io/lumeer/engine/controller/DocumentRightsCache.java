@@ -0,0 +1,277 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.controller;
+
+import io.lumeer.engine.api.LumeerConst;
+import io.lumeer.engine.api.data.DataDocument;
+import io.lumeer.engine.api.event.DropCollection;
+import io.lumeer.engine.api.event.DropDocument;
+import io.lumeer.engine.api.event.UpdateDocument;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+
+/**
+ * Application-wide cache of access rights of documents, so that repeated permission checks of the same document
+ * neither read the document nor scan its list of rights.
+ *
+ * Entries are dropped when rights are changed through {@link SecurityFacade}, when the document is updated or dropped
+ * and when its collection is dropped. These events are local to this node, so entries also expire after {@link #TIME_TO_LIVE}
+ * to pick up changes made on the other nodes. At most {@link #MAX_DOCUMENTS} entries are kept, the least recently used ones are evicted.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+@ApplicationScoped
+public class DocumentRightsCache {
+
+   private static final int MAX_DOCUMENTS = 10000;
+
+   private static final long TIME_TO_LIVE = 5000L;
+
+   private static final String KEY_SEPARATOR = "/";
+
+   private final Map<String, CachedRights> documents = Collections.synchronizedMap(new LinkedHashMap<String, CachedRights>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<String, CachedRights> eldest) {
+         return size() > MAX_DOCUMENTS;
+      }
+   });
+
+   /**
+    * Gets cached rights of the document, loads them when they are not cached yet.
+    *
+    * @param collectionName
+    *       internal collection name
+    * @param documentId
+    *       document id
+    * @param loader
+    *       reads rights of the document from the database, returns null when there is no such document
+    * @return rights of the document or null when the document does not exist
+    */
+   public DocumentRights getDocumentRights(final String collectionName, final String documentId, final Supplier<DocumentRights> loader) {
+      final String key = getKey(collectionName, documentId);
+      final long now = System.currentTimeMillis();
+      final CachedRights cached = documents.get(key);
+
+      if (cached != null && cached.expires > now) {
+         if (cached.rights != null) {
+            return cached.rights;
+         }
+
+         // another thread is loading the rights, they are loaded once more but not cached
+         return loader.get();
+      }
+
+      // the placeholder is put before reading the database, an invalidation while loading removes it and the loaded rights are not cached
+      final CachedRights loading = new CachedRights(null, now + TIME_TO_LIVE);
+      documents.put(key, loading);
+
+      DocumentRights rights = null;
+      try {
+         rights = loader.get();
+      } finally {
+         if (rights == null || !documents.replace(key, loading, new CachedRights(rights, now + TIME_TO_LIVE))) {
+            documents.remove(key, loading);
+         }
+      }
+
+      return rights;
+   }
+
+   /**
+    * Drops cached rights of the document.
+    *
+    * @param collectionName
+    *       internal collection name
+    * @param documentId
+    *       document id
+    */
+   public void invalidate(final String collectionName, final String documentId) {
+      documents.remove(getKey(collectionName, documentId));
+   }
+
+   /**
+    * Drops cached rights of all documents in the collection.
+    *
+    * @param collectionName
+    *       internal collection name
+    */
+   public void invalidate(final String collectionName) {
+      final String prefix = collectionName + KEY_SEPARATOR;
+
+      synchronized (documents) {
+         documents.keySet().removeIf(key -> key.startsWith(prefix));
+      }
+   }
+
+   public void onUpdateDocument(@Observes final UpdateDocument event) {
+      invalidate(event.getCollectionName(), event.getDocument().getId());
+   }
+
+   public void onDropDocument(@Observes final DropDocument event) {
+      invalidate(event.getCollectionName(), event.getDocument().getId());
+   }
+
+   public void onDropCollection(@Observes final DropCollection event) {
+      invalidate(event.getInternalName());
+   }
+
+   static String getKey(final String collectionName, final String documentId) {
+      return collectionName + KEY_SEPARATOR + documentId;
+   }
+
+   /**
+    * Rights with their expiration time, rights are null while they are being loaded.
+    */
+   private static class CachedRights {
+
+      private final DocumentRights rights;
+
+      private final long expires;
+
+      private CachedRights(final DocumentRights rights, final long expires) {
+         this.rights = rights;
+         this.expires = expires;
+      }
+   }
+
+   /**
+    * Rules of users and groups from the list of rights of a single document, indexed by user email and group name.
+    */
+   public static class DocumentRights {
+
+      /**
+       * Rights of a document without the list of rights, everybody has all rights.
+       */
+      public static final DocumentRights UNRESTRICTED = new DocumentRights(null, null);
+
+      private static final int ALL_RIGHTS = LumeerConst.Security.READ | LumeerConst.Security.WRITE | LumeerConst.Security.EXECUTE;
+
+      private final Map<String, Integer> users;
+
+      private final Map<String, Integer> groups;
+
+      private DocumentRights(final Map<String, Integer> users, final Map<String, Integer> groups) {
+         this.users = users;
+         this.groups = groups;
+      }
+
+      /**
+       * Indexes the list of rights of a document.
+       *
+       * @param rightsList
+       *       list of rights records, null when the document has no list of rights
+       * @return indexed rights of the document
+       */
+      public static DocumentRights of(final List<DataDocument> rightsList) {
+         if (rightsList == null) {
+            return UNRESTRICTED;
+         }
+
+         final Map<String, Integer> users = new HashMap<>();
+         final Map<String, Integer> groups = new HashMap<>();
+
+         for (final DataDocument record : rightsList) {
+            final Integer rule = record.getInteger(LumeerConst.Security.RULE);
+            if (rule == null) {
+               continue;
+            }
+
+            final String userId = record.getString(LumeerConst.Security.USER_ID);
+            if (userId != null) {
+               users.merge(userId, rule, (a, b) -> a | b);
+            }
+
+            final String groupId = record.getString(LumeerConst.Security.GROUP_ID);
+            if (groupId != null) {
+               groups.merge(groupId, rule, (a, b) -> a | b);
+            }
+         }
+
+         return new DocumentRights(users, groups);
+      }
+
+      /**
+       * Resolves effective rights of the user directly from the list of rights without indexing it,
+       * see {@link #resolve(String, Set)}.
+       *
+       * @param rightsList
+       *       list of rights records, null when the document has no list of rights
+       * @param userName
+       *       user email
+       * @param userGroups
+       *       groups (roles) of the user
+       * @return bits of {@link LumeerConst.Security#READ}, {@link LumeerConst.Security#WRITE} and {@link LumeerConst.Security#EXECUTE}
+       */
+      public static int resolve(final List<DataDocument> rightsList, final String userName, final Set<String> userGroups) {
+         if (rightsList == null) {
+            return ALL_RIGHTS;
+         }
+
+         int rights = 0;
+
+         for (final DataDocument record : rightsList) {
+            final Integer rule = record.getInteger(LumeerConst.Security.RULE);
+            if (rule == null) {
+               continue;
+            }
+
+            final String groupId = record.getString(LumeerConst.Security.GROUP_ID);
+            if ((userName != null && userName.equals(record.getString(LumeerConst.Security.USER_ID))) || (groupId != null && userGroups.contains(groupId))) {
+               rights |= rule;
+            }
+         }
+
+         return rights;
+      }
+
+      /**
+       * Resolves effective rights of the user as a union of their own rule and rules of all their groups.
+       *
+       * @param userName
+       *       user email
+       * @param userGroups
+       *       groups (roles) of the user
+       * @return bits of {@link LumeerConst.Security#READ}, {@link LumeerConst.Security#WRITE} and {@link LumeerConst.Security#EXECUTE}
+       */
+      public int resolve(final String userName, final Set<String> userGroups) {
+         if (users == null) {
+            return ALL_RIGHTS;
+         }
+
+         int rights = users.getOrDefault(userName, 0);
+
+         if (!groups.isEmpty()) {
+            for (final String group : userGroups) {
+               rights |= groups.getOrDefault(group, 0);
+            }
+         }
+
+         return rights;
+      }
+   }
+}
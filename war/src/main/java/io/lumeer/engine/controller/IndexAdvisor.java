@@ -0,0 +1,383 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.controller;
+
+import io.lumeer.engine.api.LumeerConst;
+import io.lumeer.engine.api.data.DataDocument;
+import io.lumeer.engine.api.event.DropCollection;
+import io.lumeer.engine.controller.configuration.DefaultConfigurationProducer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+
+/**
+ * Application-wide record of attributes the queries on user collections filter and sort by. Every query is turned into
+ * the index that would serve it best: attributes compared for equality first, then the sort attributes and attributes
+ * compared by ranges last. Candidate indexes are counted per collection so that the most frequently needed ones
+ * can be recommended or created.
+ *
+ * At most {@link #MAX_COLLECTIONS} collections with {@link #MAX_CANDIDATES} candidates each are kept, the least recently
+ * used collections and the least used candidates are evicted.
+ *
+ * The mode, budget, minimal number of uses and unused period of the advisor are read from the system defaults once,
+ * they apply to the whole application and are needed on every query.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+@ApplicationScoped
+public class IndexAdvisor {
+
+   /**
+    * Prefix of names of indexes created by the advisor, other indexes are never dropped.
+    */
+   public static final String INDEX_NAME_PREFIX = "advisor_";
+
+   private static final int MAX_COLLECTIONS = 1000;
+   private static final int MAX_CANDIDATES = 50;
+   private static final int MAX_INDEX_ATTRIBUTES = 4;
+
+   private static final int DEFAULT_BUDGET = 3;
+   private static final int DEFAULT_MIN_USES = 10;
+   private static final int DEFAULT_UNUSED_PERIOD = 30;
+
+   private static final Set<String> EQUALITY_OPERATORS = new HashSet<>(Arrays.asList("$eq", "$in"));
+   private static final Set<String> RANGE_OPERATORS = new HashSet<>(Arrays.asList("$gt", "$gte", "$lt", "$lte", "$regex"));
+
+   private final Map<String, Map<String, IndexCandidate>> collections = Collections.synchronizedMap(new LinkedHashMap<String, Map<String, IndexCandidate>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<String, Map<String, IndexCandidate>> eldest) {
+         return size() > MAX_COLLECTIONS;
+      }
+   });
+
+   private final Set<String> applying = ConcurrentHashMap.newKeySet();
+
+   @Inject
+   private DefaultConfigurationProducer defaultConfigurationProducer;
+
+   private volatile Settings settings;
+
+   /**
+    * Gets the settings of the advisor.
+    *
+    * @return the settings read from the system defaults
+    */
+   public Settings getSettings() {
+      if (settings == null) {
+         final String mode = defaultConfigurationProducer.get(LumeerConst.INDEX_ADVISOR_MODE_PROPERTY);
+         settings = new Settings(mode != null ? mode.trim() : IndexAdvisorFacade.MODE_SUGGEST,
+               getDefaultInteger(LumeerConst.INDEX_ADVISOR_BUDGET_PROPERTY, DEFAULT_BUDGET),
+               getDefaultInteger(LumeerConst.INDEX_ADVISOR_MIN_USES_PROPERTY, DEFAULT_MIN_USES),
+               getDefaultInteger(LumeerConst.INDEX_ADVISOR_UNUSED_PERIOD_PROPERTY, DEFAULT_UNUSED_PERIOD));
+      }
+
+      return settings;
+   }
+
+   /**
+    * Records a query on the collection.
+    *
+    * @param collectionName
+    *       internal collection name
+    * @param filters
+    *       query filters, can be null
+    * @param sorting
+    *       query sorting, can be null
+    * @param weight
+    *       number of uses the query counts for
+    * @return the candidate index serving the query, null when the query does not need any index
+    */
+   public IndexCandidate recordUsage(final String collectionName, final Map<String, Object> filters, final Map<String, Object> sorting, final int weight) {
+      final DataDocument key = getIndexKey(filters, sorting);
+
+      if (key.isEmpty() || LumeerConst.Document.ID.equals(key.keySet().iterator().next())) {
+         return null;
+      }
+
+      final Map<String, IndexCandidate> candidates = collections.computeIfAbsent(collectionName, name -> new ConcurrentHashMap<>());
+      IndexCandidate candidate = candidates.get(getIndexName(key));
+
+      if (candidate == null) {
+         synchronized (candidates) {
+            if (candidates.size() >= MAX_CANDIDATES) {
+               candidates.values().stream().min(Comparator.comparingLong(IndexCandidate::getUses)).ifPresent(c -> candidates.remove(c.getName()));
+            }
+            candidate = candidates.computeIfAbsent(getIndexName(key), name -> new IndexCandidate(name, key));
+         }
+      }
+
+      candidate.use(weight);
+
+      return candidate;
+   }
+
+   /**
+    * Gets candidate indexes of the collection.
+    *
+    * @param collectionName
+    *       internal collection name
+    * @return candidate indexes, the most used first
+    */
+   public List<IndexCandidate> getCandidates(final String collectionName) {
+      final Map<String, IndexCandidate> candidates = collections.get(collectionName);
+
+      if (candidates == null) {
+         return Collections.emptyList();
+      }
+
+      return candidates.values().stream().sorted(Comparator.comparingLong(IndexCandidate::getUses).reversed()).collect(Collectors.toList());
+   }
+
+   /**
+    * Marks the collection as having its indexes changed, so that concurrent requests do not change them at the same time.
+    *
+    * @param collectionName
+    *       internal collection name
+    * @return true if the caller may change the indexes, false when somebody else is changing them
+    */
+   public boolean startApplying(final String collectionName) {
+      return applying.add(collectionName);
+   }
+
+   /**
+    * Marks the indexes of the collection as not being changed anymore.
+    *
+    * @param collectionName
+    *       internal collection name
+    */
+   public void finishApplying(final String collectionName) {
+      applying.remove(collectionName);
+   }
+
+   /**
+    * Forgets all recorded queries on the collection.
+    *
+    * @param collectionName
+    *       internal collection name
+    */
+   public void invalidate(final String collectionName) {
+      collections.remove(collectionName);
+   }
+
+   public void onDropCollection(@Observes final DropCollection event) {
+      invalidate(event.getInternalName());
+   }
+
+   private int getDefaultInteger(final String key, final int defaultValue) {
+      try {
+         final String value = defaultConfigurationProducer.get(key);
+         return value != null ? Integer.parseInt(value.trim()) : defaultValue;
+      } catch (NumberFormatException e) {
+         return defaultValue;
+      }
+   }
+
+   /**
+    * Gets the key of the index serving a query with the given filters and sorting.
+    *
+    * @param filters
+    *       query filters, can be null
+    * @param sorting
+    *       query sorting, can be null
+    * @return index attributes with their directions, empty when no attribute can be served by an index
+    */
+   public static DataDocument getIndexKey(final Map<String, Object> filters, final Map<String, Object> sorting) {
+      final List<String> equality = new ArrayList<>();
+      final List<String> range = new ArrayList<>();
+      final DataDocument key = new DataDocument();
+
+      if (filters != null) {
+         collectAttributes(filters, equality, range);
+      }
+
+      equality.forEach(attribute -> key.putIfAbsent(attribute, 1));
+      if (sorting != null) {
+         sorting.forEach((attribute, direction) -> key.putIfAbsent(attribute, direction instanceof Number && ((Number) direction).intValue() < 0 ? -1 : 1));
+      }
+      range.forEach(attribute -> key.putIfAbsent(attribute, 1));
+
+      final Iterator<String> attributes = key.keySet().iterator();
+      for (int i = 0; attributes.hasNext(); i++) {
+         attributes.next();
+         if (i >= MAX_INDEX_ATTRIBUTES) {
+            attributes.remove();
+         }
+      }
+
+      return key;
+   }
+
+   /**
+    * Gets the name the advisor gives to the index with the given key.
+    *
+    * @param key
+    *       index attributes with their directions
+    * @return the index name
+    */
+   public static String getIndexName(final Map<String, Object> key) {
+      return key.entrySet().stream().map(e -> e.getKey() + "_" + e.getValue()).collect(Collectors.joining("_", INDEX_NAME_PREFIX, ""));
+   }
+
+   /**
+    * Checks whether the index can serve queries needing the candidate index, i.e. the candidate attributes form a prefix
+    * of the index attributes with all directions the same or all opposite.
+    *
+    * @param index
+    *       key of an existing index
+    * @param candidate
+    *       key of the candidate index
+    * @return true if and only if the index covers the candidate
+    */
+   public static boolean covers(final Map<?, ?> index, final Map<?, ?> candidate) {
+      if (candidate.size() > index.size()) {
+         return false;
+      }
+
+      final Iterator<? extends Map.Entry<?, ?>> indexAttributes = index.entrySet().iterator();
+      boolean same = true;
+      boolean opposite = true;
+
+      for (final Map.Entry<?, ?> attribute : candidate.entrySet()) {
+         final Map.Entry<?, ?> indexAttribute = indexAttributes.next();
+
+         if (!attribute.getKey().equals(indexAttribute.getKey()) || !(indexAttribute.getValue() instanceof Number)) {
+            return false;
+         }
+
+         final boolean ascending = ((Number) attribute.getValue()).intValue() > 0;
+         final boolean indexAscending = ((Number) indexAttribute.getValue()).doubleValue() > 0;
+         same &= ascending == indexAscending;
+         opposite &= ascending != indexAscending;
+      }
+
+      return same || opposite;
+   }
+
+   // sorts attributes of the filters to the ones compared for equality and the ones compared by ranges,
+   // attributes in alternatives and compared by other operators cannot be reliably served by a single index
+   private static void collectAttributes(final Map<?, ?> filters, final List<String> equality, final List<String> range) {
+      filters.forEach((attribute, value) -> {
+         final String name = String.valueOf(attribute);
+
+         if ("$and".equals(name) && value instanceof List) {
+            ((List<?>) value).stream().filter(Map.class::isInstance).forEach(condition -> collectAttributes((Map<?, ?>) condition, equality, range));
+         } else if (!name.startsWith("$")) {
+            if (!(value instanceof Map) || ((Map<?, ?>) value).keySet().stream().noneMatch(operator -> String.valueOf(operator).startsWith("$"))) {
+               equality.add(name);
+            } else if (EQUALITY_OPERATORS.containsAll(((Map<?, ?>) value).keySet())) {
+               equality.add(name);
+            } else if (((Map<?, ?>) value).keySet().stream().anyMatch(RANGE_OPERATORS::contains)) {
+               range.add(name);
+            }
+         }
+      });
+   }
+
+   /**
+    * Index that would serve some of the recorded queries together with the number of the queries.
+    */
+   public static class IndexCandidate {
+
+      private final String name;
+
+      private final DataDocument key;
+
+      private final AtomicLong uses = new AtomicLong();
+
+      private volatile long lastUsed;
+
+      private IndexCandidate(final String name, final DataDocument key) {
+         this.name = name;
+         this.key = key;
+      }
+
+      private void use(final int weight) {
+         uses.addAndGet(weight);
+         lastUsed = System.currentTimeMillis();
+      }
+
+      public String getName() {
+         return name;
+      }
+
+      public DataDocument getKey() {
+         return new DataDocument(key);
+      }
+
+      public long getUses() {
+         return uses.get();
+      }
+
+      public long getLastUsed() {
+         return lastUsed;
+      }
+   }
+
+   /**
+    * Settings of the advisor.
+    */
+   public static class Settings {
+
+      private final String mode;
+
+      private final int budget;
+
+      private final int minUses;
+
+      private final int unusedPeriod;
+
+      private Settings(final String mode, final int budget, final int minUses, final int unusedPeriod) {
+         this.mode = mode;
+         this.budget = budget;
+         this.minUses = minUses;
+         this.unusedPeriod = unusedPeriod;
+      }
+
+      public String getMode() {
+         return mode;
+      }
+
+      public int getBudget() {
+         return budget;
+      }
+
+      public int getMinUses() {
+         return minUses;
+      }
+
+      public int getUnusedPeriod() {
+         return unusedPeriod;
+      }
+   }
+}
@@ -0,0 +1,335 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.controller;
+
+import io.lumeer.engine.api.LumeerConst;
+import io.lumeer.engine.api.data.DataDocument;
+import io.lumeer.engine.api.data.DataStorage;
+import io.lumeer.engine.api.exception.CollectionNotFoundException;
+import io.lumeer.engine.api.exception.UnauthorizedAccessException;
+import io.lumeer.engine.api.exception.UserCollectionNotFoundException;
+import io.lumeer.engine.task.TaskContext;
+import io.lumeer.engine.task.TaskProcessorBean;
+import io.lumeer.engine.util.ErrorMessageBuilder;
+import io.lumeer.mongodb.MongoUtils;
+
+import org.bson.Document;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.enterprise.context.SessionScoped;
+import javax.enterprise.inject.spi.CDI;
+import javax.inject.Inject;
+
+/**
+ * Records attributes the queries on user collections filter and sort by in the {@link IndexAdvisor} and manages indexes
+ * according to them. Depending on {@link LumeerConst#INDEX_ADVISOR_MODE_PROPERTY}, the advisor is turned off, only recommends
+ * indexes, or creates the recommended indexes as soon as they are needed often enough, at most the configured number
+ * of them per collection. Indexes created by the advisor that are not used by the database for the configured period are dropped.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+@SessionScoped
+public class IndexAdvisorFacade implements Serializable {
+
+   public static final String MODE_OFF = "off";
+   public static final String MODE_SUGGEST = "suggest";
+   public static final String MODE_AUTO = "auto";
+
+   public static final String ACTION_CREATE = "create";
+   public static final String ACTION_DROP = "drop";
+
+   // a saved view is expected to be run repeatedly, so it counts as this many queries
+   private static final int VIEW_WEIGHT = 10;
+
+   private static final Logger log = Logger.getLogger(IndexAdvisorFacade.class.getName());
+
+   @Inject
+   private DataStorage dataStorage;
+
+   @Inject
+   private CollectionMetadataFacade collectionMetadataFacade;
+
+   @Inject
+   private UserFacade userFacade;
+
+   @Inject
+   private IndexAdvisor indexAdvisor;
+
+   @Inject
+   private TaskProcessorBean taskProcessor;
+
+   /**
+    * Records a query on the collection.
+    *
+    * @param collectionName
+    *       internal collection name
+    * @param filters
+    *       query filters, can be null
+    * @param sorting
+    *       query sorting, can be null
+    */
+   public void recordUsage(final String collectionName, final DataDocument filters, final DataDocument sorting) {
+      recordUsage(collectionName, filters, sorting, 1);
+   }
+
+   /**
+    * Records a query on the collection with filters and sorting given as JSON strings. Invalid specifications are ignored,
+    * the query itself reports them.
+    *
+    * @param collectionName
+    *       internal collection name
+    * @param filter
+    *       query filters, can be null
+    * @param sort
+    *       query sorting, can be null
+    */
+   public void recordUsage(final String collectionName, final String filter, final String sort) {
+      if (MODE_OFF.equals(indexAdvisor.getSettings().getMode())) {
+         return;
+      }
+
+      try {
+         recordUsage(collectionName, parse(filter), parse(sort), 1);
+      } catch (RuntimeException e) {
+         log.log(Level.FINE, "Unable to parse the query on collection " + collectionName, e);
+      }
+   }
+
+   /**
+    * Records the query saved in the view configuration under {@link LumeerConst.View#VIEW_CONFIGURATION_QUERY_KEY}. The query
+    * has the same structure as queries run by {@link SearchFacade#query(io.lumeer.engine.api.data.Query)}.
+    *
+    * @param configuration
+    *       view configuration, can be null
+    */
+   public void recordViewUsage(final DataDocument configuration) {
+      if (configuration == null || !(configuration.get(LumeerConst.View.VIEW_CONFIGURATION_QUERY_KEY) instanceof Map)) {
+         return;
+      }
+
+      final Map<?, ?> query = (Map<?, ?>) configuration.get(LumeerConst.View.VIEW_CONFIGURATION_QUERY_KEY);
+      final DataDocument filters = toDataDocument(query.get("filters"));
+      final DataDocument sorting = toDataDocument(query.get("sorting"));
+
+      if (query.get("collections") instanceof List) {
+         for (final Object collection : (List<?>) query.get("collections")) {
+            try {
+               recordUsage(collectionMetadataFacade.getInternalCollectionName(String.valueOf(collection)), filters, sorting, VIEW_WEIGHT);
+            } catch (UserCollectionNotFoundException e) {
+               // the view refers to a collection that does not exist (yet)
+            }
+         }
+      }
+   }
+
+   /**
+    * Gets indexes recommended for the collection. Indexes that would serve the recorded queries at least the configured
+    * number of times are recommended to be created unless an existing index serves them already. Indexes created by
+    * the advisor that the database did not use for the configured period are recommended to be dropped.
+    *
+    * @param collectionName
+    *       internal collection name
+    * @return recommended index operations, the drops first and then creations sorted by the number of queries needing the index
+    * @throws CollectionNotFoundException
+    *       if collection was not found in database
+    * @throws UnauthorizedAccessException
+    *       when current user is not allowed to read the collection
+    */
+   public List<DataDocument> getRecommendations(final String collectionName) throws CollectionNotFoundException, UnauthorizedAccessException {
+      checkCollection(collectionName, false);
+
+      return recommend(collectionName);
+   }
+
+   /**
+    * Creates and drops indexes of the collection according to the recommendations, see {@link #getRecommendations(String)}.
+    * At most the configured number of indexes created by the advisor are kept on the collection.
+    *
+    * @param collectionName
+    *       internal collection name
+    * @return the applied operations
+    * @throws CollectionNotFoundException
+    *       if collection was not found in database
+    * @throws UnauthorizedAccessException
+    *       when current user is not allowed to write to the collection
+    */
+   public List<DataDocument> applyRecommendations(final String collectionName) throws CollectionNotFoundException, UnauthorizedAccessException {
+      checkCollection(collectionName, true);
+
+      return apply(collectionName);
+   }
+
+   private void recordUsage(final String collectionName, final DataDocument filters, final DataDocument sorting, final int weight) {
+      final IndexAdvisor.Settings settings = indexAdvisor.getSettings();
+      final String mode = settings.getMode();
+
+      if (MODE_OFF.equals(mode)) {
+         return;
+      }
+
+      final IndexAdvisor.IndexCandidate candidate = indexAdvisor.recordUsage(collectionName, filters, sorting, weight);
+      final int minUses = settings.getMinUses();
+
+      // the indexes are managed once when the candidate becomes needed often enough, not on every query
+      if (candidate != null && MODE_AUTO.equals(mode) && candidate.getUses() >= minUses && candidate.getUses() - weight < minUses) {
+         final String user = userFacade.getUserEmail();
+         final Set<String> roles = userFacade.getUserRoles();
+         taskProcessor.getExecutorService().submit(() -> applyAsync(user, roles, collectionName));
+      }
+   }
+
+   // manages the indexes on a worker thread so that the query does not wait for the index to be built
+   private static void applyAsync(final String user, final Set<String> roles, final String collectionName) {
+      TaskContext.activate(user, roles);
+      try {
+         CDI.current().select(IndexAdvisorFacade.class).get().apply(collectionName);
+      } catch (RuntimeException e) {
+         log.log(Level.WARNING, "Unable to manage indexes of collection " + collectionName, e);
+      } finally {
+         TaskContext.deactivate();
+      }
+   }
+
+   private List<DataDocument> apply(final String collectionName) {
+      final List<DataDocument> applied = new ArrayList<>();
+
+      if (!indexAdvisor.startApplying(collectionName)) {
+         return applied;
+      }
+
+      try {
+         final int budget = indexAdvisor.getSettings().getBudget();
+         int advisorIndexes = (int) dataStorage.listIndexes(collectionName).stream()
+                                               .filter(index -> String.valueOf(index.get("name")).startsWith(IndexAdvisor.INDEX_NAME_PREFIX)).count();
+
+         for (final DataDocument recommendation : recommend(collectionName)) {
+            final String name = recommendation.getString("name");
+
+            if (ACTION_DROP.equals(recommendation.getString("action"))) {
+               dataStorage.dropIndex(collectionName, name);
+               advisorIndexes--;
+            } else if (advisorIndexes < budget) {
+               dataStorage.createIndex(collectionName, (DataDocument) recommendation.get("key"), name);
+               advisorIndexes++;
+            } else {
+               continue;
+            }
+
+            log.info(String.format("Index advisor: %s index %s on collection %s.", recommendation.getString("action"), name, collectionName));
+            applied.add(recommendation);
+         }
+      } finally {
+         indexAdvisor.finishApplying(collectionName);
+      }
+
+      return applied;
+   }
+
+   private List<DataDocument> recommend(final String collectionName) {
+      final List<DataDocument> recommendations = new ArrayList<>();
+      final List<Map<?, ?>> keys = new ArrayList<>();
+
+      for (final DataDocument index : dataStorage.listIndexes(collectionName)) {
+         keys.add((Map<?, ?>) index.get("key"));
+      }
+
+      final long unusedSince = System.currentTimeMillis()
+            - TimeUnit.DAYS.toMillis(indexAdvisor.getSettings().getUnusedPeriod());
+
+      getIndexAccesses(collectionName).forEach((name, accesses) -> {
+         if (name.startsWith(IndexAdvisor.INDEX_NAME_PREFIX) && accesses.getLong("ops") == 0 && ((Date) accesses.get("since")).getTime() < unusedSince) {
+            recommendations.add(new DataDocument("action", ACTION_DROP).append("name", name).append("since", accesses.get("since")));
+         }
+      });
+
+      final int minUses = indexAdvisor.getSettings().getMinUses();
+
+      for (final IndexAdvisor.IndexCandidate candidate : indexAdvisor.getCandidates(collectionName)) {
+         final DataDocument key = candidate.getKey();
+
+         if (candidate.getUses() >= minUses && keys.stream().noneMatch(index -> IndexAdvisor.covers(index, key))) {
+            keys.add(key);
+            recommendations.add(new DataDocument("action", ACTION_CREATE)
+                  .append("name", candidate.getName())
+                  .append("key", key)
+                  .append("uses", candidate.getUses())
+                  .append("lastUsed", new Date(candidate.getLastUsed())));
+         }
+      }
+
+      return recommendations;
+   }
+
+   // gets the number of operations that used each index and the time the database started counting them, summed over all hosts,
+   // nothing is known when the database does not provide index statistics
+   private Map<String, DataDocument> getIndexAccesses(final String collectionName) {
+      final Map<String, DataDocument> accesses = new HashMap<>();
+
+      try {
+         for (final DataDocument index : dataStorage.aggregate(collectionName, new DataDocument("$indexStats", new DataDocument()))) {
+            final DataDocument indexAccesses = (DataDocument) index.get("accesses");
+
+            accesses.merge(index.getString("name"), new DataDocument("ops", ((Number) indexAccesses.get("ops")).longValue()).append("since", indexAccesses.get("since")),
+                  (a, b) -> new DataDocument("ops", a.getLong("ops") + b.getLong("ops")).append("since", ((Date) a.get("since")).after((Date) b.get("since")) ? a.get("since") : b.get("since")));
+         }
+      } catch (RuntimeException e) {
+         log.log(Level.FINE, "Unable to read index statistics of collection " + collectionName, e);
+      }
+
+      return accesses;
+   }
+
+   private void checkCollection(final String collectionName, final boolean write) throws CollectionNotFoundException, UnauthorizedAccessException {
+      if (!dataStorage.hasCollection(collectionName)) {
+         throw new CollectionNotFoundException(ErrorMessageBuilder.collectionNotFoundString(collectionName));
+      }
+
+      final boolean allowed = write ? collectionMetadataFacade.checkCollectionForWrite(collectionName, userFacade.getUserEmail())
+            : collectionMetadataFacade.checkCollectionForRead(collectionName, userFacade.getUserEmail());
+      if (!allowed) {
+         throw new UnauthorizedAccessException();
+      }
+   }
+
+   private static DataDocument parse(final String json) {
+      if (json == null || json.trim().isEmpty()) {
+         return null;
+      }
+
+      final DataDocument document = new DataDocument(Document.parse(json));
+      MongoUtils.convertNestedAndListDocuments(document);
+
+      return document;
+   }
+
+   @SuppressWarnings("unchecked")
+   private static DataDocument toDataDocument(final Object value) {
+      return value instanceof Map ? new DataDocument((Map<String, Object>) value) : null;
+   }
+}
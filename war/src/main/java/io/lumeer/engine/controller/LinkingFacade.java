@@ -35,10 +35,16 @@ import io.lumeer.mongodb.MongoUtils;
 import com.mongodb.client.model.Filters;
 
 import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 import javax.annotation.PostConstruct;
 import javax.enterprise.context.SessionScoped;
 import javax.enterprise.event.Observes;
@@ -65,6 +71,10 @@ public class LinkingFacade implements Serializable {
 
     */
 
+   private static final String LINKS_SORT = "{\"" + LumeerConst.Linking.LinkingTable.ATTR_FROM_ID + "\": 1, \"" + LumeerConst.Linking.LinkingTable.ATTR_TO_ID + "\": 1}";
+   private static final String FROM_ID_SORT = "{\"" + LumeerConst.Linking.LinkingTable.ATTR_FROM_ID + "\": 1}";
+   private static final String TO_ID_SORT = "{\"" + LumeerConst.Linking.LinkingTable.ATTR_TO_ID + "\": 1}";
+
    @Inject
    private DataStorage dataStorage;
 
@@ -74,6 +84,12 @@ public class LinkingFacade implements Serializable {
    @Inject
    private UserFacade userFacade;
 
+   @Inject
+   private SecurityFacade securityFacade;
+
+   @Inject
+   private LinkingTableRegistry linkingTableRegistry;
+
    /**
     * Creates main linking table if not exists
     */
@@ -81,6 +97,12 @@ public class LinkingFacade implements Serializable {
    public void init() {
       if (!dataStorage.hasCollection(LumeerConst.Linking.MainTable.NAME)) {
          dataStorage.createCollection(LumeerConst.Linking.MainTable.NAME);
+         dataStorage.createIndex(LumeerConst.Linking.MainTable.NAME, new DataDocument(LumeerConst.Linking.MainTable.ATTR_FROM_COLLECTION, 1)
+               .append(LumeerConst.Linking.MainTable.ATTR_TO_COLLECTION, 1)
+               .append(LumeerConst.Linking.MainTable.ATTR_ROLE, 1));
+         dataStorage.createIndex(LumeerConst.Linking.MainTable.NAME, new DataDocument(LumeerConst.Linking.MainTable.ATTR_TO_COLLECTION, 1)
+               .append(LumeerConst.Linking.MainTable.ATTR_FROM_COLLECTION, 1)
+               .append(LumeerConst.Linking.MainTable.ATTR_ROLE, 1));
       }
    }
 
@@ -131,16 +153,43 @@ public class LinkingFacade implements Serializable {
     *       When there is an error working with the database.
     */
    public List<LinkDao> readLinks(final String collectionName, final String role, final LumeerConst.Linking.LinkDirection linkDirection) throws DbException {
+      return readLinks(collectionName, role, linkDirection, 0, 0);
+   }
+
+   /**
+    * Read a page of links for selected collection
+    *
+    * @param collectionName
+    *       the name of the  collection
+    * @param role
+    *       role name
+    * @param linkDirection
+    *       direction of link, both directions are read one after the other
+    * @param skip
+    *       the number of links to skip
+    * @param limit
+    *       the maximum number of links to return, 0 means no limit
+    * @return list of links
+    * @throws DbException
+    *       When there is an error working with the database.
+    */
+   public List<LinkDao> readLinks(final String collectionName, final String role, final LumeerConst.Linking.LinkDirection linkDirection, final int skip, final int limit) throws DbException {
       checkCollectionForRead(collectionName);
 
       List<LinkDao> links = new ArrayList<>();
-      List<DataDocument> linkingTables = readLinkingTablesFrom(collectionName, role, linkDirection);
-      for (DataDocument lt : linkingTables) {
-         String colName = lt.getString(LumeerConst.Linking.MainTable.ATTR_COL_NAME);
-         String fromCollection = lt.getString(LumeerConst.Linking.MainTable.ATTR_FROM_COLLECTION);
-         String toCollection = lt.getString(LumeerConst.Linking.MainTable.ATTR_TO_COLLECTION);
-         List<DataDocument> ls = dataStorage.search(colName, null, null, 0, 0);
-         links.addAll(convertLinkDaosFromDocuments(ls, fromCollection, toCollection, role));
+      LinkPage page = new LinkPage(skip, limit);
+      for (LumeerConst.Linking.LinkDirection direction : getDirections(linkDirection)) {
+         List<DataDocument> linkingTables = readLinkingTablesFrom(collectionName, role, direction);
+         for (DataDocument lt : linkingTables) {
+            if (page.isFull()) {
+               return links;
+            }
+            String colName = lt.getString(LumeerConst.Linking.MainTable.ATTR_COL_NAME);
+            String fromCollection = lt.getString(LumeerConst.Linking.MainTable.ATTR_FROM_COLLECTION);
+            String toCollection = lt.getString(LumeerConst.Linking.MainTable.ATTR_TO_COLLECTION);
+            List<DataDocument> ls = page.read(colName, null, LINKS_SORT);
+            links.addAll(convertLinkDaosFromDocuments(ls, fromCollection, toCollection, role));
+         }
       }
       return links;
    }
@@ -196,12 +245,41 @@ public class LinkingFacade implements Serializable {
     *       When there is an error working with the database.
     */
    public List<DataDocument> readDocumentLinksDocs(final String fromCollectionName, final String fromDocumentId, final String role, final LumeerConst.Linking.LinkDirection linkDirection) throws DbException {
+      return readDocumentLinksDocs(fromCollectionName, fromDocumentId, role, linkDirection, 0, 0);
+   }
+
+   /**
+    * Read a page of linked documents for specified document
+    *
+    * @param fromCollectionName
+    *       the name of the document's collection
+    * @param fromDocumentId
+    *       the id of the document to search for links
+    * @param role
+    *       role name
+    * @param linkDirection
+    *       direction of link, both directions are read one after the other
+    * @param skip
+    *       the number of links to skip
+    * @param limit
+    *       the maximum number of links to read, 0 means no limit
+    * @return list of linked documents
+    * @throws DbException
+    *       When there is an error working with the database.
+    */
+   public List<DataDocument> readDocumentLinksDocs(final String fromCollectionName, final String fromDocumentId, final String role, final LumeerConst.Linking.LinkDirection linkDirection, final int skip, final int limit) throws DbException {
       checkCollectionForRead(fromCollectionName);
 
       List<DataDocument> links = new ArrayList<>();
-      List<DataDocument> linkingTables = readLinkingTablesFrom(fromCollectionName, role, linkDirection);
-      for (DataDocument lt : linkingTables) {
-         links.addAll(getDataDocumentsFromLinks(fromDocumentId, linkDirection, lt));
+      LinkPage page = new LinkPage(skip, limit);
+      for (LumeerConst.Linking.LinkDirection direction : getDirections(linkDirection)) {
+         List<DataDocument> linkingTables = readLinkingTablesFrom(fromCollectionName, role, direction);
+         for (DataDocument lt : linkingTables) {
+            if (page.isFull()) {
+               return links;
+            }
+            links.addAll(getDataDocumentsFromLinks(fromDocumentId, direction, lt, page));
+         }
       }
       return links;
    }
@@ -234,7 +312,7 @@ public class LinkingFacade implements Serializable {
          String colName = lt.getString(LumeerConst.Linking.MainTable.ATTR_COL_NAME);
          List<DataDocument> linkingDocuments = readLinkingDocumentsFromTo(colName, fromId, toId, linkDirection);
          String readCollectionName = linkDirection == LumeerConst.Linking.LinkDirection.FROM ? lt.getString(LumeerConst.Linking.MainTable.ATTR_TO_COLLECTION) : lt.getString(LumeerConst.Linking.MainTable.ATTR_FROM_COLLECTION);
-         links.addAll(readDocumentsFromLinkingDocumentsFrom(linkingDocuments, readCollectionName, linkDirection));
+         links.addAll(readLinkedDocuments(linkingDocuments, readCollectionName, linkDirection));
       }
       return links;
    }
@@ -257,13 +335,42 @@ public class LinkingFacade implements Serializable {
     *       When there is an error working with the database.
     */
    public List<DataDocument> readDocWithCollectionLinks(final String fromCollectionName, final String fromDocumentId, final String toCollectionName, final String role, final LumeerConst.Linking.LinkDirection linkDirection) throws DbException {
+      return readDocWithCollectionLinks(fromCollectionName, fromDocumentId, toCollectionName, role, linkDirection, 0, 0);
+   }
+
+   /**
+    * Read a page of linked documents for specified document and collection
+    *
+    * @param fromCollectionName
+    *       the name of the document's collection
+    * @param fromDocumentId
+    *       the id of the document to search for links
+    * @param toCollectionName
+    *       the name of the collection to search for linking documents
+    * @param role
+    *       role name
+    * @param linkDirection
+    *       direction of link
+    * @param skip
+    *       the number of links to skip
+    * @param limit
+    *       the maximum number of links to read, 0 means no limit
+    * @return list of linked documents
+    * @throws DbException
+    *       When there is an error working with the database.
+    */
+   public List<DataDocument> readDocWithCollectionLinks(final String fromCollectionName, final String fromDocumentId, final String toCollectionName, final String role, final LumeerConst.Linking.LinkDirection linkDirection, final int skip, final int limit) throws DbException {
       checkCollectionForRead(fromCollectionName);
       checkCollectionForRead(toCollectionName);
 
       List<DataDocument> links = new ArrayList<>();
+      LinkPage page = new LinkPage(skip, limit);
       List<DataDocument> linkingTables = readLinkingTablesFromTo(fromCollectionName, toCollectionName, role, linkDirection);
       for (DataDocument lt : linkingTables) {
-         links.addAll(getDataDocumentsFromLinks(fromDocumentId, linkDirection, lt));
+         if (page.isFull()) {
+            break;
+         }
+         links.addAll(getDataDocumentsFromLinks(fromDocumentId, linkDirection, lt, page));
       }
       return links;
    }
@@ -314,6 +421,7 @@ public class LinkingFacade implements Serializable {
          dataStorage.dropCollection(colName);
       }
       dataStorage.dropManyDocuments(LumeerConst.Linking.MainTable.NAME, fromTablesFilter(collectionName, role, linkDirection));
+      linkingTableRegistry.invalidate();
    }
 
    /**
@@ -441,11 +549,12 @@ public class LinkingFacade implements Serializable {
       return collectionName;
    }
 
-   private List<DataDocument> getDataDocumentsFromLinks(final String fromDocumentId, final LumeerConst.Linking.LinkDirection linkDirection, final DataDocument lt) {
+   private List<DataDocument> getDataDocumentsFromLinks(final String fromDocumentId, final LumeerConst.Linking.LinkDirection linkDirection, final DataDocument lt, final LinkPage page) {
       String colName = lt.getString(LumeerConst.Linking.MainTable.ATTR_COL_NAME);
-      List<DataDocument> linkingDocuments = readLinkingDocumentsFrom(colName, fromDocumentId, linkDirection);
+      String sort = linkDirection == LumeerConst.Linking.LinkDirection.FROM ? TO_ID_SORT : FROM_ID_SORT;
+      List<DataDocument> linkingDocuments = page.read(colName, fromDocumentFilter(fromDocumentId, linkDirection), sort);
       String readCollectionName = linkDirection == LumeerConst.Linking.LinkDirection.FROM ? lt.getString(LumeerConst.Linking.MainTable.ATTR_TO_COLLECTION) : lt.getString(LumeerConst.Linking.MainTable.ATTR_FROM_COLLECTION);
-      return readDocumentsFromLinkingDocumentsFrom(linkingDocuments, readCollectionName, linkDirection);
+      return readLinkedDocuments(linkingDocuments, readCollectionName, linkDirection);
    }
 
    private List<LinkDao> convertLinkDaosFromDocuments(final List<DataDocument> ls, final String fromCollection, final String toCollection, final String role) {
@@ -472,33 +581,54 @@ public class LinkingFacade implements Serializable {
          dataStorage.dropCollection(collectionName);
 
          dataStorage.dropManyDocuments(LumeerConst.Linking.MainTable.NAME, fromTablesColNameFilter(collectionName, role));
+         linkingTableRegistry.invalidate();
       }
    }
 
    private List<DataDocument> readLinkingTablesFromTo(final String firstCollectionName, final String secondCollectionName, final String role, final LumeerConst.Linking.LinkDirection linkDirection) {
-      return dataStorage.search(LumeerConst.Linking.MainTable.NAME, fromToTablesFilter(firstCollectionName, secondCollectionName, role, linkDirection), null, 0, 0);
+      final String fromCollectionName = linkDirection == LumeerConst.Linking.LinkDirection.FROM ? firstCollectionName : secondCollectionName;
+      return linkingTableRegistry.getLinkingTablesFromTo(firstCollectionName, secondCollectionName, role, linkDirection,
+            () -> readMainTable(fromCollectionName, LumeerConst.Linking.LinkDirection.FROM));
    }
 
    private List<DataDocument> readLinkingTablesFrom(final String fromCollectionName, final String role, final LumeerConst.Linking.LinkDirection linkDirection) {
-      return dataStorage.search(LumeerConst.Linking.MainTable.NAME, fromTablesFilter(fromCollectionName, role, linkDirection), null, 0, 0);
+      return linkingTableRegistry.getLinkingTablesFrom(fromCollectionName, role, linkDirection, () -> readMainTable(fromCollectionName, linkDirection));
    }
 
-   private List<DataDocument> readLinkingDocumentsFrom(final String collectionName, final String fromId, final LumeerConst.Linking.LinkDirection linkDirection) {
-      return dataStorage.search(collectionName, fromDocumentFilter(fromId, linkDirection), null, 0, 0);
+   private List<DataDocument> readMainTable(final String collectionName, final LumeerConst.Linking.LinkDirection linkDirection) {
+      return dataStorage.search(LumeerConst.Linking.MainTable.NAME, fromTablesFilter(collectionName, null, linkDirection), null, 0, 0);
    }
 
    private List<DataDocument> readLinkingDocumentsFromTo(final String collectionName, final String fromId, final String toId, final LumeerConst.Linking.LinkDirection linkDirection) {
       return dataStorage.search(collectionName, fromToDocumentFilter(fromId, toId, linkDirection), null, 0, 0);
    }
 
-   private List<DataDocument> readDocumentsFromLinkingDocumentsFrom(final List<DataDocument> linkingDocuments, final String collectionName, final LumeerConst.Linking.LinkDirection linkDirection) {
+   // reads all linked documents with a single query, keeps the order of linking documents
+   private List<DataDocument> readLinkedDocuments(final List<DataDocument> linkingDocuments, final String collectionName, final LumeerConst.Linking.LinkDirection linkDirection) {
       List<DataDocument> docs = new ArrayList<>();
       String keyParam = linkDirection == LumeerConst.Linking.LinkDirection.TO ? LumeerConst.Linking.LinkingTable.ATTR_FROM_ID : LumeerConst.Linking.LinkingTable.ATTR_TO_ID;
+      List<String> linkedIds = new ArrayList<>();
       for (DataDocument ld : linkingDocuments) {
          // check for right id of linking document
          String linkingDocumentId = ld.getString(keyParam);
+         if (linkingDocumentId != null && ObjectId.isValid(linkingDocumentId)) {
+            linkedIds.add(linkingDocumentId);
+         }
+      }
+
+      if (linkedIds.isEmpty()) {
+         return docs;
+      }
+
+      Bson filterRaw = Filters.in(LumeerConst.Document.ID, linkedIds.stream().map(ObjectId::new).collect(Collectors.toList()));
+      Map<String, DataDocument> linkedDocuments = new HashMap<>();
+      String filter = securityFacade.restrictToReadable(collectionName, MongoUtils.convertBsonToJson(filterRaw));
+      for (DataDocument doc : dataStorage.search(collectionName, filter, null, 0, 0)) {
+         linkedDocuments.put(doc.getId(), doc);
+      }
 
-         DataDocument doc = dataStorage.readDocument(collectionName, linkingDocumentId);
+      for (String linkedId : linkedIds) {
+         DataDocument doc = linkedDocuments.get(linkedId);
          if (doc != null) {
             docs.add(doc);
          }
@@ -524,27 +654,6 @@ public class LinkingFacade implements Serializable {
       return MongoUtils.convertBsonToJson(filterRaw);
    }
 
-   private String fromToTablesFilter(final String firstCollectionName, final String secondCollectionName, final String role, final LumeerConst.Linking.LinkDirection linkDirection) {
-      String fromCollectionName;
-      String toCollectionName;
-      if (linkDirection == LumeerConst.Linking.LinkDirection.FROM) {
-         fromCollectionName = firstCollectionName;
-         toCollectionName = secondCollectionName;
-      } else {
-         fromCollectionName = secondCollectionName;
-         toCollectionName = firstCollectionName;
-      }
-      Bson filterRaw = role == null ?
-            Filters.and(
-                  Filters.eq(LumeerConst.Linking.MainTable.ATTR_FROM_COLLECTION, fromCollectionName),
-                  Filters.eq(LumeerConst.Linking.MainTable.ATTR_TO_COLLECTION, toCollectionName)) :
-            Filters.and(
-                  Filters.eq(LumeerConst.Linking.MainTable.ATTR_FROM_COLLECTION, fromCollectionName),
-                  Filters.eq(LumeerConst.Linking.MainTable.ATTR_TO_COLLECTION, toCollectionName),
-                  Filters.eq(LumeerConst.Linking.MainTable.ATTR_ROLE, role));
-      return MongoUtils.convertBsonToJson(filterRaw);
-   }
-
    private String fromToDocumentFilter(final String fromId, final String toId, final LumeerConst.Linking.LinkDirection linkDirection) {
       Bson filterRaw = linkDirection == LumeerConst.Linking.LinkDirection.FROM ?
             Filters.and(
@@ -566,6 +675,14 @@ public class LinkingFacade implements Serializable {
       return MongoUtils.convertBsonToJson(filterRaw);
    }
 
+   // directions to read links in
+   private static List<LumeerConst.Linking.LinkDirection> getDirections(final LumeerConst.Linking.LinkDirection linkDirection) {
+      if (linkDirection == null || linkDirection == LumeerConst.Linking.LinkDirection.BOTH) {
+         return Arrays.asList(LumeerConst.Linking.LinkDirection.FROM, LumeerConst.Linking.LinkDirection.TO);
+      }
+      return Collections.singletonList(linkDirection);
+   }
+
    private void createLinkingTable(final String firstCollectionName, final String secondCollectionName, final String role, final String collectionName, final LumeerConst.Linking.LinkDirection linkDirection) {
       String fromCollectionName;
       String toCollectionName;
@@ -583,7 +700,9 @@ public class LinkingFacade implements Serializable {
       doc.put(LumeerConst.Linking.MainTable.ATTR_ROLE, role);
 
       dataStorage.createDocument(LumeerConst.Linking.MainTable.NAME, doc);
-
+      linkingTableRegistry.add(doc);
+      dataStorage.createIndex(collectionName, new DataDocument(LumeerConst.Linking.LinkingTable.ATTR_FROM_ID, 1).append(LumeerConst.Linking.LinkingTable.ATTR_TO_ID, 1));
+      dataStorage.createIndex(collectionName, new DataDocument(LumeerConst.Linking.LinkingTable.ATTR_TO_ID, 1).append(LumeerConst.Linking.LinkingTable.ATTR_FROM_ID, 1));
    }
 
    private String buildCollectionName(final String firstCollectionName, final String secondCollectionName, final String role, final LumeerConst.Linking.LinkDirection linkDirection) {
@@ -616,4 +735,44 @@ public class LinkingFacade implements Serializable {
          throw new UnauthorizedAccessException();
       }
    }
-}
\ No newline at end of file
+
+   /**
+    * Page of linking documents read from several linking tables one after the other.
+    * Skip and limit apply to all the tables together.
+    */
+   private class LinkPage {
+
+      private int skip;
+
+      private int limit;
+
+      private final boolean limited;
+
+      private LinkPage(final int skip, final int limit) {
+         this.skip = Math.max(skip, 0);
+         this.limit = limit;
+         this.limited = limit > 0;
+      }
+
+      private boolean isFull() {
+         return limited && limit <= 0;
+      }
+
+      // reads the part of the page stored in the given linking table
+      private List<DataDocument> read(final String collectionName, final String filter, final String sort) {
+         if (isFull()) {
+            return Collections.emptyList();
+         }
+
+         final boolean paged = skip > 0 || limited;
+         final List<DataDocument> linkingDocuments = dataStorage.search(collectionName, filter, paged ? sort : null, skip, limited ? limit : 0);
+
+         if (skip > 0) {
+            skip = linkingDocuments.isEmpty() ? (int) Math.max(0, skip - dataStorage.count(collectionName, filter)) : 0;
+         }
+         limit -= linkingDocuments.size();
+
+         return linkingDocuments;
+      }
+   }
+}
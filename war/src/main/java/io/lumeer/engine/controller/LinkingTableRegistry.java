@@ -0,0 +1,187 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.controller;
+
+import io.lumeer.engine.api.LumeerConst;
+import io.lumeer.engine.api.data.DataDocument;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import javax.enterprise.context.ApplicationScoped;
+
+/**
+ * Application-wide cache of the main linking table. Linking tables are kept per collection and link direction and
+ * indexed by role, so a lookup reads only the linking tables of a single collection from the database and only on a miss.
+ *
+ * Every change made through {@link LinkingFacade} drops the cached linking tables. Changes made on the other nodes are
+ * picked up when the cached linking tables expire after {@link #TIME_TO_LIVE}. At most {@link #MAX_COLLECTIONS} entries
+ * are kept, the least recently used ones are evicted.
+ *
+ * @author <a href="mailto:kubedo8@gmail.com">Jakub Rodák</a>
+ */
+@ApplicationScoped
+public class LinkingTableRegistry {
+
+   private static final int MAX_COLLECTIONS = 1000;
+
+   private static final long TIME_TO_LIVE = 5000L;
+
+   private static final String KEY_SEPARATOR = "/";
+
+   private final Map<String, CachedTables> linkingTables = Collections.synchronizedMap(new LinkedHashMap<String, CachedTables>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<String, CachedTables> eldest) {
+         return size() > MAX_COLLECTIONS;
+      }
+   });
+
+   /**
+    * Gets linking tables of the given collection.
+    *
+    * @param collectionName
+    *       the name of the collection
+    * @param role
+    *       role name, null or empty for all roles
+    * @param linkDirection
+    *       direction of link, the collection is the source of {@link LumeerConst.Linking.LinkDirection#FROM} links
+    * @param loader
+    *       reads all documents of the main linking table with the collection on the given side of the link
+    * @return list of linking tables
+    */
+   public List<DataDocument> getLinkingTablesFrom(final String collectionName, final String role, final LumeerConst.Linking.LinkDirection linkDirection, final Supplier<List<DataDocument>> loader) {
+      final Map<String, List<DataDocument>> roles = getRoles(collectionName, linkDirection, loader);
+
+      if (role == null || role.isEmpty()) {
+         return roles.values().stream().flatMap(List::stream).collect(Collectors.toList());
+      }
+
+      return new ArrayList<>(roles.getOrDefault(role, Collections.emptyList()));
+   }
+
+   /**
+    * Gets linking tables between two collections.
+    *
+    * @param firstCollectionName
+    *       the name of the first collection
+    * @param secondCollectionName
+    *       the name of the second collection
+    * @param role
+    *       role name, null for all roles
+    * @param linkDirection
+    *       direction of link
+    * @param loader
+    *       reads all documents of the main linking table with the source collection of the link in the from side
+    * @return list of linking tables
+    */
+   public List<DataDocument> getLinkingTablesFromTo(final String firstCollectionName, final String secondCollectionName, final String role, final LumeerConst.Linking.LinkDirection linkDirection, final Supplier<List<DataDocument>> loader) {
+      final boolean from = linkDirection == LumeerConst.Linking.LinkDirection.FROM;
+      final String fromCollectionName = from ? firstCollectionName : secondCollectionName;
+      final String toCollectionName = from ? secondCollectionName : firstCollectionName;
+
+      return getLinkingTablesFrom(fromCollectionName, role, LumeerConst.Linking.LinkDirection.FROM, loader).stream()
+            .filter(lt -> toCollectionName.equals(lt.getString(LumeerConst.Linking.MainTable.ATTR_TO_COLLECTION)))
+            .collect(Collectors.toList());
+   }
+
+   /**
+    * Drops cached linking tables of both collections of a newly created linking table.
+    *
+    * @param linkingTable
+    *       document of the main linking table describing the linking table
+    */
+   public void add(final DataDocument linkingTable) {
+      linkingTables.remove(getKey(linkingTable.getString(LumeerConst.Linking.MainTable.ATTR_FROM_COLLECTION), LumeerConst.Linking.LinkDirection.FROM));
+      linkingTables.remove(getKey(linkingTable.getString(LumeerConst.Linking.MainTable.ATTR_TO_COLLECTION), LumeerConst.Linking.LinkDirection.TO));
+   }
+
+   /**
+    * Drops all cached linking tables, they are loaded again by the next lookup.
+    */
+   public void invalidate() {
+      linkingTables.clear();
+   }
+
+   // gets linking tables of the collection indexed by role, loads them on a miss or when they expired
+   private Map<String, List<DataDocument>> getRoles(final String collectionName, final LumeerConst.Linking.LinkDirection linkDirection, final Supplier<List<DataDocument>> loader) {
+      final String key = getKey(collectionName, linkDirection);
+      final long now = System.currentTimeMillis();
+      final CachedTables cached = linkingTables.get(key);
+
+      if (cached != null && cached.expires > now) {
+         if (cached.roles != null) {
+            return cached.roles;
+         }
+
+         // another thread is loading the linking tables, they are loaded once more but not cached
+         return indexByRole(loader.get());
+      }
+
+      // the placeholder is put before reading the database, an invalidation while loading removes it and the loaded tables are not cached
+      final CachedTables loading = new CachedTables(null, now + TIME_TO_LIVE);
+      linkingTables.put(key, loading);
+
+      Map<String, List<DataDocument>> roles = null;
+      try {
+         roles = indexByRole(loader.get());
+      } finally {
+         if (roles == null || !linkingTables.replace(key, loading, new CachedTables(roles, now + TIME_TO_LIVE))) {
+            linkingTables.remove(key, loading);
+         }
+      }
+
+      return roles;
+   }
+
+   private static Map<String, List<DataDocument>> indexByRole(final List<DataDocument> tables) {
+      final Map<String, List<DataDocument>> roles = new HashMap<>();
+
+      for (final DataDocument lt : tables) {
+         roles.computeIfAbsent(lt.getString(LumeerConst.Linking.MainTable.ATTR_ROLE), role -> new ArrayList<>()).add(new DataDocument(lt));
+      }
+      roles.replaceAll((role, roleTables) -> Collections.unmodifiableList(roleTables));
+
+      return Collections.unmodifiableMap(roles);
+   }
+
+   private static String getKey(final String collectionName, final LumeerConst.Linking.LinkDirection linkDirection) {
+      return linkDirection.name() + KEY_SEPARATOR + collectionName;
+   }
+
+   /**
+    * Linking tables of a collection indexed by role with their expiration time, they are null while they are being loaded.
+    */
+   private static class CachedTables {
+
+      private final Map<String, List<DataDocument>> roles;
+
+      private final long expires;
+
+      private CachedTables(final Map<String, List<DataDocument>> roles, final long expires) {
+         this.roles = roles;
+         this.expires = expires;
+      }
+   }
+}
@@ -0,0 +1,96 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.controller;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import javax.enterprise.context.RequestScoped;
+import javax.inject.Inject;
+
+/**
+ * Effective rights of the current user to documents checked during a single request, so that list and search loops
+ * checking the same documents again resolve the rights in constant time. Groups of the user are read only once.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+@RequestScoped
+public class RequestRightsCache implements Serializable {
+
+   @Inject
+   private UserFacade userFacade;
+
+   private final Map<String, Integer> rights = new HashMap<>();
+
+   private Set<String> userGroups;
+
+   /**
+    * Gets groups (roles) of the current user.
+    *
+    * @return groups of the current user
+    */
+   public Set<String> getUserGroups() {
+      if (userGroups == null) {
+         userGroups = userFacade.getUserRoles();
+      }
+
+      return userGroups;
+   }
+
+   /**
+    * Gets rights of the current user to the document resolved earlier in this request.
+    *
+    * @param collectionName
+    *       internal collection name
+    * @param documentId
+    *       document id
+    * @return the rights bits or null when they were not resolved yet
+    */
+   public Integer getRights(final String collectionName, final String documentId) {
+      return rights.get(DocumentRightsCache.getKey(collectionName, documentId));
+   }
+
+   /**
+    * Remembers rights of the current user to the document.
+    *
+    * @param collectionName
+    *       internal collection name
+    * @param documentId
+    *       document id
+    * @param documentRights
+    *       the rights bits
+    */
+   public void setRights(final String collectionName, final String documentId, final int documentRights) {
+      rights.put(DocumentRightsCache.getKey(collectionName, documentId), documentRights);
+   }
+
+   /**
+    * Forgets rights of the current user to the document.
+    *
+    * @param collectionName
+    *       internal collection name
+    * @param documentId
+    *       document id
+    */
+   public void invalidate(final String collectionName, final String documentId) {
+      rights.remove(DocumentRightsCache.getKey(collectionName, documentId));
+   }
+}
@@ -23,15 +23,34 @@ import io.lumeer.engine.api.LumeerConst;
 import io.lumeer.engine.api.data.DataDocument;
 import io.lumeer.engine.api.data.DataStorage;
 import io.lumeer.engine.api.data.Query;
+import io.lumeer.engine.api.data.QueryShape;
 import io.lumeer.engine.api.exception.CollectionNotFoundException;
 import io.lumeer.engine.api.exception.InvalidQueryException;
+import io.lumeer.engine.task.TaskContext;
+import io.lumeer.engine.task.TaskProcessorBean;
 import io.lumeer.engine.util.ErrorMessageBuilder;
 
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import javax.enterprise.context.SessionScoped;
+import javax.enterprise.inject.spi.CDI;
 import javax.inject.Inject;
 
 /**
@@ -40,6 +59,13 @@ import javax.inject.Inject;
 @SessionScoped
 public class SearchFacade implements Serializable {
 
+   private static final int DEFAULT_SEARCH_BATCH_SIZE = 500;
+   private static final int DEFAULT_QUERY_PARALLELISM = 4;
+   private static final int DEFAULT_QUERY_TIMEOUT = 30000;
+   private static final int DEFAULT_SLOW_QUERY_THRESHOLD = 1000;
+
+   private static final Logger log = Logger.getLogger(SearchFacade.class.getName());
+
    @Inject
    private DataStorage dataStorage;
 
@@ -55,8 +81,20 @@ public class SearchFacade implements Serializable {
    @Inject
    private SecurityFacade securityFacade;
 
+   @Inject
+   private UserFacade userFacade;
+
+   @Inject
+   private TaskProcessorBean taskProcessor;
+
+   @Inject
+   private IndexAdvisorFacade indexAdvisorFacade;
+
+   private Integer slowQueryThreshold;
+
    /**
     * Searches the specified collection for specified documents using filter, sort, skip and limit option.
+    * Only the documents the current user can read are returned, the read rights are evaluated by the database.
     *
     * @param collectionName
     *       the name of the collection where the run will be performed
@@ -76,11 +114,57 @@ public class SearchFacade implements Serializable {
       if (!dataStorage.hasCollection(collectionName)) {
          throw new CollectionNotFoundException(ErrorMessageBuilder.collectionNotFoundString(collectionName));
       }
-      return dataStorage.search(collectionName, filter, sort, skip, limit);
+      indexAdvisorFacade.recordUsage(collectionName, filter, sort);
+      return dataStorage.search(collectionName, securityFacade.restrictToReadable(collectionName, filter), sort, skip, limit);
    }
 
    /**
-    * Executes a query to find and return documents.
+    * Searches the specified collection the same way as {@link #search(String, String, String, int, int)} but reads the found
+    * documents lazily in batches of configured size. The returned stream must be closed to release the database cursor.
+    *
+    * @param collectionName
+    *       the name of the collection where the run will be performed
+    * @param filter
+    *       the query predicate. If unspecified, then all documents in the collection will match the predicate.
+    * @param sort
+    *       the sort specification for the ordering of the results
+    * @param skip
+    *       the number of documents to skip
+    * @param limit
+    *       the maximum number of documents to return
+    * @return the stream of the found documents
+    * @throws CollectionNotFoundException
+    *       When the collection in which we want to search does not exist.
+    */
+   public Stream<DataDocument> searchStream(String collectionName, String filter, String sort, int skip, int limit) throws CollectionNotFoundException {
+      if (!dataStorage.hasCollection(collectionName)) {
+         throw new CollectionNotFoundException(ErrorMessageBuilder.collectionNotFoundString(collectionName));
+      }
+      indexAdvisorFacade.recordUsage(collectionName, filter, sort);
+      return dataStorage.searchStream(collectionName, securityFacade.restrictToReadable(collectionName, filter), sort, skip, limit, getSearchBatchSize());
+   }
+
+   /**
+    * Counts the documents in the specified collection matching the filter which the current user can read.
+    *
+    * @param collectionName
+    *       the name of the collection where the run will be performed
+    * @param filter
+    *       the query predicate. If unspecified, then all readable documents in the collection are counted.
+    * @return the number of the found documents
+    * @throws CollectionNotFoundException
+    *       When the collection in which we want to count documents does not exist.
+    */
+   public long count(String collectionName, String filter) throws CollectionNotFoundException {
+      if (!dataStorage.hasCollection(collectionName)) {
+         throw new CollectionNotFoundException(ErrorMessageBuilder.collectionNotFoundString(collectionName));
+      }
+      indexAdvisorFacade.recordUsage(collectionName, filter, null);
+      return dataStorage.count(collectionName, securityFacade.restrictToReadable(collectionName, filter));
+   }
+
+   /**
+    * Executes a query to find and return documents. The command is run as it is, read rights are not applied.
     *
     * @param query
     *       the database find command specified as a JSON string
@@ -93,18 +177,212 @@ public class SearchFacade implements Serializable {
 
    /**
     * Queries the data storage in a flexible way. Allows for none or multiple collection names to be specified,
-    * automatically sets limit to default values.
+    * automatically sets limit to default values. Collections are queried concurrently, their results are merged
+    * according to the query sorting and skip and limit apply to the merged results.
     *
     * @param query
     *       Query to execute.
     * @return The query result.
     * @throws InvalidQueryException
-    *       When it was not possible to execute the query.
+    *       When it was not possible to execute the query or it did not finish in the configured time.
     */
    public List<DataDocument> query(final Query query) throws InvalidQueryException {
-      final List<String> collections = new ArrayList<>();
+      final long start = System.nanoTime();
+      final List<Query> internalQueries = createInternalQueries(query);
+      recordUsage(query, internalQueries);
+
+      if (internalQueries.size() == 1) {
+         final List<DataDocument> result = tagCollection(dataStorage.query(internalQueries.get(0)), internalQueries.get(0));
+         logSlowQuery(query, userFacade.getUserEmail(), getSlowQueryThreshold(), start);
+
+         return result;
+      }
+
+      final List<Iterator<DataDocument>> results = new ArrayList<>();
+      for (final List<DataDocument> result : queryInParallel(internalQueries)) {
+         results.add(result.iterator());
+      }
+
       final List<DataDocument> result = new ArrayList<>();
-      final Query internalQuery = new Query();
+      final Iterator<DataDocument> merged = new SortedDocumentsMerger(results, query.getSorting());
+      final int skip = getSkip(query);
+      final int limit = getLimit(query);
+
+      for (int i = 0; merged.hasNext() && (limit == 0 || result.size() < limit); i++) {
+         final DataDocument document = merged.next();
+         if (i >= skip) {
+            result.add(document);
+         }
+      }
+
+      logSlowQuery(query, userFacade.getUserEmail(), getSlowQueryThreshold(), start);
+
+      return result;
+   }
+
+   /**
+    * Queries the data storage the same way as {@link #query(Query)} but reads the results lazily in batches of configured size.
+    * The returned stream must be closed to release the database cursors.
+    *
+    * @param query
+    *       Query to execute.
+    * @return Stream of the query results.
+    * @throws InvalidQueryException
+    *       When it was not possible to execute the query.
+    */
+   public Stream<DataDocument> queryStream(final Query query) throws InvalidQueryException {
+      final long start = System.nanoTime();
+      final String user = userFacade.getUserEmail();
+      final int threshold = getSlowQueryThreshold();
+      final List<Query> internalQueries = createInternalQueries(query);
+      final int batchSize = getSearchBatchSize();
+      recordUsage(query, internalQueries);
+
+      if (internalQueries.size() == 1) {
+         final String collection = getCollection(internalQueries.get(0));
+         return dataStorage.queryStream(internalQueries.get(0), batchSize).map(d -> {
+            d.put(LumeerConst.Document.COLLECTION_NAME, collection);
+            return d;
+         }).onClose(() -> logSlowQuery(query, user, threshold, start));
+      }
+
+      final List<Stream<DataDocument>> streams = new ArrayList<>();
+      for (final Query internalQuery : internalQueries) {
+         final String collection = getCollection(internalQuery);
+         streams.add(dataStorage.queryStream(internalQuery, batchSize).map(d -> {
+            d.put(LumeerConst.Document.COLLECTION_NAME, collection);
+            return d;
+         }));
+      }
+
+      final Stream<DataDocument> merged = StreamSupport.stream(() -> Spliterators.spliteratorUnknownSize(
+            new SortedDocumentsMerger(streams.stream().map(Stream::iterator).collect(Collectors.toList()), query.getSorting()), Spliterator.ORDERED | Spliterator.NONNULL),
+            Spliterator.ORDERED | Spliterator.NONNULL, false).onClose(() -> streams.forEach(Stream::close)).onClose(() -> logSlowQuery(query, user, threshold, start)).skip(getSkip(query));
+      final int limit = getLimit(query);
+
+      return limit > 0 ? merged.limit(limit) : merged;
+   }
+
+   /**
+    * Explains how the database executes the query. The query is run the same way as by {@link #query(Query)},
+    * including the restriction to documents the current user can read.
+    *
+    * @param query
+    *       Query to explain.
+    * @return For every queried collection, a document with the used indexes, numbers of examined and returned documents,
+    * execution time and the database plan.
+    * @throws InvalidQueryException
+    *       When it was not possible to explain the query.
+    */
+   public List<DataDocument> explain(final Query query) throws InvalidQueryException {
+      final List<DataDocument> result = new ArrayList<>();
+
+      for (final Query internalQuery : createInternalQueries(query)) {
+         result.addAll(dataStorage.explain(internalQuery));
+      }
+
+      return result;
+   }
+
+   // logs queries running longer than the threshold in milliseconds, streamed queries are measured until the stream is closed
+   private static void logSlowQuery(final Query query, final String user, final int threshold, final long start) {
+      final long time = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+      if (threshold > 0 && time >= threshold) {
+         final QueryShape shape = QueryShape.of(query);
+         log.warning(String.format("Slow query of user %s on collections %s took %d ms: %s", user, query.getCollections(), time, shape.getKey()));
+         log.fine(String.format("Parameters of the slow query %s: %s", shape.getKey(), shape.getParameters()));
+      }
+   }
+
+   // runs single collection queries concurrently, at most the configured number at once, returns results in the order of the queries
+   private List<List<DataDocument>> queryInParallel(final List<Query> internalQueries) throws InvalidQueryException {
+      final String user = userFacade.getUserEmail();
+      final Set<String> roles = userFacade.getUserRoles();
+      final int parallelism = Math.max(1, configurationFacade.getConfigurationInteger(LumeerConst.QUERY_PARALLELISM_PROPERTY).orElse(DEFAULT_QUERY_PARALLELISM));
+      final int timeout = getQueryTimeout();
+      final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+      final CompletionService<List<DataDocument>> completionService = new ExecutorCompletionService<>(taskProcessor.getWorkerExecutorService());
+      final Map<Future<List<DataDocument>>, Integer> running = new HashMap<>();
+      final List<List<DataDocument>> results = new ArrayList<>(Collections.nCopies(internalQueries.size(), null));
+      int submitted = 0;
+
+      try {
+         for (int finished = 0; finished < internalQueries.size(); finished++) {
+            while (submitted < internalQueries.size() && running.size() < parallelism) {
+               final Query internalQuery = internalQueries.get(submitted);
+               running.put(completionService.submit(() -> queryAsync(user, roles, internalQuery)), submitted++);
+            }
+
+            final Future<List<DataDocument>> future = timeout > 0 ? completionService.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS) : completionService.take();
+            if (future == null) {
+               throw new InvalidQueryException("Query did not finish in " + timeout + " ms.");
+            }
+
+            final int index = running.remove(future);
+            results.set(index, tagCollection(future.get(), internalQueries.get(index)));
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new InvalidQueryException("Query was interrupted.", e);
+      } catch (ExecutionException e) {
+         throw new InvalidQueryException(e.getCause().getMessage(), e.getCause());
+      } finally {
+         running.keySet().forEach(future -> future.cancel(true));
+      }
+
+      return results;
+   }
+
+   // runs a single collection query on a worker thread with its own instance of the data storage
+   private static List<DataDocument> queryAsync(final String user, final Set<String> roles, final Query internalQuery) {
+      TaskContext.activate(user, roles);
+      try {
+         return CDI.current().select(DataStorage.class).get().query(internalQuery);
+      } finally {
+         TaskContext.deactivate();
+      }
+   }
+
+   // creates queries on single collections, collections of a query on more collections are asked for all documents up to the limit
+   private List<Query> createInternalQueries(final Query query) throws InvalidQueryException {
+      final List<String> collections = getQueryCollections(query);
+      final boolean merged = collections.size() > 1;
+      final List<Query> internalQueries = new ArrayList<>();
+
+      for (final String collection : collections) {
+         final Query internalQuery = createInternalQuery(query, collection);
+
+         if (merged) {
+            internalQuery.setSkip(0);
+            internalQuery.setLimit(internalQuery.getLimit() == 0 ? 0 : (int) Math.min(Integer.MAX_VALUE, (long) getSkip(query) + internalQuery.getLimit()));
+         }
+
+         internalQueries.add(internalQuery);
+      }
+
+      return internalQueries;
+   }
+
+   // records attributes the query filters and sorts by on every queried collection
+   private void recordUsage(final Query query, final List<Query> internalQueries) {
+      internalQueries.forEach(internalQuery -> indexAdvisorFacade.recordUsage(getCollection(internalQuery), query.getFilters(), query.getSorting()));
+   }
+
+   private static List<DataDocument> tagCollection(final List<DataDocument> documents, final Query internalQuery) {
+      final String collection = getCollection(internalQuery);
+      documents.forEach(d -> d.put(LumeerConst.Document.COLLECTION_NAME, collection));
+
+      return documents;
+   }
+
+   private static String getCollection(final Query internalQuery) {
+      return internalQuery.getCollections().iterator().next();
+   }
+
+   // gets internal names of the collections the query asks for, all collections when there are none specified
+   private List<String> getQueryCollections(final Query query) throws InvalidQueryException {
+      final List<String> collections = new ArrayList<>();
 
       try {
          for (final String collectionName : query.getCollections()) {
@@ -118,33 +396,54 @@ public class SearchFacade implements Serializable {
          throw new InvalidQueryException("Search asks for collections that are not available: ", e);
       }
 
-      final DataDocument readRightsFilter = securityFacade.getReadRightsQueryFilter();
-      readRightsFilter.putAll(query.getFilters());
-      internalQuery.setFilters(readRightsFilter);
+      return collections;
+   }
+
+   // creates query on a single collection restricted by read rights and with default skip and limit
+   private Query createInternalQuery(final Query query, final String collection) {
+      final Query internalQuery = new Query();
+
+      internalQuery.setFilters(securityFacade.restrictToReadable(collection, query.getFilters()));
       internalQuery.setProjections(query.getProjections());
       internalQuery.setSorting(query.getSorting());
+      internalQuery.setLimit(getLimit(query));
+      internalQuery.setSkip(getSkip(query));
+      internalQuery.setCollections(Collections.singleton(collection));
 
-      if (query.getLimit() == null) {
-         internalQuery.setLimit(configurationFacade.getConfigurationInteger(LumeerConst.DEFAULT_LIMIT_PROPERTY).orElse(100));
-      } else {
-         internalQuery.setLimit(query.getLimit());
+      final int timeout = getQueryTimeout();
+      if (timeout > 0) {
+         internalQuery.setTimeout(timeout);
       }
 
-      if (query.getSkip() == null) {
-         internalQuery.setSkip(0);
-      } else {
-         internalQuery.setSkip(query.getSkip());
-      }
+      return internalQuery;
+   }
 
-      for (final String collection : collections) {
-         internalQuery.setCollections(Collections.singleton(collection));
-         dataStorage.query(internalQuery).stream().forEach(d -> {
-            d.put(LumeerConst.Document.COLLECTION_NAME, collection);
-            result.add(d);
-         });
+   // gets limit of the query, the default one when there is none
+   private int getLimit(final Query query) {
+      return query.getLimit() != null ? query.getLimit() : configurationFacade.getConfigurationInteger(LumeerConst.DEFAULT_LIMIT_PROPERTY).orElse(100);
+   }
+
+   private static int getSkip(final Query query) {
+      return query.getSkip() != null ? Math.max(0, query.getSkip()) : 0;
+   }
+
+   // gets time in milliseconds after which a query is logged as slow, 0 disables the logging, read once per session
+   private int getSlowQueryThreshold() {
+      if (slowQueryThreshold == null) {
+         slowQueryThreshold = configurationFacade.getConfigurationInteger(LumeerConst.SLOW_QUERY_THRESHOLD_PROPERTY).orElse(DEFAULT_SLOW_QUERY_THRESHOLD);
       }
 
-      return result;
+      return slowQueryThreshold;
+   }
+
+   // gets maximum time in milliseconds a query may run, 0 means no limit
+   private int getQueryTimeout() {
+      return configurationFacade.getConfigurationInteger(LumeerConst.QUERY_TIMEOUT_PROPERTY).orElse(DEFAULT_QUERY_TIMEOUT);
+   }
+
+   // gets number of documents read from the database in a single round trip
+   private int getSearchBatchSize() {
+      return configurationFacade.getConfigurationInteger(LumeerConst.SEARCH_BATCH_SIZE_PROPERTY).orElse(DEFAULT_SEARCH_BATCH_SIZE);
    }
 
 }
@@ -26,12 +26,22 @@ import io.lumeer.engine.api.exception.CollectionNotFoundException;
 import io.lumeer.engine.api.exception.DocumentNotFoundException;
 import io.lumeer.engine.rest.dao.AccessRightsDao;
 import io.lumeer.engine.util.ErrorMessageBuilder;
+import io.lumeer.mongodb.MongoUtils;
+
+import com.mongodb.MongoClient;
+import com.mongodb.client.model.Filters;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 import javax.enterprise.context.SessionScoped;
 import javax.inject.Inject;
 
@@ -48,7 +58,19 @@ public class SecurityFacade implements Serializable {
    private UserFacade user;
 
    @Inject
-   private DocumentMetadataFacade dmf;
+   private CollectionMetadataCache collectionMetadataCache;
+
+   @Inject
+   private DocumentRightsCache documentRightsCache;
+
+   @Inject
+   private RequestRightsCache requestRightsCache;
+
+   private static final String RIGHTS_USER_KEY = LumeerConst.Document.USER_RIGHTS + "." + LumeerConst.Security.USER_ID;
+   private static final String RIGHTS_GROUP_KEY = LumeerConst.Document.USER_RIGHTS + "." + LumeerConst.Security.GROUP_ID;
+   private static final String RIGHTS_RULE_KEY = LumeerConst.Document.USER_RIGHTS + "." + LumeerConst.Security.RULE;
+   private static final List<Integer> READ_RULES = Arrays.asList(4, 5, 6, 7);
+   private static final List<Integer> WRITE_RULES = Arrays.asList(2, 3, 6, 7);
 
    private final int READ_BP = 2;
    private final int WRITE_BP = 1;
@@ -62,11 +84,6 @@ public class SecurityFacade implements Serializable {
    private final int EMPTY_LIST = 0;
    private final int NULL_LIST = -1;
 
-   // TODO add users group ...
-   private DataDocument readGroupRights(DataDocument dataDocument) {
-      return null;
-   }
-
    private boolean checkBit(int inBit, int bit) {
       if (inBit == NO_RIGHTS) {
          return true;
@@ -91,7 +108,7 @@ public class SecurityFacade implements Serializable {
     * @return return true if user can read this document
     */
    public boolean checkForRead(DataDocument dataDocument, String userName) {
-      return checkBit(recordValue(dataDocument, userName), READ_BP);
+      return checkBit(effectiveRights(dataDocument, userName), READ_BP);
    }
 
    /**
@@ -104,7 +121,7 @@ public class SecurityFacade implements Serializable {
     * @return return true if user can write to this document
     */
    public boolean checkForWrite(DataDocument dataDocument, String userName) {
-      return checkBit(recordValue(dataDocument, userName), WRITE_BP);
+      return checkBit(effectiveRights(dataDocument, userName), WRITE_BP);
    }
 
    /**
@@ -117,7 +134,7 @@ public class SecurityFacade implements Serializable {
     * @return return true if user can execute this document
     */
    public boolean checkForExecute(DataDocument dataDocument, String userName) {
-      return checkBit(recordValue(dataDocument, userName), EXECUTE_BP);
+      return checkBit(effectiveRights(dataDocument, userName), EXECUTE_BP);
    }
 
    /**
@@ -160,11 +177,7 @@ public class SecurityFacade implements Serializable {
     *       if document not found
     */
    public boolean checkForRead(String collectionName, String documentId, String userName) throws DocumentNotFoundException {
-      DataDocument dataDoc = dataStorage.readDocumentIncludeAttrs(collectionName, documentId, buildMetaList());
-      if (dataDoc == null) {
-         throw new DocumentNotFoundException(ErrorMessageBuilder.documentNotFoundString());
-      }
-      return checkForRead(dataDoc, userName);
+      return checkBit(readRights(collectionName, documentId, userName), READ_BP);
    }
 
    /**
@@ -182,11 +195,7 @@ public class SecurityFacade implements Serializable {
     *       if document not found
     */
    public boolean checkForWrite(String collectionName, String documentId, String userName) throws DocumentNotFoundException {
-      DataDocument dataDoc = dataStorage.readDocumentIncludeAttrs(collectionName, documentId, buildMetaList());
-      if (dataDoc == null) {
-         throw new DocumentNotFoundException(ErrorMessageBuilder.documentNotFoundString());
-      }
-      return checkForWrite(dataDoc, userName);
+      return checkBit(readRights(collectionName, documentId, userName), WRITE_BP);
    }
 
    /**
@@ -204,11 +213,7 @@ public class SecurityFacade implements Serializable {
     *       if document not found
     */
    public boolean checkForExecute(String collectionName, String documentId, String userName) throws DocumentNotFoundException {
-      DataDocument dataDoc = dataStorage.readDocumentIncludeAttrs(collectionName, documentId, buildMetaList());
-      if (dataDoc == null) {
-         throw new DocumentNotFoundException(ErrorMessageBuilder.documentNotFoundString());
-      }
-      return checkForExecute(dataStorage.readDocument(collectionName, documentId), userName);
+      return checkBit(readRights(collectionName, documentId, userName), EXECUTE_BP);
    }
 
    /**
@@ -250,7 +255,7 @@ public class SecurityFacade implements Serializable {
    public DataDocument setRightsRead(DataDocument dataDocument, String userName) {
       int value = recordValue(dataDocument, userName);
       if (checkForAddRights(dataDocument, user.getUserEmail())) {
-         if (!checkForRead(dataDocument, userName) || (value == NO_RIGHTS)) {
+         if (!checkBit(value, READ_BP) || (value == NO_RIGHTS)) {
             setRights(dataDocument, LumeerConst.Security.READ, userName, value);
          }
       }
@@ -274,6 +279,7 @@ public class SecurityFacade implements Serializable {
       DataDocument dataDocument = dataStorage.readDocument(collectionName, documentId);
       setRightsRead(dataDocument, userName);
       dataStorage.updateDocument(collectionName, dataDocument, documentId);
+      invalidateRights(collectionName, documentId);
       return checkForRead(collectionName, documentId, userName);
    }
 
@@ -289,7 +295,7 @@ public class SecurityFacade implements Serializable {
    public DataDocument setRightsWrite(DataDocument dataDocument, String userName) {
       int value = recordValue(dataDocument, userName);
       if (checkForAddRights(dataDocument, user.getUserEmail())) {
-         if (!checkForWrite(dataDocument, userName) || (value == NO_RIGHTS)) {
+         if (!checkBit(value, WRITE_BP) || (value == NO_RIGHTS)) {
             setRights(dataDocument, LumeerConst.Security.WRITE, userName, value);
          }
       }
@@ -313,6 +319,7 @@ public class SecurityFacade implements Serializable {
       DataDocument dataDocument = dataStorage.readDocument(collectionName, documentId);
       setRightsWrite(dataDocument, userName);
       dataStorage.updateDocument(collectionName, dataDocument, documentId);
+      invalidateRights(collectionName, documentId);
       return checkForWrite(collectionName, documentId, userName);
    }
 
@@ -328,7 +335,7 @@ public class SecurityFacade implements Serializable {
    public DataDocument setRightsExecute(DataDocument dataDocument, String userName) {
       int value = recordValue(dataDocument, userName);
       if (checkForAddRights(dataDocument, user.getUserEmail())) {
-         if (!checkForExecute(dataDocument, userName) || (value == NO_RIGHTS)) {
+         if (!checkBit(value, EXECUTE_BP) || (value == NO_RIGHTS)) {
             setRights(dataDocument, LumeerConst.Security.EXECUTE, userName, value);
          }
       }
@@ -352,6 +359,7 @@ public class SecurityFacade implements Serializable {
       DataDocument dataDocument = dataStorage.readDocument(collectionName, documentId);
       setRightsExecute(dataDocument, userName);
       dataStorage.updateDocument(collectionName, dataDocument, documentId);
+      invalidateRights(collectionName, documentId);
       return checkForExecute(collectionName, documentId, userName);
    }
 
@@ -367,7 +375,7 @@ public class SecurityFacade implements Serializable {
    public DataDocument removeRightsExecute(DataDocument dataDocument, String userName) {
       int value = recordValue(dataDocument, userName);
       if (checkForAddRights(dataDocument, user.getUserEmail())) {
-         if (checkForExecute(dataDocument, userName) || (value == NO_RIGHTS)) {
+         if (checkBit(value, EXECUTE_BP) || (value == NO_RIGHTS)) {
             setRights(dataDocument, (-1) * LumeerConst.Security.EXECUTE, userName, value);
          }
       }
@@ -391,6 +399,7 @@ public class SecurityFacade implements Serializable {
       DataDocument dataDocument = dataStorage.readDocument(collectionName, documentId);
       removeRightsExecute(dataDocument, userName);
       dataStorage.updateDocument(collectionName, dataDocument, documentId);
+      invalidateRights(collectionName, documentId);
       return !checkForExecute(collectionName, documentId, userName);
    }
 
@@ -406,7 +415,7 @@ public class SecurityFacade implements Serializable {
    public DataDocument removeRightsWrite(DataDocument dataDocument, String userName) {
       int value = recordValue(dataDocument, userName);
       if (checkForAddRights(dataDocument, user.getUserEmail())) {
-         if (checkForWrite(dataDocument, userName) || (value == NO_RIGHTS)) {
+         if (checkBit(value, WRITE_BP) || (value == NO_RIGHTS)) {
             setRights(dataDocument, (-1) * LumeerConst.Security.WRITE, userName, value);
          }
       }
@@ -430,6 +439,7 @@ public class SecurityFacade implements Serializable {
       DataDocument dataDocument = dataStorage.readDocument(collectionName, documentId);
       removeRightsWrite(dataDocument, userName);
       dataStorage.updateDocument(collectionName, dataDocument, documentId);
+      invalidateRights(collectionName, documentId);
       return !checkForWrite(collectionName, documentId, userName);
    }
 
@@ -445,7 +455,7 @@ public class SecurityFacade implements Serializable {
    public DataDocument removeRightsRead(DataDocument dataDocument, String userName) {
       int value = recordValue(dataDocument, userName);
       if (checkForAddRights(dataDocument, user.getUserEmail())) {
-         if (checkForRead(dataDocument, userName) || (value == NO_RIGHTS)) {
+         if (checkBit(value, READ_BP) || (value == NO_RIGHTS)) {
             setRights(dataDocument, (-1) * LumeerConst.Security.READ, userName, value);
          }
       }
@@ -469,6 +479,7 @@ public class SecurityFacade implements Serializable {
       DataDocument dataDocument = dataStorage.readDocument(collectionName, documentId);
       removeRightsRead(dataDocument, userName);
       dataStorage.updateDocument(collectionName, dataDocument, documentId);
+      invalidateRights(collectionName, documentId);
       return !checkForRead(collectionName, documentId, userName);
    }
 
@@ -504,6 +515,50 @@ public class SecurityFacade implements Serializable {
       return 0;
    }
 
+   // rights of the user from their own record and records of their groups, resolved in a single pass over the list
+   private int effectiveRights(DataDocument dataDocument, String userName) {
+      return DocumentRightsCache.DocumentRights.resolve(readList(dataDocument), userName, getUserGroups(userName));
+   }
+
+   // rights of the user to the stored document, resolved at most once per request for the current user
+   private int readRights(String collectionName, String documentId, String userName) throws DocumentNotFoundException {
+      final boolean currentUser = user.getUserEmail().equals(userName);
+      if (currentUser) {
+         final Integer rights = requestRightsCache.getRights(collectionName, documentId);
+         if (rights != null) {
+            return rights;
+         }
+      }
+
+      final DocumentRightsCache.DocumentRights documentRights = documentRightsCache.getDocumentRights(collectionName, documentId, () -> {
+         final DataDocument dataDoc = dataStorage.readDocumentIncludeAttrs(collectionName, documentId, buildMetaList());
+         return dataDoc != null ? DocumentRightsCache.DocumentRights.of(readList(dataDoc)) : null;
+      });
+      if (documentRights == null) {
+         throw new DocumentNotFoundException(ErrorMessageBuilder.documentNotFoundString());
+      }
+
+      final int rights = documentRights.resolve(userName, currentUser ? requestRightsCache.getUserGroups() : Collections.emptySet());
+      if (currentUser) {
+         requestRightsCache.setRights(collectionName, documentId, rights);
+      }
+      return rights;
+   }
+
+   // groups are known only for the current user
+   private Set<String> getUserGroups(String userName) {
+      return user.getUserEmail().equals(userName) ? requestRightsCache.getUserGroups() : Collections.emptySet();
+   }
+
+   private void invalidateRights(String collectionName, String documentId) {
+      documentRightsCache.invalidate(collectionName, documentId);
+      requestRightsCache.invalidate(collectionName, documentId);
+   }
+
+   private AccessRightsDao createDao(int rights, String email) {
+      return new AccessRightsDao(checkBit(rights, READ_BP), checkBit(rights, WRITE_BP), checkBit(rights, EXECUTE_BP), email);
+   }
+
    private void replaceInList(DataDocument dataDocument, String email, int newInteger) {
       List<DataDocument> arrayList = readList(dataDocument);
       for (DataDocument datadoc : arrayList) {
@@ -567,7 +622,9 @@ public class SecurityFacade implements Serializable {
       HashMap<String, Integer> map = new HashMap<String, Integer>();
       List<DataDocument> arrayList = readList(dataDocument);
       for (DataDocument dataDoc : arrayList) {
-         map.put(dataDoc.getString(LumeerConst.Security.USER_ID), dataDoc.getInteger(LumeerConst.Security.RULE));
+         if (dataDoc.containsKey(LumeerConst.Security.USER_ID)) {
+            map.put(dataDoc.getString(LumeerConst.Security.USER_ID), dataDoc.getInteger(LumeerConst.Security.RULE));
+         }
       }
       return map;
    }
@@ -576,7 +633,9 @@ public class SecurityFacade implements Serializable {
       HashMap<String, Integer> map = new HashMap<String, Integer>();
       List<DataDocument> arrayList = readList(dataDocument);
       for (DataDocument dataDoc : arrayList) {
-         map.put(dataDoc.getString(LumeerConst.Security.USER_ID), dataDoc.getInteger(LumeerConst.Security.RULE));
+         if (dataDoc.containsKey(LumeerConst.Security.USER_ID)) {
+            map.put(dataDoc.getString(LumeerConst.Security.USER_ID), dataDoc.getInteger(LumeerConst.Security.RULE));
+         }
       }
       return map;
    }
@@ -591,8 +650,7 @@ public class SecurityFacade implements Serializable {
     * @return data access object
     */
    public AccessRightsDao getDao(DataDocument dataDocument, String email) {
-      AccessRightsDao accessRightsDao = new AccessRightsDao(checkForRead(dataDocument, email), checkForWrite(dataDocument, email), checkForExecute(dataDocument, email), email);
-      return accessRightsDao;
+      return createDao(effectiveRights(dataDocument, email), email);
    }
 
    /**
@@ -605,17 +663,7 @@ public class SecurityFacade implements Serializable {
     *       data access object.
     */
    public List<AccessRightsDao> getDaoList(String collectionName, String documentId) {
-      List<AccessRightsDao> list = new ArrayList<>();
-      DataDocument dataDoc = dataStorage.readDocument(collectionName,documentId);
-      HashMap<String,Integer> hashMap = readRightList(collectionName, documentId);
-      for (Map.Entry<String, Integer> entry : hashMap.entrySet()) {
-         boolean read = checkForRead(dataDoc,entry.getKey());
-         boolean write = checkForWrite(dataDoc, entry.getKey());
-         boolean execute = checkForExecute(dataDoc, entry.getKey());
-         AccessRightsDao ard = new AccessRightsDao(read,write,execute, entry.getKey());
-         list.add(ard);
-      }
-      return list;
+      return getDaoList(dataStorage.readDocument(collectionName, documentId));
    }
 
    /**Return Data access object of Access Rights type from datadocument.
@@ -626,14 +674,10 @@ public class SecurityFacade implements Serializable {
     */
    public List<AccessRightsDao> getDaoList(DataDocument dataDocument) {
       List<AccessRightsDao> list = new ArrayList<>();
-      DataDocument dataDoc = dataDocument;
-      HashMap<String,Integer> hashMap = readRightList(dataDoc);
-      for (Map.Entry<String, Integer> entry : hashMap.entrySet()) {
-         boolean read = checkForRead(dataDoc,entry.getKey());
-         boolean write = checkForWrite(dataDoc, entry.getKey());
-         boolean execute = checkForExecute(dataDoc, entry.getKey());
-         AccessRightsDao ard = new AccessRightsDao(read,write,execute, entry.getKey());
-         list.add(ard);
+      DocumentRightsCache.DocumentRights rights = DocumentRightsCache.DocumentRights.of(readList(dataDocument));
+      HashMap<String,Integer> hashMap = readRightList(dataDocument);
+      for (String userName : hashMap.keySet()) {
+         list.add(createDao(rights.resolve(userName, getUserGroups(userName)), userName));
       }
       return list;
    }
@@ -654,7 +698,7 @@ public class SecurityFacade implements Serializable {
    }
 
    /**
-    * This is not tested and maybe not stable
+    * Return data access object of access rights resolved from the cache of document rights.
     *
     * @param collectionName
     *       collection name where document is stored
@@ -669,7 +713,7 @@ public class SecurityFacade implements Serializable {
     *       if document not found
     */
    public AccessRightsDao getDaoCached(String collectionName, String documentId, String email) throws CollectionNotFoundException, DocumentNotFoundException {
-      return getDao((DataDocument) dmf.readDocumentMetadata(collectionName, documentId), email);
+      return createDao(readRights(collectionName, documentId, email), email);
    }
 
    /**
@@ -713,6 +757,7 @@ public class SecurityFacade implements Serializable {
     */
    public void setDao(String collectionName, String documentId, AccessRightsDao accessRightsDao) {
       dataStorage.updateDocument(collectionName, setDao(dataStorage.readDocument(collectionName, documentId), accessRightsDao), documentId);
+      invalidateRights(collectionName, documentId);
    }
 
    /**
@@ -729,24 +774,69 @@ public class SecurityFacade implements Serializable {
     */
    public boolean setDaoCheck(String collectionName, String documentId, AccessRightsDao accessRightsDao) {
       dataStorage.updateDocument(collectionName, setDao(dataStorage.readDocument(collectionName, documentId), accessRightsDao), documentId);
+      invalidateRights(collectionName, documentId);
       DataDocument dataDoc = dataStorage.readDocument(collectionName, documentId);
       return (accessRightsDao.isWrite() == checkForWrite(dataDoc, accessRightsDao.getUserName()))
             & (accessRightsDao.isRead() == checkForRead(dataDoc, accessRightsDao.getUserName()))
             & (accessRightsDao.isExecute() == checkForExecute(dataDoc, accessRightsDao.getUserName()));
    }
 
+   /**
+    * Set rights of the group (user role) to dataDocument. Members of the group get these rights in addition
+    * to the rights they have themselves.
+    *
+    * @param dataDocument
+    *       dataDocument where rights are set
+    * @param groupName
+    *       name of the group
+    * @param rights
+    *       access rule of the group (linux system rule), 0 removes the group from the list
+    * @return return dataDocument with rights specified
+    */
+   public DataDocument setGroupRights(DataDocument dataDocument, String groupName, int rights) {
+      if (checkForAddRights(dataDocument, user.getUserEmail())) {
+         if (!checkMetadata(dataDocument)) {
+            addMetaData(dataDocument);
+         }
+         List<DataDocument> arrayList = readList(dataDocument);
+         arrayList.removeIf(dataDoc -> groupName.equals(dataDoc.getString(LumeerConst.Security.GROUP_ID)));
+         if (rights > 0) {
+            arrayList.add(new DataDocument(LumeerConst.Security.GROUP_ID, groupName).append(LumeerConst.Security.RULE, rights));
+         }
+         dataDocument.replace(LumeerConst.Document.USER_RIGHTS, arrayList);
+      }
+      return dataDocument;
+   }
+
+   /**
+    * Set rights of the group (user role) in database.
+    *
+    * @param collectionName
+    *       collection where document is stored
+    * @param documentId
+    *       id of document
+    * @param groupName
+    *       name of the group
+    * @param rights
+    *       access rule of the group (linux system rule), 0 removes the group from the list
+    */
+   public void setGroupRights(String collectionName, String documentId, String groupName, int rights) {
+      dataStorage.updateDocument(collectionName, setGroupRights(dataStorage.readDocument(collectionName, documentId), groupName, rights), documentId);
+      invalidateRights(collectionName, documentId);
+   }
+
    /**
     * Return query string for search and limit user
-    * without rights.
-    * Example: {"_meta-rights" : { $elemMatch: { "user_email" : "test@gmail.com", "rule" : {$gte : 4}} } }.
+    * without rights. Documents without the list of rights are readable by everybody.
+    * Records of groups of the current user are matched as well when the email belongs to the current user.
+    * Example: {"$or" : [{"_meta-rights.user_email" : null, "_meta-rights" : {"$exists" : false}}, {"_meta-rights" : {"$elemMatch" : {"user_email" : "test@gmail.com", "rule" : {"$in" : [4, 5, 6, 7]}}}}]}.
     * @param email
     *       email of username
     * @return
     *       return string as in example
     */
-   public String readQueryString(String email){
-      // GENERATE: ....find(  {"_meta-rights" : { $elemMatch: { "user_email" : "test@gmail.com", "rule" : {$gte : 4}} } })
-      return "{\"" + LumeerConst.Document.USER_RIGHTS + "\" : { $elemMatch: { \"" + LumeerConst.Document.CREATE_BY_USER_KEY + "\" : \"" + email + "\", \"rule\" : {$gte : 4}}} }";
+   public String readQueryString(String email) {
+      return MongoUtils.convertBsonToJson(rightsFilter(email, READ_RULES));
    }
 
    /**
@@ -755,11 +845,93 @@ public class SecurityFacade implements Serializable {
     * @return The query filter to limit returned documents only to those where the current user has read rights.
     */
    public DataDocument getReadRightsQueryFilter() {
-      return new DataDocument("_meta-rights", new DataDocument("$elemMatch", new DataDocument("user_email", user.getUserEmail()).append("rule", new DataDocument("$gte", 4))));
+      DataDocument filter = new DataDocument(Document.parse(readQueryString(user.getUserEmail())));
+      MongoUtils.convertNestedAndListDocuments(filter);
+      return filter;
+   }
+
+   /**
+    * Return query string for search and limit user
+    * without write rights, see {@link #readQueryString(String)}.
+    * @param email
+    *       email of username
+    * @return
+    *       return string with the filter
+    */
+   public String writeQueryString(String email) {
+      return MongoUtils.convertBsonToJson(rightsFilter(email, WRITE_RULES));
+   }
+
+   /**
+    * Restricts the filter to the documents the current user can read and makes sure the filter can be evaluated using
+    * the index on rights of the collection.
+    * @param collectionName
+    *       internal name of the collection to search
+    * @param filter
+    *       the query predicate, it can be null or empty
+    * @return The filter matching only documents which satisfy the predicate and the current user can read.
+    * @throws org.bson.json.JsonParseException
+    *       when the filter is not a valid JSON document
+    */
+   public String restrictToReadable(String collectionName, String filter) {
+      ensureRightsIndex(collectionName);
+
+      final BsonDocument rightsFilter = rightsFilter(user.getUserEmail(), READ_RULES).toBsonDocument(BsonDocument.class, MongoClient.getDefaultCodecRegistry());
+      if (filter == null || filter.trim().isEmpty()) {
+         return rightsFilter.toJson();
+      }
+      // the filter is parsed and combined as a document, so that it cannot escape the conjunction with the rights
+      return new BsonDocument("$and", new BsonArray(Arrays.asList(BsonDocument.parse(filter), rightsFilter))).toJson();
    }
 
-   public String writeQueryString(String email){
-      // GENERATE: ....find(  {"_meta-rights" : { $elemMatch: { "user_email" : "test@gmail.com", "rule" : {$in : [2,3,6,7]}} } })
-      return "{\"" + LumeerConst.Document.USER_RIGHTS + "\" : { $elemMatch: { \"" + LumeerConst.Document.CREATE_BY_USER_KEY + "\" : \"" + email + "\", \"rule\" : {$in : [6,7]}}} }";
+   /**
+    * Restricts the query filters to the documents the current user can read, see {@link #restrictToReadable(String, String)}.
+    * @param collectionName
+    *       internal name of the collection to query
+    * @param filters
+    *       the query filters, they can be null or empty
+    * @return The filters matching only documents which satisfy the query filters and the current user can read.
+    */
+   public DataDocument restrictToReadable(String collectionName, DataDocument filters) {
+      ensureRightsIndex(collectionName);
+
+      final DataDocument rightsFilter = getReadRightsQueryFilter();
+      if (filters == null || filters.isEmpty()) {
+         return rightsFilter;
+      }
+      return new DataDocument("$and", Arrays.asList(filters, rightsFilter));
+   }
+
+   /**
+    * Creates multikey indexes on users and groups with their rules in the list of rights of the collection unless they are known to exist.
+    * @param collectionName
+    *       internal name of the collection
+    */
+   public void ensureRightsIndex(String collectionName) {
+      final CollectionMetadataCache.CollectionMetadata metadata = collectionMetadataCache.getCollectionMetadata(collectionName);
+
+      if (!metadata.isRightsIndexed() && dataStorage.hasCollection(collectionName)) {
+         dataStorage.createIndex(collectionName, new DataDocument(RIGHTS_USER_KEY, 1).append(RIGHTS_RULE_KEY, 1));
+         dataStorage.createIndex(collectionName, new DataDocument(RIGHTS_GROUP_KEY, 1).append(RIGHTS_RULE_KEY, 1));
+         metadata.setRightsIndexed(true);
+      }
+   }
+
+   // documents without the list of rights or with the user or one of their groups having one of the rules in their record
+   private Bson rightsFilter(String email, List<Integer> rules) {
+      final List<Bson> filters = new ArrayList<>();
+      filters.add(Filters.and(Filters.eq(RIGHTS_USER_KEY, null), Filters.exists(LumeerConst.Document.USER_RIGHTS, false)));
+      filters.add(Filters.elemMatch(LumeerConst.Document.USER_RIGHTS, Filters.and(
+            Filters.eq(LumeerConst.Security.USER_ID, email),
+            Filters.in(LumeerConst.Security.RULE, rules))));
+
+      final Set<String> groups = getUserGroups(email);
+      if (!groups.isEmpty()) {
+         filters.add(Filters.elemMatch(LumeerConst.Document.USER_RIGHTS, Filters.and(
+               Filters.in(LumeerConst.Security.GROUP_ID, groups),
+               Filters.in(LumeerConst.Security.RULE, rules))));
+      }
+
+      return Filters.or(filters);
    }
 }
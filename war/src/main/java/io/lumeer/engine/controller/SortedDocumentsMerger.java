@@ -0,0 +1,207 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.controller;
+
+import io.lumeer.engine.api.data.DataDocument;
+
+import org.bson.types.ObjectId;
+
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Merges query results read from several collections into a single sequence ordered by the query sorting.
+ * Results of every collection must already be sorted the same way, so only the first remaining document of every
+ * collection is compared. Documents equal in sorting keep the order of the collections, without any sorting the results
+ * are simply concatenated.
+ *
+ * Values are compared the way the database sorts them: missing and null values go first, values of different types are
+ * ordered by their type, numbers, strings, object ids, booleans and dates are ordered by their values.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+final class SortedDocumentsMerger implements Iterator<DataDocument> {
+
+   private static final String KEY_SEPARATOR = ".";
+
+   private final PriorityQueue<Source> sources;
+
+   /**
+    * Creates the merger of the given sorted results.
+    *
+    * @param results
+    *       iterators over results of the single collections in the order of the collections
+    * @param sorting
+    *       sorting specification of the query, attribute names mapped to 1 for ascending and -1 for descending order
+    */
+   SortedDocumentsMerger(final List<Iterator<DataDocument>> results, final DataDocument sorting) {
+      final Comparator<DataDocument> comparator = getComparator(sorting);
+      sources = new PriorityQueue<>(Math.max(results.size(), 1), (s1, s2) -> {
+         final int result = comparator.compare(s1.head, s2.head);
+         return result != 0 ? result : Integer.compare(s1.index, s2.index);
+      });
+
+      for (int i = 0; i < results.size(); i++) {
+         final Source source = new Source(i, results.get(i));
+         if (source.advance()) {
+            sources.add(source);
+         }
+      }
+   }
+
+   @Override
+   public boolean hasNext() {
+      return !sources.isEmpty();
+   }
+
+   @Override
+   public DataDocument next() {
+      final Source source = sources.poll();
+      if (source == null) {
+         throw new NoSuchElementException();
+      }
+
+      final DataDocument document = source.head;
+      if (source.advance()) {
+         sources.add(source);
+      }
+
+      return document;
+   }
+
+   /**
+    * Creates comparator of documents according to the sorting specification.
+    *
+    * @param sorting
+    *       sorting specification, attribute names mapped to 1 for ascending and -1 for descending order
+    * @return comparator of the documents
+    */
+   static Comparator<DataDocument> getComparator(final DataDocument sorting) {
+      Comparator<DataDocument> comparator = (d1, d2) -> 0;
+
+      if (sorting != null) {
+         for (final Map.Entry<String, Object> entry : sorting.entrySet()) {
+            final String attribute = entry.getKey();
+            final boolean descending = entry.getValue() instanceof Number && ((Number) entry.getValue()).intValue() < 0;
+            final Comparator<DataDocument> attributeComparator = (d1, d2) -> compareValues(getValue(d1, attribute), getValue(d2, attribute));
+
+            comparator = comparator.thenComparing(descending ? attributeComparator.reversed() : attributeComparator);
+         }
+      }
+
+      return comparator;
+   }
+
+   // gets value of the possibly nested attribute, null when it is missing
+   private static Object getValue(final DataDocument document, final String attribute) {
+      Object value = document;
+
+      for (final String key : attribute.split("\\" + KEY_SEPARATOR)) {
+         if (!(value instanceof Map)) {
+            return null;
+         }
+         value = ((Map<?, ?>) value).get(key);
+      }
+
+      return value;
+   }
+
+   @SuppressWarnings("unchecked")
+   private static int compareValues(final Object v1, final Object v2) {
+      final int typeOrder = Integer.compare(getTypeOrder(v1), getTypeOrder(v2));
+      if (typeOrder != 0 || v1 == null) {
+         return typeOrder;
+      }
+
+      if (v1 instanceof Number) {
+         final Number n1 = (Number) v1;
+         final Number n2 = (Number) v2;
+
+         return isIntegral(n1) && isIntegral(n2) ? Long.compare(n1.longValue(), n2.longValue()) : Double.compare(n1.doubleValue(), n2.doubleValue());
+      }
+
+      if (v1 instanceof String || v1 instanceof ObjectId || v1 instanceof Boolean || v1 instanceof Date) {
+         return ((Comparable<Object>) v1).compareTo(v2);
+      }
+
+      return 0;
+   }
+
+   private static boolean isIntegral(final Number number) {
+      return number instanceof Integer || number instanceof Long || number instanceof Short || number instanceof Byte;
+   }
+
+   // order of value types used by the database
+   private static int getTypeOrder(final Object value) {
+      if (value == null) {
+         return 0;
+      }
+      if (value instanceof Number) {
+         return 1;
+      }
+      if (value instanceof String) {
+         return 2;
+      }
+      if (value instanceof Map) {
+         return 3;
+      }
+      if (value instanceof List) {
+         return 4;
+      }
+      if (value instanceof ObjectId) {
+         return 5;
+      }
+      if (value instanceof Boolean) {
+         return 6;
+      }
+      if (value instanceof Date) {
+         return 7;
+      }
+      return 8;
+   }
+
+   /**
+    * Results of a single collection with their first remaining document.
+    */
+   private static class Source {
+
+      private final int index;
+
+      private final Iterator<DataDocument> documents;
+
+      private DataDocument head;
+
+      private Source(final int index, final Iterator<DataDocument> documents) {
+         this.index = index;
+         this.documents = documents;
+      }
+
+      // moves to the next document, returns false when there are no more documents
+      private boolean advance() {
+         head = documents.hasNext() ? documents.next() : null;
+         return head != null;
+      }
+   }
+}
@@ -0,0 +1,278 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.controller;
+
+import io.lumeer.engine.annotation.SystemDataStorage;
+import io.lumeer.engine.api.LumeerConst;
+import io.lumeer.engine.api.batch.Batch;
+import io.lumeer.engine.api.data.DataDocument;
+import io.lumeer.engine.api.data.DataStorage;
+import io.lumeer.engine.api.exception.DocumentNotFoundException;
+import io.lumeer.engine.api.exception.UnauthorizedAccessException;
+import io.lumeer.engine.api.task.TaskState;
+import io.lumeer.engine.task.BatchTask;
+import io.lumeer.engine.task.TaskProcessorBean;
+import io.lumeer.engine.util.ErrorMessageBuilder;
+import io.lumeer.engine.util.Utils;
+import io.lumeer.mongodb.MongoUtils;
+
+import com.mongodb.client.model.Filters;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.SessionScoped;
+import javax.inject.Inject;
+
+/**
+ * Submits background tasks and keeps track of them. Tasks are persisted in the system database together with their state
+ * and the last checkpoint, so that they can be resumed after a restart.
+ *
+ * A node runs a task only after it claims the task by an atomic update of its owning node and lease. The node running the task
+ * extends the lease periodically and with every stored checkpoint, a task whose lease expired can be claimed by any node.
+ * Both claims and renewals are conditional on the version of the task, so a node whose task was claimed by another node
+ * finds out with its next renewal and stops. Cancellation is stored with the task, so it stops on whichever node runs it.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+@SessionScoped
+public class TaskFacade implements Serializable {
+
+   /**
+    * Time in milliseconds for which a node owns the task it claimed or stored a checkpoint of.
+    */
+   public static final long LEASE_TIME = 60000L;
+
+   /**
+    * Time in milliseconds after which the node running a task extends its lease, a few renewals can fail before the lease expires.
+    */
+   public static final long HEARTBEAT_TIME = LEASE_TIME / 3;
+
+   @Inject
+   @SystemDataStorage
+   private DataStorage dataStorage;
+
+   @Inject
+   private UserFacade userFacade;
+
+   @Inject
+   private TaskProcessorBean taskProcessor;
+
+   /**
+    * Initializes the collection of tasks.
+    */
+   @PostConstruct
+   public void init() {
+      if (!dataStorage.hasCollection(LumeerConst.Task.COLLECTION_NAME)) {
+         dataStorage.createCollection(LumeerConst.Task.COLLECTION_NAME);
+         dataStorage.createIndex(LumeerConst.Task.COLLECTION_NAME, new DataDocument(LumeerConst.Task.OWNER_KEY, 1).append(LumeerConst.Task.CREATE_DATE_KEY, -1));
+         dataStorage.createIndex(LumeerConst.Task.COLLECTION_NAME, new DataDocument(LumeerConst.Task.STATE_KEY, 1));
+      }
+   }
+
+   /**
+    * Submits the batch to be run in background on behalf of the current user.
+    *
+    * @param batch
+    *       the batch to run, its collection name must be the internal one
+    * @return id of the submitted task
+    */
+   public String submitBatch(final Batch batch) {
+      final String now = Utils.getCurrentTimeString();
+      final List<String> roles = new ArrayList<>(userFacade.getUserRoles());
+      final DataDocument task = BatchTask.toDocument(batch)
+                                         .append(LumeerConst.Task.STATE_KEY, TaskState.QUEUED.name())
+                                         .append(LumeerConst.Task.OWNER_KEY, userFacade.getUserEmail())
+                                         .append(LumeerConst.Task.OWNER_ROLES_KEY, roles)
+                                         .append(LumeerConst.Task.PROCESSED_KEY, 0L)
+                                         .append(LumeerConst.Task.TOTAL_KEY, 0L)
+                                         .append(LumeerConst.Task.CREATE_DATE_KEY, now)
+                                         .append(LumeerConst.Task.UPDATE_DATE_KEY, now);
+      final String taskId = dataStorage.createDocument(LumeerConst.Task.COLLECTION_NAME, task);
+      taskProcessor.submit(taskId, userFacade.getUserEmail(), roles, new BatchTask(taskId));
+
+      return taskId;
+   }
+
+   /**
+    * Gets the task of the current user.
+    *
+    * @param taskId
+    *       id of the task
+    * @return the task with its state and progress
+    * @throws DocumentNotFoundException
+    *       When there is no such task.
+    * @throws UnauthorizedAccessException
+    *       When the task belongs to another user.
+    */
+   public DataDocument getTask(final String taskId) throws DocumentNotFoundException, UnauthorizedAccessException {
+      final DataDocument task = readTask(taskId);
+      if (task == null) {
+         throw new DocumentNotFoundException(ErrorMessageBuilder.taskNotFoundString(taskId));
+      }
+      if (!userFacade.getUserEmail().equals(task.getString(LumeerConst.Task.OWNER_KEY))) {
+         throw new UnauthorizedAccessException();
+      }
+
+      return task;
+   }
+
+   /**
+    * Gets all tasks of the current user, the newest first.
+    *
+    * @return list of the tasks
+    */
+   public List<DataDocument> getTasks() {
+      return dataStorage.search(LumeerConst.Task.COLLECTION_NAME,
+            MongoUtils.convertBsonToJson(Filters.eq(LumeerConst.Task.OWNER_KEY, userFacade.getUserEmail())),
+            "{\"" + LumeerConst.Task.CREATE_DATE_KEY + "\": -1}", 0, 0);
+   }
+
+   /**
+    * Cancels the task of the current user. A task queued on this node is cancelled immediately, a task queued or running
+    * on any node stops before the next chunk of documents. Nothing happens to a finished task.
+    *
+    * @param taskId
+    *       id of the task
+    * @throws DocumentNotFoundException
+    *       When there is no such task.
+    * @throws UnauthorizedAccessException
+    *       When the task belongs to another user.
+    */
+   public void cancelTask(final String taskId) throws DocumentNotFoundException, UnauthorizedAccessException {
+      final DataDocument task = getTask(taskId);
+      if (TaskState.valueOf(task.getString(LumeerConst.Task.STATE_KEY)).isFinished()) {
+         return;
+      }
+
+      updateTask(taskId, new DataDocument(LumeerConst.Task.CANCEL_KEY, true));
+      if (taskProcessor.cancel(taskId)) {
+         updateTask(taskId, new DataDocument(LumeerConst.Task.STATE_KEY, TaskState.CANCELLED.name()));
+      }
+   }
+
+   /**
+    * Reads the task regardless of its owner.
+    *
+    * @param taskId
+    *       id of the task
+    * @return the task or null when there is no such task
+    */
+   public DataDocument readTask(final String taskId) {
+      return dataStorage.readDocument(LumeerConst.Task.COLLECTION_NAME, taskId);
+   }
+
+   /**
+    * Claims the task for the node, so that no other node runs it at the same time. The task can be claimed unless
+    * it is finished or another node holds its lease.
+    *
+    * @param taskId
+    *       id of the task
+    * @param nodeId
+    *       id of the node claiming the task
+    * @return the task with the version it got by the claim or null when it is finished or run by another node
+    */
+   public DataDocument claimTask(final String taskId, final String nodeId) {
+      final DataDocument task = readTask(taskId);
+      final long now = System.currentTimeMillis();
+
+      if (task == null || TaskState.valueOf(task.getString(LumeerConst.Task.STATE_KEY)).isFinished()) {
+         return null;
+      }
+      if (!nodeId.equals(task.getString(LumeerConst.Task.NODE_KEY)) && task.getLong(LumeerConst.Task.LEASE_KEY, 0L) > now) {
+         return null;
+      }
+
+      // every claim increments the version, so only one of the nodes that read the task in the same version claims it
+      final DataDocument claim = new DataDocument(LumeerConst.Task.NODE_KEY, nodeId)
+            .append(LumeerConst.Task.LEASE_KEY, now + LEASE_TIME)
+            .append(LumeerConst.Task.UPDATE_DATE_KEY, Utils.getCurrentTimeString());
+      final int version = task.getInteger(LumeerConst.METADATA_VERSION_KEY, 0);
+      if (dataStorage.updateDocumentIfVersion(LumeerConst.Task.COLLECTION_NAME, claim, taskId, version) == null) {
+         return null;
+      }
+      task.put(LumeerConst.METADATA_VERSION_KEY, version + 1);
+
+      return task;
+   }
+
+   /**
+    * Extends the lease of the node running the task and stores progress of the task. Nothing is stored when the task
+    * was claimed by another node since the last claim or renewal by this node.
+    *
+    * @param taskId
+    *       id of the task
+    * @param version
+    *       version of the task after the last claim or renewal by the node running it
+    * @param changes
+    *       attributes of the task to update, can be empty
+    * @return true when the node still holds the lease, the version of the task is incremented by one then
+    */
+   public boolean renewTask(final String taskId, final int version, final DataDocument changes) {
+      final DataDocument renewal = new DataDocument(changes)
+            .append(LumeerConst.Task.LEASE_KEY, System.currentTimeMillis() + LEASE_TIME)
+            .append(LumeerConst.Task.UPDATE_DATE_KEY, Utils.getCurrentTimeString());
+
+      return dataStorage.updateDocumentIfVersion(LumeerConst.Task.COLLECTION_NAME, renewal, taskId, version) != null;
+   }
+
+   /**
+    * Checks whether the task was asked to stop.
+    *
+    * @param taskId
+    *       id of the task
+    * @return true if and only if the task was cancelled or does not exist anymore
+    */
+   public boolean isCancelRequested(final String taskId) {
+      final DataDocument task = dataStorage.readDocumentIncludeAttrs(LumeerConst.Task.COLLECTION_NAME, taskId, Collections.singletonList(LumeerConst.Task.CANCEL_KEY));
+
+      return task == null || task.getBoolean(LumeerConst.Task.CANCEL_KEY, false);
+   }
+
+   /**
+    * Updates state or progress of the task.
+    *
+    * @param taskId
+    *       id of the task
+    * @param changes
+    *       attributes of the task to update
+    */
+   public void updateTask(final String taskId, final DataDocument changes) {
+      changes.put(LumeerConst.Task.UPDATE_DATE_KEY, Utils.getCurrentTimeString());
+      dataStorage.updateDocument(LumeerConst.Task.COLLECTION_NAME, changes, taskId);
+   }
+
+   /**
+    * Gets tasks of all users which are not finished, i.e. the tasks queued or interrupted by a restart.
+    *
+    * @return list of the tasks in the order they were submitted
+    */
+   public List<DataDocument> getUnfinishedTasks() {
+      final List<String> states = Arrays.stream(TaskState.values()).filter(state -> !state.isFinished()).map(TaskState::name).collect(Collectors.toList());
+
+      return dataStorage.search(LumeerConst.Task.COLLECTION_NAME,
+            MongoUtils.convertBsonToJson(Filters.in(LumeerConst.Task.STATE_KEY, states)),
+            "{\"" + LumeerConst.Task.CREATE_DATE_KEY + "\": 1}", 0, 0);
+   }
+}
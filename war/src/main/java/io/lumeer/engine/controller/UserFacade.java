@@ -19,6 +19,8 @@
  */
 package io.lumeer.engine.controller;
 
+import io.lumeer.engine.task.TaskContext;
+
 import org.keycloak.KeycloakPrincipal;
 
 import java.io.Serializable;
@@ -30,7 +32,7 @@ import javax.inject.Inject;
 import javax.servlet.http.HttpServletRequest;
 
 /**
- * Holds information about currently logged in user.
+ * Holds information about currently logged in user. Background tasks run on behalf of the user who submitted them.
  *
  * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
  */
@@ -56,6 +58,10 @@ public class UserFacade implements Serializable {
     * @return The email of currently logged in user.
     */
    public String getUserEmail() {
+      if (TaskContext.isTaskActive()) {
+         return TaskContext.getUserEmail();
+      }
+
       final Optional<KeycloakPrincipal> principal = getPrincipal();
       return principal.isPresent() ? principal.get().getKeycloakSecurityContext().getToken().getEmail() : "aturing@lumeer.io";
    }
@@ -66,6 +72,10 @@ public class UserFacade implements Serializable {
     * @return The user roles of currently logged in user.
     */
    public Set<String> getUserRoles() {
+      if (TaskContext.isTaskActive()) {
+         return TaskContext.getUserRoles();
+      }
+
       final Optional<KeycloakPrincipal> principal = getPrincipal();
       return principal.isPresent() ? principal.get().getKeycloakSecurityContext().getToken().getRealmAccess().getRoles() : Collections.singleton("scientist");
    }
@@ -27,14 +27,28 @@ import io.lumeer.engine.api.exception.DocumentNotFoundException;
 import io.lumeer.engine.api.exception.InvalidDocumentKeyException;
 import io.lumeer.engine.api.exception.UnsuccessfulOperationException;
 import io.lumeer.engine.api.exception.VersionUpdateConflictException;
+import io.lumeer.engine.controller.configuration.DefaultConfigurationProducer;
 import io.lumeer.engine.util.ErrorMessageBuilder;
 import io.lumeer.mongodb.MongoUtils;
 
 import com.mongodb.client.model.Filters;
+import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import javax.enterprise.context.SessionScoped;
 import javax.inject.Inject;
 
@@ -46,11 +60,25 @@ public class VersionFacade implements Serializable {
 
    private final String SHADOW = ".shadow";
 
+   private static final String SHADOW_ID_KEY = "_id._id";
+   private static final String SHADOW_VERSION_KEY = "_id." + LumeerConst.METADATA_VERSION_KEY;
+   private static final String SHADOW_VERSION_ASCENDING = "{\"" + SHADOW_VERSION_KEY + "\": 1}";
+   private static final String SHADOW_VERSION_DESCENDING = "{\"" + SHADOW_VERSION_KEY + "\": -1}";
+   private static final int DEFAULT_SNAPSHOT_INTERVAL = 10;
+   private static final long ABANDONED_VERSION_TIMEOUT = 60000L;
+   private static final int HISTORY_BATCH_SIZE = 20;
+   private static final List<String> VERSION_METADATA_KEYS = Arrays.asList(LumeerConst.Document.UPDATE_DATE_KEY, LumeerConst.Document.UPDATED_BY_USER_KEY);
+
    public static final String METADATA_ID_KEY = "_id";
 
    @Inject
    private DataStorage dataStorage;
 
+   @Inject
+   private DefaultConfigurationProducer defaultConfigurationProducer;
+
+   private transient HistorySettings historySettings;
+
    public String getVersionMetadataString() {
       return LumeerConst.METADATA_VERSION_KEY;
    }
@@ -94,72 +122,412 @@ public class VersionFacade implements Serializable {
    }
 
    /**
-    * Create shadow collection if not created. Backup document with
-    * same id as document in collection. Then replace document in
-    * collection with document from input. This method is atomic.
-    * As lock there is document in shadow collection.
+    * Updates the document in collection to a new version in a single atomic
+    * operation conditioned on the version carried by the input document and
+    * stores the previous version in shadow collection. When the input document
+    * carries no version, the current one is read from collection.
     *
     * @param collectionName
     *       collection name, where document is stored
     * @param document
-    *       document, which will be stored in SHADOW collection
-    *       and then updated in new collection to new version.
-    *       After that it is possible to change data and save it
+    *       document with changes to update, after the update it contains
+    *       the new version of document
     * @return integer, new version of document
     * @throws DocumentNotFoundException
-    *       if document not found in database while backup
-    *       was done
-    * @throws UnsuccessfulOperationException
-    *       if documment cannot be updated, bud was
-    *       backuped in shadow collection
+    *       if document not found in database
     * @throws VersionUpdateConflictException
-    *       if there are two updatest at same time, means if in
-    *       shadow collection already exists document with same version
+    *       if the document was updated by somebody else in the meantime
     * @throws InvalidDocumentKeyException
     *       if document doesnt containst id
     * @throws CollectionNotFoundException
     *       if collection not found
     */
-   public int newDocumentVersion(String collectionName, DataDocument document) throws DocumentNotFoundException, UnsuccessfulOperationException, VersionUpdateConflictException, InvalidDocumentKeyException, CollectionNotFoundException {
-      if (!dataStorage.hasCollection(collectionName)) {
-         throw new CollectionNotFoundException(ErrorMessageBuilder.collectionNotFoundString(collectionName));
-      }
+   public int newDocumentVersion(String collectionName, DataDocument document) throws DocumentNotFoundException, VersionUpdateConflictException, InvalidDocumentKeyException, CollectionNotFoundException {
       String id = document.getId();
       if (id == null) {
          throw new InvalidDocumentKeyException("no document id");
       }
-      createMetadata(document);
-      int oldVersion = backUp(collectionName, id);
-      document.replace(LumeerConst.METADATA_VERSION_KEY, oldVersion + 1);
-      dataStorage.updateDocument(collectionName, document, document.getId());
-      DataDocument readed = dataStorage.readDocument(collectionName, id);
-      if (!readed.keySet().containsAll(document.keySet())) {
-         throw new UnsuccessfulOperationException(ErrorMessageBuilder.updateDocumentUnsuccesfulString());
+      int version = getCurrentVersion(collectionName, document);
+      return newDocumentVersion(collectionName, document, version);
+   }
+
+   /**
+    * Updates the document in collection to a new version conditioned on the
+    * expected current version. The previous version is stored in shadow
+    * collection before the update, so that the history never misses it.
+    *
+    * @param collectionName
+    *       collection name, where document is stored
+    * @param document
+    *       document with changes to update, after the update it contains
+    *       the new version of document
+    * @param version
+    *       expected current version of document in collection
+    * @return integer, new version of document
+    * @throws DocumentNotFoundException
+    *       if document not found in database
+    * @throws VersionUpdateConflictException
+    *       if the document was updated by somebody else in the meantime
+    * @throws InvalidDocumentKeyException
+    *       if document doesnt containst id
+    * @throws CollectionNotFoundException
+    *       if collection not found
+    */
+   public int newDocumentVersion(String collectionName, DataDocument document, int version) throws DocumentNotFoundException, VersionUpdateConflictException, InvalidDocumentKeyException, CollectionNotFoundException {
+      String id = document.getId();
+      if (id == null) {
+         throw new InvalidDocumentKeyException("no document id");
       }
-      return oldVersion + 1;
+      return newDocumentVersion(collectionName, readDocumentInVersion(collectionName, id, version), document);
    }
 
    /**
-    * Create metadata if not exists.
+    * Updates the document in collection to a new version conditioned on the
+    * version of the document read by the caller. The previous version is
+    * stored in shadow collection before the update, so that the history
+    * never misses it.
     *
+    * @param collectionName
+    *       collection name, where document is stored
+    * @param existingDocument
+    *       document as it was read from collection
     * @param document
-    *       document where to create metadata
+    *       document with changes to update, after the update it contains
+    *       the new version of document
+    * @return integer, new version of document
+    * @throws VersionUpdateConflictException
+    *       if the document was updated by somebody else in the meantime
     */
-   private void createMetadata(DataDocument document) {
-      if (!document.containsKey(LumeerConst.METADATA_VERSION_KEY)) {
-         document.put(LumeerConst.METADATA_VERSION_KEY, 0);
+   public int newDocumentVersion(String collectionName, DataDocument existingDocument, DataDocument document) throws VersionUpdateConflictException {
+      String id = existingDocument.getId();
+      int version = getDocumentVersion(existingDocument);
+      DataDocument newDocument = new DataDocument(existingDocument);
+      newDocument.putAll(document);
+      writeNewVersion(collectionName, new DataDocument(existingDocument), newDocument, id, version, () -> dataStorage.updateDocumentIfVersion(collectionName, document, id, version));
+      document.put(LumeerConst.METADATA_VERSION_KEY, version + 1);
+      return version + 1;
+   }
+
+   /**
+    * Replaces the document in collection with a new version conditioned on
+    * the expected current version. The previous version is stored in shadow
+    * collection before the replacement, so that the history never misses it.
+    *
+    * @param collectionName
+    *       collection name, where document is stored
+    * @param document
+    *       replacing document, after the replacement it contains
+    *       the new version of document
+    * @param documentId
+    *       id of replaced document
+    * @param version
+    *       expected current version of document in collection
+    * @return integer, new version of document
+    * @throws DocumentNotFoundException
+    *       if document not found in database
+    * @throws VersionUpdateConflictException
+    *       if the document was updated by somebody else in the meantime
+    * @throws CollectionNotFoundException
+    *       if collection not found
+    */
+   public int replaceDocumentVersion(String collectionName, DataDocument document, String documentId, int version) throws DocumentNotFoundException, VersionUpdateConflictException, CollectionNotFoundException {
+      return replaceDocumentVersion(collectionName, readDocumentInVersion(collectionName, documentId, version), document);
+   }
+
+   /**
+    * Replaces the document in collection with a new version conditioned on
+    * the version of the document read by the caller. The previous version is
+    * stored in shadow collection before the replacement, so that the history
+    * never misses it.
+    *
+    * @param collectionName
+    *       collection name, where document is stored
+    * @param existingDocument
+    *       document as it was read from collection
+    * @param document
+    *       replacing document, after the replacement it contains
+    *       the new version of document
+    * @return integer, new version of document
+    * @throws VersionUpdateConflictException
+    *       if the document was updated by somebody else in the meantime
+    */
+   public int replaceDocumentVersion(String collectionName, DataDocument existingDocument, DataDocument document) throws VersionUpdateConflictException {
+      String id = existingDocument.getId();
+      int version = getDocumentVersion(existingDocument);
+      writeNewVersion(collectionName, new DataDocument(existingDocument), document, id, version, () -> dataStorage.replaceDocumentIfVersion(collectionName, document, id, version));
+      document.put(LumeerConst.METADATA_VERSION_KEY, version + 1);
+      return version + 1;
+   }
+
+   // reads the document and checks that it is still in the expected version
+   private DataDocument readDocumentInVersion(String collectionName, String documentId, int version) throws DocumentNotFoundException, VersionUpdateConflictException, CollectionNotFoundException {
+      if (!dataStorage.hasCollection(collectionName)) {
+         throw new CollectionNotFoundException(ErrorMessageBuilder.collectionNotFoundString(collectionName));
+      }
+      DataDocument document = dataStorage.readDocument(collectionName, documentId);
+      if (document == null) {
+         throw new DocumentNotFoundException(ErrorMessageBuilder.documentNotFoundString());
       }
+      if (getDocumentVersion(document) != version) {
+         throw new VersionUpdateConflictException(ErrorMessageBuilder.updateDocumentUnsuccesfulString());
+      }
+      return document;
    }
 
    /**
-    * Create shadow collection if not exists.
+    * Stores the old version in shadow collection and then writes the new
+    * version conditioned on the old one. When the write does not happen,
+    * the stored version is dropped again, so that shadow collection never
+    * contains a version the document did not leave.
     *
     * @param collectionName
-    *       collection name to imput.
+    *       collection where document is stored
+    * @param oldDocument
+    *       document before the update
+    * @param newDocument
+    *       document after the update
+    * @param documentId
+    *       document id
+    * @param version
+    *       version of the document before the update
+    * @param write
+    *       conditional write returning the replaced document, null when the version did not match
+    * @throws VersionUpdateConflictException
+    *       if the document was updated by somebody else in the meantime
     */
+   private void writeNewVersion(String collectionName, DataDocument oldDocument, DataDocument newDocument, String documentId, int version, Supplier<DataDocument> write) throws VersionUpdateConflictException {
+      storeOldVersion(collectionName, oldDocument, newDocument, documentId, version);
+      DataDocument replaced = null;
+      try {
+         replaced = write.get();
+      } finally {
+         if (replaced == null) {
+            dataStorage.dropOldDocument(collectionName + SHADOW, documentId, version);
+         }
+      }
+      if (replaced == null) {
+         throw new VersionUpdateConflictException(ErrorMessageBuilder.updateDocumentUnsuccesfulString());
+      }
+      dropExpiredVersions(collectionName, documentId, version);
+   }
+
+   /**
+    * Stores the old version of document in shadow collection. In delta
+    * history mode only the changes needed to get the old document from the
+    * new one are stored, except for every n-th version which is always stored
+    * as a full snapshot. The version may already be stored by a concurrent
+    * update of the same version, which is a conflict, or by an update which
+    * failed before dropping it again, which is overwritten once it is older
+    * than {@link #ABANDONED_VERSION_TIMEOUT} and the document is still in
+    * the version.
+    *
+    * @param collectionName
+    *       collection where document is stored
+    * @param oldDocument
+    *       document before the update
+    * @param newDocument
+    *       document after the update, null to store a full snapshot
+    * @param documentId
+    *       document id
+    * @param version
+    *       version of the document before the update
+    * @throws VersionUpdateConflictException
+    *       if the version is being stored by somebody else
+    */
+   private void storeOldVersion(String collectionName, DataDocument oldDocument, DataDocument newDocument, String documentId, int version) throws VersionUpdateConflictException {
+      createMetadata(oldDocument);
+      createShadow(collectionName);
+      DataDocument entry = newDocument != null && isDeltaVersion(version) ? createDelta(oldDocument, newDocument) : oldDocument;
+      entry.put(LumeerConst.Version.HISTORY_DATE_KEY, new Date());
+      try {
+         dataStorage.createOldDocument(collectionName + SHADOW, entry, documentId, version);
+      } catch (UnsuccessfulOperationException e) {
+         if (!isAbandonedVersion(collectionName, documentId, version)) {
+            throw new VersionUpdateConflictException(e.getMessage(), e.getCause());
+         }
+         dataStorage.dropOldDocument(collectionName + SHADOW, documentId, version);
+         try {
+            dataStorage.createOldDocument(collectionName + SHADOW, entry, documentId, version);
+         } catch (UnsuccessfulOperationException ex) {
+            throw new VersionUpdateConflictException(ex.getMessage(), ex.getCause());
+         }
+      }
+   }
+
+   // whether the stored version was left by an update which did not finish, the document itself must still be in this version,
+   // otherwise the entry is the history of a successful update and the caller is a late one
+   private boolean isAbandonedVersion(String collectionName, String documentId, int version) {
+      DataDocument entry = dataStorage.readOldDocument(collectionName + SHADOW, documentId, version);
+      Object stored = entry != null ? entry.get(LumeerConst.Version.HISTORY_DATE_KEY) : null;
+      if (!(stored instanceof Date) || ((Date) stored).getTime() + ABANDONED_VERSION_TIMEOUT >= System.currentTimeMillis()) {
+         return false;
+      }
+      DataDocument current = dataStorage.readDocumentIncludeAttrs(collectionName, documentId, Collections.singletonList(LumeerConst.METADATA_VERSION_KEY));
+      return current != null && getDocumentVersion(current) == version;
+   }
+
+   // creates shadow collection together with the index used to read history of a single document
    private void createShadow(String collectionName) {
-      if (!(dataStorage.hasCollection(collectionName + SHADOW))) {
+      if (!dataStorage.hasCollection(collectionName + SHADOW)) {
          dataStorage.createCollection(collectionName + SHADOW);
+         dataStorage.createIndex(collectionName + SHADOW, new DataDocument(SHADOW_ID_KEY, 1).append(SHADOW_VERSION_KEY, -1));
+      }
+   }
+
+   // whether the version is stored as a delta, every n-th version is a full snapshot to keep reconstruction short
+   private boolean isDeltaVersion(int version) {
+      HistorySettings settings = getHistorySettings();
+      return settings.delta && version % settings.snapshotInterval != 0;
+   }
+
+   // settings are system wide, history written by one user must be readable and retained the same way for all the others
+   private HistorySettings getHistorySettings() {
+      if (historySettings == null) {
+         historySettings = new HistorySettings(
+               LumeerConst.Version.HISTORY_MODE_DELTA.equals(defaultConfigurationProducer.get(LumeerConst.VERSION_HISTORY_MODE_PROPERTY)),
+               getDefaultInteger(LumeerConst.VERSION_SNAPSHOT_INTERVAL_PROPERTY, DEFAULT_SNAPSHOT_INTERVAL),
+               getDefaultInteger(LumeerConst.VERSION_MAX_COUNT_PROPERTY, 0),
+               getDefaultInteger(LumeerConst.VERSION_MAX_AGE_PROPERTY, 0));
+      }
+      return historySettings;
+   }
+
+   private int getDefaultInteger(String key, int defaultValue) {
+      try {
+         String value = defaultConfigurationProducer.get(key);
+         return value != null ? Integer.parseInt(value.trim()) : defaultValue;
+      } catch (NumberFormatException e) {
+         return defaultValue;
+      }
+   }
+
+   /**
+    * Overrides the system history settings in this session, so that
+    * the other history modes can be tested.
+    *
+    * @param mode
+    *       {@link LumeerConst.Version#HISTORY_MODE_FULL} or {@link LumeerConst.Version#HISTORY_MODE_DELTA}
+    * @param snapshotInterval
+    *       every n-th version stored as a full snapshot in delta mode
+    * @param maxCount
+    *       maximal number of stored versions of a document, 0 for no limit
+    * @param maxAge
+    *       maximal age of stored versions in days, 0 for no limit
+    */
+   public void setHistorySettings(String mode, int snapshotInterval, int maxCount, int maxAge) {
+      historySettings = new HistorySettings(LumeerConst.Version.HISTORY_MODE_DELTA.equals(mode), snapshotInterval, maxCount, maxAge);
+   }
+
+   /**
+    * Drops the overridden history settings, the system ones are used again.
+    */
+   public void resetHistorySettings() {
+      historySettings = null;
+   }
+
+   /**
+    * Creates a delta entry of shadow collection, which turns the new document
+    * back to the old one.
+    *
+    * @param oldDocument
+    *       document before the update
+    * @param newDocument
+    *       document after the update
+    * @return delta entry with attributes to set and names of attributes to remove
+    */
+   private DataDocument createDelta(DataDocument oldDocument, DataDocument newDocument) {
+      DataDocument set = new DataDocument();
+      oldDocument.forEach((attribute, value) -> {
+         if (isVersionedAttribute(attribute) && (!newDocument.containsKey(attribute) || !Objects.equals(value, newDocument.get(attribute)))) {
+            set.put(attribute, value);
+         }
+      });
+      List<String> unset = newDocument.keySet().stream()
+                                      .filter(attribute -> isVersionedAttribute(attribute) && !oldDocument.containsKey(attribute))
+                                      .collect(Collectors.toList());
+
+      return new DataDocument(LumeerConst.Version.HISTORY_DELTA_KEY, true)
+            .append(LumeerConst.Version.HISTORY_SET_KEY, set)
+            .append(LumeerConst.Version.HISTORY_UNSET_KEY, unset);
+   }
+
+   // id and version are given by the shadow entry itself
+   private boolean isVersionedAttribute(String attribute) {
+      return !METADATA_ID_KEY.equals(attribute) && !LumeerConst.METADATA_VERSION_KEY.equals(attribute);
+   }
+
+   private boolean isDelta(DataDocument entry) {
+      return entry.containsKey(LumeerConst.Version.HISTORY_DELTA_KEY);
+   }
+
+   // turns the document in the next version to the version described by the delta entry
+   private DataDocument applyDelta(DataDocument document, DataDocument delta, int version) {
+      DataDocument result = new DataDocument(document);
+      result.putAll(delta.getDataDocument(LumeerConst.Version.HISTORY_SET_KEY));
+      delta.getArrayList(LumeerConst.Version.HISTORY_UNSET_KEY, String.class).forEach(result::remove);
+      result.put(LumeerConst.METADATA_VERSION_KEY, version);
+      return result;
+   }
+
+   // removes shadow collection bookkeeping from a full snapshot
+   private DataDocument cleanSnapshot(DataDocument snapshot) {
+      LumeerConst.Version.HISTORY_KEYS.forEach(snapshot::remove);
+      return snapshot;
+   }
+
+   // version of a shadow collection entry is stored in its compound id
+   private int getEntryVersion(DataDocument entry) {
+      return entry.getDataDocument(METADATA_ID_KEY).getInteger(LumeerConst.METADATA_VERSION_KEY);
+   }
+
+   /**
+    * Drops versions of the document out of the configured retention,
+    * i.e. versions older than the maximal age and versions exceeding
+    * the maximal number of kept versions. Only the oldest versions are
+    * dropped, so delta entries of the remaining versions stay complete.
+    *
+    * @param collectionName
+    *       collection where document is stored
+    * @param documentId
+    *       document id
+    * @param version
+    *       the last version stored in shadow collection
+    */
+   private void dropExpiredVersions(String collectionName, String documentId, int version) {
+      int maxCount = getHistorySettings().maxCount;
+      int maxAge = getHistorySettings().maxAge;
+      List<Bson> expired = new ArrayList<>();
+
+      if (maxCount > 0 && version >= maxCount) {
+         expired.add(Filters.lte(SHADOW_VERSION_KEY, version - maxCount));
+      }
+      if (maxAge > 0) {
+         expired.add(Filters.lt(LumeerConst.Version.HISTORY_DATE_KEY, new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(maxAge))));
+      }
+
+      if (!expired.isEmpty()) {
+         dataStorage.dropManyDocuments(collectionName + SHADOW,
+               MongoUtils.convertBsonToJson(Filters.and(Filters.eq(SHADOW_ID_KEY, new ObjectId(documentId)), Filters.or(expired))));
+      }
+   }
+
+   // version carried by the document, read from collection only when there is none
+   private int getCurrentVersion(String collectionName, DataDocument document) throws DocumentNotFoundException, CollectionNotFoundException {
+      if (document.containsKey(LumeerConst.METADATA_VERSION_KEY)) {
+         return getDocumentVersion(document);
+      }
+      return getDocumentVersion(collectionName, document.getId());
+   }
+
+   /**
+    * Create metadata if not exists.
+    *
+    * @param document
+    *       document where to create metadata
+    */
+   private void createMetadata(DataDocument document) {
+      if (!document.containsKey(LumeerConst.METADATA_VERSION_KEY)) {
+         document.put(LumeerConst.METADATA_VERSION_KEY, 0);
       }
    }
 
@@ -186,59 +554,192 @@ public class VersionFacade implements Serializable {
       if (document == null) {
          throw new DocumentNotFoundException(ErrorMessageBuilder.documentNotFoundString());
       }
-      createMetadata(document);
+      int version = getDocumentVersion(document);
+      storeOldVersion(collectionName, document, null, documentId, version);
+      dropExpiredVersions(collectionName, documentId, version);
+      return version;
+   }
+
+   /**
+    * Updates documents in collection to new versions with a single bulk write.
+    * The old versions are stored in shadow collection at once before the
+    * update, the same way as for a single document. Every document is then
+    * updated only when it still has the version it had when it was read.
+    * Documents updated by somebody else in the meantime are removed from
+    * both lists and their stored versions are dropped again.
+    *
+    * @param collectionName
+    *       collection where documents are stored
+    * @param originals
+    *       documents as they were read before computing the changes
+    * @param updates
+    *       changes of the documents with their ids in the same order as the
+    *       originals, the new versions are set to the updated ones
+    * @param removedAttributes
+    *       names of attributes to remove from every updated document
+    */
+   public void newDocumentVersions(String collectionName, List<DataDocument> originals, List<DataDocument> updates, List<String> removedAttributes) {
+      storeOldVersions(collectionName, originals, updates, removedAttributes);
+      if (updates.isEmpty()) {
+         return;
+      }
+
+      for (int i = 0; i < updates.size(); i++) {
+         updates.get(i).put(LumeerConst.METADATA_VERSION_KEY, getDocumentVersion(originals.get(i)));
+      }
+
+      if (dataStorage.updateDocumentsIfVersion(collectionName, updates, removedAttributes) < updates.size()) {
+         List<DataDocument> conflicting = retainUpdated(collectionName, originals, updates);
+         if (!conflicting.isEmpty()) {
+            dataStorage.dropManyDocuments(collectionName + SHADOW, MongoUtils.convertBsonToJson(Filters.or(conflicting.stream().map(original ->
+                  Filters.and(Filters.eq(SHADOW_ID_KEY, new ObjectId(original.getId())), Filters.eq(SHADOW_VERSION_KEY, getDocumentVersion(original))))
+                                                                                                                      .collect(Collectors.toList()))));
+         }
+      }
+
+      for (int i = 0; i < updates.size(); i++) {
+         updates.get(i).put(LumeerConst.METADATA_VERSION_KEY, getDocumentVersion(originals.get(i)) + 1);
+      }
+      dropExpiredVersions(collectionName, originals);
+   }
+
+   /**
+    * Stores old versions of documents updated in a single batch in shadow
+    * collection at once. The same rules as for a single document apply, i.e.
+    * deltas or full snapshots are stored according to the history mode and
+    * a version already stored is overwritten only when it was abandoned.
+    * Documents whose version is being stored by somebody else are removed
+    * from both lists, they must not be updated.
+    *
+    * @param collectionName
+    *       collection where documents are stored
+    * @param originals
+    *       documents before the update
+    * @param updates
+    *       changes of the documents in the same order as the originals
+    * @param removedAttributes
+    *       names of attributes removed from every updated document
+    */
+   private void storeOldVersions(String collectionName, List<DataDocument> originals, List<DataDocument> updates, List<String> removedAttributes) {
+      if (originals.isEmpty()) {
+         return;
+      }
       createShadow(collectionName);
+
+      List<DataDocument> entries = new ArrayList<>(originals.size());
+      Date now = new Date();
+
+      for (int i = 0; i < originals.size(); i++) {
+         DataDocument oldDocument = new DataDocument(originals.get(i));
+         createMetadata(oldDocument);
+         int version = getDocumentVersion(oldDocument);
+         DataDocument newDocument = new DataDocument(oldDocument);
+         newDocument.putAll(updates.get(i));
+         removedAttributes.forEach(newDocument::remove);
+
+         DataDocument entry = isDeltaVersion(version) ? createDelta(oldDocument, newDocument) : oldDocument;
+         entry.put(LumeerConst.Document.ID, oldDocument.getId());
+         entry.put(LumeerConst.METADATA_VERSION_KEY, version);
+         entry.put(LumeerConst.Version.HISTORY_DATE_KEY, now);
+         entries.add(entry);
+      }
+
+      Set<String> present = dataStorage.createOldDocuments(collectionName + SHADOW, entries);
+      for (int i = originals.size() - 1; i >= 0; i--) {
+         String documentId = originals.get(i).getId();
+         if (present.contains(documentId) && !replaceAbandonedVersion(collectionName, entries.get(i), documentId, getDocumentVersion(originals.get(i)))) {
+            originals.remove(i);
+            updates.remove(i);
+         }
+      }
+   }
+
+   // stores the version again when the stored one was abandoned, false when the version is being stored by somebody else
+   private boolean replaceAbandonedVersion(String collectionName, DataDocument entry, String documentId, int version) {
+      if (!isAbandonedVersion(collectionName, documentId, version)) {
+         return false;
+      }
+      dataStorage.dropOldDocument(collectionName + SHADOW, documentId, version);
       try {
-         dataStorage.createOldDocument(collectionName + SHADOW, document, documentId, getDocumentVersion(document));
-      } catch (Exception e) {
-         throw new VersionUpdateConflictException(e.getMessage(), e.getCause());
+         dataStorage.createOldDocument(collectionName + SHADOW, entry, documentId, version);
+         return true;
+      } catch (UnsuccessfulOperationException e) {
+         return false;
       }
-      return getDocumentVersion(document);
+   }
+
+   // drops versions of the updated documents out of the configured retention with a single command
+   private void dropExpiredVersions(String collectionName, List<DataDocument> originals) {
+      if (originals.isEmpty()) {
+         return;
+      }
+      List<Bson> expired = new ArrayList<>();
+      int maxCount = getHistorySettings().maxCount;
+      int maxAge = getHistorySettings().maxAge;
+
+      if (maxCount > 0) {
+         originals.stream().filter(original -> getDocumentVersion(original) >= maxCount).forEach(original ->
+               expired.add(Filters.and(Filters.eq(SHADOW_ID_KEY, new ObjectId(original.getId())), Filters.lte(SHADOW_VERSION_KEY, getDocumentVersion(original) - maxCount))));
+      }
+      if (maxAge > 0) {
+         expired.add(Filters.and(
+               Filters.in(SHADOW_ID_KEY, originals.stream().map(document -> new ObjectId(document.getId())).collect(Collectors.toList())),
+               Filters.lt(LumeerConst.Version.HISTORY_DATE_KEY, new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(maxAge)))));
+      }
+      if (!expired.isEmpty()) {
+         dataStorage.dropManyDocuments(collectionName + SHADOW, MongoUtils.convertBsonToJson(Filters.or(expired)));
+      }
+   }
+
+   // keeps only the documents which were really updated by the bulk write and returns the originals of the others, they were
+   // modified concurrently, the old versions are already stored by this update, so nobody else could move a document past
+   // its old version and every document in a newer version was updated by the bulk write
+   private List<DataDocument> retainUpdated(String collectionName, List<DataDocument> originals, List<DataDocument> updates) {
+      List<ObjectId> ids = updates.stream().map(update -> new ObjectId(update.getId())).collect(Collectors.toList());
+      Map<String, Integer> versions = dataStorage.search(collectionName, MongoUtils.convertBsonToJson(Filters.in(LumeerConst.Document.ID, ids)), null,
+            Collections.singletonList(LumeerConst.METADATA_VERSION_KEY), 0, 0)
+                                                 .stream()
+                                                 .collect(Collectors.toMap(DataDocument::getId, this::getDocumentVersion));
+
+      List<DataDocument> conflicting = new ArrayList<>();
+      for (int i = updates.size() - 1; i >= 0; i--) {
+         Integer version = versions.get(updates.get(i).getId());
+         if (version == null || version <= getDocumentVersion(originals.get(i))) {
+            conflicting.add(originals.remove(i));
+            updates.remove(i);
+         }
+      }
+      return conflicting;
    }
 
    /**
-    * Create new version from input document. Read document from shadow collection
-    * as old version and replace document in collection with document from shadow
-    * collection.
+    * Read document from shadow collection as old version and replace document
+    * in collection with it as a new version. The replacement is conditioned on
+    * the version carried by the input document.
     *
     * @param collectionName
     *       collection where document is stored
     * @param document
-    *       document to be saved with newDocumentVersion
+    *       current document in collection
     * @param revertTo
     *       integer version to be reverted to
     * @throws DocumentNotFoundException
     *       if input document not found in database
-    * @throws UnsuccessfulOperationException
-    *       if document cannot be updated
     * @throws VersionUpdateConflictException
-    *       if there already exist document in shadows collection
-    *       with same id
+    *       if the document was updated by somebody else in the meantime
     * @throws InvalidDocumentKeyException
     *       if document does not contains id
     * @throws CollectionNotFoundException
     *       if coolection Not found
     */
-   public void revertDocumentVersion(String collectionName, DataDocument document, int revertTo) throws DocumentNotFoundException, UnsuccessfulOperationException, VersionUpdateConflictException, InvalidDocumentKeyException, CollectionNotFoundException {
-      if (!dataStorage.hasCollection(collectionName)) {
-         throw new CollectionNotFoundException(ErrorMessageBuilder.collectionNotFoundString(collectionName));
-      }
+   public void revertDocumentVersion(String collectionName, DataDocument document, int revertTo) throws DocumentNotFoundException, VersionUpdateConflictException, InvalidDocumentKeyException, CollectionNotFoundException {
       String id = document.getId();
       if (id == null) {
          throw new InvalidDocumentKeyException("no document id");
       }
-      DataDocument newDocument = readOldDocumentVersion(collectionName, document, revertTo);
-      int newVersion = newDocumentVersion(collectionName, document);
-      newDocument.replace(LumeerConst.METADATA_VERSION_KEY, newVersion);
-      String idN = newDocument.getId();
-      // dataStorage.updateDocument(collectionName, newDocument, idN);
-      dataStorage.replaceDocument(collectionName, newDocument, idN);
-      newDocument.put(METADATA_ID_KEY, idN);
-      DataDocument readed = dataStorage.readDocument(collectionName, newDocument.getId());
-      if (!readed.keySet().containsAll(newDocument.keySet())) {
-         throw new UnsuccessfulOperationException(ErrorMessageBuilder.updateDocumentUnsuccesfulString());
-      }
-      document.setId(id);
+      DataDocument newDocument = readOldDocumentVersion(collectionName, id, revertTo);
+      int version = getCurrentVersion(collectionName, document);
+      document.put(LumeerConst.METADATA_VERSION_KEY, replaceDocumentVersion(collectionName, newDocument, id, version));
    }
 
    /**
@@ -267,12 +768,7 @@ public class VersionFacade implements Serializable {
       if (id == null) {
          throw new InvalidDocumentKeyException("no document id");
       }
-      DataDocument data = dataStorage.readOldDocument(collectionName + SHADOW, id, version);
-      if (data == null) {
-         throw new DocumentNotFoundException(ErrorMessageBuilder.documentNotFoundString());
-      }
-      data.setId(id);
-      return data;
+      return readOldDocumentVersion(collectionName, id, version);
    }
 
    /**
@@ -295,37 +791,172 @@ public class VersionFacade implements Serializable {
          throw new CollectionNotFoundException(ErrorMessageBuilder.collectionNotFoundString(collectionName));
       }
 
-      DataDocument data = dataStorage.readOldDocument(collectionName + SHADOW, documentId, version);
+      DataDocument data = readVersion(collectionName, documentId, version);
       if (data == null) {
          throw new DocumentNotFoundException(ErrorMessageBuilder.documentNotFoundString());
       }
+      return data;
+   }
+
+   /**
+    * Reads the document in the given version. Old versions are reconstructed
+    * from the shadow collection, deltas are collected from the requested
+    * version up to the nearest full snapshot or up to the current document.
+    *
+    * @param collectionName
+    *       collection where document is stored
+    * @param documentId
+    *       id of document
+    * @param version
+    *       version of document
+    * @return document in the given version, null when the version cannot be found
+    */
+   private DataDocument readVersion(String collectionName, String documentId, int version) {
+      DataDocument data = null;
+      List<DataDocument> deltas = new ArrayList<>();
+      String filter = MongoUtils.convertBsonToJson(Filters.and(Filters.eq(SHADOW_ID_KEY, new ObjectId(documentId)), Filters.gte(SHADOW_VERSION_KEY, version)));
+
+      // the snapshot interval may have changed since the entries were written, so the walk does not rely on it
+      try (Stream<DataDocument> entries = dataStorage.searchStream(collectionName + SHADOW, filter, SHADOW_VERSION_ASCENDING, 0, 0, HISTORY_BATCH_SIZE)) {
+         Iterator<DataDocument> iterator = entries.iterator();
+         while (data == null && iterator.hasNext()) {
+            DataDocument entry = iterator.next();
+            if (getEntryVersion(entry) != version + deltas.size()) {
+               break;
+            }
+            if (isDelta(entry)) {
+               deltas.add(entry);
+            } else {
+               data = cleanSnapshot(entry);
+            }
+         }
+      }
+
+      // there is no newer snapshot, deltas are applied to the current document
+      if (data == null) {
+         data = dataStorage.readDocument(collectionName, documentId);
+         if (data == null || getDocumentVersion(data) != version + deltas.size()) {
+            return null;
+         }
+      }
+
+      for (int i = deltas.size() - 1; i >= 0; i--) {
+         data = applyDelta(data, deltas.get(i), version + i);
+      }
       data.setId(documentId);
       return data;
    }
 
    /**
     * Read all version from shadow collection and normal collection,
-    * return it as list.
+    * return it as list sorted from the oldest one, the current version
+    * is the last one.
     *
     * @param collectionName
     *       collection where document is stored
     * @param documentId
     *       id of document
-    * @return list of documents from shadow with same id
+    * @return list of all versions of the document
     * @throws CollectionNotFoundException
     *       if collection does not exists
     */
    public List<DataDocument> getDocumentVersions(String collectionName, String documentId) throws CollectionNotFoundException {
+      List<DataDocument> versions = getDocumentVersions(collectionName, documentId, 0, 0, null, false);
+      Collections.reverse(versions);
+      return versions;
+   }
+
+   /**
+    * Reads a page of versions of the document sorted from the newest one,
+    * the current version is the first one. Every version contains only
+    * the requested attributes together with its version number.
+    *
+    * @param collectionName
+    *       collection where document is stored
+    * @param documentId
+    *       id of document
+    * @param skip
+    *       number of the newest versions to skip
+    * @param limit
+    *       maximal number of versions to return, 0 means no limit
+    * @param attributes
+    *       names of attributes to return, null to return whole documents
+    * @param metadataOnly
+    *       return only version, update date and the user who made the update
+    * @return page of versions of the document
+    * @throws CollectionNotFoundException
+    *       if collection does not exists
+    */
+   public List<DataDocument> getDocumentVersions(String collectionName, String documentId, int skip, int limit, List<String> attributes, boolean metadataOnly) throws CollectionNotFoundException {
       if (!dataStorage.hasCollection(collectionName)) {
          throw new CollectionNotFoundException(ErrorMessageBuilder.collectionNotFoundString(collectionName));
       }
-      List<DataDocument> dataDocuments;
-      dataDocuments = dataStorage.search(collectionName + SHADOW,
-            MongoUtils.convertBsonToJson(Filters.eq("_id._id", new ObjectId(documentId)))
-            , null, 0, 100);
-      DataDocument main = dataStorage.readDocument(collectionName, documentId);
-      dataDocuments.add(main);
-      return dataDocuments;
+      List<String> projection = metadataOnly ? VERSION_METADATA_KEYS : attributes;
+      if (projection != null) {
+         projection = new ArrayList<>(projection);
+         projection.add(LumeerConst.METADATA_VERSION_KEY);
+      }
+
+      List<DataDocument> versions = new ArrayList<>();
+      DataDocument next = null;
+      if (skip == 0) {
+         next = projection != null ? dataStorage.readDocumentIncludeAttrs(collectionName, documentId, projection) : dataStorage.readDocument(collectionName, documentId);
+         if (next != null) {
+            versions.add(project(next, documentId, projection));
+         }
+         if (limit == 1) {
+            return versions;
+         }
+      }
+
+      int shadowSkip = Math.max(0, skip - 1);
+      int shadowLimit = limit > 0 && skip == 0 ? limit - 1 : limit;
+      List<DataDocument> entries = dataStorage.search(collectionName + SHADOW,
+            MongoUtils.convertBsonToJson(Filters.eq(SHADOW_ID_KEY, new ObjectId(documentId))), SHADOW_VERSION_DESCENDING, getEntryProjection(projection), shadowSkip, shadowLimit);
+
+      for (DataDocument entry : entries) {
+         int version = getEntryVersion(entry);
+         DataDocument data;
+         if (!isDelta(entry)) {
+            data = cleanSnapshot(entry);
+         } else {
+            if (next == null || getDocumentVersion(next) != version + 1) {
+               // the page starts with a delta or there is a gap in history, the following version must be reconstructed
+               next = readVersion(collectionName, documentId, version + 1);
+            }
+            data = next != null ? applyDelta(next, entry, version) : null;
+         }
+         if (data != null) {
+            versions.add(project(data, documentId, projection));
+         }
+         next = data;
+      }
+      return versions;
+   }
+
+   // shadow entries contain attributes of full snapshots and the same attributes in deltas
+   private List<String> getEntryProjection(List<String> projection) {
+      if (projection == null) {
+         return null;
+      }
+      List<String> entryProjection = new ArrayList<>(projection);
+      projection.forEach(attribute -> entryProjection.add(LumeerConst.Version.HISTORY_SET_KEY + "." + attribute));
+      entryProjection.add(METADATA_ID_KEY);
+      entryProjection.add(LumeerConst.Version.HISTORY_DELTA_KEY);
+      entryProjection.add(LumeerConst.Version.HISTORY_UNSET_KEY);
+      return entryProjection;
+   }
+
+   // keeps only the requested attributes of the version
+   private DataDocument project(DataDocument document, String documentId, List<String> projection) {
+      DataDocument result = new DataDocument();
+      result.setId(documentId);
+      document.forEach((attribute, value) -> {
+         if (!METADATA_ID_KEY.equals(attribute) && (projection == null || projection.contains(attribute))) {
+            result.put(attribute, value);
+         }
+      });
+      return result;
    }
 
    /**
@@ -342,4 +973,25 @@ public class VersionFacade implements Serializable {
             .append("\"}");
       dataStorage.run(sb.toString());
    }
+
+   /**
+    * Configuration of document history stored in shadow collections.
+    */
+   private static class HistorySettings {
+
+      private final boolean delta;
+
+      private final int snapshotInterval;
+
+      private final int maxCount;
+
+      private final int maxAge;
+
+      private HistorySettings(final boolean delta, final int snapshotInterval, final int maxCount, final int maxAge) {
+         this.delta = delta;
+         this.snapshotInterval = Math.max(1, snapshotInterval);
+         this.maxCount = maxCount;
+         this.maxAge = maxAge;
+      }
+   }
 }
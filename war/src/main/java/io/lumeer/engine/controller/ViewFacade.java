@@ -55,6 +55,9 @@ public class ViewFacade implements Serializable {
    @Inject
    private SecurityFacade securityFacade;
 
+   @Inject
+   private IndexAdvisorFacade indexAdvisorFacade;
+
    /**
     * Creates initial metadata for the view
     *
@@ -100,6 +103,7 @@ public class ViewFacade implements Serializable {
       securityFacade.setRightsExecute(metadataDocument, createUser);
 
       dataStorage.createDocument(LumeerConst.View.VIEW_METADATA_COLLECTION_NAME, metadataDocument);
+      indexAdvisorFacade.recordViewUsage(configuration);
 
       return viewId;
    }
@@ -213,6 +217,7 @@ public class ViewFacade implements Serializable {
    public void setViewConfiguration(int viewId, DataDocument configuration) throws ViewMetadataNotFoundException, UnauthorizedAccessException {
       DataDocument viewDocument = getViewMetadataWithoutAccessCheck(viewId);
       setViewMetadataValueWithoutChecks(viewDocument, LumeerConst.View.VIEW_CONFIGURATION_KEY, configuration);
+      indexAdvisorFacade.recordViewUsage(configuration);
    }
 
    /**
@@ -250,6 +255,9 @@ public class ViewFacade implements Serializable {
    public void setViewConfigurationAttribute(int viewId, String attributeName, Object attributeValue) throws ViewMetadataNotFoundException, UnauthorizedAccessException {
       DataDocument viewDocument = getViewMetadataWithoutAccessCheck(viewId);
       setViewMetadataValueWithoutChecks(viewDocument, LumeerConst.View.VIEW_CONFIGURATION_KEY + "." + attributeName, attributeValue);
+      if (LumeerConst.View.VIEW_CONFIGURATION_QUERY_KEY.equals(attributeName)) {
+         indexAdvisorFacade.recordViewUsage(new DataDocument(attributeName, attributeValue));
+      }
    }
 
    /**
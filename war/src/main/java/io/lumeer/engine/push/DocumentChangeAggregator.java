@@ -0,0 +1,157 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.push;
+
+import io.lumeer.engine.api.LumeerConst;
+import io.lumeer.engine.api.event.DocumentEvent;
+import io.lumeer.engine.api.event.DropDocument;
+import io.lumeer.engine.controller.configuration.DefaultConfigurationProducer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.Reception;
+import javax.inject.Inject;
+
+/**
+ * Collects document changes observed by WebSocket clients and publishes them in batches. Changes in a collection
+ * are collected for a short window starting with the first change, repeated changes of a document are coalesced.
+ * The document writes only record the change, the batch is published from the managed scheduled executor service.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+@ApplicationScoped
+public class DocumentChangeAggregator {
+
+   private static final int DEFAULT_WINDOW = 50;
+
+   private static final int DEFAULT_THRESHOLD = 100;
+
+   @Inject
+   private PushService pushService;
+
+   @Inject
+   private ManagedScheduledExecutorService scheduledExecutorService;
+
+   @Inject
+   private DefaultConfigurationProducer defaultConfigurationProducer;
+
+   @Inject
+   private Logger log;
+
+   /**
+    * Changes collected in the currently open windows by collection names.
+    */
+   private final Map<String, DocumentChanges> pending = new ConcurrentHashMap<>();
+
+   private volatile int window = -1;
+
+   private volatile int threshold = -1;
+
+   /**
+    * Records the document change when there is a client observing the document or its collection.
+    *
+    * @param event
+    *       The document event with information about change.
+    */
+   public void onDocumentEvent(@Observes(notifyObserver = Reception.ALWAYS) final DocumentEvent event) {
+      final Object id = event.getDocument().get(LumeerConst.Document.ID);
+      final String documentId = id != null ? id.toString() : null;
+      final String collectionName = event.getCollectionName();
+
+      if (documentId == null || documentId.isEmpty() || !pushService.isObserved(collectionName, documentId)) {
+         return;
+      }
+
+      final boolean drop = event instanceof DropDocument;
+      final List<String> attributes = drop ? null : event.getDocument().keySet().stream()
+                                                         .filter(attribute -> !attribute.startsWith("_"))
+                                                         .collect(Collectors.toList());
+
+      while (true) {
+         final DocumentChanges changes = pending.computeIfAbsent(collectionName, this::openWindow);
+         if (drop ? changes.drop(documentId) : changes.update(documentId, attributes)) {
+            return;
+         }
+         // the window has just been closed, a new one is opened
+         pending.remove(collectionName, changes);
+      }
+   }
+
+   /**
+    * Gets the number of changed documents above which clients are only told to read the whole collection again.
+    *
+    * @return The number of changed documents.
+    */
+   public int getThreshold() {
+      if (threshold < 0) {
+         threshold = getConfiguration(LumeerConst.PUSH_NOTIFICATION_THRESHOLD_PROPERTY, DEFAULT_THRESHOLD);
+      }
+
+      return threshold;
+   }
+
+   // starts a new window of changes in the collection and schedules its publishing
+   private DocumentChanges openWindow(final String collectionName) {
+      final DocumentChanges changes = new DocumentChanges(collectionName);
+
+      if (window < 0) {
+         window = getConfiguration(LumeerConst.PUSH_NOTIFICATION_WINDOW_PROPERTY, DEFAULT_WINDOW);
+      }
+
+      try {
+         scheduledExecutorService.schedule(() -> publish(changes), window, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+         log.log(Level.SEVERE, "Unable to notify WebSocket clients: ", e);
+      }
+
+      return changes;
+   }
+
+   // closes the window and sends the collected changes
+   private void publish(final DocumentChanges changes) {
+      pending.remove(changes.getCollectionName(), changes);
+      changes.close();
+
+      try {
+         pushService.publishDocumentChanges(changes, getThreshold());
+      } catch (RuntimeException e) {
+         log.log(Level.SEVERE, "Unable to notify WebSocket clients: ", e);
+      }
+   }
+
+   // reads a non-negative integer from the default configuration
+   private int getConfiguration(final String key, final int defaultValue) {
+      try {
+         final String value = defaultConfigurationProducer.get(key);
+         return value != null ? Math.max(0, Integer.parseInt(value.trim())) : defaultValue;
+      } catch (NumberFormatException e) {
+         return defaultValue;
+      }
+   }
+}
@@ -0,0 +1,129 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.push;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Changes of documents in a single collection collected during one notification window.
+ * Repeated changes of a document are merged, only the names of changed attributes are kept.
+ * Closed changes are passed to the other cluster nodes as they are.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+final class DocumentChanges implements Serializable {
+
+   private static final long serialVersionUID = -2817736018462941557L;
+
+   private final String collectionName;
+
+   private final Map<String, Set<String>> updatedDocuments = new LinkedHashMap<>();
+
+   private final Set<String> droppedDocuments = new LinkedHashSet<>();
+
+   private boolean closed = false;
+
+   DocumentChanges(final String collectionName) {
+      this.collectionName = collectionName;
+   }
+
+   /**
+    * Records a changed document.
+    *
+    * @param documentId
+    *       Id of the changed document.
+    * @param attributes
+    *       Names of the changed attributes.
+    * @return False when the window was already closed and the change has to be recorded elsewhere.
+    */
+   synchronized boolean update(final String documentId, final Collection<String> attributes) {
+      if (closed) {
+         return false;
+      }
+
+      if (!droppedDocuments.contains(documentId)) {
+         updatedDocuments.computeIfAbsent(documentId, k -> new LinkedHashSet<>()).addAll(attributes);
+      }
+
+      return true;
+   }
+
+   /**
+    * Records a dropped document.
+    *
+    * @param documentId
+    *       Id of the dropped document.
+    * @return False when the window was already closed and the change has to be recorded elsewhere.
+    */
+   synchronized boolean drop(final String documentId) {
+      if (closed) {
+         return false;
+      }
+
+      updatedDocuments.remove(documentId);
+      droppedDocuments.add(documentId);
+
+      return true;
+   }
+
+   /**
+    * Closes the window, no more changes are recorded.
+    */
+   synchronized void close() {
+      closed = true;
+   }
+
+   String getCollectionName() {
+      return collectionName;
+   }
+
+   /**
+    * Gets updated documents with the names of their changed attributes. Must be called after {@link #close()}.
+    *
+    * @return Changed attribute names by document ids.
+    */
+   synchronized Map<String, Set<String>> getUpdatedDocuments() {
+      return Collections.unmodifiableMap(updatedDocuments);
+   }
+
+   /**
+    * Gets ids of dropped documents. Must be called after {@link #close()}.
+    *
+    * @return Ids of dropped documents.
+    */
+   synchronized Set<String> getDroppedDocuments() {
+      return Collections.unmodifiableSet(droppedDocuments);
+   }
+
+   /**
+    * Gets the number of changed documents.
+    *
+    * @return The number of updated and dropped documents.
+    */
+   synchronized int size() {
+      return updatedDocuments.size() + droppedDocuments.size();
+   }
+}
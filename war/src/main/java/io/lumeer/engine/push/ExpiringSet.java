@@ -0,0 +1,141 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.push;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Thread-safe set of elements that expire after the same time to live. Elements are kept in a queue ordered
+ * by their expiration, so adding, looking up and removing an element takes a constant time and expiring
+ * only visits the expired elements.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+final class ExpiringSet<T> {
+
+   private final long timeToLive;
+
+   /**
+    * Expiration times in nanoseconds by elements.
+    */
+   private final Map<T, Long> expirations = new ConcurrentHashMap<>();
+
+   /**
+    * Elements in the order of their expiration, removed elements stay here until they expire.
+    */
+   private final Queue<Entry<T>> queue = new ConcurrentLinkedQueue<>();
+
+   /**
+    * Creates an empty set.
+    *
+    * @param timeToLive
+    *       Time in nanoseconds after which an added element expires.
+    */
+   ExpiringSet(final long timeToLive) {
+      this.timeToLive = timeToLive;
+   }
+
+   /**
+    * Adds the element, an element already present gets a new expiration.
+    *
+    * @param element
+    *       The element to add.
+    */
+   void add(final T element) {
+      final long expiration = System.nanoTime() + timeToLive;
+
+      expirations.put(element, expiration);
+      queue.add(new Entry<>(element, expiration));
+   }
+
+   /**
+    * Checks whether the element is present and not expired.
+    *
+    * @param element
+    *       The element to look up.
+    * @return True if and only if the element is present.
+    */
+   boolean contains(final T element) {
+      final Long expiration = expirations.get(element);
+
+      return expiration != null && expiration - System.nanoTime() > 0;
+   }
+
+   /**
+    * Removes the element.
+    *
+    * @param element
+    *       The element to remove.
+    * @return True if and only if the element was present and not expired.
+    */
+   boolean remove(final T element) {
+      final Long expiration = expirations.remove(element);
+
+      return expiration != null && expiration - System.nanoTime() > 0;
+   }
+
+   /**
+    * Gets the number of elements including the expired ones that were not removed yet.
+    *
+    * @return The number of elements.
+    */
+   int size() {
+      return expirations.size();
+   }
+
+   /**
+    * Removes all expired elements.
+    *
+    * @param onExpired
+    *       Called for every removed element.
+    */
+   void expire(final Consumer<T> onExpired) {
+      final long now = System.nanoTime();
+      Entry<T> entry;
+
+      while ((entry = queue.peek()) != null && entry.expiration - now <= 0) {
+         queue.poll();
+
+         // the element might have been removed or added again in the meantime
+         if (expirations.remove(entry.element, entry.expiration)) {
+            onExpired.accept(entry.element);
+         }
+      }
+   }
+
+   /**
+    * Element together with its expiration time.
+    */
+   private static class Entry<T> {
+
+      private final T element;
+
+      private final Long expiration;
+
+      private Entry(final T element, final long expiration) {
+         this.element = element;
+         this.expiration = expiration;
+      }
+   }
+}
@@ -0,0 +1,216 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.push;
+
+import io.lumeer.engine.api.LumeerConst;
+import io.lumeer.engine.controller.configuration.DefaultConfigurationProducer;
+
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.enterprise.inject.Typed;
+import javax.inject.Inject;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSConsumer;
+import javax.jms.JMSContext;
+import javax.jms.JMSRuntimeException;
+import javax.jms.Topic;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+
+/**
+ * Bus passing notifications between cluster nodes through a JMS topic. Every node publishes its notifications
+ * with its own id and receives notifications of the other nodes on a dedicated managed thread. Document changes
+ * are published once per notification window and collection, so the nodes exchange batches, not single events.
+ *
+ * The connection factory and the topic are looked up by the JNDI names from the configuration, so the deployment
+ * does not depend on the messaging subsystem unless this bus is used. The configured connection factory is expected
+ * to be pooled (e.g. {@code java:jboss/DefaultJMSConnectionFactory}), notifications are published with a context taken from the pool.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+@ApplicationScoped
+@Typed(JmsPushBus.class)
+public class JmsPushBus implements PushBus {
+
+   /**
+    * Value of {@link LumeerConst#PUSH_BUS_PROPERTY} selecting this bus.
+    */
+   public static final String NAME = "jms";
+
+   /**
+    * Message property with the id of the publishing node.
+    */
+   public static final String NODE_PROPERTY = "lumeerNode";
+
+   private static final long RECEIVE_TIMEOUT = 1000L;
+
+   private static final long RECONNECT_DELAY = 5000L;
+
+   private final String nodeId = UUID.randomUUID().toString();
+
+   @Resource
+   private ManagedThreadFactory threadFactory;
+
+   @Inject
+   private PushService pushService;
+
+   @Inject
+   private DefaultConfigurationProducer defaultConfigurationProducer;
+
+   @Inject
+   private Logger log;
+
+   private ConnectionFactory connectionFactory;
+
+   private Topic topic;
+
+   private volatile boolean running = false;
+
+   private Thread receiver;
+
+   /**
+    * Starts receiving notifications of the other nodes when this bus is configured.
+    *
+    * @param init
+    *       Application scope initialization event.
+    */
+   public void start(@Observes @Initialized(ApplicationScoped.class) final Object init) {
+      if (NAME.equals(defaultConfigurationProducer.get(LumeerConst.PUSH_BUS_PROPERTY))) {
+         startReceiver();
+      }
+   }
+
+   /**
+    * Starts receiving notifications of the other nodes unless they are being received already.
+    */
+   public synchronized void startReceiver() {
+      if (receiver != null) {
+         return;
+      }
+
+      running = true;
+      receiver = threadFactory.newThread(this::receive);
+      receiver.setDaemon(true);
+      receiver.start();
+   }
+
+   /**
+    * Stops receiving notifications of the other nodes.
+    */
+   @PreDestroy
+   public synchronized void stop() {
+      running = false;
+      if (receiver != null) {
+         receiver.interrupt();
+         receiver = null;
+      }
+   }
+
+   @Override
+   public void publish(final PushEnvelope envelope) {
+      try (JMSContext context = createContext()) {
+         context.createProducer().setProperty(NODE_PROPERTY, nodeId).send(getTopic(), envelope);
+      } catch (JMSRuntimeException | NamingException e) {
+         log.log(Level.SEVERE, "Unable to publish push notification to other nodes: ", e);
+      }
+   }
+
+   @Override
+   public boolean isLocal() {
+      return false;
+   }
+
+   /**
+    * Gets the id this node publishes its notifications with.
+    *
+    * @return The node id.
+    */
+   public String getNodeId() {
+      return nodeId;
+   }
+
+   // delivers notifications of the other nodes until stopped, reconnects after a failure
+   private void receive() {
+      while (running) {
+         try (JMSContext context = createContext();
+              JMSConsumer consumer = context.createConsumer(getTopic(), NODE_PROPERTY + " <> '" + nodeId + "'")) {
+            while (running) {
+               final PushEnvelope envelope = consumer.receiveBody(PushEnvelope.class, RECEIVE_TIMEOUT);
+               if (envelope != null) {
+                  deliver(envelope);
+               }
+            }
+         } catch (JMSRuntimeException | NamingException e) {
+            if (running) {
+               log.log(Level.SEVERE, "Unable to receive push notifications from other nodes: ", e);
+               try {
+                  Thread.sleep(RECONNECT_DELAY);
+               } catch (InterruptedException ie) {
+                  Thread.currentThread().interrupt();
+                  return;
+               }
+            }
+         }
+      }
+   }
+
+   // passes the notification to the local clients, a failure must not stop the receiver
+   private void deliver(final PushEnvelope envelope) {
+      try {
+         pushService.deliver(envelope);
+      } catch (RuntimeException e) {
+         log.log(Level.SEVERE, "Unable to deliver push notification from other node: ", e);
+      }
+   }
+
+   // creates a context with the configured credentials, if any
+   private JMSContext createContext() throws NamingException {
+      final String user = defaultConfigurationProducer.get(LumeerConst.PUSH_BUS_USER_PROPERTY);
+
+      if (user == null || user.isEmpty()) {
+         return getConnectionFactory().createContext();
+      }
+
+      return getConnectionFactory().createContext(user, defaultConfigurationProducer.get(LumeerConst.PUSH_BUS_PASSWORD_PROPERTY));
+   }
+
+   private synchronized ConnectionFactory getConnectionFactory() throws NamingException {
+      if (connectionFactory == null) {
+         connectionFactory = InitialContext.doLookup(defaultConfigurationProducer.get(LumeerConst.PUSH_BUS_CONNECTION_FACTORY_PROPERTY));
+      }
+
+      return connectionFactory;
+   }
+
+   private synchronized Topic getTopic() throws NamingException {
+      if (topic == null) {
+         topic = InitialContext.doLookup(defaultConfigurationProducer.get(LumeerConst.PUSH_BUS_TOPIC_PROPERTY));
+      }
+
+      return topic;
+   }
+}
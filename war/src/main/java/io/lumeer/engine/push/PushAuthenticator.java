@@ -19,8 +19,6 @@
  */
 package io.lumeer.engine.push;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.UUID;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
@@ -41,6 +39,9 @@ import javax.ws.rs.core.Context;
 @ApplicationScoped
 public class PushAuthenticator {
 
+   /**
+    * Time in nanoseconds to connect with a token and authenticate the WebSocket session.
+    */
    public static final long AUTH_TIMEOUT = 10L * 1000L * 1000L * 1000L;
 
    @Inject
@@ -50,31 +51,8 @@ public class PushAuthenticator {
    @Path("/")
    public String authenticate(@Context HttpServletRequest httpServletRequest) {
       final String token = httpServletRequest.getSession().getId() + ":" + UUID.randomUUID();
-      registerToken(token);
+      pushService.registerToken(token);
 
       return token;
    }
-
-   /**
-    * Registers a token for for later client connection. Also cleans up the cache of previously registered
-    * tokens.
-    *
-    * @param token
-    *       The token to register.
-    */
-   private void registerToken(final String token) {
-      // first remove all old tokens
-      final List<String> tokensToRemove = new ArrayList<>();
-
-      pushService.getTokens().forEach((k, v) -> {
-         if (v < System.nanoTime() - AUTH_TIMEOUT) {
-            tokensToRemove.add(k);
-         }
-      });
-
-      tokensToRemove.forEach(pushService.getTokens()::remove);
-
-      // register a new one
-      pushService.getTokens().put(token, System.nanoTime());
-   }
 }
@@ -0,0 +1,47 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.push;
+
+/**
+ * Passes push notifications to the other nodes of the cluster. {@link PushService} delivers every notification
+ * to the clients connected to the local node first and then publishes it on the bus. Implementations pass
+ * notifications received from the other nodes to {@link PushService#deliver(PushEnvelope)}.
+ *
+ * The implementation is selected by the {@link io.lumeer.engine.api.LumeerConst#PUSH_BUS_PROPERTY} configuration.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public interface PushBus {
+
+   /**
+    * Publishes the notification to the other nodes.
+    *
+    * @param envelope
+    *       The notification to publish.
+    */
+   void publish(PushEnvelope envelope);
+
+   /**
+    * Checks whether all clients are connected to this node.
+    *
+    * @return True if and only if there are no other nodes.
+    */
+   boolean isLocal();
+}
@@ -0,0 +1,109 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.push;
+
+import java.io.Serializable;
+
+/**
+ * Push notification passed between cluster nodes by {@link PushBus}. Every node delivers it to its own clients.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public final class PushEnvelope implements Serializable {
+
+   private static final long serialVersionUID = 4387150946258703481L;
+
+   /**
+    * Recipients of the notification.
+    */
+   public enum Type {
+      /**
+       * Clients connected to a channel.
+       */
+      CHANNEL,
+
+      /**
+       * A single client session.
+       */
+      SESSION,
+
+      /**
+       * Clients observing changed documents or their collection.
+       */
+      DOCUMENT_CHANGES
+   }
+
+   private final Type type;
+
+   private final String channel;
+
+   private final String sessionId;
+
+   private final String message;
+
+   private final DocumentChanges documentChanges;
+
+   private final int threshold;
+
+   private PushEnvelope(final Type type, final String channel, final String sessionId, final String message, final DocumentChanges documentChanges, final int threshold) {
+      this.type = type;
+      this.channel = channel;
+      this.sessionId = sessionId;
+      this.message = message;
+      this.documentChanges = documentChanges;
+      this.threshold = threshold;
+   }
+
+   static PushEnvelope channelMessage(final String channel, final String message) {
+      return new PushEnvelope(Type.CHANNEL, channel, null, message, null, 0);
+   }
+
+   static PushEnvelope sessionMessage(final String sessionId, final String channel, final String message) {
+      return new PushEnvelope(Type.SESSION, channel, sessionId, message, null, 0);
+   }
+
+   static PushEnvelope documentChanges(final DocumentChanges documentChanges, final int threshold) {
+      return new PushEnvelope(Type.DOCUMENT_CHANGES, null, null, null, documentChanges, threshold);
+   }
+
+   public Type getType() {
+      return type;
+   }
+
+   public String getChannel() {
+      return channel;
+   }
+
+   public String getSessionId() {
+      return sessionId;
+   }
+
+   public String getMessage() {
+      return message;
+   }
+
+   DocumentChanges getDocumentChanges() {
+      return documentChanges;
+   }
+
+   public int getThreshold() {
+      return threshold;
+   }
+}
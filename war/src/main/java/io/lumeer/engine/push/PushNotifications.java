@@ -50,9 +50,7 @@ public class PushNotifications {
          if (message.startsWith("auth ")) {
             final String token = message.substring(5);
 
-            if (pushService.getTokens().containsKey(token)) {
-               session.getUserProperties().put(PushService.LUMEER_AUTH_HEADER, token);
-
+            if (pushService.authenticate(session, token)) {
                return "authenticated";
             }
          }
@@ -83,21 +81,12 @@ public class PushNotifications {
 
    @OnOpen
    public void open(final Session session) {
-      pushService.getSessions().add(session);
+      pushService.addSession(session);
    }
 
    @OnClose
    public void close(final Session session, final CloseReason c) {
-      // remove token from authenticated tokens
-      final String token = (String) session.getUserProperties().get(PushService.LUMEER_AUTH_HEADER);
-      if (token != null && !token.isEmpty()) {
-         pushService.getTokens().remove(token);
-      }
-
-      // un-register all observations
-      pushService.getObservedObjects().forEach((k, v) -> v.remove(session));
-
-      // delete the session
-      pushService.getSessions().remove(session);
+      // delete the session together with all its observations
+      pushService.removeSession(session);
    }
 }
\ No newline at end of file
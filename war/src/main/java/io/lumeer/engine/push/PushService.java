@@ -19,28 +19,43 @@
  */
 package io.lumeer.engine.push;
 
-import io.lumeer.engine.api.event.DocumentEvent;
 import io.lumeer.engine.api.push.PushMessage;
 import io.lumeer.engine.controller.UserFacade;
 
-import io.netty.util.internal.ConcurrentSet;
+import org.bson.Document;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
 import javax.enterprise.context.ApplicationScoped;
-import javax.enterprise.event.Observes;
-import javax.enterprise.event.Reception;
 import javax.inject.Inject;
-import javax.websocket.EncodeException;
+import javax.websocket.CloseReason;
 import javax.websocket.Session;
 
 /**
  * Sends message to clients using web sockets.
  *
+ * Clients are indexed by the channel they connected to. Every client has its own bounded queue of outgoing
+ * messages sent asynchronously, document changes are collected by {@link DocumentChangeAggregator} and published
+ * in batches off the request thread, so that neither the publishing request nor the document write ever waits
+ * on WebSocket I/O. Every notification is delivered to the local clients and then published on {@link PushBus}
+ * for the clients connected to the other cluster nodes.
+ *
  * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
  */
 @ApplicationScoped
@@ -51,6 +66,21 @@ public class PushService {
     */
    public static final String LUMEER_AUTH_HEADER = "lumeer.auth";
 
+   /**
+    * Path parameter of the WebSocket endpoint with the channel name.
+    */
+   public static final String CHANNEL_PARAMETER = "channel";
+
+   /**
+    * Maximum number of messages waiting to be sent to a single client.
+    */
+   private static final int MAX_QUEUED_MESSAGES = 256;
+
+   /**
+    * Period of removing expired tokens and unauthenticated sessions in milliseconds.
+    */
+   private static final long SWEEP_PERIOD = 1000L;
+
    @Inject
    private PushNotifications pushNotifications;
 
@@ -60,15 +90,38 @@ public class PushService {
    @Inject
    private UserFacade userFacade;
 
+   @Inject
+   private ManagedScheduledExecutorService scheduledExecutorService;
+
+   @Inject
+   private PushBus pushBus;
+
+   private ScheduledFuture<?> sweeper;
+
    /**
-    * Currently opened sessions with clients.
+    * Outgoing message queues of currently opened sessions with clients.
     */
-   private Set<Session> sessions = new ConcurrentSet<>();
+   private Map<Session, PushSessionQueue> sessions = new ConcurrentHashMap<>();
 
    /**
-    * Authentication tokens of clients authenticated via HTTP.
+    * Currently opened sessions by their ids.
     */
-   private Map<String, Long> tokens = new ConcurrentHashMap<>();
+   private Map<String, Session> sessionIds = new ConcurrentHashMap<>();
+
+   /**
+    * Currently opened sessions by the channel they are connected to.
+    */
+   private Map<String, Set<Session>> channels = new ConcurrentHashMap<>();
+
+   /**
+    * Authentication tokens of clients authenticated via HTTP, valid for {@link PushAuthenticator#AUTH_TIMEOUT}.
+    */
+   private ExpiringSet<String> tokens = new ExpiringSet<>(PushAuthenticator.AUTH_TIMEOUT);
+
+   /**
+    * Opened sessions that have not authenticated yet, closed after {@link PushAuthenticator#AUTH_TIMEOUT}.
+    */
+   private ExpiringSet<Session> unauthenticatedSessions = new ExpiringSet<>(PushAuthenticator.AUTH_TIMEOUT);
 
    /**
     * Clients registered to observe given objects.
@@ -76,60 +129,115 @@ public class PushService {
    private Map<String, Set<Session>> observedObjects = new ConcurrentHashMap<>();
 
    public Set<Session> getSessions() {
-      return sessions;
-   }
-
-   public Map<String, Long> getTokens() {
-      return tokens;
+      return Collections.unmodifiableSet(sessions.keySet());
    }
 
    public Map<String, Set<Session>> getObservedObjects() {
       return observedObjects;
    }
 
+   @PostConstruct
+   public void startSweeper() {
+      sweeper = scheduledExecutorService.scheduleWithFixedDelay(this::sweep, SWEEP_PERIOD, SWEEP_PERIOD, TimeUnit.MILLISECONDS);
+   }
+
+   @PreDestroy
+   public void stopSweeper() {
+      if (sweeper != null) {
+         sweeper.cancel(false);
+      }
+   }
+
+   /**
+    * Registers a token a client can authenticate its session with.
+    *
+    * @param token
+    *       The token to register.
+    */
+   public void registerToken(final String token) {
+      tokens.add(token);
+   }
+
+   /**
+    * Authenticates the session with a registered token. Every token can be used only once.
+    *
+    * @param session
+    *       The session to authenticate.
+    * @param token
+    *       The token obtained via HTTP.
+    * @return True if and only if the token was valid.
+    */
+   public boolean authenticate(final Session session, final String token) {
+      if (!tokens.remove(token)) {
+         return false;
+      }
+
+      session.getUserProperties().put(LUMEER_AUTH_HEADER, token);
+      unauthenticatedSessions.remove(session);
+
+      return true;
+   }
+
+   /**
+    * Registers a newly opened session. The session is closed unless it authenticates in time.
+    *
+    * @param session
+    *       The opened session.
+    */
+   public void addSession(final Session session) {
+      unauthenticatedSessions.add(session);
+      sessions.put(session, new PushSessionQueue(session, MAX_QUEUED_MESSAGES));
+      sessionIds.put(session.getId(), session);
+      channels.computeIfAbsent(getChannel(session), k -> ConcurrentHashMap.newKeySet()).add(session);
+   }
+
+   /**
+    * Unregisters a closed session together with all its observations.
+    *
+    * @param session
+    *       The closed session.
+    */
+   public void removeSession(final Session session) {
+      unauthenticatedSessions.remove(session);
+      observedObjects.forEach((k, v) -> v.remove(session));
+
+      final Set<Session> channelSessions = channels.get(getChannel(session));
+      if (channelSessions != null) {
+         channelSessions.remove(session);
+      }
+
+      sessionIds.remove(session.getId(), session);
+      final PushSessionQueue queue = sessions.remove(session);
+      if (queue != null && queue.getDropped() > 0) {
+         log.fine(String.format("Dropped %d push notifications for a slow client.", queue.getDropped()));
+      }
+   }
+
    /**
     * Sends push-notification message to WebSocket clients listening on the given channel.
     *
     * @param channel
-    *       Channel suffix to send to or empty to send to all channels.
+    *       Channel to send to or empty to send to all channels.
     * @param message
     *       The message to be sent.
     */
    public void publishMessage(final String channel, final String message) {
-      sessions.forEach(session -> {
-         try {
-            log.info(session.getRequestURI().toString());
-            if (channel == null || channel.isEmpty() || session.getRequestURI().toString().endsWith(channel)) {
-               if (session.getUserProperties().containsKey(LUMEER_AUTH_HEADER)) {
-                  session.getBasicRemote().sendText(message);
-               }
-            }
-         } catch (IOException e) {
-            log.log(Level.FINE, "Unable to send push notification: ", e);
-         }
-      });
+      final PushEnvelope envelope = PushEnvelope.channelMessage(channel, message);
+
+      deliver(envelope);
+      pushBus.publish(envelope);
    }
 
    /**
     * Sends push-notification message to WebSocket clients listening on the given channel.
     *
     * @param channel
-    *       Channel suffix to send to or empty to send to all channels.
+    *       Channel to send to or empty to send to all channels.
     * @param message
-    *       The message to be sent.
+    *       The message to be sent as its string representation.
     */
    public void publishMessage(final String channel, final Object message) {
-      sessions.forEach(session -> {
-         try {
-            if (channel == null || channel.isEmpty() || session.getRequestURI().toString().endsWith(channel)) {
-               if (session.getUserProperties().containsKey(LUMEER_AUTH_HEADER)) {
-                  session.getBasicRemote().sendObject(message);
-               }
-            }
-         } catch (IOException | EncodeException e) {
-            log.log(Level.FINE, "Unable to send push notification: ", e);
-         }
-      });
+      publishMessage(channel, String.valueOf(message));
    }
 
    /**
@@ -138,31 +246,29 @@ public class PushService {
     * @param clientSession
     *       Session ID of the client to send the message to.
     * @param channel
-    *       Channel suffix to send to or empty to send to all channels.
+    *       Channel to send to or empty to send to all channels.
     * @param message
     *       The message to be sent.
     */
    public void publishMessage(final String clientSession, final String channel, final PushMessage message) {
-      sessions.forEach(session -> {
-         if (session.getId() != null && session.getId().equals(clientSession)) {
-            try {
-               if (channel == null || channel.isEmpty() || session.getRequestURI().toString().endsWith(channel)) {
-                  if (session.getUserProperties().containsKey(LUMEER_AUTH_HEADER)) {
-                     session.getBasicRemote().sendText(message.toString());
-                  }
-               }
-            } catch (IOException e) {
-               log.log(Level.FINE, "Unable to send push notification: ", e);
-            }
-         }
-      });
+      if (clientSession == null) {
+         return;
+      }
+
+      final PushEnvelope envelope = PushEnvelope.sessionMessage(clientSession, channel, message.toString());
+      if (!sessionIds.containsKey(clientSession)) {
+         // the client is connected to another node
+         pushBus.publish(envelope);
+      } else {
+         deliver(envelope);
+      }
    }
 
    /**
     * Sends push-notification message to the current WebSocket client listening on the given channel.
     *
     * @param channel
-    *       Channel suffix to send to or empty to send to all channels.
+    *       Channel to send to or empty to send to all channels.
     * @param message
     *       The message to be sent.
     */
@@ -171,22 +277,158 @@ public class PushService {
    }
 
    /**
-    * Notifies all WebSocket clients observing given document.
+    * Checks whether any client observes the document or its collection.
     *
-    * @param event
-    *       The document event with information about change.
+    * @param collectionName
+    *       Internal name of the collection.
+    * @param documentId
+    *       Id of the document.
+    * @return True if and only if there is a client to notify about a change of the document.
     */
-   public void onDocumentEvent(@Observes(notifyObserver = Reception.ALWAYS) final DocumentEvent event) {
-      final String objectId = event.getDocument().get("_id").toString();
+   boolean isObserved(final String collectionName, final String documentId) {
+      return !pushBus.isLocal() || observedObjects.containsKey(documentId) || observedObjects.containsKey(collectionName);
+   }
+
+   /**
+    * Notifies WebSocket clients observing the changed documents or their collection on all nodes.
+    *
+    * @param changes
+    *       Changes of documents in a single collection.
+    * @param threshold
+    *       The maximum number of documents listed in a message.
+    */
+   void publishDocumentChanges(final DocumentChanges changes, final int threshold) {
+      final PushEnvelope envelope = PushEnvelope.documentChanges(changes, threshold);
+
+      deliver(envelope);
+      pushBus.publish(envelope);
+   }
+
+   /**
+    * Delivers the notification to the clients connected to this node.
+    *
+    * @param envelope
+    *       The notification published by this or another node.
+    */
+   public void deliver(final PushEnvelope envelope) {
+      switch (envelope.getType()) {
+         case CHANNEL:
+            getChannelSessions(envelope.getChannel()).forEach(session -> send(session, null, envelope.getMessage()));
+            break;
+         case SESSION:
+            deliverToSession(envelope.getSessionId(), envelope.getChannel(), envelope.getMessage());
+            break;
+         case DOCUMENT_CHANGES:
+            deliverDocumentChanges(envelope.getDocumentChanges(), envelope.getThreshold());
+            break;
+         default:
+            break;
+      }
+   }
+
+   // sends the message to the local client when it is connected to the channel
+   private void deliverToSession(final String sessionId, final String channel, final String message) {
+      final Session session = sessionIds.get(sessionId);
 
-      if (objectId != null && !objectId.isEmpty() && observedObjects.containsKey(objectId)) {
-         observedObjects.get(objectId).forEach(session -> {
+      if (session != null && (channel == null || channel.isEmpty() || channel.equals(getChannel(session)))) {
+         send(session, null, message);
+      }
+   }
+
+   // notifies local clients observing the changed documents or their collection, every client gets a single message
+   // with the ids of the documents it observes and the names of their changed attributes, or a message telling it
+   // to read the whole collection again when there are more changed documents than the threshold
+   private void deliverDocumentChanges(final DocumentChanges changes, final int threshold) {
+      final String collectionName = changes.getCollectionName();
+      final Map<String, Set<String>> updated = changes.getUpdatedDocuments();
+      final Set<String> dropped = changes.getDroppedDocuments();
+      final String resource = "collection:" + collectionName;
+      final Set<Session> collectionObservers = observedObjects.getOrDefault(collectionName, Collections.emptySet());
+
+      // changed documents observed by each client not observing the whole collection
+      final Map<Session, List<String>> documentObservers = new HashMap<>();
+      Stream.concat(updated.keySet().stream(), dropped.stream()).forEach(documentId -> {
+         final Set<Session> observers = observedObjects.get(documentId);
+         if (observers != null) {
+            observers.stream().filter(session -> !collectionObservers.contains(session))
+                     .forEach(session -> documentObservers.computeIfAbsent(session, k -> new ArrayList<>()).add(documentId));
+         }
+      });
+
+      if (changes.size() > threshold) {
+         final String message = new Document("type", "CollectionChanged").append("resource", resource).append("documents", changes.size()).toJson();
+         collectionObservers.forEach(session -> send(session, resource, message));
+         documentObservers.keySet().forEach(session -> send(session, resource, message));
+         return;
+      }
+
+      if (!collectionObservers.isEmpty()) {
+         final String message = documentsChangedMessage(resource, updated, dropped);
+         collectionObservers.forEach(session -> send(session, null, message));
+      }
+      documentObservers.forEach((session, documentIds) -> {
+         final Map<String, Set<String>> observedUpdated = new LinkedHashMap<>();
+         final List<String> observedDropped = new ArrayList<>();
+         documentIds.forEach(documentId -> {
+            if (updated.containsKey(documentId)) {
+               observedUpdated.put(documentId, updated.get(documentId));
+            } else {
+               observedDropped.add(documentId);
+            }
+         });
+         send(session, null, documentsChangedMessage(resource, observedUpdated, observedDropped));
+      });
+   }
+
+   // removes expired tokens and closes sessions that did not authenticate in time
+   private void sweep() {
+      try {
+         tokens.expire(token -> { });
+         unauthenticatedSessions.expire(session -> {
             try {
-               session.getBasicRemote().sendObject(event);
-            } catch (IOException | EncodeException e) {
-               log.log(Level.SEVERE, "Unable to notify WebSocket client: ", e);
+               session.close(new CloseReason(CloseReason.CloseCodes.VIOLATED_POLICY, "Not authenticated."));
+            } catch (IOException e) {
+               log.log(Level.FINE, "Unable to close unauthenticated WebSocket session: ", e);
             }
          });
+      } catch (RuntimeException e) {
+         // an exception would stop the periodic execution
+         log.log(Level.WARNING, "Unable to remove expired push tokens: ", e);
+      }
+   }
+
+   // queues the message for an authenticated client
+   private void send(final Session session, final String coalescingKey, final String message) {
+      final PushSessionQueue queue = sessions.get(session);
+
+      if (queue != null && session.getUserProperties().containsKey(LUMEER_AUTH_HEADER)) {
+         queue.offer(coalescingKey, message);
+      }
+   }
+
+   // gets sessions connected to the channel, all sessions for an empty channel
+   private Collection<Session> getChannelSessions(final String channel) {
+      if (channel == null || channel.isEmpty()) {
+         return sessions.keySet();
       }
+
+      final Set<Session> channelSessions = channels.get(channel);
+      return channelSessions != null ? channelSessions : Collections.emptySet();
+   }
+
+   // creates a message listing updated documents with their changed attributes and dropped documents
+   private static String documentsChangedMessage(final String resource, final Map<String, Set<String>> updated, final Collection<String> dropped) {
+      final List<Document> updatedDocuments = new ArrayList<>(updated.size());
+      updated.forEach((documentId, attributes) -> updatedDocuments.add(new Document("_id", documentId).append("attributes", new ArrayList<>(attributes))));
+
+      return new Document("type", "DocumentsChanged").append("resource", resource)
+                                                      .append("updated", updatedDocuments)
+                                                      .append("dropped", new ArrayList<>(dropped)).toJson();
+   }
+
+   // gets the channel the session is connected to
+   private static String getChannel(final Session session) {
+      final String channel = session.getPathParameters().get(CHANNEL_PARAMETER);
+      return channel != null ? channel : "";
    }
 }
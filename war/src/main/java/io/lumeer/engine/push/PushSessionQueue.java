@@ -0,0 +1,144 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.push;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+/**
+ * Bounded queue of messages waiting to be sent to a single WebSocket client. Messages are sent asynchronously
+ * one after another, so a slow client never blocks the thread publishing the message.
+ *
+ * A message with a coalescing key replaces a queued message with the same key in place, e.g. only the latest
+ * notification about a document is sent. When the queue is full, the oldest message is dropped.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+final class PushSessionQueue implements SendHandler {
+
+   private static final Logger log = Logger.getLogger(PushSessionQueue.class.getName());
+
+   private final Session session;
+
+   private final int capacity;
+
+   /**
+    * Queued messages by their coalescing keys, messages without a key have a unique one.
+    */
+   private final LinkedHashMap<Object, String> messages = new LinkedHashMap<>();
+
+   private final AtomicLong dropped = new AtomicLong();
+
+   private boolean sending = false;
+
+   /**
+    * Creates a queue for the client.
+    *
+    * @param session
+    *       Session of the client.
+    * @param capacity
+    *       Maximum number of messages waiting to be sent.
+    */
+   PushSessionQueue(final Session session, final int capacity) {
+      this.session = session;
+      this.capacity = capacity;
+   }
+
+   /**
+    * Queues the message and starts sending unless a message is being sent already.
+    *
+    * @param coalescingKey
+    *       Key of the message, a queued message with the same key is replaced, null to never replace any message.
+    * @param message
+    *       The message to send.
+    */
+   void offer(final String coalescingKey, final String message) {
+      synchronized (this) {
+         final Object key = coalescingKey != null ? coalescingKey : new Object();
+
+         if (!messages.containsKey(key) && messages.size() >= capacity) {
+            final Iterator<Object> oldest = messages.keySet().iterator();
+            oldest.next();
+            oldest.remove();
+            dropped.incrementAndGet();
+         }
+         messages.put(key, message);
+
+         if (sending) {
+            return;
+         }
+         sending = true;
+      }
+
+      sendNext();
+   }
+
+   /**
+    * Gets the number of messages dropped because the client did not keep up.
+    *
+    * @return The number of dropped messages.
+    */
+   long getDropped() {
+      return dropped.get();
+   }
+
+   @Override
+   public void onResult(final SendResult result) {
+      if (!result.isOK()) {
+         log.log(Level.FINE, "Unable to send push notification: ", result.getException());
+      }
+
+      sendNext();
+   }
+
+   // sends the oldest queued message, the send handler then continues with the next one
+   private void sendNext() {
+      final String message;
+
+      synchronized (this) {
+         final Iterator<Map.Entry<Object, String>> oldest = messages.entrySet().iterator();
+         if (!oldest.hasNext() || !session.isOpen()) {
+            messages.clear();
+            sending = false;
+            return;
+         }
+
+         message = oldest.next().getValue();
+         oldest.remove();
+      }
+
+      try {
+         session.getAsyncRemote().sendText(message, this);
+      } catch (IllegalStateException e) {
+         log.log(Level.FINE, "Unable to send push notification: ", e);
+         synchronized (this) {
+            messages.clear();
+            sending = false;
+         }
+      }
+   }
+}
@@ -24,18 +24,26 @@ import io.lumeer.engine.api.batch.Batch;
 import io.lumeer.engine.api.batch.MergeBatch;
 import io.lumeer.engine.api.batch.SplitBatch;
 import io.lumeer.engine.api.constraint.InvalidConstraintException;
+import io.lumeer.engine.api.data.DataDocument;
 import io.lumeer.engine.api.exception.CollectionMetadataDocumentNotFoundException;
 import io.lumeer.engine.api.exception.CollectionNotFoundException;
 import io.lumeer.engine.api.exception.DbException;
 import io.lumeer.engine.controller.BatchFacade;
+import io.lumeer.engine.controller.BatchMetrics;
 import io.lumeer.engine.controller.CollectionMetadataFacade;
+import io.lumeer.engine.controller.TaskFacade;
 
+import java.util.List;
 import javax.enterprise.context.RequestScoped;
 import javax.inject.Inject;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
 import javax.ws.rs.NotAcceptableException;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
 
 /**
@@ -53,6 +61,12 @@ public class BatchService {
    @Inject
    private CollectionMetadataFacade collectionMetadataFacade;
 
+   @Inject
+   private TaskFacade taskFacade;
+
+   @Inject
+   private BatchMetrics batchMetrics;
+
    /**
     * Runs a merge batch operation.
     *
@@ -87,7 +101,96 @@ public class BatchService {
       runBatch(batch);
    }
 
+   /**
+    * Submits a merge batch operation to be run in background.
+    *
+    * @param batch
+    *       The batch operation to run.
+    * @return Id of the task running the batch.
+    */
+   @POST
+   @Path("/tasks/merge")
+   @Consumes(MediaType.APPLICATION_JSON)
+   @Produces(MediaType.APPLICATION_JSON)
+   public String submitMergeBatch(final MergeBatch batch) {
+      return taskFacade.submitBatch(useInternalCollectionName(batch));
+   }
+
+   /**
+    * Submits a split batch operation to be run in background.
+    *
+    * @param batch
+    *       The batch operation to run.
+    * @return Id of the task running the batch.
+    */
+   @POST
+   @Path("/tasks/split")
+   @Consumes(MediaType.APPLICATION_JSON)
+   @Produces(MediaType.APPLICATION_JSON)
+   public String submitSplitBatch(final SplitBatch batch) {
+      return taskFacade.submitBatch(useInternalCollectionName(batch));
+   }
+
+   /**
+    * Gets all batch tasks of the current user.
+    *
+    * @return The tasks with their state and progress, the newest first.
+    */
+   @GET
+   @Path("/tasks")
+   @Produces(MediaType.APPLICATION_JSON)
+   public List<DataDocument> getTasks() {
+      return taskFacade.getTasks();
+   }
+
+   /**
+    * Gets the batch task.
+    *
+    * @param taskId
+    *       Id of the task.
+    * @return The task with its state and progress.
+    * @throws DbException
+    *       When there is no such task of the current user.
+    */
+   @GET
+   @Path("/tasks/{taskId}")
+   @Produces(MediaType.APPLICATION_JSON)
+   public DataDocument getTask(final @PathParam("taskId") String taskId) throws DbException {
+      return taskFacade.getTask(taskId);
+   }
+
+   /**
+    * Cancels the batch task.
+    *
+    * @param taskId
+    *       Id of the task.
+    * @throws DbException
+    *       When there is no such task of the current user.
+    */
+   @DELETE
+   @Path("/tasks/{taskId}")
+   public void cancelTask(final @PathParam("taskId") String taskId) throws DbException {
+      taskFacade.cancelTask(taskId);
+   }
+
+   /**
+    * Gets statistics of chunks of documents processed by batches.
+    *
+    * @return Numbers of processed chunks and documents, chunk latencies in microseconds and throughput in documents per second.
+    */
+   @GET
+   @Path("/metrics")
+   @Produces(MediaType.APPLICATION_JSON)
+   public DataDocument getMetrics() {
+      return batchMetrics.getMetrics();
+   }
+
    private void runBatch(final Batch batch) throws DbException, InvalidConstraintException {
+      batchFacade.executeBatch(useInternalCollectionName(batch));
+   }
+
+   // replaces the collection name of the batch with the internal one
+   private Batch useInternalCollectionName(final Batch batch) {
       try {
          if (batch instanceof AbstractCollectionBatch) {
             final AbstractCollectionBatch collectionBatch = (AbstractCollectionBatch) batch;
@@ -97,6 +200,6 @@ public class BatchService {
          throw new NotAcceptableException("Cannot determine collection name in the system: ", e);
       }
 
-      batchFacade.executeBatch(batch);
+      return batch;
    }
 }
@@ -33,11 +33,13 @@ import io.lumeer.engine.api.exception.UserCollectionAlreadyExistsException;
 import io.lumeer.engine.api.exception.UserCollectionNotFoundException;
 import io.lumeer.engine.controller.CollectionFacade;
 import io.lumeer.engine.controller.CollectionMetadataFacade;
+import io.lumeer.engine.controller.IndexAdvisorFacade;
 import io.lumeer.engine.controller.SearchFacade;
 import io.lumeer.engine.controller.SecurityFacade;
 import io.lumeer.engine.controller.UserFacade;
 import io.lumeer.engine.controller.VersionFacade;
 import io.lumeer.engine.rest.dao.AccessRightsDao;
+import io.lumeer.engine.util.DocumentStreamingOutput;
 import io.lumeer.engine.util.ErrorMessageBuilder;
 
 import java.io.Serializable;
@@ -54,7 +56,10 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.Providers;
 
 /**
  * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
@@ -84,6 +89,12 @@ public class CollectionService implements Serializable {
    @Inject
    private UserFacade userFacade;
 
+   @Inject
+   private IndexAdvisorFacade indexAdvisorFacade;
+
+   @Context
+   private Providers providers;
+
    /**
     * Returns a list of collection names in the database.
     *
@@ -203,7 +214,7 @@ public class CollectionService implements Serializable {
     *       number of documents to skip
     * @param limit
     *       maximum number of documents to return
-    * @return list of the found documents
+    * @return found documents streamed to the client as a JSON array
     * @throws CollectionNotFoundException
     *       When the collection in which we want to search does not exist.
     * @throws CollectionMetadataDocumentNotFoundException
@@ -212,11 +223,80 @@ public class CollectionService implements Serializable {
    @POST
    @Path("/{collectionName}/search/")
    @Produces(MediaType.APPLICATION_JSON)
-   public List<DataDocument> search(final @PathParam("collectionName") String collectionName, final @QueryParam("filter") String filter, final @QueryParam("sort") String sort, final @QueryParam("skip") int skip, final @QueryParam("limit") int limit) throws CollectionNotFoundException, CollectionMetadataDocumentNotFoundException {
+   public StreamingOutput search(final @PathParam("collectionName") String collectionName, final @QueryParam("filter") String filter, final @QueryParam("sort") String sort, final @QueryParam("skip") int skip, final @QueryParam("limit") int limit) throws CollectionNotFoundException, CollectionMetadataDocumentNotFoundException {
+      if (collectionName == null) {
+         throw new IllegalArgumentException();
+      }
+      return new DocumentStreamingOutput(searchFacade.searchStream(getInternalName(collectionName), filter, sort, skip, limit), providers);
+   }
+
+   /**
+    * Counts the documents matching the filter which the current user can read.
+    *
+    * @param collectionName
+    *       name of the collection
+    * @param filter
+    *       query predicate
+    * @return number of the found documents
+    * @throws CollectionNotFoundException
+    *       When the collection in which we want to count documents does not exist.
+    * @throws CollectionMetadataDocumentNotFoundException
+    *       When the metadata collection of the given collection does not exist.
+    */
+   @GET
+   @Path("/{collectionName}/count/")
+   @Produces(MediaType.APPLICATION_JSON)
+   public long count(final @PathParam("collectionName") String collectionName, final @QueryParam("filter") String filter) throws CollectionNotFoundException, CollectionMetadataDocumentNotFoundException {
+      if (collectionName == null) {
+         throw new IllegalArgumentException();
+      }
+      return searchFacade.count(getInternalName(collectionName), filter);
+   }
+
+   /**
+    * Gets indexes recommended for the collection according to the queries run on it.
+    *
+    * @param collectionName
+    *       name of the collection
+    * @return recommended indexes to create and indexes created by the advisor to drop
+    * @throws CollectionNotFoundException
+    *       When the given collection does not exist.
+    * @throws CollectionMetadataDocumentNotFoundException
+    *       When the metadata collection of the given collection does not exist.
+    * @throws UnauthorizedAccessException
+    *       When current user is not allowed to read the collection.
+    */
+   @GET
+   @Path("/{collectionName}/indexes/recommendations")
+   @Produces(MediaType.APPLICATION_JSON)
+   public List<DataDocument> getIndexRecommendations(final @PathParam("collectionName") String collectionName) throws CollectionNotFoundException, CollectionMetadataDocumentNotFoundException, UnauthorizedAccessException {
+      if (collectionName == null) {
+         throw new IllegalArgumentException();
+      }
+      return indexAdvisorFacade.getRecommendations(getInternalName(collectionName));
+   }
+
+   /**
+    * Creates and drops indexes of the collection according to the recommendations, within the configured budget.
+    *
+    * @param collectionName
+    *       name of the collection
+    * @return applied index operations
+    * @throws CollectionNotFoundException
+    *       When the given collection does not exist.
+    * @throws CollectionMetadataDocumentNotFoundException
+    *       When the metadata collection of the given collection does not exist.
+    * @throws UnauthorizedAccessException
+    *       When current user is not allowed to write to the collection.
+    */
+   @POST
+   @Path("/{collectionName}/indexes/recommendations")
+   @Produces(MediaType.APPLICATION_JSON)
+   public List<DataDocument> applyIndexRecommendations(final @PathParam("collectionName") String collectionName) throws CollectionNotFoundException, CollectionMetadataDocumentNotFoundException, UnauthorizedAccessException {
       if (collectionName == null) {
          throw new IllegalArgumentException();
       }
-      return searchFacade.search(getInternalName(collectionName), filter, sort, skip, limit);
+      return indexAdvisorFacade.applyRecommendations(getInternalName(collectionName));
    }
 
    /**
@@ -48,6 +48,7 @@ import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 
 /**
@@ -101,6 +102,30 @@ public class DocumentService implements Serializable {
       return documentFacade.createDocument(getInternalName(collectionName), document);
    }
 
+   /**
+    * Creates and inserts new documents to specified collection in batches. The method creates the given collection if does not exist.
+    *
+    * @param collectionName
+    *       the name of the collection where the documents will be created
+    * @param documents
+    *       the DataDocument objects representing documents to be created
+    * @return the ids of the newly created documents in the order of the given documents
+    * @throws DbException
+    *       When there is an error working with the database.
+    * @throws InvalidConstraintException
+    *       If one of documents' value does not satisfy constraint or type.
+    */
+   @POST
+   @Path("/bulk")
+   @Produces(MediaType.APPLICATION_JSON)
+   @Consumes(MediaType.APPLICATION_JSON)
+   public List<String> createDocuments(final @PathParam("collectionName") String collectionName, final List<DataDocument> documents) throws DbException, InvalidConstraintException {
+      if (collectionName == null || documents == null) {
+         throw new IllegalArgumentException();
+      }
+      return documentFacade.createDocuments(getInternalName(collectionName), documents);
+   }
+
    /**
     * Drops an existing document in given collection by its id.
     *
@@ -163,6 +188,28 @@ public class DocumentService implements Serializable {
       documentFacade.updateDocument(getInternalName(collectionName), updatedDocument);
    }
 
+   /**
+    * Modifies existing documents in given collection by their ids in batches.
+    *
+    * @param collectionName
+    *       the name of the collection where the existing documents are located
+    * @param updatedDocuments
+    *       the DataDocument objects representing documents with changes to update
+    * @throws DbException
+    *       When there is an error working with the data storage.
+    * @throws InvalidConstraintException
+    *       If one of documents' value doesn't satisfy constraint or type.
+    */
+   @PUT
+   @Path("/bulk")
+   @Consumes(MediaType.APPLICATION_JSON)
+   public void updateDocuments(final @PathParam("collectionName") String collectionName, final List<DataDocument> updatedDocuments) throws DbException, InvalidConstraintException {
+      if (collectionName == null || updatedDocuments == null) {
+         throw new IllegalArgumentException();
+      }
+      documentFacade.updateDocuments(getInternalName(collectionName), updatedDocuments);
+   }
+
    /**
     * Put attribute and value to document metadata.
     *
@@ -243,12 +290,20 @@ public class DocumentService implements Serializable {
    }
 
    /**
-    * Read all versions of the given document and returns it as a list.
+    * Reads a page of versions of the given document sorted from the newest one, the current version is the first one.
     *
     * @param collectionName
     *       collection name where document is stored
     * @param documentId
     *       id of the document
+    * @param skip
+    *       number of the newest versions to skip
+    * @param limit
+    *       maximal number of versions to return, no limit when not specified
+    * @param attributes
+    *       names of attributes to return, whole documents are returned when not specified
+    * @param metadataOnly
+    *       return only version number, update date and user of each version
     * @return list of documents in different version
     * @throws CollectionNotFoundException
     *       When the collection was not found in database.
@@ -258,11 +313,12 @@ public class DocumentService implements Serializable {
    @GET
    @Path("/{documentId}/versions")
    @Produces(MediaType.APPLICATION_JSON)
-   public List<DataDocument> searchHistoryChanges(final @PathParam("collectionName") String collectionName, final @PathParam("documentId") String documentId) throws CollectionNotFoundException, CollectionMetadataDocumentNotFoundException {
+   public List<DataDocument> searchHistoryChanges(final @PathParam("collectionName") String collectionName, final @PathParam("documentId") String documentId, final @QueryParam("skip") int skip, final @QueryParam("limit") int limit,
+         final @QueryParam("attributes") List<String> attributes, final @QueryParam("metadata") boolean metadataOnly) throws CollectionNotFoundException, CollectionMetadataDocumentNotFoundException {
       if (collectionName == null || documentId == null) {
          throw new IllegalArgumentException();
       }
-      return versionFacade.getDocumentVersions(getInternalName(collectionName), documentId);
+      return versionFacade.getDocumentVersions(getInternalName(collectionName), documentId, skip, limit, attributes == null || attributes.isEmpty() ? null : attributes, metadataOnly);
    }
 
    /**
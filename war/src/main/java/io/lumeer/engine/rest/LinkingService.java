@@ -100,6 +100,10 @@ public class LinkingService {
     *       The role of the link.
     * @param linkDirection
     *       Which link direction to work with.
+    * @param skip
+    *       The number of links to skip.
+    * @param limit
+    *       The maximum number of links to return, 0 means no limit.
     * @return All links of given role from/to the given collection.
     * @throws DbException
     *       When there is an issue when communicating with the data storage.
@@ -107,17 +111,10 @@ public class LinkingService {
    @GET
    @Path("/{role}")
    @Produces(MediaType.APPLICATION_JSON)
-   public List<LinkDao> getLinks(final @PathParam("collectionName") String collectionName, final @PathParam("role") String role, final @QueryParam("direction") @DefaultValue("FROM") LumeerConst.Linking.LinkDirection linkDirection) throws DbException {
+   public List<LinkDao> getLinks(final @PathParam("collectionName") String collectionName, final @PathParam("role") String role, final @QueryParam("direction") @DefaultValue("FROM") LumeerConst.Linking.LinkDirection linkDirection,
+         final @QueryParam("skip") int skip, final @QueryParam("limit") int limit) throws DbException {
       String internalCollectionName = getInternalName(collectionName);
-      final List<LinkDao> links = new ArrayList<>();
-
-      if (linkDirection == null || linkDirection == LumeerConst.Linking.LinkDirection.BOTH || linkDirection == LumeerConst.Linking.LinkDirection.FROM) {
-         links.addAll(linkingFacade.readLinks(internalCollectionName, role, LumeerConst.Linking.LinkDirection.FROM));
-      }
-
-      if (linkDirection == null || linkDirection == LumeerConst.Linking.LinkDirection.BOTH || linkDirection == LumeerConst.Linking.LinkDirection.TO) {
-         links.addAll(linkingFacade.readLinks(internalCollectionName, role, LumeerConst.Linking.LinkDirection.TO));
-      }
+      final List<LinkDao> links = linkingFacade.readLinks(internalCollectionName, role, linkDirection, skip, limit);
 
       // translate internal collection names
       for (LinkDao linkDao : links) {
@@ -139,6 +136,10 @@ public class LinkingService {
     *       The source/target document id.
     * @param linkDirection
     *       Which link direction to work with.
+    * @param skip
+    *       The number of links to skip.
+    * @param limit
+    *       The maximum number of linked documents to return, 0 means no limit.
     * @return Required links.
     * @throws DbException
     *       When there is an issue when communicating with the data storage.
@@ -146,19 +147,11 @@ public class LinkingService {
    @GET
    @Path("/{role}/documents/{id}")
    @Produces(MediaType.APPLICATION_JSON)
-   public List<DataDocument> getLinkedDocuments(final @PathParam("collectionName") String collectionName, final @PathParam("role") String role, final @PathParam("id") String documentId, final @QueryParam("direction") @DefaultValue("FROM") LumeerConst.Linking.LinkDirection linkDirection) throws DbException {
+   public List<DataDocument> getLinkedDocuments(final @PathParam("collectionName") String collectionName, final @PathParam("role") String role, final @PathParam("id") String documentId, final @QueryParam("direction") @DefaultValue("FROM") LumeerConst.Linking.LinkDirection linkDirection,
+         final @QueryParam("skip") int skip, final @QueryParam("limit") int limit) throws DbException {
       String internalCollectionName = getInternalName(collectionName);
-      final List<DataDocument> links = new ArrayList<>();
 
-      if (linkDirection == null || linkDirection == LumeerConst.Linking.LinkDirection.BOTH || linkDirection == LumeerConst.Linking.LinkDirection.FROM) {
-         links.addAll(linkingFacade.readDocumentLinksDocs(internalCollectionName, documentId, role, LumeerConst.Linking.LinkDirection.FROM));
-      }
-
-      if (linkDirection == null || linkDirection == LumeerConst.Linking.LinkDirection.BOTH || linkDirection == LumeerConst.Linking.LinkDirection.TO) {
-         links.addAll(linkingFacade.readDocumentLinksDocs(internalCollectionName, documentId, role, LumeerConst.Linking.LinkDirection.TO));
-      }
-
-      return links;
+      return linkingFacade.readDocumentLinksDocs(internalCollectionName, documentId, role, linkDirection, skip, limit);
    }
 
    /**
@@ -23,6 +23,7 @@ import io.lumeer.engine.api.data.DataDocument;
 import io.lumeer.engine.api.data.Query;
 import io.lumeer.engine.api.exception.InvalidQueryException;
 import io.lumeer.engine.controller.SearchFacade;
+import io.lumeer.engine.util.DocumentStreamingOutput;
 
 import java.io.Serializable;
 import java.util.List;
@@ -32,7 +33,10 @@ import javax.ws.rs.Consumes;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.Providers;
 
 /**
  * @author <a href="mailto:mat.per.vt@gmail.com">Matej Perejda</a>
@@ -46,13 +50,16 @@ public class SearchService implements Serializable {
    @Inject
    private SearchFacade searchFacade;
 
+   @Context
+   private Providers providers;
+
    /**
     * Queries the data storage in a flexible way. Allows for none or multiple collection names to be specified,
     * automatically sets limit to default values.
     *
     * @param query
     *       Query to execute
-    * @return The query result.
+    * @return The query result streamed to the client as a JSON array.
     * @throws InvalidQueryException
     *       When it was not possible to execute the query.
     */
@@ -60,10 +67,30 @@ public class SearchService implements Serializable {
    @Path("/")
    @Produces(MediaType.APPLICATION_JSON)
    @Consumes(MediaType.APPLICATION_JSON)
-   public List<DataDocument> runQuery(final Query query) throws InvalidQueryException {
+   public StreamingOutput runQuery(final Query query) throws InvalidQueryException {
+      if (query == null) {
+         throw new IllegalArgumentException();
+      }
+      return new DocumentStreamingOutput(searchFacade.queryStream(query), providers);
+   }
+
+   /**
+    * Explains how the database executes the query without returning its results.
+    *
+    * @param query
+    *       Query to explain.
+    * @return For every queried collection, the used indexes, numbers of examined and returned documents, execution time and the database plan.
+    * @throws InvalidQueryException
+    *       When it was not possible to explain the query.
+    */
+   @POST
+   @Path("/explain")
+   @Produces(MediaType.APPLICATION_JSON)
+   @Consumes(MediaType.APPLICATION_JSON)
+   public List<DataDocument> explainQuery(final Query query) throws InvalidQueryException {
       if (query == null) {
          throw new IllegalArgumentException();
       }
-      return searchFacade.query(query);
+      return searchFacade.explain(query);
    }
 }
@@ -0,0 +1,151 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.task;
+
+import io.lumeer.engine.api.LumeerConst;
+import io.lumeer.engine.api.batch.AbstractCollectionBatch;
+import io.lumeer.engine.api.batch.Batch;
+import io.lumeer.engine.api.batch.MergeBatch;
+import io.lumeer.engine.api.batch.SplitBatch;
+import io.lumeer.engine.api.data.DataDocument;
+import io.lumeer.engine.api.task.Task;
+import io.lumeer.engine.api.task.TaskState;
+import io.lumeer.engine.controller.BatchFacade;
+import io.lumeer.engine.controller.TaskFacade;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.enterprise.inject.spi.CDI;
+
+/**
+ * Runs a merge or split batch persisted as a task. Progress and the id of the last processed document are stored
+ * after every chunk of documents, so an interrupted batch continues where it stopped. The lease of the task is extended
+ * by a heartbeat while the batch runs, the batch stops at the next checkpoint when the task was claimed by another node.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class BatchTask implements Task {
+
+   private static final long serialVersionUID = 4781190457153874402L;
+
+   private static final Logger log = Logger.getLogger(BatchTask.class.getName());
+
+   private static final String COLLECTION_KEY = "collection";
+   private static final String KEEP_ORIGINAL_KEY = "keepOriginal";
+   private static final String ATTRIBUTES_KEY = "attributes";
+   private static final String RESULT_ATTRIBUTE_KEY = "resultAttribute";
+   private static final String JOIN_KEY = "join";
+   private static final String MERGE_TYPE_KEY = "mergeType";
+   private static final String ATTRIBUTE_KEY = "attribute";
+   private static final String DELIMITER_KEY = "delimiter";
+   private static final String TRIM_KEY = "trim";
+   private static final String SPLIT_ATTRIBUTES_KEY = "splitAttributes";
+
+   private final String taskId;
+
+   public BatchTask(final String taskId) {
+      this.taskId = taskId;
+   }
+
+   @Override
+   public void process() {
+      final TaskFacade taskFacade = CDI.current().select(TaskFacade.class).get();
+      final TaskProcessorBean taskProcessor = CDI.current().select(TaskProcessorBean.class).get();
+      final DataDocument task = taskFacade.claimTask(taskId, taskProcessor.getNodeId());
+
+      // the task is finished or run by another node
+      if (task == null) {
+         return;
+      }
+      if (task.getBoolean(LumeerConst.Task.CANCEL_KEY, false)) {
+         taskFacade.updateTask(taskId, new DataDocument(LumeerConst.Task.STATE_KEY, TaskState.CANCELLED.name()));
+         return;
+      }
+
+      final long processedBefore = task.getLong(LumeerConst.Task.PROCESSED_KEY, 0L);
+      final TaskLease lease = new TaskLease(taskId, task.getInteger(LumeerConst.METADATA_VERSION_KEY, 0));
+      if (!lease.renew(new DataDocument(LumeerConst.Task.STATE_KEY, TaskState.RUNNING.name()))) {
+         return;
+      }
+
+      // a chunk can take longer than the lease, so the lease does not depend on checkpoints only
+      final ScheduledFuture<?> heartbeat = taskProcessor.getScheduledExecutorService().scheduleWithFixedDelay(lease, TaskFacade.HEARTBEAT_TIME, TaskFacade.HEARTBEAT_TIME, TimeUnit.MILLISECONDS);
+      try {
+         CDI.current().select(BatchFacade.class).get().executeBatch(fromDocument(task), task.getString(LumeerConst.Task.CHECKPOINT_KEY), (lastDocumentId, processed, total) ->
+               lease.renew(new DataDocument(LumeerConst.Task.CHECKPOINT_KEY, lastDocumentId)
+                     .append(LumeerConst.Task.PROCESSED_KEY, processedBefore + processed)
+                     .append(LumeerConst.Task.TOTAL_KEY, total)) && !taskFacade.isCancelRequested(taskId));
+
+         // nothing is stored when another node claimed the task in the meantime, it continues from the last checkpoint
+         lease.renew(new DataDocument(LumeerConst.Task.STATE_KEY, (taskFacade.isCancelRequested(taskId) ? TaskState.CANCELLED : TaskState.COMPLETED).name()));
+      } catch (Exception e) {
+         log.log(Level.INFO, "Batch task " + taskId + " failed: ", e);
+         lease.renew(new DataDocument(LumeerConst.Task.STATE_KEY, TaskState.FAILED.name())
+               .append(LumeerConst.Task.ERROR_KEY, e.getMessage()));
+      } finally {
+         heartbeat.cancel(false);
+      }
+   }
+
+   /**
+    * Converts the batch to a task document.
+    *
+    * @param batch
+    *       merge or split batch
+    * @return document describing the batch
+    */
+   public static DataDocument toDocument(final Batch batch) {
+      final DataDocument document = new DataDocument(COLLECTION_KEY, batch.getCollectionName())
+            .append(KEEP_ORIGINAL_KEY, batch instanceof AbstractCollectionBatch && ((AbstractCollectionBatch) batch).isKeepOriginal());
+
+      if (batch instanceof MergeBatch) {
+         final MergeBatch mergeBatch = (MergeBatch) batch;
+         document.append(ATTRIBUTES_KEY, mergeBatch.getAttributes())
+                 .append(RESULT_ATTRIBUTE_KEY, mergeBatch.getResultAttribute())
+                 .append(JOIN_KEY, mergeBatch.getJoin())
+                 .append(MERGE_TYPE_KEY, mergeBatch.getMergeType().name());
+
+         return new DataDocument(LumeerConst.Task.TYPE_KEY, LumeerConst.Task.TYPE_MERGE).append(LumeerConst.Task.BATCH_KEY, document);
+      }
+
+      final SplitBatch splitBatch = (SplitBatch) batch;
+      document.append(ATTRIBUTE_KEY, splitBatch.getAttribute())
+              .append(DELIMITER_KEY, splitBatch.getDelimiter())
+              .append(TRIM_KEY, splitBatch.isTrim())
+              .append(SPLIT_ATTRIBUTES_KEY, splitBatch.getSplitAttributes());
+
+      return new DataDocument(LumeerConst.Task.TYPE_KEY, LumeerConst.Task.TYPE_SPLIT).append(LumeerConst.Task.BATCH_KEY, document);
+   }
+
+   // reads the batch back from the task document
+   private static Batch fromDocument(final DataDocument task) {
+      final DataDocument document = task.getDataDocument(LumeerConst.Task.BATCH_KEY);
+
+      if (LumeerConst.Task.TYPE_MERGE.equals(task.getString(LumeerConst.Task.TYPE_KEY))) {
+         return new MergeBatch(document.getString(COLLECTION_KEY), document.getArrayList(ATTRIBUTES_KEY, String.class), document.getString(RESULT_ATTRIBUTE_KEY),
+               document.getString(JOIN_KEY), MergeBatch.MergeType.valueOf(document.getString(MERGE_TYPE_KEY)), document.getBoolean(KEEP_ORIGINAL_KEY, false));
+      }
+
+      return new SplitBatch(document.getString(COLLECTION_KEY), document.getString(ATTRIBUTE_KEY), document.getString(DELIMITER_KEY), document.getBoolean(TRIM_KEY, true),
+            document.getArrayList(SPLIT_ATTRIBUTES_KEY, String.class), document.getBoolean(KEEP_ORIGINAL_KEY, false));
+   }
+}
@@ -0,0 +1,156 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.task;
+
+import org.jboss.weld.context.bound.BoundLiteral;
+import org.jboss.weld.context.bound.BoundRequestContext;
+import org.jboss.weld.context.bound.BoundSessionContext;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import javax.enterprise.inject.spi.CDI;
+
+/**
+ * Session and request scopes of a thread running a background task instead of an HTTP session or request.
+ * Background tasks use the same session scoped facades as requests of their owner, every task gets its own instances
+ * which are destroyed when the task finishes. The scopes are backed by the bound contexts of the container, so there is
+ * always a single active context per scope. The user the task runs for is passed explicitly on activation together with
+ * the roles the user had when the task was submitted, there is no security context on the executor threads.
+ *
+ * The contexts must be activated only on threads of an executor, never on a thread serving a request.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public final class TaskContext {
+
+   private static final ThreadLocal<TaskScope> CURRENT = new ThreadLocal<>();
+
+   private TaskContext() {
+   }
+
+   /**
+    * Activates task contexts on the current thread.
+    *
+    * @param userEmail
+    *       email of the user the task runs for, null for system tasks
+    * @param userRoles
+    *       roles of the user the task runs for, null for system tasks
+    */
+   public static void activate(final String userEmail, final Collection<String> userRoles) {
+      final TaskScope taskScope = new TaskScope(userEmail, userRoles);
+
+      taskScope.activate();
+      CURRENT.set(taskScope);
+   }
+
+   /**
+    * Destroys all beans created on the current thread since activation and deactivates task contexts.
+    */
+   public static void deactivate() {
+      final TaskScope taskScope = CURRENT.get();
+      CURRENT.remove();
+
+      if (taskScope != null) {
+         taskScope.deactivate();
+      }
+   }
+
+   /**
+    * Checks whether a background task runs on the current thread.
+    *
+    * @return True if and only if the task contexts are active on the current thread.
+    */
+   public static boolean isTaskActive() {
+      return CURRENT.get() != null;
+   }
+
+   /**
+    * Gets the user the task on the current thread runs for.
+    *
+    * @return Email of the user, null when there is no task or it is a system task.
+    */
+   public static String getUserEmail() {
+      final TaskScope taskScope = CURRENT.get();
+      return taskScope != null ? taskScope.userEmail : null;
+   }
+
+   /**
+    * Gets roles of the user the task on the current thread runs for.
+    *
+    * @return Roles of the user, empty when there is no task or it is a system task.
+    */
+   public static Set<String> getUserRoles() {
+      final TaskScope taskScope = CURRENT.get();
+      return taskScope != null ? taskScope.userRoles : Collections.emptySet();
+   }
+
+   /**
+    * Bound session and request contexts of a single task together with the storage of their beans.
+    */
+   private static class TaskScope {
+
+      private final String userEmail;
+
+      private final Set<String> userRoles;
+
+      private final Map<String, Object> sessionStorage = new HashMap<>();
+
+      private final Map<String, Object> requestStorage = new HashMap<>();
+
+      private final BoundSessionContext sessionContext;
+
+      private final BoundRequestContext requestContext;
+
+      private TaskScope(final String userEmail, final Collection<String> userRoles) {
+         this.userEmail = userEmail;
+         this.userRoles = userRoles != null ? Collections.unmodifiableSet(new HashSet<>(userRoles)) : Collections.emptySet();
+         this.sessionContext = CDI.current().select(BoundSessionContext.class, BoundLiteral.INSTANCE).get();
+         this.requestContext = CDI.current().select(BoundRequestContext.class, BoundLiteral.INSTANCE).get();
+      }
+
+      private void activate() {
+         sessionContext.associate(sessionStorage);
+         sessionContext.activate();
+         requestContext.associate(requestStorage);
+         requestContext.activate();
+      }
+
+      // destroys the beans in the reverse order of activation
+      private void deactivate() {
+         try {
+            requestContext.invalidate();
+            requestContext.deactivate();
+         } finally {
+            requestContext.dissociate(requestStorage);
+         }
+
+         try {
+            sessionContext.invalidate();
+            sessionContext.deactivate();
+         } finally {
+            sessionContext.dissociate(sessionStorage);
+         }
+      }
+   }
+}
@@ -0,0 +1,105 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.task;
+
+import io.lumeer.engine.api.data.DataDocument;
+import io.lumeer.engine.controller.TaskFacade;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.enterprise.inject.spi.CDI;
+
+/**
+ * Lease of a task claimed by this node. The lease is extended periodically by a heartbeat and with every stored checkpoint
+ * of the task. Every renewal is conditional on the version the task got by the previous claim or renewal of this node,
+ * so once the task is claimed by another node, the lease is lost for good and nothing is stored by this node anymore.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class TaskLease implements Runnable {
+
+   private static final Logger log = Logger.getLogger(TaskLease.class.getName());
+
+   private final String taskId;
+
+   private int version;
+
+   private boolean lost = false;
+
+   /**
+    * Creates the lease of the claimed task.
+    *
+    * @param taskId
+    *       id of the task
+    * @param version
+    *       version the task got by the claim
+    */
+   public TaskLease(final String taskId, final int version) {
+      this.taskId = taskId;
+      this.version = version;
+   }
+
+   /**
+    * Extends the lease and stores the changes of the task. Must be called from a task.
+    *
+    * @param changes
+    *       attributes of the task to update, can be empty
+    * @return true when this node still holds the lease
+    */
+   public synchronized boolean renew(final DataDocument changes) {
+      if (lost) {
+         return false;
+      }
+
+      if (CDI.current().select(TaskFacade.class).get().renewTask(taskId, version, changes)) {
+         version++;
+      } else {
+         lost = true;
+         log.log(Level.INFO, "Task " + taskId + " was claimed by another node.");
+      }
+
+      return !lost;
+   }
+
+   /**
+    * Checks whether the task was claimed by another node.
+    *
+    * @return true if and only if a renewal of the lease failed
+    */
+   public synchronized boolean isLost() {
+      return lost;
+   }
+
+   /**
+    * Extends the lease from the heartbeat, which runs outside of the task.
+    */
+   @Override
+   public void run() {
+      TaskContext.activate(null, null);
+      try {
+         renew(new DataDocument());
+      } catch (RuntimeException e) {
+         // an exception would stop the periodic execution, the lease expires only after several failed renewals
+         log.log(Level.WARNING, "Unable to renew lease of task " + taskId + ": ", e);
+      } finally {
+         TaskContext.deactivate();
+      }
+   }
+}
@@ -2,7 +2,7 @@
  * -----------------------------------------------------------------------\
  * Lumeer
  *  
- * Copyright (C) 2016 the original author or authors.
+ * Copyright (C) 2016 - 2017 the original author or authors.
  *  
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -19,31 +19,268 @@
  */
 package io.lumeer.engine.task;
 
+import io.lumeer.engine.api.LumeerConst;
+import io.lumeer.engine.api.data.DataDocument;
+import io.lumeer.engine.api.task.Task;
+import io.lumeer.engine.controller.TaskFacade;
+import io.lumeer.engine.controller.configuration.DefaultConfigurationProducer;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
-import javax.ejb.ActivationConfigProperty;
-import javax.ejb.MessageDriven;
-import javax.ejb.MessageDrivenContext;
-import javax.jms.Message;
-import javax.jms.MessageListener;
-import javax.jms.TextMessage;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.enterprise.inject.spi.CDI;
+import javax.inject.Inject;
 
 /**
+ * Runs background tasks on the managed executor service. At most the configured number of tasks runs at once,
+ * the others wait in a queue. Every task runs in its own task context on behalf of the user who submitted it.
+ * Unfinished tasks not owned by any node, e.g. the tasks interrupted by a restart of their node, are submitted again
+ * periodically. Every task is claimed in the database before it runs, so it runs on a single node only.
+ * Work split by the tasks or by requests into smaller pieces runs on a separate executor, so that a task waiting
+ * for its pieces never waits for a thread occupied by another task.
+ *
  * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
  */
-/*@MessageDriven(mappedName = "TaskProcessor", activationConfig = {
-      @ActivationConfigProperty(propertyName = "acknowledgeMode", propertyValue = "Auto-acknowledge"),
-      @ActivationConfigProperty(propertyName = "destinationType", propertyValue = "javax.jms.Queue"),
-      @ActivationConfigProperty(propertyName = "destination", propertyValue = "java:/jms/queue/TaskQueue") })*/
+@ApplicationScoped
 public class TaskProcessorBean {
-//public class TaskProcessorBean implements MessageListener {
 
-   /*@Resource
-   private MessageDrivenContext mdc;
+   private static final int DEFAULT_PARALLELISM = 2;
+
+   @Inject
+   private ManagedExecutorService executorService;
+
+   @Inject
+   private ManagedScheduledExecutorService scheduledExecutorService;
+
+   @Resource
+   private ManagedThreadFactory threadFactory;
+
+   @Inject
+   private DefaultConfigurationProducer defaultConfigurationProducer;
+
+   @Inject
+   private Logger log;
+
+   private final Deque<QueuedTask> pending = new ArrayDeque<>();
+
+   /**
+    * Tasks queued or running on this node.
+    */
+   private final Set<String> local = ConcurrentHashMap.newKeySet();
+
+   private final String nodeId = UUID.randomUUID().toString();
+
+   private int running = 0;
+
+   private volatile int parallelism = 0;
+
+   private ExecutorService workerService;
+
+   private ScheduledFuture<?> resumer;
+
+   @PostConstruct
+   public void init() {
+      // the number of pieces running at once is limited by the code splitting the work
+      workerService = Executors.newCachedThreadPool(threadFactory);
+   }
+
+   @PreDestroy
+   public void destroy() {
+      if (resumer != null) {
+         resumer.cancel(false);
+      }
+      workerService.shutdownNow();
+   }
+
+   /**
+    * Starts submitting again the unfinished tasks whose lease expired, once when the application starts and then
+    * every {@link TaskFacade#LEASE_TIME}.
+    *
+    * @param init
+    *       event of the application start
+    */
+   public void resumeTasks(@Observes @Initialized(ApplicationScoped.class) final Object init) {
+      resumer = scheduledExecutorService.scheduleWithFixedDelay(this::resume, 0L, TaskFacade.LEASE_TIME, TimeUnit.MILLISECONDS);
+   }
+
+   /**
+    * Queues the task to be run on behalf of the given user. Must be called from a request or a task.
+    *
+    * @param taskId
+    *       id of the task
+    * @param userEmail
+    *       email of the user who submitted the task
+    * @param userRoles
+    *       roles of the user who submitted the task
+    * @param task
+    *       the task to run
+    */
+   public void submit(final String taskId, final String userEmail, final Collection<String> userRoles, final Task task) {
+      if (parallelism == 0) {
+         parallelism = getParallelism();
+      }
+
+      if (!local.add(taskId)) {
+         return;
+      }
+
+      synchronized (this) {
+         pending.add(new QueuedTask(taskId, userEmail, userRoles, task));
+      }
+      dispatch();
+   }
+
+   /**
+    * Removes the task from the queue of this node. A running task or a task on another node stops on its own
+    * when it finds out it was cancelled.
+    *
+    * @param taskId
+    *       id of the task
+    * @return true when the task was waiting in the queue of this node and was removed from it
+    */
+   public synchronized boolean cancel(final String taskId) {
+      if (pending.removeIf(queuedTask -> queuedTask.taskId.equals(taskId))) {
+         local.remove(taskId);
+         return true;
+      }
+
+      return false;
+   }
+
+   /**
+    * Gets the id this node claims the tasks with.
+    *
+    * @return the node id
+    */
+   public String getNodeId() {
+      return nodeId;
+   }
+
+   /**
+    * Gets the executor service running the tasks. Work submitted here must not be waited for by a task.
+    *
+    * @return the managed executor service
+    */
+   public ManagedExecutorService getExecutorService() {
+      return executorService;
+   }
+
+   /**
+    * Gets the scheduled executor service for periodic work of the tasks, e.g. renewals of their leases.
+    *
+    * @return the managed scheduled executor service
+    */
+   public ManagedScheduledExecutorService getScheduledExecutorService() {
+      return scheduledExecutorService;
+   }
+
+   /**
+    * Gets the executor service running pieces of work the caller waits for, e.g. chunks of a batch or queries
+    * of single collections. Its threads are not shared with the tasks, so it can be used from a task as well.
+    *
+    * @return the executor service for split work
+    */
+   public ExecutorService getWorkerExecutorService() {
+      return workerService;
+   }
+
+   // starts queued tasks while there are free slots
+   private synchronized void dispatch() {
+      while (running < parallelism && !pending.isEmpty()) {
+         final QueuedTask queuedTask = pending.poll();
+         running++;
+         executorService.submit(() -> run(queuedTask));
+      }
+   }
+
+   private void run(final QueuedTask queuedTask) {
+      TaskContext.activate(queuedTask.userEmail, queuedTask.userRoles);
+      try {
+         queuedTask.task.process();
+      } catch (RuntimeException e) {
+         log.log(Level.WARNING, "Task " + queuedTask.taskId + " failed: ", e);
+      } finally {
+         TaskContext.deactivate();
+         local.remove(queuedTask.taskId);
+         synchronized (this) {
+            running--;
+         }
+         dispatch();
+      }
+   }
+
+   // submits unfinished tasks not owned by any node, the tasks are claimed before they run
+   private void resume() {
+      try {
+         TaskContext.activate(null, null);
+         final long now = System.currentTimeMillis();
+
+         for (final DataDocument task : CDI.current().select(TaskFacade.class).get().getUnfinishedTasks()) {
+            if (task.getLong(LumeerConst.Task.LEASE_KEY, 0L) < now) {
+               submit(task.getId(), task.getString(LumeerConst.Task.OWNER_KEY), getOwnerRoles(task), new BatchTask(task.getId()));
+            }
+         }
+      } catch (RuntimeException e) {
+         // an exception would stop the periodic execution
+         log.log(Level.WARNING, "Unable to resume unfinished tasks: ", e);
+      } finally {
+         TaskContext.deactivate();
+      }
+   }
+
+   // roles of the owner stored with the task when it was submitted
+   @SuppressWarnings("unchecked")
+   private static Collection<String> getOwnerRoles(final DataDocument task) {
+      final Object roles = task.get(LumeerConst.Task.OWNER_ROLES_KEY);
+      return roles instanceof List ? (List<String>) roles : null;
+   }
+
+   private int getParallelism() {
+      try {
+         final String value = defaultConfigurationProducer.get(LumeerConst.TASK_PARALLELISM_PROPERTY);
+         return value != null ? Math.max(1, Integer.parseInt(value.trim())) : DEFAULT_PARALLELISM;
+      } catch (NumberFormatException e) {
+         return DEFAULT_PARALLELISM;
+      }
+   }
+
+   /**
+    * Task waiting for a free slot.
+    */
+   private static class QueuedTask {
+
+      private final String taskId;
+
+      private final String userEmail;
+
+      private final Collection<String> userRoles;
+
+      private final Task task;
 
-   @Override
-   public void onMessage(final Message message) {
-      if (message instanceof TextMessage) {
-         System.out.println("Processing incoming message: " + message.toString());
+      private QueuedTask(final String taskId, final String userEmail, final Collection<String> userRoles, final Task task) {
+         this.taskId = taskId;
+         this.userEmail = userEmail;
+         this.userRoles = userRoles;
+         this.task = task;
       }
-   }*/
+   }
 }
@@ -0,0 +1,114 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.util;
+
+import io.lumeer.engine.api.data.DataDocument;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.annotation.Annotation;
+import java.util.stream.Stream;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Providers;
+
+/**
+ * Writes a stream of documents to the response as a JSON array one document after another, so that the whole result
+ * is never held in memory. Every document is serialized by the same message body writer that serializes documents returned
+ * directly from REST methods. The document stream is closed once the response is written.
+ *
+ * @author <a href="mailto:kubedo8@gmail.com">Jakub Rodák</a>
+ */
+public class DocumentStreamingOutput implements StreamingOutput {
+
+   private static final Annotation[] ANNOTATIONS = new Annotation[0];
+
+   private final Stream<DataDocument> documents;
+
+   private final MessageBodyWriter<DataDocument> writer;
+
+   /**
+    * Creates output of the given documents.
+    *
+    * @param documents
+    *       documents to write
+    * @param providers
+    *       JAX-RS providers to look up the document writer in
+    */
+   public DocumentStreamingOutput(final Stream<DataDocument> documents, final Providers providers) {
+      this.documents = documents;
+      this.writer = providers.getMessageBodyWriter(DataDocument.class, DataDocument.class, ANNOTATIONS, MediaType.APPLICATION_JSON_TYPE);
+   }
+
+   @Override
+   public void write(final OutputStream output) throws IOException {
+      final OutputStream documentOutput = new NonClosingOutputStream(output);
+      final boolean[] first = { true };
+
+      try (final Stream<DataDocument> stream = documents) {
+         output.write('[');
+
+         stream.forEach(document -> {
+            try {
+               if (!first[0]) {
+                  output.write(',');
+               }
+               first[0] = false;
+
+               writer.writeTo(document, DataDocument.class, DataDocument.class, ANNOTATIONS, MediaType.APPLICATION_JSON_TYPE, new MultivaluedHashMap<>(), documentOutput);
+            } catch (IOException e) {
+               throw new UncheckedIOException(e);
+            }
+         });
+
+         output.write(']');
+      } catch (UncheckedIOException e) {
+         throw e.getCause();
+      }
+   }
+
+   /**
+    * Protects the response stream from being flushed and closed by the document writer after every document,
+    * the container flushes its buffer whenever it is full.
+    */
+   private static class NonClosingOutputStream extends FilterOutputStream {
+
+      private NonClosingOutputStream(final OutputStream out) {
+         super(out);
+      }
+
+      @Override
+      public void write(final byte[] b, final int off, final int len) throws IOException {
+         out.write(b, off, len);
+      }
+
+      @Override
+      public void flush() {
+      }
+
+      @Override
+      public void close() {
+      }
+   }
+}
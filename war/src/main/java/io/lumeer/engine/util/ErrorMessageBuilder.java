@@ -59,6 +59,9 @@ public class ErrorMessageBuilder {
    private static final String ERROR_VIEW_META_IMMUTABLE = "The metadata key \"{1}\" for view \"{0}\" cannot be changed.";
    private static final String ERROR_VIEW_META_SPECIAL = "The metadata key \"{1}\" for view \"{0}\" can be changed only with special method.";
 
+   private static final String ERROR_TASK_NOT_FOUND = "The task \"{0}\" does not exist.";
+   private static final String ERROR_MERGE_NOT_REPEATABLE = "The attribute \"{0}\" cannot be both merged and the result of the merge while the merged attributes are kept.";
+
    public static String collectionNotFoundString(String collection) {
       return MessageFormat.format(ERROR_COLLECTION_NOT_FOUND, collection);
    }
@@ -159,4 +162,12 @@ public class ErrorMessageBuilder {
       return MessageFormat.format(ERROR_INVALID_COLLECTION_ATTRIBUTE_TYPE, newType, types);
    }
 
+   public static String taskNotFoundString(String taskId) {
+      return MessageFormat.format(ERROR_TASK_NOT_FOUND, taskId);
+   }
+
+   public static String mergeNotRepeatableString(String attribute) {
+      return MessageFormat.format(ERROR_MERGE_NOT_REPEATABLE, attribute);
+   }
+
 }
@@ -23,7 +23,12 @@ import io.lumeer.engine.annotation.SystemDataStorage;
 import io.lumeer.engine.api.LumeerConst;
 import io.lumeer.engine.api.data.DataStorage;
 import io.lumeer.engine.api.data.StorageConnection;
+import io.lumeer.engine.api.data.StoragePoolSettings;
 import io.lumeer.engine.controller.configuration.DefaultConfigurationProducer;
+import io.lumeer.engine.push.JmsPushBus;
+import io.lumeer.engine.push.LocalPushBus;
+import io.lumeer.engine.push.PushBus;
+import io.lumeer.mongodb.MongoClientProvider;
 import io.lumeer.mongodb.MongoDbStorage;
 
 import java.util.Map;
@@ -31,10 +36,13 @@ import java.util.concurrent.ExecutorService;
 import java.util.logging.Logger;
 import javax.annotation.Resource;
 import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
 import javax.enterprise.context.Dependent;
 import javax.enterprise.context.RequestScoped;
 import javax.enterprise.context.SessionScoped;
+import javax.enterprise.inject.Disposes;
 import javax.enterprise.inject.Produces;
+import javax.enterprise.inject.Typed;
 import javax.enterprise.inject.spi.InjectionPoint;
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -49,16 +57,55 @@ public class Resources {
    @Inject
    private DefaultConfigurationProducer defaultConfigurationProducer;
 
+   @Inject
+   private MongoClientProvider mongoClientProvider;
+
    @Resource
    @Produces
    private ManagedExecutorService managedExecutorService;
 
+   @Resource
+   @Produces
+   @Typed(ManagedScheduledExecutorService.class)
+   private ManagedScheduledExecutorService managedScheduledExecutorService;
+
    @Produces
    @Dependent
    public Logger produceLog(InjectionPoint injectionPoint) {
       return Logger.getLogger(injectionPoint.getMember().getDeclaringClass().getName());
    }
 
+   /**
+    * Produces the bus passing push notifications to other cluster nodes.
+    *
+    * @param localPushBus
+    *       Bus of a single node.
+    * @param jmsPushBus
+    *       Bus using a JMS topic.
+    * @return The configured push bus.
+    */
+   @Produces
+   public PushBus getPushBus(final LocalPushBus localPushBus, final JmsPushBus jmsPushBus) {
+      return JmsPushBus.NAME.equals(defaultConfigurationProducer.get(LumeerConst.PUSH_BUS_PROPERTY)) ? jmsPushBus : localPushBus;
+   }
+
+   /**
+    * Produces settings of the connection pool shared by all data storages.
+    *
+    * @return Connection pool settings.
+    */
+   @Produces
+   @Named("dataStoragePoolSettings")
+   public StoragePoolSettings getDataStoragePoolSettings() {
+      return new StoragePoolSettings(
+            getDefaultInteger(LumeerConst.DB_POOL_MAX_SIZE_PROPERTY, StoragePoolSettings.DEFAULT_MAX_POOL_SIZE),
+            getDefaultInteger(LumeerConst.DB_POOL_MIN_SIZE_PROPERTY, StoragePoolSettings.DEFAULT_MIN_POOL_SIZE),
+            getDefaultInteger(LumeerConst.DB_POOL_WAIT_QUEUE_MULTIPLIER_PROPERTY, StoragePoolSettings.DEFAULT_WAIT_QUEUE_MULTIPLIER),
+            getDefaultInteger(LumeerConst.DB_POOL_MAX_WAIT_TIME_PROPERTY, StoragePoolSettings.DEFAULT_MAX_WAIT_TIME),
+            getDefaultInteger(LumeerConst.DB_POOL_MAX_IDLE_TIME_PROPERTY, StoragePoolSettings.DEFAULT_MAX_IDLE_TIME),
+            getDefaultInteger(LumeerConst.DB_CONNECT_TIMEOUT_PROPERTY, StoragePoolSettings.DEFAULT_CONNECT_TIMEOUT));
+   }
+
    /**
     * Produces system storage for user data etc.
     *
@@ -68,7 +115,7 @@ public class Resources {
    @SystemDataStorage
    @SessionScoped
    public DataStorage getSystemDataStorage() {
-      final MongoDbStorage storage = new MongoDbStorage();
+      final MongoDbStorage storage = new MongoDbStorage(mongoClientProvider);
 
       storage.connect(new StorageConnection(
             defaultConfigurationProducer.get(LumeerConst.SYSTEM_DB_HOST_PROPERTY),
@@ -81,4 +128,24 @@ public class Resources {
       return storage;
    }
 
+   /**
+    * Returns the system storage connection back to the shared pool.
+    *
+    * @param storage
+    *       System data storage to disconnect.
+    */
+   public void disposeSystemDataStorage(@Disposes @SystemDataStorage final DataStorage storage) {
+      storage.disconnect();
+   }
+
+   private int getDefaultInteger(final String key, final int defaultValue) {
+      final String value = defaultConfigurationProducer.get(key);
+
+      try {
+         return value != null ? Integer.parseInt(value.trim()) : defaultValue;
+      } catch (NumberFormatException e) {
+         return defaultValue;
+      }
+   }
+
 }
@@ -21,10 +21,12 @@ package io.lumeer.engine.util;
 
 import io.lumeer.engine.api.LumeerConst;
 
-import java.text.DateFormat;
 import java.text.Normalizer;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.Date;
 
 /**
@@ -33,14 +35,18 @@ import java.util.Date;
 public class Utils {
 
    private static final String DATE_FORMAT = "yyyy.MM.dd HH.mm.ss.SSS";
-   private static final DateFormat dateFormat = new SimpleDateFormat(DATE_FORMAT);
+
+   /**
+    * Immutable formatter that can be shared among threads (unlike {@link java.text.SimpleDateFormat}).
+    */
+   private static final DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern(DATE_FORMAT);
 
    private Utils() {
       // to prevent initialization
    }
 
    public static String getCurrentTimeString() {
-      return dateFormat.format(new Date());
+      return dateFormat.format(LocalDateTime.now());
    }
 
    /**
@@ -49,7 +55,7 @@ public class Utils {
     * @return String representation of Date
     */
    public static String getTimeString(Date date) {
-      return dateFormat.format(date);
+      return dateFormat.format(LocalDateTime.ofInstant(date.toInstant(), ZoneId.systemDefault()));
    }
 
    /**
@@ -60,7 +66,11 @@ public class Utils {
     *       when string cannot be parsed
     */
    public static Date getDate(String date) throws ParseException {
-      return dateFormat.parse(date);
+      try {
+         return Date.from(LocalDateTime.parse(date, dateFormat).atZone(ZoneId.systemDefault()).toInstant());
+      } catch (DateTimeParseException e) {
+         throw new ParseException(e.getMessage(), e.getErrorIndex());
+      }
    }
 
    /**
@@ -72,14 +82,11 @@ public class Utils {
     */
    public static boolean isValidDateFormat(String dateString) {
       try {
-         Date date = dateFormat.parse(dateString);
-         if (!dateString.equals(dateFormat.format(date))) {
-            return false;
-         }
-      } catch (ParseException ex) {
+         LocalDateTime date = LocalDateTime.parse(dateString, dateFormat);
+         return dateString.equals(dateFormat.format(date));
+      } catch (DateTimeParseException ex) {
          return false;
       }
-      return true;
    }
 
    public static String normalize(String string) {
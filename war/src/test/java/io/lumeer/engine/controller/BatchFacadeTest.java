@@ -0,0 +1,215 @@
+package io.lumeer.engine.controller;/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.controller;
+
+import io.lumeer.engine.api.LumeerConst;
+import io.lumeer.engine.api.batch.MergeBatch;
+import io.lumeer.engine.api.batch.SplitBatch;
+import io.lumeer.engine.api.data.DataDocument;
+import io.lumeer.engine.api.data.DataStorage;
+import io.lumeer.engine.api.exception.DbException;
+import io.lumeer.engine.api.exception.UnsuccessfulOperationException;
+
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.testng.Arquillian;
+import org.jboss.shrinkwrap.api.Archive;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.EmptyAsset;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.inject.Inject;
+
+/**
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class BatchFacadeTest extends Arquillian {
+
+   @Deployment
+   public static Archive<?> createTestArchive() {
+      return ShrinkWrap.create(WebArchive.class, "BatchFacadeTest.war")
+                       .addPackages(true, "io.lumeer", "org.bson", "com.mongodb", "io.netty")
+                       .addAsWebInfResource(EmptyAsset.INSTANCE, "beans.xml")
+                       .addAsWebInfResource("jboss-deployment-structure.xml")
+                       .addAsResource("defaults-ci.properties")
+                       .addAsResource("defaults-dev.properties");
+   }
+
+   private static final String COLLECTION_MERGE = "batchFacadeMerge";
+   private static final String COLLECTION_SPLIT = "batchFacadeSplit";
+   private static final String COLLECTION_RESUME = "batchFacadeResume";
+   private static final String COLLECTION_REPEAT = "batchFacadeRepeat";
+   private static final int DOCUMENTS = 2500;
+
+   @Inject
+   private BatchFacade batchFacade;
+
+   @Inject
+   private DocumentFacade documentFacade;
+
+   @Inject
+   private VersionFacade versionFacade;
+
+   @Inject
+   private CollectionFacade collectionFacade;
+
+   @Inject
+   private CollectionMetadataFacade collectionMetadataFacade;
+
+   @Inject
+   private DataStorage dataStorage;
+
+   @Inject
+   private ConfigurationFacade configurationFacade;
+
+   @Inject
+   private BatchMetrics batchMetrics;
+
+   @Test
+   public void testMergeBatch() throws Exception {
+      final String coll = setUpCollection(COLLECTION_MERGE);
+      final List<DataDocument> documents = new ArrayList<>();
+      for (int i = 0; i < DOCUMENTS; i++) {
+         documents.add(new DataDocument("first", "a" + i).append("second", "b" + i));
+      }
+      final List<String> ids = documentFacade.createDocuments(coll, documents);
+
+      final long chunks = batchMetrics.getMetrics().getLong("chunks");
+      final List<Long> progress = new ArrayList<>();
+      final long modified = batchFacade.executeBatch(new MergeBatch(coll, Arrays.asList("first", "second"), "merged", "-", MergeBatch.MergeType.JOIN, false),
+            null, (lastDocumentId, processed, total) -> {
+               Assert.assertEquals(total, DOCUMENTS);
+               progress.add(processed);
+               return true;
+            });
+
+      Assert.assertEquals(modified, DOCUMENTS);
+      Assert.assertEquals(progress, Arrays.asList(1000L, 2000L, 2500L));
+      Assert.assertEquals(batchMetrics.getMetrics().getLong("chunks").longValue(), chunks + 3);
+      Assert.assertEquals(batchMetrics.getMetrics().getLong("chunksInProgress").longValue(), 0L);
+
+      final DataDocument merged = dataStorage.readDocument(coll, ids.get(7));
+      Assert.assertEquals(merged.getString("merged"), "a7-b7");
+      Assert.assertFalse(merged.containsKey("first"));
+      Assert.assertFalse(merged.containsKey("second"));
+      Assert.assertEquals(merged.getInteger(LumeerConst.METADATA_VERSION_KEY).intValue(), 1);
+
+      Assert.assertEquals(collectionMetadataFacade.getAttributeCount(coll, "merged"), DOCUMENTS);
+      Assert.assertEquals(collectionMetadataFacade.getAttributeCount(coll, "first"), 0);
+
+      final DataDocument old = versionFacade.readOldDocumentVersion(coll, ids.get(7), 0);
+      Assert.assertEquals(old.getString("first"), "a7");
+      Assert.assertFalse(old.containsKey("merged"));
+   }
+
+   @Test
+   public void testSplitBatchKeepOriginal() throws Exception {
+      final String coll = setUpCollection(COLLECTION_SPLIT);
+      final String id = documentFacade.createDocument(coll, new DataDocument("name", "John Smith"));
+      documentFacade.createDocument(coll, new DataDocument("other", "value"));
+
+      Assert.assertEquals(batchFacade.executeBatch(new SplitBatch(coll, "name", " ", true, Arrays.asList("firstName", "lastName"), true), null, null), 1);
+
+      final DataDocument split = dataStorage.readDocument(coll, id);
+      Assert.assertEquals(split.getString("name"), "John Smith");
+      Assert.assertEquals(split.getString("firstName"), "John");
+      Assert.assertEquals(split.getString("lastName"), "Smith");
+      Assert.assertEquals(collectionMetadataFacade.getAttributeCount(coll, "lastName"), 1);
+      Assert.assertEquals(collectionMetadataFacade.getAttributeCount(coll, "name"), 1);
+   }
+
+   @Test
+   public void testStopAndResumeBatch() throws Exception {
+      final String coll = setUpCollection(COLLECTION_RESUME);
+      final List<DataDocument> documents = new ArrayList<>();
+      for (int i = 0; i < DOCUMENTS; i++) {
+         documents.add(new DataDocument("value", i + ";" + i));
+      }
+      documentFacade.createDocuments(coll, documents);
+      final SplitBatch batch = new SplitBatch(coll, "value", ";", true, Arrays.asList("left", "right"), false);
+
+      // chunks running in parallel with the first one would be finished as well, so the batch runs sequentially to stop exactly
+      final String[] checkpoint = new String[1];
+      configurationFacade.setUserConfigurationInteger(LumeerConst.BATCH_PARALLELISM_PROPERTY, 1);
+      try {
+         Assert.assertEquals(batchFacade.executeBatch(batch, null, (lastDocumentId, processed, total) -> {
+            checkpoint[0] = lastDocumentId;
+            return false;
+         }), 1000);
+      } finally {
+         configurationFacade.resetUserConfigurationAttribute(LumeerConst.BATCH_PARALLELISM_PROPERTY);
+      }
+      Assert.assertEquals(collectionMetadataFacade.getAttributeCount(coll, "left"), 1000);
+
+      // the first chunk runs again to see that already split documents are left untouched
+      Assert.assertEquals(batchFacade.executeBatch(batch, null, null), DOCUMENTS - 1000);
+      Assert.assertEquals(collectionMetadataFacade.getAttributeCount(coll, "left"), DOCUMENTS);
+      Assert.assertEquals(collectionMetadataFacade.getAttributeCount(coll, "value"), 0);
+      Assert.assertEquals(batchFacade.executeBatch(batch, checkpoint[0], null), 0);
+   }
+
+   @Test
+   public void testRepeatedMergeKeepsVersions() throws Exception {
+      final String coll = setUpCollection(COLLECTION_REPEAT);
+      final List<DataDocument> documents = new ArrayList<>();
+      for (int i = 0; i < 10; i++) {
+         documents.add(new DataDocument("first", "a" + i).append("second", "b" + i));
+      }
+      final List<String> ids = documentFacade.createDocuments(coll, documents);
+      final MergeBatch batch = new MergeBatch(coll, Arrays.asList("first", "second"), "merged", "-", MergeBatch.MergeType.JOIN, true);
+
+      Assert.assertEquals(batchFacade.executeBatch(batch, null, null), 10);
+      Assert.assertEquals(dataStorage.readDocument(coll, ids.get(3)).getInteger(LumeerConst.METADATA_VERSION_KEY).intValue(), 1);
+
+      // the documents already contain the result, so running the batch again changes nothing
+      Assert.assertEquals(batchFacade.executeBatch(batch, null, null), 0);
+      final DataDocument merged = dataStorage.readDocument(coll, ids.get(3));
+      Assert.assertEquals(merged.getInteger(LumeerConst.METADATA_VERSION_KEY).intValue(), 1);
+      Assert.assertEquals(merged.getString("merged"), "a3-b3");
+
+      // merging into a kept source attribute would change the documents with every run
+      try {
+         batchFacade.executeBatch(new MergeBatch(coll, Arrays.asList("first", "second"), "first", "-", MergeBatch.MergeType.JOIN, true), null, null);
+         Assert.fail("Merge into a kept source attribute must not run.");
+      } catch (UnsuccessfulOperationException e) {
+         // expected
+      }
+      Assert.assertEquals(dataStorage.readDocument(coll, ids.get(3)).getString("first"), "a3");
+   }
+
+   private String setUpCollection(final String collection) {
+      try {
+         collectionFacade.dropCollection(collectionMetadataFacade.getInternalCollectionName(collection));
+      } catch (DbException e) {
+         // nothing to do
+      }
+      try {
+         return collectionFacade.createCollection(collection);
+      } catch (DbException e) {
+         e.printStackTrace();
+      }
+      return null;
+   }
+
+}
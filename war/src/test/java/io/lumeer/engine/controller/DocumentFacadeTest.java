@@ -37,9 +37,11 @@ import org.testng.Assert;
 import org.testng.annotations.BeforeTest;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import javax.inject.Inject;
@@ -63,6 +65,7 @@ public class DocumentFacadeTest extends Arquillian {
    private final String COLLECTION_REPLACE = "collectionReplace";
    private final String COLLECTION_REVERT = "collectionRevert";
    private final String COLLECTION_READ_AND_UPDATE = "collectionReadAndUpdate";
+   private final String COLLECTION_BULK_CREATE_AND_UPDATE = "collectionBulkCreateAndUpdate";
    private final String COLLECTION_GETATTRS_AND_DROPATTR = "collectionGetAttrsAndDropAttr";
 
    private final String DUMMY_KEY1 = "key1";
@@ -81,6 +84,9 @@ public class DocumentFacadeTest extends Arquillian {
    @Inject
    private DataStorage dataStorage;
 
+   @Inject
+   private VersionFacade versionFacade;
+
    @Test
    public void testCreateAndDropDocument() throws Exception {
       String coll = setUpCollection(COLLECTION_CREATE_AND_DROP);
@@ -182,6 +188,40 @@ public class DocumentFacadeTest extends Arquillian {
       Assert.assertEquals(updated.getString(DUMMY_KEY1), changed);
    }
 
+   @Test
+   public void testCreateAndUpdateDocuments() throws Exception {
+      String coll = setUpCollection(COLLECTION_BULK_CREATE_AND_UPDATE);
+
+      List<DataDocument> documents = new ArrayList<>();
+      for (int i = 0; i < 5; i++) {
+         documents.add(new DataDocument("a", "v" + i));
+      }
+      documents.get(0).put("b", "x");
+
+      List<String> documentIds = documentFacade.createDocuments(coll, documents);
+      Assert.assertEquals(documentIds.size(), 5);
+      Assert.assertEquals(collectionMetadataFacade.getAttributeCount(coll, "a"), 5);
+      Assert.assertEquals(collectionMetadataFacade.getAttributeCount(coll, "b"), 1);
+      Assert.assertEquals(dataStorage.readDocument(coll, documentIds.get(3)).getString("a"), "v3");
+
+      List<DataDocument> updates = new ArrayList<>();
+      for (String documentId : documentIds) {
+         updates.add(new DataDocument(ID_KEY, documentId).append("b", "y").append("c", "z"));
+      }
+      documentFacade.updateDocuments(coll, updates);
+
+      Assert.assertEquals(collectionMetadataFacade.getAttributeCount(coll, "a"), 5);
+      Assert.assertEquals(collectionMetadataFacade.getAttributeCount(coll, "b"), 5);
+      Assert.assertEquals(collectionMetadataFacade.getAttributeCount(coll, "c"), 5);
+      for (String documentId : documentIds) {
+         DataDocument updated = dataStorage.readDocument(coll, documentId);
+         Assert.assertEquals(updated.getString("b"), "y");
+         Assert.assertEquals(updated.getInteger(LumeerConst.METADATA_VERSION_KEY).intValue(), 1);
+      }
+      Assert.assertEquals(versionFacade.readOldDocumentVersion(coll, documentIds.get(0), 0).getString("b"), "x");
+      Assert.assertFalse(versionFacade.readOldDocumentVersion(coll, documentIds.get(1), 0).containsKey("b"));
+   }
+
    @Test
    public void testGetAttributes() throws Exception {
       String coll = setUpCollection(COLLECTION_GETATTRS_AND_DROPATTR);
@@ -0,0 +1,86 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.controller;
+
+import io.lumeer.engine.api.LumeerConst;
+import io.lumeer.engine.api.data.DataDocument;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class DocumentRightsCacheTest {
+
+   private static final String COLLECTION = "collection";
+   private static final String DOCUMENT = "document";
+
+   @Test
+   public void testCachedRights() {
+      final DocumentRightsCache cache = new DocumentRightsCache();
+      final AtomicInteger loads = new AtomicInteger();
+      final DocumentRightsCache.DocumentRights rights = rights(LumeerConst.Security.READ);
+
+      Assert.assertSame(cache.getDocumentRights(COLLECTION, DOCUMENT, () -> {
+         loads.incrementAndGet();
+         return rights;
+      }), rights);
+      Assert.assertSame(cache.getDocumentRights(COLLECTION, DOCUMENT, () -> {
+         loads.incrementAndGet();
+         return rights(LumeerConst.Security.WRITE);
+      }), rights);
+      Assert.assertEquals(loads.get(), 1);
+
+      cache.invalidate(COLLECTION);
+      Assert.assertNotSame(cache.getDocumentRights(COLLECTION, DOCUMENT, () -> rights(LumeerConst.Security.WRITE)), rights);
+   }
+
+   @Test
+   public void testInvalidateWhileLoading() {
+      final DocumentRightsCache cache = new DocumentRightsCache();
+      final DocumentRightsCache.DocumentRights stale = rights(LumeerConst.Security.READ);
+      final DocumentRightsCache.DocumentRights fresh = rights(LumeerConst.Security.WRITE);
+
+      // the rights are changed after the old ones were read, the old ones must not stay cached
+      Assert.assertSame(cache.getDocumentRights(COLLECTION, DOCUMENT, () -> {
+         cache.invalidate(COLLECTION, DOCUMENT);
+         return stale;
+      }), stale);
+      Assert.assertSame(cache.getDocumentRights(COLLECTION, DOCUMENT, () -> fresh), fresh);
+   }
+
+   @Test
+   public void testMissingDocument() {
+      final DocumentRightsCache cache = new DocumentRightsCache();
+      final DocumentRightsCache.DocumentRights rights = rights(LumeerConst.Security.READ);
+
+      Assert.assertNull(cache.getDocumentRights(COLLECTION, DOCUMENT, () -> null));
+      Assert.assertSame(cache.getDocumentRights(COLLECTION, DOCUMENT, () -> rights), rights);
+   }
+
+   private static DocumentRightsCache.DocumentRights rights(final int rule) {
+      return DocumentRightsCache.DocumentRights.of(Collections.singletonList(
+            new DataDocument(LumeerConst.Security.USER_ID, "user@lumeer.io").append(LumeerConst.Security.RULE, rule)));
+   }
+}
@@ -0,0 +1,140 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.controller;
+
+import io.lumeer.engine.api.LumeerConst;
+import io.lumeer.engine.api.data.DataDocument;
+import io.lumeer.engine.api.data.DataStorage;
+import io.lumeer.engine.api.exception.DbException;
+
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.testng.Arquillian;
+import org.jboss.shrinkwrap.api.Archive;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.EmptyAsset;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import javax.inject.Inject;
+
+/**
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class IndexAdvisorFacadeTest extends Arquillian {
+
+   @Deployment
+   public static Archive<?> createTestArchive() {
+      return ShrinkWrap.create(WebArchive.class, "IndexAdvisorFacadeTest.war")
+                       .addPackages(true, "io.lumeer", "org.bson", "com.mongodb", "io.netty")
+                       .addAsWebInfResource(EmptyAsset.INSTANCE, "beans.xml")
+                       .addAsWebInfResource("jboss-deployment-structure.xml")
+                       .addAsResource("defaults-ci.properties")
+                       .addAsResource("defaults-dev.properties");
+   }
+
+   private static final String COLLECTION_RECOMMENDATIONS = "indexAdvisorRecommendations";
+   private static final String COLLECTION_VIEW = "indexAdvisorView";
+
+   @Inject
+   private IndexAdvisorFacade indexAdvisorFacade;
+
+   @Inject
+   private SearchFacade searchFacade;
+
+   @Inject
+   private ViewFacade viewFacade;
+
+   @Inject
+   private CollectionFacade collectionFacade;
+
+   @Inject
+   private CollectionMetadataFacade collectionMetadataFacade;
+
+   @Inject
+   private DataStorage dataStorage;
+
+   @Test
+   public void testIndexKey() throws Exception {
+      final DataDocument filters = new DataDocument("range", new DataDocument("$gt", 3))
+            .append("equal", 1)
+            .append("$and", Arrays.asList(new DataDocument("in", new DataDocument("$in", Arrays.asList(1, 2))), new DataDocument("other", new DataDocument("$exists", true))));
+      final DataDocument key = IndexAdvisor.getIndexKey(filters, new DataDocument("sort", -1).append("equal", 1));
+
+      Assert.assertEquals(key.keySet().toArray(), new String[] { "equal", "in", "sort", "range" });
+      Assert.assertEquals(key.get("sort"), -1);
+      Assert.assertEquals(IndexAdvisor.getIndexName(key), "advisor_equal_1_in_1_sort_-1_range_1");
+      Assert.assertFalse(IndexAdvisor.covers(new DataDocument("equal", 1.0).append("in", -1).append("sort", 1).append("range", -1).append("x", 1), key));
+      Assert.assertTrue(IndexAdvisor.covers(new DataDocument("equal", -1.0).append("in", -1).append("sort", 1).append("range", -1).append("x", 1), key));
+      Assert.assertTrue(IndexAdvisor.getIndexKey(new DataDocument("$or", Arrays.asList(new DataDocument("a", 1), new DataDocument("b", 1))), null).isEmpty());
+   }
+
+   @Test
+   public void testRecommendAndApply() throws Exception {
+      final String collection = setUpCollection(COLLECTION_RECOMMENDATIONS);
+
+      for (int i = 0; i < 9; i++) {
+         searchFacade.search(collection, "{\"a\": " + i + ", \"b\": {\"$gt\": 3}}", "{\"c\": -1}", 0, 0);
+      }
+      Assert.assertTrue(indexAdvisorFacade.getRecommendations(collection).isEmpty());
+
+      searchFacade.search(collection, "{\"a\": 10, \"b\": {\"$gt\": 3}}", "{\"c\": -1}", 0, 0);
+      List<DataDocument> recommendations = indexAdvisorFacade.getRecommendations(collection);
+
+      Assert.assertEquals(recommendations.size(), 1);
+      Assert.assertEquals(recommendations.get(0).getString("action"), IndexAdvisorFacade.ACTION_CREATE);
+      Assert.assertEquals(recommendations.get(0).getString("name"), "advisor_a_1_c_-1_b_1");
+      Assert.assertEquals(recommendations.get(0).getLong("uses"), Long.valueOf(10));
+
+      Assert.assertEquals(indexAdvisorFacade.applyRecommendations(collection).size(), 1);
+      Assert.assertTrue(dataStorage.listIndexes(collection).stream().anyMatch(index -> "advisor_a_1_c_-1_b_1".equals(index.get("name"))));
+      Assert.assertTrue(indexAdvisorFacade.getRecommendations(collection).isEmpty());
+   }
+
+   @Test
+   public void testViewQuery() throws Exception {
+      final String collection = setUpCollection(COLLECTION_VIEW);
+      final DataDocument query = new DataDocument("collections", Arrays.asList(COLLECTION_VIEW))
+            .append("filters", new DataDocument("state", "open"))
+            .append("sorting", new DataDocument("priority", 1));
+
+      viewFacade.createView("indexAdvisorView" + System.currentTimeMillis(), LumeerConst.View.VIEW_TYPE_DEFAULT_VALUE, new DataDocument(LumeerConst.View.VIEW_CONFIGURATION_QUERY_KEY, query));
+
+      final List<DataDocument> recommendations = indexAdvisorFacade.getRecommendations(collection);
+      Assert.assertEquals(recommendations.size(), 1);
+      Assert.assertEquals(recommendations.get(0).get("key"), new DataDocument("state", 1).append("priority", 1));
+   }
+
+   private String setUpCollection(final String collection) {
+      try {
+         collectionFacade.dropCollection(collectionMetadataFacade.getInternalCollectionName(collection));
+      } catch (DbException e) {
+         // nothing to do
+      }
+      try {
+         return collectionFacade.createCollection(collection);
+      } catch (DbException e) {
+         e.printStackTrace();
+      }
+      return null;
+   }
+}
@@ -74,6 +74,9 @@ public class LinkingFacadeTest extends Arquillian {
    private final String COLLECTION_READ_DROP_ALL_I = "collectionCreateDropAllI";
    private final String COLLECTION_READ_DROP_ALL_II = "collectionCreateDropAllII";
    private final String COLLECTION_READ_DROP_ALL_III = "collectionCreateDropAllIII";
+   private final String COLLECTION_READ_PAGED_I = "collectionReadPagedI";
+   private final String COLLECTION_READ_PAGED_II = "collectionReadPagedII";
+   private final String COLLECTION_READ_PAGED_III = "collectionReadPagedIII";
 
    private final int NUM_DOCUMENTS = 3;
 
@@ -348,6 +351,47 @@ public class LinkingFacadeTest extends Arquillian {
       Assert.assertTrue(links.isEmpty());
    }
 
+   @Test
+   public void testReadPagedLinks() throws Exception {
+      List<String> collections = Arrays.asList(COLLECTION_READ_PAGED_I, COLLECTION_READ_PAGED_II, COLLECTION_READ_PAGED_III);
+      Map<String, List<String>> ids = createTestData(collections);
+
+      String col1Id1 = ids.get(COLLECTION_READ_PAGED_I).get(0);
+      String role1 = "role1";
+
+      dropLinkingCollections(Collections.singletonList(role1), collections);
+      linkingFacade.dropCollectionLinks(COLLECTION_READ_PAGED_I, null, LumeerConst.Linking.LinkDirection.FROM);
+
+      for (String id : ids.get(COLLECTION_READ_PAGED_II)) {
+         linkingFacade.createDocWithDocLink(COLLECTION_READ_PAGED_I, col1Id1, COLLECTION_READ_PAGED_II, id, new DataDocument(), role1, LumeerConst.Linking.LinkDirection.FROM);
+      }
+      for (String id : ids.get(COLLECTION_READ_PAGED_III)) {
+         linkingFacade.createDocWithDocLink(COLLECTION_READ_PAGED_I, col1Id1, COLLECTION_READ_PAGED_III, id, new DataDocument(), role1, LumeerConst.Linking.LinkDirection.FROM);
+      }
+
+      // linking table is indexed by both link ends
+      Assert.assertEquals(dataStorage.listIndexes(buildCollectionName(COLLECTION_READ_PAGED_I, COLLECTION_READ_PAGED_II, role1)).size(), 3);
+
+      List<DataDocument> all = linkingFacade.readDocumentLinksDocs(COLLECTION_READ_PAGED_I, col1Id1, role1, LumeerConst.Linking.LinkDirection.FROM);
+      Assert.assertEquals(all.size(), 2 * NUM_DOCUMENTS);
+
+      List<DataDocument> paged = new ArrayList<>();
+      paged.addAll(linkingFacade.readDocumentLinksDocs(COLLECTION_READ_PAGED_I, col1Id1, role1, LumeerConst.Linking.LinkDirection.FROM, 0, 4));
+      Assert.assertEquals(paged.size(), 4);
+      paged.addAll(linkingFacade.readDocumentLinksDocs(COLLECTION_READ_PAGED_I, col1Id1, role1, LumeerConst.Linking.LinkDirection.FROM, 4, 4));
+      Assert.assertEquals(paged.size(), 2 * NUM_DOCUMENTS);
+
+      List<String> allIds = new ArrayList<>();
+      all.forEach(d -> allIds.add(d.getId()));
+      List<String> pagedIds = new ArrayList<>();
+      paged.forEach(d -> pagedIds.add(d.getId()));
+      Assert.assertTrue(pagedIds.containsAll(allIds));
+
+      Assert.assertTrue(linkingFacade.readDocumentLinksDocs(COLLECTION_READ_PAGED_I, col1Id1, role1, LumeerConst.Linking.LinkDirection.FROM, 2 * NUM_DOCUMENTS, 4).isEmpty());
+      Assert.assertEquals(linkingFacade.readLinks(COLLECTION_READ_PAGED_I, role1, LumeerConst.Linking.LinkDirection.FROM, 1, 2 * NUM_DOCUMENTS).size(), 2 * NUM_DOCUMENTS - 1);
+      Assert.assertEquals(linkingFacade.readDocWithCollectionLinks(COLLECTION_READ_PAGED_I, col1Id1, COLLECTION_READ_PAGED_III, role1, LumeerConst.Linking.LinkDirection.FROM, 1, 1).size(), 1);
+   }
+
    private Map<String, List<String>> createTestData(List<String> collections) {
       Map<String, List<String>> ids = new HashMap<>();
       for (String col : collections) {
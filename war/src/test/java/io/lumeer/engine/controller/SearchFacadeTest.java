@@ -19,10 +19,12 @@
  */
 package io.lumeer.engine.controller;
 
+import io.lumeer.engine.api.LumeerConst;
 import io.lumeer.engine.api.data.DataDocument;
 import io.lumeer.engine.api.data.DataStorage;
 import io.lumeer.engine.api.data.Query;
 
+import org.bson.json.JsonParseException;
 import org.jboss.arquillian.container.test.api.Deployment;
 import org.jboss.arquillian.testng.Arquillian;
 import org.jboss.shrinkwrap.api.Archive;
@@ -34,7 +36,13 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.BeforeTest;
 import org.testng.annotations.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import javax.inject.Inject;
 
 /**
@@ -55,6 +63,10 @@ public class SearchFacadeTest extends Arquillian {
    private final String COLLECTION_SEARCH = "collectionSearch";
    private final String COLLECTION_SEARCH_RAW = "collectionSearchRaw";
    private final String COLLECTION_QUERY = "collectionQuery";
+   private final String COLLECTION_SEARCH_RIGHTS = "collectionSearchRights";
+   private final String COLLECTION_SEARCH_RIGHTS_INJECTION = "collectionSearchRightsInjection";
+   private final String COLLECTION_QUERY_MERGED_1 = "collectionQueryMerged1";
+   private final String COLLECTION_QUERY_MERGED_2 = "collectionQueryMerged2";
 
    @Inject
    private SearchFacade searchFacade;
@@ -65,9 +77,15 @@ public class SearchFacadeTest extends Arquillian {
    @Inject
    private CollectionMetadataFacade collectionMetadataFacade;
 
+   @Inject
+   private CollectionFacade collectionFacade;
+
    @Inject
    private DataStorage dataStorage;
 
+   @Inject
+   private UserFacade userFacade;
+
    @Test
    public void testSearch() throws Exception {
       setUpCollection(COLLECTION_SEARCH);
@@ -82,6 +100,49 @@ public class SearchFacadeTest extends Arquillian {
       Assert.assertEquals(searchDocuments.size(), 5);
    }
 
+   @Test
+   public void testSearchReadRights() throws Exception {
+      setUpCollection(COLLECTION_SEARCH_RIGHTS);
+
+      for (int i = 0; i < 10; i++) {
+         dataStorage.createDocument(COLLECTION_SEARCH_RIGHTS, new DataDocument("i", i).append(LumeerConst.Document.USER_RIGHTS, Arrays.asList(
+               rights(userFacade.getUserEmail(), i % 2 == 0 ? LumeerConst.Security.READ : LumeerConst.Security.WRITE),
+               rights("other@lumeer.io", 7))));
+      }
+      dataStorage.createDocument(COLLECTION_SEARCH_RIGHTS, new DataDocument("i", 10));
+      dataStorage.createDocument(COLLECTION_SEARCH_RIGHTS, new DataDocument("i", 11).append(LumeerConst.Document.USER_RIGHTS, Collections.emptyList()));
+
+      List<DataDocument> searchDocuments = searchFacade.search(COLLECTION_SEARCH_RIGHTS, null, null, 0, 0);
+
+      Assert.assertEquals(searchDocuments.size(), 6);
+      Assert.assertEquals(searchFacade.search(COLLECTION_SEARCH_RIGHTS, "{\"i\": {\"$gt\": 5}}", null, 0, 0).size(), 3);
+      Assert.assertEquals(searchFacade.count(COLLECTION_SEARCH_RIGHTS, null), 6L);
+      Assert.assertEquals(searchFacade.count(COLLECTION_SEARCH_RIGHTS, "{\"i\": {\"$lt\": 5}}"), 3L);
+      Assert.assertTrue(dataStorage.listIndexes(COLLECTION_SEARCH_RIGHTS).stream().anyMatch(index ->
+            ((Map<?, ?>) index.get("key")).containsKey(LumeerConst.Document.USER_RIGHTS + "." + LumeerConst.Security.USER_ID)));
+   }
+
+   @Test
+   public void testSearchRightsInjection() throws Exception {
+      setUpCollection(COLLECTION_SEARCH_RIGHTS_INJECTION);
+
+      for (int i = 0; i < 5; i++) {
+         dataStorage.createDocument(COLLECTION_SEARCH_RIGHTS_INJECTION, new DataDocument("i", i).append(LumeerConst.Document.USER_RIGHTS, Collections.singletonList(
+               rights("other@lumeer.io", 7))));
+      }
+
+      final String injection = "{}], \"$or\" : [{}";
+      try {
+         Assert.assertTrue(searchFacade.search(COLLECTION_SEARCH_RIGHTS_INJECTION, injection, null, 0, 0).isEmpty());
+         Assert.assertEquals(searchFacade.count(COLLECTION_SEARCH_RIGHTS_INJECTION, injection), 0L);
+         try (Stream<DataDocument> stream = searchFacade.searchStream(COLLECTION_SEARCH_RIGHTS_INJECTION, injection, null, 0, 0)) {
+            Assert.assertEquals(stream.count(), 0L);
+         }
+      } catch (JsonParseException e) {
+         // rejecting the malformed filter is fine as well
+      }
+   }
+
    @Test
    public void testRawSearch() throws Exception {
       setUpCollection(COLLECTION_SEARCH_RAW);
@@ -110,6 +171,42 @@ public class SearchFacadeTest extends Arquillian {
       final Query q = new Query();
    }
 
+   @Test
+   public void testQueryMoreCollections() throws Exception {
+      final String collection1 = setUpUserCollection(COLLECTION_QUERY_MERGED_1);
+      final String collection2 = setUpUserCollection(COLLECTION_QUERY_MERGED_2);
+
+      for (int i = 0; i < 10; i++) {
+         documentFacade.createDocument(i % 3 == 0 ? collection1 : collection2, new DataDocument("i", i));
+      }
+
+      final Query query = new Query(new HashSet<>(Arrays.asList(COLLECTION_QUERY_MERGED_1, COLLECTION_QUERY_MERGED_2)),
+            new DataDocument(), null, new DataDocument("i", -1), 4, 3);
+      final List<DataDocument> documents = searchFacade.query(query);
+
+      Assert.assertEquals(documents.stream().map(d -> d.getInteger("i")).collect(Collectors.toList()), Arrays.asList(6, 5, 4, 3));
+      Assert.assertEquals(documents.get(0).getString(LumeerConst.Document.COLLECTION_NAME), collection1);
+      Assert.assertEquals(documents.get(1).getString(LumeerConst.Document.COLLECTION_NAME), collection2);
+
+      try (Stream<DataDocument> stream = searchFacade.queryStream(query)) {
+         Assert.assertEquals(stream.map(d -> d.getInteger("i")).collect(Collectors.toList()), Arrays.asList(6, 5, 4, 3));
+      }
+   }
+
+   private DataDocument rights(final String user, final int rule) {
+      return new DataDocument(LumeerConst.Security.USER_ID, user).append(LumeerConst.Security.RULE, rule);
+   }
+
+   private String setUpUserCollection(final String originalName) throws Exception {
+      final String collection = "collection." + originalName.toLowerCase() + "_0";
+
+      if (dataStorage.hasCollection(collection)) {
+         collectionFacade.dropCollection(collection);
+      }
+
+      return collectionFacade.createCollection(originalName);
+   }
+
    private void setUpCollection(final String collection) {
       dataStorage.dropCollection(collection);
       dataStorage.dropCollection(collectionMetadataFacade.collectionMetadataCollectionName(collection));
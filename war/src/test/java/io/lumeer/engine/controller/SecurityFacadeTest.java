@@ -73,6 +73,7 @@ public class SecurityFacadeTest extends Arquillian {
    private final String SECURITY_TEST_COLLECTION_WRITE = "securityTestCollectionWrite";
    private final String SECURITY_TEST_COLLECTION_EXECUTE = "securityTestCollectionExecute";
    private final String SECURITY_TEST_COLLECTION_ADD_RIGHTS = "securityTestCollectionAddRights";
+   private final String SECURITY_TEST_COLLECTION_GROUPS = "securityTestCollectionGroups";
 
    @Inject
    public DataStorage dataStorage;
@@ -401,6 +402,37 @@ public class SecurityFacadeTest extends Arquillian {
       Assert.assertTrue(securityFacade.checkForAddRights(dataDocument, userFacade.getUserEmail()));
    }
 
+   @Test
+   public void testGroupRights() throws Exception {
+      final String group = userFacade.getUserRoles().iterator().next();
+      DataDocument dataDocument = new DataDocument();
+      dataDocument.put(LumeerConst.Document.CREATE_BY_USER_KEY, userFacade.getUserEmail());
+      securityFacade.addMetaData(dataDocument);
+      addRights(dataDocument, TEST_USER, 1);
+      securityFacade.setGroupRights(dataDocument, group, 6);
+
+      Assert.assertTrue(securityFacade.checkForRead(dataDocument, userFacade.getUserEmail()));
+      Assert.assertTrue(securityFacade.checkForWrite(dataDocument, userFacade.getUserEmail()));
+      Assert.assertFalse(securityFacade.checkForExecute(dataDocument, userFacade.getUserEmail()));
+      Assert.assertFalse(securityFacade.checkForRead(dataDocument, TEST_USER));
+      Assert.assertTrue(securityFacade.checkForExecute(dataDocument, TEST_USER));
+      Assert.assertEquals(securityFacade.readRightList(dataDocument).size(), 1);
+
+      if (dataStorage.hasCollection(SECURITY_TEST_COLLECTION_GROUPS)) {
+         dataStorage.dropCollection(SECURITY_TEST_COLLECTION_GROUPS);
+      }
+      String id = dataStorage.createDocument(SECURITY_TEST_COLLECTION_GROUPS, dataDocument);
+      Assert.assertTrue(securityFacade.checkForRead(SECURITY_TEST_COLLECTION_GROUPS, id, userFacade.getUserEmail()));
+      Assert.assertTrue(securityFacade.getDaoCached(SECURITY_TEST_COLLECTION_GROUPS, id, userFacade.getUserEmail()).isWrite());
+      Assert.assertEquals(dataStorage.search(SECURITY_TEST_COLLECTION_GROUPS, securityFacade.readQueryString(userFacade.getUserEmail()), null, 0, 0).size(), 1);
+
+      securityFacade.setGroupRights(SECURITY_TEST_COLLECTION_GROUPS, id, group, 0);
+      Assert.assertFalse(securityFacade.checkForRead(SECURITY_TEST_COLLECTION_GROUPS, id, userFacade.getUserEmail()));
+      Assert.assertFalse(securityFacade.getDaoCached(SECURITY_TEST_COLLECTION_GROUPS, id, userFacade.getUserEmail()).isWrite());
+      Assert.assertTrue(securityFacade.checkForExecute(SECURITY_TEST_COLLECTION_GROUPS, id, TEST_USER));
+      Assert.assertEquals(dataStorage.search(SECURITY_TEST_COLLECTION_GROUPS, securityFacade.readQueryString(userFacade.getUserEmail()), null, 0, 0).size(), 0);
+   }
+
    @Test
    public void testReadDaoList() throws Exception {
       DataDocument dataDocument = new DataDocument();
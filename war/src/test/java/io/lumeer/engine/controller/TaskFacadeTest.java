@@ -0,0 +1,89 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.controller;
+
+import io.lumeer.engine.annotation.SystemDataStorage;
+import io.lumeer.engine.api.LumeerConst;
+import io.lumeer.engine.api.data.DataDocument;
+import io.lumeer.engine.api.data.DataStorage;
+import io.lumeer.engine.api.task.TaskState;
+
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.testng.Arquillian;
+import org.jboss.shrinkwrap.api.Archive;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.EmptyAsset;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import javax.inject.Inject;
+
+/**
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class TaskFacadeTest extends Arquillian {
+
+   @Deployment
+   public static Archive<?> createTestArchive() {
+      return ShrinkWrap.create(WebArchive.class, "TaskFacadeTest.war")
+                       .addPackages(true, "io.lumeer", "org.bson", "com.mongodb", "io.netty")
+                       .addAsWebInfResource(EmptyAsset.INSTANCE, "beans.xml")
+                       .addAsWebInfResource("jboss-deployment-structure.xml")
+                       .addAsResource("defaults-ci.properties")
+                       .addAsResource("defaults-dev.properties");
+   }
+
+   @Inject
+   @SystemDataStorage
+   private DataStorage systemDataStorage;
+
+   @Inject
+   private TaskFacade taskFacade;
+
+   @Test
+   public void testLeaseRenewal() {
+      taskFacade.init();
+      final String taskId = systemDataStorage.createDocument(LumeerConst.Task.COLLECTION_NAME, new DataDocument(LumeerConst.Task.STATE_KEY, TaskState.QUEUED.name()));
+
+      try {
+         final DataDocument task = taskFacade.claimTask(taskId, "nodeA");
+         Assert.assertNotNull(task);
+         final int version = task.getInteger(LumeerConst.METADATA_VERSION_KEY);
+         Assert.assertEquals(version, 1);
+         Assert.assertNull(taskFacade.claimTask(taskId, "nodeB"));
+
+         Assert.assertTrue(taskFacade.renewTask(taskId, version, new DataDocument()));
+         Assert.assertTrue(taskFacade.renewTask(taskId, version + 1, new DataDocument(LumeerConst.Task.CHECKPOINT_KEY, "first")));
+         Assert.assertFalse(taskFacade.renewTask(taskId, version, new DataDocument(LumeerConst.Task.CHECKPOINT_KEY, "stale")));
+
+         // the lease of the first node expires and the task is claimed by another node
+         taskFacade.updateTask(taskId, new DataDocument(LumeerConst.Task.LEASE_KEY, 0L));
+         Assert.assertNotNull(taskFacade.claimTask(taskId, "nodeB"));
+
+         Assert.assertFalse(taskFacade.renewTask(taskId, version + 2, new DataDocument(LumeerConst.Task.CHECKPOINT_KEY, "second")));
+         final DataDocument claimed = taskFacade.readTask(taskId);
+         Assert.assertEquals(claimed.getString(LumeerConst.Task.NODE_KEY), "nodeB");
+         Assert.assertEquals(claimed.getString(LumeerConst.Task.CHECKPOINT_KEY), "first");
+      } finally {
+         systemDataStorage.dropDocument(LumeerConst.Task.COLLECTION_NAME, taskId);
+      }
+   }
+}
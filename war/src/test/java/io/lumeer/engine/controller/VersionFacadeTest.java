@@ -33,6 +33,11 @@ import org.jboss.shrinkwrap.api.spec.WebArchive;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
 import javax.inject.Inject;
 
 /**
@@ -59,6 +64,13 @@ public class VersionFacadeTest extends Arquillian {
    private final String TEST_GET_OLD_DOC = "versionTestGetOldDocuments";
    private final String TEST_REVERT = "versionTestRevert";
    private final String TEST_EXCEPTION = "versionTestException";
+   private final String TEST_CONFLICT = "versionTestConflict";
+   private final String TEST_STORED_VERSION = "versionTestStoredVersion";
+   private final String TEST_LATE_UPDATE = "versionTestLateUpdate";
+   private final String TEST_BULK_STORED_VERSION = "versionTestBulkStoredVersion";
+   private final String TEST_DELTA = "versionTestDelta";
+   private final String TEST_RETENTION = "versionTestRetention";
+   private final String TEST_PAGED = "versionTestPaged";
    private final String SHADOW = ".shadow";
 
    @Inject
@@ -174,6 +186,204 @@ public class VersionFacadeTest extends Arquillian {
       versionFacade.backUp(TEST_EXCEPTION, documentId);
    }
 
+   @Test
+   public void testConflictingUpdate() throws Exception {
+      String shadow = createCollection(TEST_CONFLICT);
+      String documentId = dataStorage.createDocument(TEST_CONFLICT, createTestDocument());
+      DataDocument first = dataStorage.readDocument(TEST_CONFLICT, documentId);
+      DataDocument second = dataStorage.readDocument(TEST_CONFLICT, documentId);
+      first.replace("dog", "pig");
+      second.replace("dog", "cow");
+      Assert.assertEquals(versionFacade.newDocumentVersion(TEST_CONFLICT, first), 2);
+      try {
+         versionFacade.newDocumentVersion(TEST_CONFLICT, second);
+         Assert.fail("Conflicting update must not succeed.");
+      } catch (VersionUpdateConflictException e) {
+         // expected
+      }
+      DataDocument stored = dataStorage.readDocument(TEST_CONFLICT, documentId);
+      Assert.assertEquals((int) stored.getInteger(VERSION_STRING), 2);
+      Assert.assertEquals(stored.getString("dog"), "pig");
+      Assert.assertEquals(dataStorage.readOldDocument(shadow, documentId, 1).getString("dog"), "cat");
+      Assert.assertNull(dataStorage.readOldDocument(shadow, documentId, 2));
+   }
+
+   @Test
+   public void testUpdateWithStoredVersion() throws Exception {
+      String shadow = createCollection(TEST_STORED_VERSION);
+      String documentId = dataStorage.createDocument(TEST_STORED_VERSION, createTestDocument());
+
+      // an update of the same version is in progress
+      dataStorage.createOldDocument(shadow, new DataDocument("dog", "owl").append(LumeerConst.Version.HISTORY_DATE_KEY, new Date()), documentId, 1);
+      DataDocument change = new DataDocument("dog", "pig");
+      change.setId(documentId);
+      try {
+         versionFacade.newDocumentVersion(TEST_STORED_VERSION, change, 1);
+         Assert.fail("Update of a version being stored by somebody else must not succeed.");
+      } catch (VersionUpdateConflictException e) {
+         // expected
+      }
+      Assert.assertEquals(dataStorage.readDocument(TEST_STORED_VERSION, documentId).getString("dog"), "cat");
+      Assert.assertEquals(dataStorage.readOldDocument(shadow, documentId, 1).getString("dog"), "owl");
+
+      // the update in progress was abandoned a long time ago
+      dataStorage.dropOldDocument(shadow, documentId, 1);
+      dataStorage.createOldDocument(shadow, new DataDocument("dog", "owl").append(LumeerConst.Version.HISTORY_DATE_KEY, new Date(System.currentTimeMillis() - 3600000L)), documentId, 1);
+      Assert.assertEquals(versionFacade.newDocumentVersion(TEST_STORED_VERSION, change, 1), 2);
+      Assert.assertEquals(dataStorage.readDocument(TEST_STORED_VERSION, documentId).getString("dog"), "pig");
+      Assert.assertEquals(dataStorage.readOldDocument(shadow, documentId, 1).getString("dog"), "cat");
+   }
+
+   @Test
+   public void testLateUpdateAfterSuccessfulOne() throws Exception {
+      String shadow = createCollection(TEST_LATE_UPDATE);
+      String documentId = dataStorage.createDocument(TEST_LATE_UPDATE, createTestDocument());
+      DataDocument existing = dataStorage.readDocument(TEST_LATE_UPDATE, documentId);
+      Assert.assertEquals(versionFacade.newDocumentVersion(TEST_LATE_UPDATE, new DataDocument(existing), new DataDocument("dog", "pig")), 2);
+
+      // the history of the successful update is old enough to look abandoned
+      dataStorage.dropOldDocument(shadow, documentId, 1);
+      dataStorage.createOldDocument(shadow, new DataDocument("dog", "cat").append(LumeerConst.Version.HISTORY_DATE_KEY, new Date(System.currentTimeMillis() - 3600000L)), documentId, 1);
+      try {
+         versionFacade.newDocumentVersion(TEST_LATE_UPDATE, new DataDocument(existing), new DataDocument("dog", "cow"));
+         Assert.fail("Update of a version the document already left must not succeed.");
+      } catch (VersionUpdateConflictException e) {
+         // expected
+      }
+      Assert.assertEquals(dataStorage.readDocument(TEST_LATE_UPDATE, documentId).getString("dog"), "pig");
+      Assert.assertEquals(dataStorage.readOldDocument(shadow, documentId, 1).getString("dog"), "cat");
+   }
+
+   @Test
+   public void testBulkUpdateWithStoredVersion() throws Exception {
+      String shadow = createCollection(TEST_BULK_STORED_VERSION);
+      String firstId = dataStorage.createDocument(TEST_BULK_STORED_VERSION, createTestDocument());
+      String secondId = dataStorage.createDocument(TEST_BULK_STORED_VERSION, createTestDocument());
+
+      // an update of the second document is in progress
+      dataStorage.createOldDocument(shadow, new DataDocument("dog", "owl").append(LumeerConst.Version.HISTORY_DATE_KEY, new Date()), secondId, 1);
+      List<DataDocument> originals = new ArrayList<>(Arrays.asList(dataStorage.readDocument(TEST_BULK_STORED_VERSION, firstId), dataStorage.readDocument(TEST_BULK_STORED_VERSION, secondId)));
+      DataDocument firstChange = new DataDocument("dog", "pig");
+      firstChange.setId(firstId);
+      DataDocument secondChange = new DataDocument("dog", "cow");
+      secondChange.setId(secondId);
+      List<DataDocument> updates = new ArrayList<>(Arrays.asList(firstChange, secondChange));
+
+      versionFacade.newDocumentVersions(TEST_BULK_STORED_VERSION, originals, updates, Collections.emptyList());
+      Assert.assertEquals(updates.size(), 1);
+      Assert.assertEquals(updates.get(0).getId(), firstId);
+      Assert.assertEquals(versionFacade.getDocumentVersion(updates.get(0)), 2);
+
+      Assert.assertEquals(dataStorage.readDocument(TEST_BULK_STORED_VERSION, firstId).getString("dog"), "pig");
+      Assert.assertEquals(dataStorage.readOldDocument(shadow, firstId, 1).getString("dog"), "cat");
+      Assert.assertEquals(dataStorage.readDocument(TEST_BULK_STORED_VERSION, secondId).getString("dog"), "cat");
+      Assert.assertEquals(dataStorage.readOldDocument(shadow, secondId, 1).getString("dog"), "owl");
+   }
+
+   @Test
+   public void testDeltaHistory() throws Exception {
+      versionFacade.setHistorySettings(LumeerConst.Version.HISTORY_MODE_DELTA, 3, 0, 0);
+      try {
+         String shadow = createCollection(TEST_DELTA);
+         String documentId = dataStorage.createDocument(TEST_DELTA, createTestDocument());
+         for (int i = 2; i <= 7; i++) {
+            DataDocument change = new DataDocument("count", i).append("attr" + i, "value" + i);
+            change.setId(documentId);
+            if (i == 5) {
+               // replacement drops all the previous attributes
+               versionFacade.replaceDocumentVersion(TEST_DELTA, change, documentId, i - 1);
+            } else {
+               versionFacade.newDocumentVersion(TEST_DELTA, change, i - 1);
+            }
+         }
+
+         Assert.assertTrue(dataStorage.readOldDocument(shadow, documentId, 1).containsKey(LumeerConst.Version.HISTORY_DELTA_KEY));
+         Assert.assertFalse(dataStorage.readOldDocument(shadow, documentId, 3).containsKey(LumeerConst.Version.HISTORY_DELTA_KEY));
+
+         for (int version = 1; version < 7; version++) {
+            DataDocument old = versionFacade.readOldDocumentVersion(TEST_DELTA, documentId, version);
+            Assert.assertEquals(versionFacade.getDocumentVersion(old), version);
+            Assert.assertEquals(old.getId(), documentId);
+            Assert.assertEquals(old.containsKey("dog"), version < 5);
+            Assert.assertEquals(old.get("count"), version > 1 ? version : null);
+            for (int i = 2; i <= 7; i++) {
+               Assert.assertEquals(old.containsKey("attr" + i), i <= version && (i >= 5 || version < 5));
+            }
+            Assert.assertFalse(old.containsKey(LumeerConst.Version.HISTORY_DATE_KEY));
+         }
+
+         List<DataDocument> versions = versionFacade.getDocumentVersions(TEST_DELTA, documentId);
+         Assert.assertEquals(versions.size(), 7);
+         for (int version = 1; version <= 7; version++) {
+            Assert.assertEquals(versionFacade.getDocumentVersion(versions.get(version - 1)), version);
+         }
+
+         // history written with one snapshot interval stays readable after the interval changes
+         versionFacade.setHistorySettings(LumeerConst.Version.HISTORY_MODE_DELTA, 2, 0, 0);
+         Assert.assertEquals(versionFacade.readOldDocumentVersion(TEST_DELTA, documentId, 1).getString("dog"), "cat");
+         Assert.assertEquals(versionFacade.readOldDocumentVersion(TEST_DELTA, documentId, 4).get("count"), 4);
+      } finally {
+         versionFacade.resetHistorySettings();
+      }
+   }
+
+   @Test
+   public void testHistoryRetention() throws Exception {
+      versionFacade.setHistorySettings(LumeerConst.Version.HISTORY_MODE_FULL, 10, 2, 0);
+      try {
+         String shadow = createCollection(TEST_RETENTION);
+         String documentId = dataStorage.createDocument(TEST_RETENTION, createTestDocument());
+         DataDocument document = dataStorage.readDocument(TEST_RETENTION, documentId);
+         for (int i = 1; i <= 5; i++) {
+            versionFacade.newDocumentVersion(TEST_RETENTION, document);
+         }
+
+         Assert.assertNull(dataStorage.readOldDocument(shadow, documentId, 3));
+         Assert.assertNotNull(dataStorage.readOldDocument(shadow, documentId, 4));
+         Assert.assertNotNull(dataStorage.readOldDocument(shadow, documentId, 5));
+         Assert.assertEquals(versionFacade.getDocumentVersions(TEST_RETENTION, documentId).size(), 3);
+      } finally {
+         versionFacade.resetHistorySettings();
+      }
+   }
+
+   @Test
+   public void testPagedVersions() throws Exception {
+      versionFacade.setHistorySettings(LumeerConst.Version.HISTORY_MODE_DELTA, 3, 0, 0);
+      try {
+         createCollection(TEST_PAGED);
+         String documentId = dataStorage.createDocument(TEST_PAGED, createTestDocument());
+         for (int i = 2; i <= 9; i++) {
+            DataDocument change = new DataDocument("count", i).append(LumeerConst.Document.UPDATE_DATE_KEY, "date" + i);
+            change.setId(documentId);
+            versionFacade.newDocumentVersion(TEST_PAGED, change, i - 1);
+         }
+
+         List<DataDocument> firstPage = versionFacade.getDocumentVersions(TEST_PAGED, documentId, 0, 3, Arrays.asList("count"), false);
+         Assert.assertEquals(firstPage.size(), 3);
+         for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(versionFacade.getDocumentVersion(firstPage.get(i)), 9 - i);
+            Assert.assertEquals(firstPage.get(i).getInteger("count"), Integer.valueOf(9 - i));
+            Assert.assertFalse(firstPage.get(i).containsKey("dog"));
+         }
+
+         List<DataDocument> page = versionFacade.getDocumentVersions(TEST_PAGED, documentId, 4, 2, null, false);
+         Assert.assertEquals(page.size(), 2);
+         Assert.assertEquals(versionFacade.getDocumentVersion(page.get(0)), 5);
+         Assert.assertEquals(page.get(0).getInteger("count"), Integer.valueOf(5));
+         Assert.assertEquals(page.get(1).getInteger("count"), Integer.valueOf(4));
+         Assert.assertEquals(page.get(1).getString("dog"), "cat");
+
+         List<DataDocument> metadata = versionFacade.getDocumentVersions(TEST_PAGED, documentId, 0, 0, null, true);
+         Assert.assertEquals(metadata.size(), 9);
+         Assert.assertEquals(metadata.get(2).getString(LumeerConst.Document.UPDATE_DATE_KEY), "date7");
+         Assert.assertFalse(metadata.get(2).containsKey("count"));
+         Assert.assertEquals(versionFacade.getDocumentVersion(metadata.get(8)), 1);
+      } finally {
+         versionFacade.resetHistorySettings();
+      }
+   }
+
    /* @Test
     public void testDeleteShadow(){
        if (dataStorage.hasCollection(TEST_DELETE + SHADOW)) dataStorage.dropCollection(TEST_DELETE + SHADOW);
@@ -0,0 +1,241 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.push;
+
+import io.lumeer.engine.api.LumeerConst;
+import io.lumeer.engine.api.batch.SplitBatch;
+import io.lumeer.engine.api.data.DataDocument;
+import io.lumeer.engine.api.event.DropDocument;
+import io.lumeer.engine.api.event.UpdateDocument;
+import io.lumeer.engine.api.exception.DbException;
+import io.lumeer.engine.controller.BatchFacade;
+import io.lumeer.engine.controller.CollectionFacade;
+import io.lumeer.engine.controller.CollectionMetadataFacade;
+import io.lumeer.engine.controller.DocumentFacade;
+import io.lumeer.engine.controller.configuration.DefaultConfigurationProducer;
+
+import org.bson.Document;
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.testng.Arquillian;
+import org.jboss.shrinkwrap.api.Archive;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.EmptyAsset;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.enterprise.event.Event;
+import javax.inject.Inject;
+
+/**
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class DocumentChangeAggregatorTest extends Arquillian {
+
+   @Deployment
+   public static Archive<?> createTestArchive() {
+      return ShrinkWrap.create(WebArchive.class, "DocumentChangeAggregatorTest.war")
+                       .addPackages(true, "io.lumeer", "org.bson", "com.mongodb", "io.netty")
+                       .addAsWebInfResource(EmptyAsset.INSTANCE, "beans.xml")
+                       .addAsWebInfResource("jboss-deployment-structure.xml")
+                       .addAsResource("defaults-ci.properties")
+                       .addAsResource("defaults-dev.properties");
+   }
+
+   private static final long RECEIVE_TIMEOUT = 5000L;
+
+   private static final long SILENCE_TIMEOUT = 1000L;
+
+   private static final String COLLECTION_WINDOW = "documentChangeAggregatorWindow";
+   private static final String COLLECTION_THRESHOLD = "documentChangeAggregatorThreshold";
+   private static final String COLLECTION_FACADES = "documentChangeAggregatorFacades";
+
+   @Inject
+   private PushService pushService;
+
+   @Inject
+   private DocumentChangeAggregator documentChangeAggregator;
+
+   @Inject
+   private DefaultConfigurationProducer defaultConfigurationProducer;
+
+   @Inject
+   private Event<UpdateDocument> updateDocumentEvent;
+
+   @Inject
+   private Event<DropDocument> dropDocumentEvent;
+
+   @Inject
+   private DocumentFacade documentFacade;
+
+   @Inject
+   private BatchFacade batchFacade;
+
+   @Inject
+   private CollectionFacade collectionFacade;
+
+   @Inject
+   private CollectionMetadataFacade collectionMetadataFacade;
+
+   @Test
+   public void testChangesAreSentAfterWindow() throws Exception {
+      final RecordingSession client = observe(COLLECTION_WINDOW);
+      final long window = Long.parseLong(defaultConfigurationProducer.get(LumeerConst.PUSH_NOTIFICATION_WINDOW_PROPERTY));
+
+      try {
+         final long start = System.nanoTime();
+         updateDocumentEvent.fire(new UpdateDocument(COLLECTION_WINDOW, new DataDocument(LumeerConst.Document.ID, "1").append("name", "John")));
+         updateDocumentEvent.fire(new UpdateDocument(COLLECTION_WINDOW, new DataDocument(LumeerConst.Document.ID, "1").append("age", 42)
+                                                                                                                     .append(LumeerConst.Document.UPDATE_DATE_KEY, "now")));
+         dropDocumentEvent.fire(new DropDocument(COLLECTION_WINDOW, new DataDocument(LumeerConst.Document.ID, "2")));
+
+         // all changes of the window arrive in a single message once the window is closed
+         final String message = client.getSent().poll(RECEIVE_TIMEOUT, TimeUnit.MILLISECONDS);
+         Assert.assertNotNull(message);
+         Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= window);
+         Assert.assertNull(client.getSent().poll(SILENCE_TIMEOUT, TimeUnit.MILLISECONDS));
+
+         final Document changes = Document.parse(message);
+         Assert.assertEquals(changes.getString("type"), "DocumentsChanged");
+         Assert.assertEquals(changes.getString("resource"), "collection:" + COLLECTION_WINDOW);
+         Assert.assertEquals(getUpdatedAttributes(changes, "1"), new HashSet<>(Arrays.asList("name", "age")));
+         Assert.assertEquals(changes.get("dropped", List.class), Collections.singletonList("2"));
+
+         // a change after the window was sent opens a new window
+         updateDocumentEvent.fire(new UpdateDocument(COLLECTION_WINDOW, new DataDocument(LumeerConst.Document.ID, "1").append("city", "Brno")));
+         final String next = client.getSent().poll(RECEIVE_TIMEOUT, TimeUnit.MILLISECONDS);
+         Assert.assertNotNull(next);
+         Assert.assertEquals(getUpdatedAttributes(Document.parse(next), "1"), Collections.singleton("city"));
+      } finally {
+         pushService.removeSession(client.getSession());
+      }
+   }
+
+   @Test
+   public void testManyChangesCollapseToCollectionChange() throws Exception {
+      final RecordingSession client = observe(COLLECTION_THRESHOLD);
+      final int threshold = documentChangeAggregator.getThreshold();
+
+      try {
+         fireUpdates(COLLECTION_THRESHOLD, threshold);
+         final Document listed = Document.parse(client.getSent().poll(RECEIVE_TIMEOUT, TimeUnit.MILLISECONDS));
+         Assert.assertEquals(listed.getString("type"), "DocumentsChanged");
+         Assert.assertEquals(listed.get("updated", List.class).size(), threshold);
+
+         fireUpdates(COLLECTION_THRESHOLD, threshold + 1);
+         final Document collapsed = Document.parse(client.getSent().poll(RECEIVE_TIMEOUT, TimeUnit.MILLISECONDS));
+         Assert.assertEquals(collapsed.getString("type"), "CollectionChanged");
+         Assert.assertEquals(collapsed.getString("resource"), "collection:" + COLLECTION_THRESHOLD);
+         Assert.assertEquals(collapsed.getInteger("documents").intValue(), threshold + 1);
+         Assert.assertNull(client.getSent().poll(SILENCE_TIMEOUT, TimeUnit.MILLISECONDS));
+      } finally {
+         pushService.removeSession(client.getSession());
+      }
+   }
+
+   @Test
+   public void testFacadeChangesAreMerged() throws Exception {
+      final String coll = setUpCollection(COLLECTION_FACADES);
+      final String id = documentFacade.createDocument(coll, new DataDocument("name", "John Smith"));
+      final RecordingSession client = observe(coll);
+
+      try {
+         drain(client);
+         documentFacade.updateDocument(coll, new DataDocument(LumeerConst.Document.ID, id).append("age", 42));
+         Assert.assertEquals(batchFacade.executeBatch(new SplitBatch(coll, "name", " ", true, Arrays.asList("firstName", "lastName"), true), null, null), 1);
+
+         // the changes fall into a single window unless the batch takes longer than the window
+         final Set<String> attributes = new HashSet<>();
+         String message = client.getSent().poll(RECEIVE_TIMEOUT, TimeUnit.MILLISECONDS);
+         Assert.assertNotNull(message);
+         while (message != null) {
+            final Document changes = Document.parse(message);
+            Assert.assertEquals(changes.getString("type"), "DocumentsChanged");
+            attributes.addAll(getUpdatedAttributes(changes, id));
+            message = client.getSent().poll(SILENCE_TIMEOUT, TimeUnit.MILLISECONDS);
+         }
+
+         Assert.assertTrue(attributes.containsAll(Arrays.asList("age", "firstName", "lastName")), attributes.toString());
+      } finally {
+         pushService.removeSession(client.getSession());
+      }
+   }
+
+   // connects an authenticated client observing the collection
+   private RecordingSession observe(final String collectionName) {
+      final RecordingSession client = new RecordingSession("documents", true);
+      final String token = UUID.randomUUID().toString();
+
+      pushService.registerToken(token);
+      pushService.addSession(client.getSession());
+      Assert.assertTrue(pushService.authenticate(client.getSession(), token));
+      pushService.getObservedObjects().computeIfAbsent(collectionName, k -> ConcurrentHashMap.newKeySet()).add(client.getSession());
+
+      return client;
+   }
+
+   private void fireUpdates(final String collectionName, final int count) {
+      for (int i = 0; i < count; i++) {
+         updateDocumentEvent.fire(new UpdateDocument(collectionName, new DataDocument(LumeerConst.Document.ID, "document" + i).append("value", i)));
+      }
+   }
+
+   // gets names of the changed attributes of the document listed in the message
+   @SuppressWarnings("unchecked")
+   private static Set<String> getUpdatedAttributes(final Document changes, final String documentId) {
+      for (final Document updated : (List<Document>) changes.get("updated", List.class)) {
+         if (documentId.equals(updated.getString("_id"))) {
+            return new HashSet<>((List<String>) updated.get("attributes", List.class));
+         }
+      }
+
+      return Collections.emptySet();
+   }
+
+   // drops messages about changes made before the test
+   private static void drain(final RecordingSession client) throws InterruptedException {
+      String message;
+      do {
+         message = client.getSent().poll(SILENCE_TIMEOUT, TimeUnit.MILLISECONDS);
+      } while (message != null);
+   }
+
+   private String setUpCollection(final String collection) {
+      try {
+         collectionFacade.dropCollection(collectionMetadataFacade.getInternalCollectionName(collection));
+      } catch (DbException e) {
+         // nothing to do
+      }
+      try {
+         return collectionFacade.createCollection(collection);
+      } catch (DbException e) {
+         e.printStackTrace();
+      }
+      return null;
+   }
+}
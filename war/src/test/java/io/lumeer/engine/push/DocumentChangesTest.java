@@ -0,0 +1,76 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.push;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+/**
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class DocumentChangesTest {
+
+   @Test
+   public void testUpdatesAreMerged() {
+      final DocumentChanges changes = new DocumentChanges("collection");
+
+      Assert.assertTrue(changes.update("1", Arrays.asList("name", "age")));
+      Assert.assertTrue(changes.update("2", Collections.singletonList("name")));
+      Assert.assertTrue(changes.update("1", Arrays.asList("age", "city")));
+      changes.close();
+
+      Assert.assertEquals(changes.size(), 2);
+      Assert.assertEquals(changes.getUpdatedDocuments().keySet(), new HashSet<>(Arrays.asList("1", "2")));
+      Assert.assertEquals(changes.getUpdatedDocuments().get("1"), new HashSet<>(Arrays.asList("name", "age", "city")));
+      Assert.assertTrue(changes.getDroppedDocuments().isEmpty());
+   }
+
+   @Test
+   public void testDropWins() {
+      final DocumentChanges changes = new DocumentChanges("collection");
+
+      changes.update("1", Collections.singletonList("name"));
+      Assert.assertTrue(changes.drop("1"));
+      changes.update("1", Collections.singletonList("age"));
+      changes.close();
+
+      Assert.assertEquals(changes.size(), 1);
+      Assert.assertTrue(changes.getUpdatedDocuments().isEmpty());
+      Assert.assertEquals(changes.getDroppedDocuments(), Collections.singleton("1"));
+   }
+
+   @Test
+   public void testClosedChangesAreNotRecorded() {
+      final DocumentChanges changes = new DocumentChanges("collection");
+
+      changes.update("1", Collections.singletonList("name"));
+      changes.close();
+
+      Assert.assertFalse(changes.update("1", Collections.singletonList("age")));
+      Assert.assertFalse(changes.update("2", Collections.singletonList("age")));
+      Assert.assertFalse(changes.drop("1"));
+      Assert.assertEquals(changes.getUpdatedDocuments().get("1"), Collections.singleton("name"));
+      Assert.assertEquals(changes.size(), 1);
+   }
+}
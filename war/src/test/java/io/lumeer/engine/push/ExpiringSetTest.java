@@ -0,0 +1,114 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.push;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class ExpiringSetTest {
+
+   private static final long TIME_TO_LIVE = 400;
+
+   @Test
+   public void testElementExpires() throws Exception {
+      final ExpiringSet<String> set = new ExpiringSet<>(TimeUnit.MILLISECONDS.toNanos(TIME_TO_LIVE));
+      final List<String> expired = new ArrayList<>();
+
+      set.add("a");
+      Assert.assertTrue(set.contains("a"));
+      Assert.assertFalse(set.contains("b"));
+
+      set.expire(expired::add);
+      Assert.assertTrue(expired.isEmpty());
+      Assert.assertEquals(set.size(), 1);
+
+      Thread.sleep(TIME_TO_LIVE + 100);
+      Assert.assertFalse(set.contains("a"));
+      Assert.assertEquals(set.size(), 1);
+
+      set.expire(expired::add);
+      Assert.assertEquals(expired, Collections.singletonList("a"));
+      Assert.assertEquals(set.size(), 0);
+      Assert.assertFalse(set.remove("a"));
+   }
+
+   @Test
+   public void testAddingAgainProlongsExpiration() throws Exception {
+      final ExpiringSet<String> set = new ExpiringSet<>(TimeUnit.MILLISECONDS.toNanos(TIME_TO_LIVE));
+      final List<String> expired = new ArrayList<>();
+
+      set.add("a");
+      Thread.sleep(TIME_TO_LIVE / 2);
+      set.add("a");
+      Thread.sleep(TIME_TO_LIVE / 2 + 100);
+
+      // only the first entry of the element is due, the element itself is still alive
+      set.expire(expired::add);
+      Assert.assertTrue(expired.isEmpty());
+      Assert.assertTrue(set.contains("a"));
+      Assert.assertEquals(set.size(), 1);
+
+      Thread.sleep(TIME_TO_LIVE / 2);
+      set.expire(expired::add);
+      Assert.assertEquals(expired, Collections.singletonList("a"));
+      Assert.assertFalse(set.contains("a"));
+   }
+
+   @Test
+   public void testExpiringSkipsRemovedElements() throws Exception {
+      final ExpiringSet<String> set = new ExpiringSet<>(TimeUnit.MILLISECONDS.toNanos(TIME_TO_LIVE));
+      final List<String> expired = new ArrayList<>();
+
+      set.add("a");
+      set.add("b");
+      set.add("c");
+      set.add("d");
+
+      // removed out of the order they were added in
+      Assert.assertTrue(set.remove("c"));
+      Assert.assertTrue(set.remove("a"));
+      Assert.assertFalse(set.remove("a"));
+      Assert.assertEquals(set.size(), 2);
+
+      Thread.sleep(TIME_TO_LIVE / 2);
+      set.add("e");
+      Thread.sleep(TIME_TO_LIVE / 2 + 100);
+
+      set.expire(expired::add);
+      Assert.assertEquals(expired, Arrays.asList("b", "d"));
+      Assert.assertTrue(set.contains("e"));
+      Assert.assertEquals(set.size(), 1);
+
+      Assert.assertTrue(set.remove("e"));
+      Thread.sleep(TIME_TO_LIVE / 2);
+      set.expire(expired::add);
+      Assert.assertEquals(expired, Arrays.asList("b", "d"));
+      Assert.assertEquals(set.size(), 0);
+   }
+}
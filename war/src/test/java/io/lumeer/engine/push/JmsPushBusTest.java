@@ -0,0 +1,195 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.push;
+
+import io.lumeer.engine.api.LumeerConst;
+import io.lumeer.engine.controller.configuration.DefaultConfigurationProducer;
+
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.testng.Arquillian;
+import org.jboss.shrinkwrap.api.Archive;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.EmptyAsset;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSConsumer;
+import javax.jms.JMSContext;
+import javax.jms.Message;
+import javax.jms.Topic;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+
+/**
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class JmsPushBusTest extends Arquillian {
+
+   @Deployment
+   public static Archive<?> createTestArchive() {
+      return ShrinkWrap.create(WebArchive.class, "JmsPushBusTest.war")
+                       .addPackages(true, "io.lumeer", "org.bson", "com.mongodb", "io.netty")
+                       .addAsWebInfResource(EmptyAsset.INSTANCE, "beans.xml")
+                       .addAsWebInfResource("jboss-deployment-structure.xml")
+                       .addAsResource("defaults-ci.properties")
+                       .addAsResource("defaults-dev.properties");
+   }
+
+   private static final long RECEIVE_TIMEOUT = 5000L;
+
+   private static final long SILENCE_TIMEOUT = 2000L;
+
+   private static final String OTHER_NODE = "other-node";
+
+   @Inject
+   private JmsPushBus jmsPushBus;
+
+   @Inject
+   private DefaultConfigurationProducer defaultConfigurationProducer;
+
+   @Inject
+   private PushService pushService;
+
+   @Test
+   public void testPublishToOtherNodes() throws Exception {
+      final ConnectionFactory connectionFactory = InitialContext.doLookup(defaultConfigurationProducer.get(LumeerConst.PUSH_BUS_CONNECTION_FACTORY_PROPERTY));
+      final Topic topic = InitialContext.doLookup(defaultConfigurationProducer.get(LumeerConst.PUSH_BUS_TOPIC_PROPERTY));
+
+      try (JMSContext context = connectionFactory.createContext(defaultConfigurationProducer.get(LumeerConst.PUSH_BUS_USER_PROPERTY),
+            defaultConfigurationProducer.get(LumeerConst.PUSH_BUS_PASSWORD_PROPERTY));
+           JMSConsumer consumer = context.createConsumer(topic)) {
+         jmsPushBus.publish(PushEnvelope.channelMessage("chat", "Hello cluster"));
+
+         final Message message = consumer.receive(RECEIVE_TIMEOUT);
+         Assert.assertNotNull(message);
+         Assert.assertEquals(message.getStringProperty(JmsPushBus.NODE_PROPERTY), jmsPushBus.getNodeId());
+         final PushEnvelope envelope = message.getBody(PushEnvelope.class);
+         Assert.assertEquals(envelope.getType(), PushEnvelope.Type.CHANNEL);
+         Assert.assertEquals(envelope.getChannel(), "chat");
+         Assert.assertEquals(envelope.getMessage(), "Hello cluster");
+
+         final DocumentChanges changes = new DocumentChanges("collection");
+         changes.update("1", Arrays.asList("name", "age"));
+         changes.update("1", Collections.singletonList("city"));
+         changes.drop("2");
+         changes.close();
+         jmsPushBus.publish(PushEnvelope.documentChanges(changes, 100));
+
+         final DocumentChanges received = consumer.receiveBody(PushEnvelope.class, RECEIVE_TIMEOUT).getDocumentChanges();
+         Assert.assertEquals(received.getCollectionName(), "collection");
+         Assert.assertEquals(received.getUpdatedDocuments().get("1"), new HashSet<>(Arrays.asList("name", "age", "city")));
+         Assert.assertEquals(received.getDroppedDocuments(), Collections.singleton("2"));
+      }
+   }
+
+   @Test
+   public void testReceiveFromOtherNodes() throws Exception {
+      final RecordingSession client = new RecordingSession("cluster", true);
+      connect(client);
+      pushService.getObservedObjects().computeIfAbsent("collection", k -> ConcurrentHashMap.newKeySet()).add(client.getSession());
+
+      try (JMSContext context = createContext()) {
+         jmsPushBus.startReceiver();
+         awaitReceiver(context, client);
+
+         // notifications of this node are filtered out by the selector, the other node is delivered to local clients
+         send(context, jmsPushBus.getNodeId(), PushEnvelope.channelMessage("cluster", "From this node"));
+         send(context, OTHER_NODE, PushEnvelope.channelMessage("cluster", "From other node"));
+         Assert.assertEquals(client.getSent().poll(RECEIVE_TIMEOUT, TimeUnit.MILLISECONDS), "From other node");
+         Assert.assertNull(client.getSent().poll(SILENCE_TIMEOUT, TimeUnit.MILLISECONDS));
+
+         send(context, OTHER_NODE, PushEnvelope.channelMessage("other", "Other channel"));
+         Assert.assertNull(client.getSent().poll(SILENCE_TIMEOUT, TimeUnit.MILLISECONDS));
+
+         final DocumentChanges changes = new DocumentChanges("collection");
+         changes.update("1", Collections.singletonList("name"));
+         changes.close();
+         send(context, OTHER_NODE, PushEnvelope.documentChanges(changes, 100));
+
+         final String message = client.getSent().poll(RECEIVE_TIMEOUT, TimeUnit.MILLISECONDS);
+         Assert.assertNotNull(message);
+         Assert.assertTrue(message.contains("DocumentsChanged"));
+         Assert.assertTrue(message.contains("collection:collection"));
+         Assert.assertTrue(message.contains("name"));
+      } finally {
+         jmsPushBus.stop();
+         pushService.removeSession(client.getSession());
+      }
+   }
+
+   // the receiver subscribes on its own thread, messages published before the subscription are lost
+   private void awaitReceiver(final JMSContext context, final RecordingSession client) throws InterruptedException {
+      final String ping = UUID.randomUUID().toString();
+      final long deadline = System.currentTimeMillis() + RECEIVE_TIMEOUT * 2;
+
+      while (System.currentTimeMillis() < deadline) {
+         send(context, OTHER_NODE, PushEnvelope.channelMessage("cluster", ping));
+
+         final String message = client.getSent().poll(200, TimeUnit.MILLISECONDS);
+         if (ping.equals(message)) {
+            drain(client);
+            return;
+         }
+      }
+
+      Assert.fail("The receiver did not subscribe in time.");
+   }
+
+   // drops pings published before the first one was received
+   private static void drain(final RecordingSession client) throws InterruptedException {
+      String message;
+      do {
+         message = client.getSent().poll(SILENCE_TIMEOUT, TimeUnit.MILLISECONDS);
+      } while (message != null);
+   }
+
+   private void connect(final RecordingSession client) {
+      final String token = UUID.randomUUID().toString();
+
+      pushService.registerToken(token);
+      pushService.addSession(client.getSession());
+      Assert.assertTrue(pushService.authenticate(client.getSession(), token));
+   }
+
+   private JMSContext createContext() throws Exception {
+      final ConnectionFactory connectionFactory = InitialContext.doLookup(defaultConfigurationProducer.get(LumeerConst.PUSH_BUS_CONNECTION_FACTORY_PROPERTY));
+
+      return connectionFactory.createContext(defaultConfigurationProducer.get(LumeerConst.PUSH_BUS_USER_PROPERTY),
+            defaultConfigurationProducer.get(LumeerConst.PUSH_BUS_PASSWORD_PROPERTY));
+   }
+
+   private void send(final JMSContext context, final String nodeId, final PushEnvelope envelope) {
+      try {
+         final Topic topic = InitialContext.doLookup(defaultConfigurationProducer.get(LumeerConst.PUSH_BUS_TOPIC_PROPERTY));
+         context.createProducer().setProperty(JmsPushBus.NODE_PROPERTY, nodeId).send(topic, envelope);
+      } catch (NamingException e) {
+         throw new IllegalStateException(e);
+      }
+   }
+}
@@ -0,0 +1,129 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.push;
+
+import io.lumeer.engine.api.push.PushMessage;
+
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.testng.Arquillian;
+import org.jboss.shrinkwrap.api.Archive;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.EmptyAsset;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import javax.inject.Inject;
+
+/**
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class PushServiceTest extends Arquillian {
+
+   @Deployment
+   public static Archive<?> createTestArchive() {
+      return ShrinkWrap.create(WebArchive.class, "PushServiceTest.war")
+                       .addPackages(true, "io.lumeer", "org.bson", "com.mongodb", "io.netty")
+                       .addAsWebInfResource(EmptyAsset.INSTANCE, "beans.xml")
+                       .addAsWebInfResource("jboss-deployment-structure.xml")
+                       .addAsResource("defaults-ci.properties")
+                       .addAsResource("defaults-dev.properties");
+   }
+
+   @Inject
+   private PushService pushService;
+
+   @Test
+   public void testMessagesAreSentToChannel() {
+      final RecordingSession chat1 = connect("chat");
+      final RecordingSession chat2 = connect("chat");
+      final RecordingSession news = connect("news");
+      final RecordingSession unauthenticated = new RecordingSession("chat", true);
+      pushService.addSession(unauthenticated.getSession());
+
+      try {
+         pushService.publishMessage("chat", "Hello chat");
+         Assert.assertEquals(sent(chat1), Collections.singletonList("Hello chat"));
+         Assert.assertEquals(sent(chat2), Collections.singletonList("Hello chat"));
+         Assert.assertTrue(sent(news).isEmpty());
+         Assert.assertTrue(sent(unauthenticated).isEmpty());
+
+         pushService.publishMessage("other", "Nobody listens");
+         pushService.publishMessage("", "Hello all");
+         Assert.assertEquals(sent(chat1), Collections.singletonList("Hello all"));
+         Assert.assertEquals(sent(news), Collections.singletonList("Hello all"));
+         Assert.assertTrue(sent(unauthenticated).isEmpty());
+
+         // a closed session is removed from its channel
+         pushService.removeSession(chat1.getSession());
+         pushService.publishMessage("chat", "Still here");
+         Assert.assertTrue(sent(chat1).isEmpty());
+         Assert.assertEquals(sent(chat2), Collections.singletonList("Still here"));
+      } finally {
+         pushService.removeSession(chat1.getSession());
+         pushService.removeSession(chat2.getSession());
+         pushService.removeSession(news.getSession());
+         pushService.removeSession(unauthenticated.getSession());
+      }
+   }
+
+   @Test
+   public void testMessageIsSentToSession() {
+      final RecordingSession chat = connect("chat");
+      final RecordingSession other = connect("chat");
+
+      try {
+         pushService.publishMessage(chat.getSession().getId(), "chat", new PushMessage("info", "chat", "Only for you"));
+         pushService.publishMessage(chat.getSession().getId(), "news", new PushMessage("info", "news", "Wrong channel"));
+
+         final List<String> messages = sent(chat);
+         Assert.assertEquals(messages.size(), 1);
+         Assert.assertTrue(messages.get(0).contains("Only for you"));
+         Assert.assertTrue(sent(other).isEmpty());
+      } finally {
+         pushService.removeSession(chat.getSession());
+         pushService.removeSession(other.getSession());
+      }
+   }
+
+   // connects an authenticated client whose sends complete immediately
+   private RecordingSession connect(final String channel) {
+      final RecordingSession client = new RecordingSession(channel, true);
+      final String token = UUID.randomUUID().toString();
+
+      pushService.registerToken(token);
+      pushService.addSession(client.getSession());
+      Assert.assertTrue(pushService.authenticate(client.getSession(), token));
+
+      return client;
+   }
+
+   // takes the messages sent so far
+   private static List<String> sent(final RecordingSession client) {
+      final List<String> messages = new ArrayList<>();
+      client.getSent().drainTo(messages);
+
+      return messages;
+   }
+}
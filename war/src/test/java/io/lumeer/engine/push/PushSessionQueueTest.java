@@ -0,0 +1,109 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.push;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+public class PushSessionQueueTest {
+
+   @Test
+   public void testMessagesAreSentOneAfterAnother() {
+      final RecordingSession client = new RecordingSession("channel", false);
+      final PushSessionQueue queue = new PushSessionQueue(client.getSession(), 10);
+
+      queue.offer(null, "first");
+      queue.offer(null, "second");
+      queue.offer(null, "third");
+
+      // the next message waits until the previous send completes
+      Assert.assertEquals(sent(client), Collections.singletonList("first"));
+      client.completeSend();
+      Assert.assertEquals(sent(client), Collections.singletonList("second"));
+      client.completeSend();
+      client.completeSend();
+      Assert.assertEquals(sent(client), Collections.singletonList("third"));
+
+      // an idle queue sends right away
+      queue.offer(null, "fourth");
+      Assert.assertEquals(sent(client), Collections.singletonList("fourth"));
+      Assert.assertEquals(queue.getDropped(), 0);
+   }
+
+   @Test
+   public void testMessagesAreCoalesced() {
+      final RecordingSession client = new RecordingSession("channel", false);
+      final PushSessionQueue queue = new PushSessionQueue(client.getSession(), 10);
+
+      queue.offer("document:1", "in flight");
+      queue.offer("document:1", "first 1");
+      queue.offer(null, "plain");
+      queue.offer("document:2", "first 2");
+      queue.offer("document:1", "second 1");
+      queue.offer(null, "plain");
+
+      // the latest message of a key takes the place of the first queued one, messages without a key are never replaced
+      completeAll(client);
+      Assert.assertEquals(sent(client), Arrays.asList("in flight", "second 1", "plain", "first 2", "plain"));
+      Assert.assertEquals(queue.getDropped(), 0);
+   }
+
+   @Test
+   public void testOldestMessagesAreDropped() {
+      final RecordingSession client = new RecordingSession("channel", false);
+      final PushSessionQueue queue = new PushSessionQueue(client.getSession(), 3);
+
+      queue.offer(null, "in flight");
+      for (int i = 0; i < 5; i++) {
+         queue.offer("key" + i, "message " + i);
+      }
+      Assert.assertEquals(queue.getDropped(), 2);
+
+      // replacing a queued message does not need any room
+      queue.offer("key3", "message 3 again");
+      Assert.assertEquals(queue.getDropped(), 2);
+
+      completeAll(client);
+      Assert.assertEquals(sent(client), Arrays.asList("in flight", "message 2", "message 3 again", "message 4"));
+   }
+
+   // completes sends until there is nothing more to send
+   private static void completeAll(final RecordingSession client) {
+      for (int i = 0; i < 20; i++) {
+         client.completeSend();
+      }
+   }
+
+   // takes the messages sent so far
+   private static List<String> sent(final RecordingSession client) {
+      final List<String> messages = new ArrayList<>();
+      client.getSent().drainTo(messages);
+
+      return messages;
+   }
+}
@@ -0,0 +1,140 @@
+/*
+ * -----------------------------------------------------------------------\
+ * Lumeer
+ *  
+ * Copyright (C) 2016 - 2017 the original author or authors.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -----------------------------------------------------------------------/
+ */
+package io.lumeer.engine.push;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+/**
+ * WebSocket session connected to a channel that records the messages sent to the client.
+ *
+ * @author <a href="mailto:marvenec@gmail.com">Martin Večeřa</a>
+ */
+final class RecordingSession {
+
+   private final String id = UUID.randomUUID().toString();
+
+   private final Map<String, String> pathParameters;
+
+   private final Map<String, Object> userProperties = new HashMap<>();
+
+   private final BlockingQueue<String> sent = new LinkedBlockingQueue<>();
+
+   private final Queue<SendHandler> pending = new ArrayDeque<>();
+
+   private final boolean completeSends;
+
+   private final Session session;
+
+   /**
+    * Creates a session.
+    *
+    * @param channel
+    *       The channel the session is connected to.
+    * @param completeSends
+    *       Whether the sends complete immediately, otherwise they wait for {@link #completeSend()}.
+    */
+   RecordingSession(final String channel, final boolean completeSends) {
+      this.pathParameters = Collections.singletonMap(PushService.CHANNEL_PARAMETER, channel);
+      this.completeSends = completeSends;
+
+      final RemoteEndpoint.Async remote = (RemoteEndpoint.Async) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { RemoteEndpoint.Async.class },
+            (proxy, method, args) -> {
+               if ("sendText".equals(method.getName()) && args.length == 2) {
+                  send((String) args[0], (SendHandler) args[1]);
+               }
+               return null;
+            });
+
+      this.session = (Session) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Session.class },
+            (proxy, method, args) -> {
+               switch (method.getName()) {
+                  case "getId":
+                     return id;
+                  case "getPathParameters":
+                     return pathParameters;
+                  case "getUserProperties":
+                     return userProperties;
+                  case "isOpen":
+                     return true;
+                  case "getAsyncRemote":
+                     return remote;
+                  case "hashCode":
+                     return id.hashCode();
+                  case "equals":
+                     return proxy == args[0];
+                  case "toString":
+                     return "RecordingSession " + id;
+                  default:
+                     throw new UnsupportedOperationException(method.getName());
+               }
+            });
+   }
+
+   Session getSession() {
+      return session;
+   }
+
+   /**
+    * Gets the messages sent to the client in the order they were sent.
+    *
+    * @return The sent messages.
+    */
+   BlockingQueue<String> getSent() {
+      return sent;
+   }
+
+   /**
+    * Completes the oldest pending send.
+    */
+   void completeSend() {
+      final SendHandler handler;
+      synchronized (this) {
+         handler = pending.poll();
+      }
+
+      if (handler != null) {
+         handler.onResult(new SendResult());
+      }
+   }
+
+   private void send(final String message, final SendHandler handler) {
+      sent.add(message);
+
+      if (completeSends) {
+         handler.onResult(new SendResult());
+      } else {
+         synchronized (this) {
+            pending.add(handler);
+         }
+      }
+   }
+}
@@ -19,9 +19,11 @@
  */
 package io.lumeer.engine.rest;
 
+import io.lumeer.engine.api.LumeerConst;
 import io.lumeer.engine.api.batch.SplitBatch;
 import io.lumeer.engine.api.data.DataDocument;
 import io.lumeer.engine.api.data.Query;
+import io.lumeer.engine.api.task.TaskState;
 
 import org.jboss.arquillian.container.test.api.Deployment;
 import org.jboss.arquillian.container.test.api.RunAsClient;
@@ -60,6 +62,7 @@ public class BatchServiceTest extends Arquillian {
    private final String TARGET_URI = "http://localhost:8080/";
    private final String PATH_PREFIX = "BatchServiceTest/rest/";
    private final String COLLECTION_NAME = "Supeř Kolekce +ěščřžý";
+   private final String TASK_COLLECTION_NAME = "Batch Task Collection";
 //   private final String PATH_PREFIX = "lumeer-engine/rest/";
 
    @Test
@@ -164,4 +167,52 @@ public class BatchServiceTest extends Arquillian {
       });
    }
 
+   @Test
+   public void testSplitBatchTask() throws Exception {
+      final Client client = ClientBuilder.newBuilder().build();
+      Response response = client.target(TARGET_URI).path(PATH_PREFIX + "collections/" + TASK_COLLECTION_NAME).request(MediaType.APPLICATION_JSON_TYPE).buildDelete().invoke();
+      response.close();
+
+      response = client.target(TARGET_URI).path(PATH_PREFIX + "collections/" + TASK_COLLECTION_NAME).request(MediaType.APPLICATION_JSON_TYPE).buildPost(Entity.text("")).invoke();
+      response.close();
+
+      response = client.target(TARGET_URI)
+                       .path(PATH_PREFIX + "collections/" + TASK_COLLECTION_NAME + "/documents/")
+                       .request(MediaType.APPLICATION_JSON_TYPE)
+                       .buildPost(Entity.json(new DataDocument("name", "Taskie Runner")))
+                       .invoke();
+      response.close();
+
+      response = client.target(TARGET_URI)
+                       .path(PATH_PREFIX + "batch/tasks/split/")
+                       .request(MediaType.APPLICATION_JSON_TYPE)
+                       .buildPost(Entity.json(new SplitBatch(TASK_COLLECTION_NAME, "name", " ", true, Arrays.asList("firstName", "lastName"), false)))
+                       .invoke();
+      final String taskId = response.readEntity(String.class);
+      response.close();
+
+      Assert.assertTrue(taskId != null && taskId.length() > 5);
+
+      String state = TaskState.QUEUED.name();
+      for (int i = 0; i < 100 && !TaskState.valueOf(state).isFinished(); i++) {
+         Thread.sleep(100);
+         response = client.target(TARGET_URI).path(PATH_PREFIX + "batch/tasks/" + taskId).request(MediaType.APPLICATION_JSON_TYPE).buildGet().invoke();
+         state = (String) response.readEntity(LinkedHashMap.class).get(LumeerConst.Task.STATE_KEY);
+         response.close();
+      }
+      Assert.assertEquals(state, TaskState.COMPLETED.name());
+
+      response = client.target(TARGET_URI)
+                       .path(PATH_PREFIX + "query/")
+                       .request(MediaType.APPLICATION_JSON_TYPE)
+                       .buildPost(Entity.json(new Query(new DataDocument("firstName", "Taskie"))))
+                       .invoke();
+      final List<LinkedHashMap> result = response.readEntity(List.class);
+      response.close();
+
+      Assert.assertEquals(result.size(), 1);
+      Assert.assertEquals(result.get(0).get("lastName"), "Runner");
+      Assert.assertFalse(result.get(0).containsKey("name"));
+   }
+
 }